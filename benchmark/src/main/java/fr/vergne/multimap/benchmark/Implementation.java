@@ -0,0 +1,47 @@
+package fr.vergne.multimap.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.impl.BackedMultiMap;
+import fr.vergne.multimap.impl.ConcurrentMultiMap;
+import fr.vergne.multimap.impl.HashIntIntMultiMap;
+import fr.vergne.multimap.impl.OffHeapMultiMap;
+import fr.vergne.multimap.io.Serializer;
+
+/**
+ * The {@link MultiMap} implementations compared by the benchmarks. Adding an
+ * implementation here is enough to have it measured by all of them.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public enum Implementation {
+	BACKED_LISTS(() -> BackedMultiMap.onLists()),
+	BACKED_SETS(() -> BackedMultiMap.onSets()),
+	BACKED_ARRAY_LISTS(() -> new BackedMultiMap<>(new HashMap<>(), () -> new ArrayList<>())),
+	BACKED_COMPACT_LISTS(() -> BackedMultiMap.onCompactLists()),
+	BACKED_COMPACT_SETS(() -> BackedMultiMap.onCompactSets()),
+	CONCURRENT_LISTS(() -> ConcurrentMultiMap.onLists()),
+	CONCURRENT_SETS(() -> ConcurrentMultiMap.onSets()),
+	HASH_INT_INT_LISTS(() -> HashIntIntMultiMap.onLists().asMultiMap()),
+	HASH_INT_INT_SETS(() -> HashIntIntMultiMap.onSets().asMultiMap()),
+	OFF_HEAP_LISTS(() -> OffHeapMultiMap.onLists(Serializer.ofIntegers(), Serializer.ofIntegers())),
+	OFF_HEAP_SETS(() -> OffHeapMultiMap.onSets(Serializer.ofIntegers(), Serializer.ofIntegers()));
+
+	private final Supplier<MultiMap<Integer, Integer>> factory;
+
+	private Implementation(Supplier<MultiMap<Integer, Integer>> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * 
+	 * @return a new empty {@link MultiMap}
+	 */
+	public MultiMap<Integer, Integer> create() {
+		return factory.get();
+	}
+}
@@ -0,0 +1,72 @@
+package fr.vergne.multimap.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The distributions used to pick the keys accessed by the benchmarks.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public enum KeyDistribution {
+	/**
+	 * All the keys have the same probability.
+	 */
+	UNIFORM {
+		@Override
+		public int[] sample(int keys, int samples, Random random) {
+			int[] sample = new int[samples];
+			for (int index = 0; index < samples; index++) {
+				sample[index] = random.nextInt(keys);
+			}
+			return sample;
+		}
+	},
+	/**
+	 * The probability of the key of rank <i>r</i> is proportional to
+	 * 1/<i>r</i><sup>{@value #ZIPF_EXPONENT}</sup>, so a few hot keys get most
+	 * of the accesses, like in YCSB. The ranks are shuffled, so hot keys are not
+	 * the first ones inserted.
+	 */
+	ZIPFIAN {
+		@Override
+		public int[] sample(int keys, int samples, Random random) {
+			double[] cumulated = new double[keys];
+			double total = 0;
+			for (int rank = 0; rank < keys; rank++) {
+				total += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+				cumulated[rank] = total;
+			}
+			int[] keyOfRank = new int[keys];
+			for (int key = 0; key < keys; key++) {
+				int other = random.nextInt(key + 1);
+				keyOfRank[key] = keyOfRank[other];
+				keyOfRank[other] = key;
+			}
+
+			int[] sample = new int[samples];
+			for (int index = 0; index < samples; index++) {
+				int rank = Arrays.binarySearch(cumulated, random.nextDouble() * total);
+				rank = rank < 0 ? Math.min(-rank - 1, keys - 1) : rank;
+				sample[index] = keyOfRank[rank];
+			}
+			return sample;
+		}
+	};
+
+	public static final double ZIPF_EXPONENT = 0.99;
+
+	/**
+	 * 
+	 * @param keys
+	 *            the number of keys, identified from 0 (included) to
+	 *            <code>keys</code> (excluded)
+	 * @param samples
+	 *            the number of keys to pick
+	 * @param random
+	 *            the source of randomness
+	 * @return the keys picked
+	 */
+	public abstract int[] sample(int keys, int samples, Random random);
+}
@@ -0,0 +1,234 @@
+package fr.vergne.multimap.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.vergne.multimap.Batch;
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * Benchmarks of the {@link MultiMap} operations, for each
+ * {@link Implementation}, number of keys, number of values per key, and
+ * {@link KeyDistribution}. The values of the key <i>k</i> are
+ * <i>k</i>&times;<i>valuesPerKey</i> + <i>i</i> for <i>i</i> between 0 and
+ * <i>valuesPerKey</i>, so each couple is unique.
+ * </p>
+ * <p>
+ * The single-key operations browse a precomputed sample of keys, so picking
+ * the key is not measured. The allocation rates are obtained by running JMH
+ * with <code>-prof gc</code>.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiMapBenchmark {
+
+	private static final int SAMPLES = 1 << 16;
+	private static final long SEED = 42;
+
+	@Param
+	public Implementation implementation;
+
+	@Param({ "1000", "100000" })
+	public int keys;
+
+	@Param({ "1", "10" })
+	public int valuesPerKey;
+
+	@Param
+	public KeyDistribution distribution;
+
+	private MultiMap<Integer, Integer> map;
+	private List<List<Integer>> valuesOfKey;
+	private int[] sampledKeys;
+	private int[] sampledValues;
+	private Batch<Integer, Integer> sampledBatch;
+	private int cursor = 0;
+
+	@Setup(Level.Trial)
+	public void prepareSamples() {
+		Random random = new Random(SEED);
+		valuesOfKey = new ArrayList<>(keys);
+		for (int key = 0; key < keys; key++) {
+			List<Integer> values = new ArrayList<>(valuesPerKey);
+			for (int index = 0; index < valuesPerKey; index++) {
+				values.add(key * valuesPerKey + index);
+			}
+			valuesOfKey.add(values);
+		}
+		sampledKeys = distribution.sample(keys, SAMPLES, random);
+		sampledValues = new int[SAMPLES];
+		for (int index = 0; index < SAMPLES; index++) {
+			sampledValues[index] = sampledKeys[index] * valuesPerKey + random.nextInt(valuesPerKey);
+		}
+		sampledBatch = new Batch<>();
+		for (int sample = 0; sample < SAMPLES; sample++) {
+			sampledBatch.add(sampledKeys[sample], sampledValues[sample]);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void fillMap() {
+		map = fill(implementation.create());
+	}
+
+	private MultiMap<Integer, Integer> fill(MultiMap<Integer, Integer> map) {
+		for (int key = 0; key < keys; key++) {
+			map.addAll(key, valuesOfKey.get(key));
+		}
+		return map;
+	}
+
+	private int nextSample() {
+		cursor = (cursor + 1) & (SAMPLES - 1);
+		return cursor;
+	}
+
+	/**
+	 * Fill a new {@link MultiMap} couple by couple, in the order of the
+	 * {@link KeyDistribution}.
+	 */
+	@Benchmark
+	public MultiMap<Integer, Integer> add() {
+		MultiMap<Integer, Integer> map = implementation.create();
+		for (int sample = 0; sample < SAMPLES; sample++) {
+			map.add(sampledKeys[sample], sampledValues[sample]);
+		}
+		return map;
+	}
+
+	/**
+	 * Fill a new {@link MultiMap} with the same couples than {@link #add()},
+	 * through a single {@link Batch}.
+	 */
+	@Benchmark
+	public MultiMap<Integer, Integer> applyBatch() {
+		MultiMap<Integer, Integer> map = implementation.create();
+		Batch<Integer, Integer> batch = new Batch<>();
+		for (int sample = 0; sample < SAMPLES; sample++) {
+			batch.add(sampledKeys[sample], sampledValues[sample]);
+		}
+		map.apply(batch);
+		return map;
+	}
+
+	/**
+	 * Fill a new {@link MultiMap} with the same couples than {@link #add()},
+	 * through a {@link Batch} filled beforehand, so only its application is
+	 * measured.
+	 */
+	@Benchmark
+	public MultiMap<Integer, Integer> applyFilledBatch() {
+		MultiMap<Integer, Integer> map = implementation.create();
+		map.apply(sampledBatch);
+		return map;
+	}
+
+	/**
+	 * Fill a new {@link MultiMap} couple by couple, with the couples of each key
+	 * in a row.
+	 */
+	@Benchmark
+	public MultiMap<Integer, Integer> addGrouped() {
+		MultiMap<Integer, Integer> map = implementation.create();
+		for (int key = 0; key < keys; key++) {
+			Integer boxedKey = key;
+			for (Integer value : valuesOfKey.get(key)) {
+				map.add(boxedKey, value);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Fill a new {@link MultiMap} with the same couples than
+	 * {@link #addGrouped()}, through a single {@link Batch}.
+	 */
+	@Benchmark
+	public MultiMap<Integer, Integer> applyGroupedBatch() {
+		MultiMap<Integer, Integer> map = implementation.create();
+		Batch<Integer, Integer> batch = new Batch<>();
+		for (int key = 0; key < keys; key++) {
+			Integer boxedKey = key;
+			for (Integer value : valuesOfKey.get(key)) {
+				batch.add(boxedKey, value);
+			}
+		}
+		map.apply(batch);
+		return map;
+	}
+
+	/**
+	 * Fill a new {@link MultiMap} key by key.
+	 */
+	@Benchmark
+	public MultiMap<Integer, Integer> addAll() {
+		return fill(implementation.create());
+	}
+
+	@Benchmark
+	public Collection<Integer> getAll() {
+		return map.getAll(sampledKeys[nextSample()]);
+	}
+
+	@Benchmark
+	public boolean containsCouple() {
+		int sample = nextSample();
+		return map.containsCouple(sampledKeys[sample], sampledValues[sample]);
+	}
+
+	@Benchmark
+	public boolean containsKeyMappedTo() {
+		return map.containsKeyMappedTo(valuesOfKey.get(sampledKeys[nextSample()]));
+	}
+
+	/**
+	 * Remove a couple and add it back, so the {@link MultiMap} remains the
+	 * same over the iteration.
+	 */
+	@Benchmark
+	public boolean removeAndRestore() {
+		int sample = nextSample();
+		boolean isRemoved = map.remove(sampledKeys[sample], sampledValues[sample]);
+		map.add(sampledKeys[sample], sampledValues[sample]);
+		return isRemoved;
+	}
+
+	@Benchmark
+	public void iterate(Blackhole blackhole) {
+		for (Entry<Integer, Integer> entry : map) {
+			blackhole.consume(entry.getValue());
+		}
+	}
+
+	@Benchmark
+	public Collection<Integer> toMapGet() {
+		return map.toMap().get(sampledKeys[nextSample()]);
+	}
+}
@@ -0,0 +1,255 @@
+package fr.vergne.multimap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A {@link Batch} accumulates additions and removals of couples, to apply them
+ * later to a {@link MultiMap} through {@link #applyTo(MultiMap)}. The
+ * operations are grouped by key, in the order of the first operation of each
+ * key, and the consecutive operations of the same kind on a key are grouped
+ * in a {@link Run}, so the {@link MultiMap} resolves each key once and applies
+ * each {@link Run} in bulk. The order of the operations of each key is
+ * preserved, so the result is the same as applying them one by one, unless
+ * the {@link MultiMap} depends on the order of its keys, like one evicting
+ * its least recently used keys.
+ * </p>
+ * <p>
+ * Grouping an operation only compares its key to the key of the previous
+ * operation, and looks the key up in a hash table when it differs, so the
+ * operations on a key are cheaper to accumulate when they are consecutive.
+ * Applying a {@link Batch} is faster than applying its operations one by one,
+ * but accumulating them costs about as much as the lookups saved, so a
+ * {@link Batch} pays off when it is filled apart from the {@link MultiMap},
+ * like by another thread, or applied several times.
+ * </p>
+ * <p>
+ * A {@link Batch} can be applied several times, and reused after
+ * {@link #clear()}. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class Batch<Key, Value> {
+
+	/**
+	 * A {@link Run} is a sequence of consecutive operations of the same kind on
+	 * a key, ignoring the operations on other keys in between.
+	 * 
+	 * @param <Key>
+	 * @param <Value>
+	 */
+	public static class Run<Key, Value> {
+		private final Key key;
+		private final boolean isAddition;
+		private final List<Value> values = new ArrayList<>();
+		private Run<Key, Value> next = null;
+
+		private Run(Key key, boolean isAddition) {
+			this.key = key;
+			this.isAddition = isAddition;
+		}
+
+		public Key getKey() {
+			return key;
+		}
+
+		/**
+		 * 
+		 * @return <code>true</code> if the values are added,
+		 *         <code>false</code> if they are removed one by one
+		 */
+		public boolean isAddition() {
+			return isAddition;
+		}
+
+		/**
+		 * 
+		 * @return the values added or removed, in order
+		 */
+		public List<Value> getValues() {
+			return Collections.unmodifiableList(values);
+		}
+	}
+
+	/**
+	 * The number of changes done by the application of a {@link Batch}.
+	 */
+	public static class Result {
+		private final int resolutions;
+		private final long added;
+		private final long removed;
+
+		public Result(int resolutions, long added, long removed) {
+			this.resolutions = resolutions;
+			this.added = added;
+			this.removed = removed;
+		}
+
+		/**
+		 * 
+		 * @return the number of times a key has been resolved, which is the
+		 *         number of distinct keys of the {@link Batch}
+		 */
+		public int getResolutions() {
+			return resolutions;
+		}
+
+		/**
+		 * 
+		 * @return the number of couples actually added
+		 */
+		public long getAdded() {
+			return added;
+		}
+
+		/**
+		 * 
+		 * @return the number of couples actually removed
+		 */
+		public long getRemoved() {
+			return removed;
+		}
+
+		@Override
+		public String toString() {
+			return "Result[resolutions=" + resolutions + ", added=" + added + ", removed=" + removed + "]";
+		}
+	}
+
+	/**
+	 * The first {@link Run} of each key, in the order of their keys. The next
+	 * {@link Run}s of a key are chained to its first one.
+	 */
+	private final List<Run<Key, Value>> firstRuns = new ArrayList<>();
+	private final Map<Key, Run<Key, Value>> lastRuns = new HashMap<>();
+	private Run<Key, Value> last = null;
+	private int runsCount = 0;
+	private int size = 0;
+
+	private List<Value> run(Key key, boolean isAddition) {
+		Run<Key, Value> run = last;
+		if (run == null || !Objects.equals(run.key, key)) {
+			run = lastRuns.get(key);
+		} else {
+			// same key than the previous operation, no need to look it up
+		}
+		if (run == null) {
+			run = new Run<>(key, isAddition);
+			lastRuns.put(key, run);
+			firstRuns.add(run);
+			runsCount++;
+		} else if (run.isAddition != isAddition) {
+			Run<Key, Value> previous = run;
+			run = new Run<>(key, isAddition);
+			previous.next = run;
+			lastRuns.put(key, run);
+			runsCount++;
+		} else {
+			// extend the last run of the key
+		}
+		last = run;
+		return run.values;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to add the value to
+	 * @param value
+	 *            the value to add
+	 * @return this {@link Batch}
+	 */
+	public Batch<Key, Value> add(Key key, Value value) {
+		run(key, true).add(value);
+		size++;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to add the values to
+	 * @param values
+	 *            the values to add
+	 * @return this {@link Batch}
+	 */
+	public Batch<Key, Value> addAll(Key key, Collection<Value> values) {
+		run(key, true).addAll(values);
+		size += values.size();
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to remove the value from
+	 * @param value
+	 *            the value to remove, once
+	 * @return this {@link Batch}
+	 */
+	public Batch<Key, Value> remove(Key key, Value value) {
+		run(key, false).add(value);
+		size++;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @return the {@link Run}s, grouped by key in the order of the first
+	 *         operation of each key, and in the order of their operations for
+	 *         each key
+	 */
+	public List<Run<Key, Value>> getRuns() {
+		List<Run<Key, Value>> runs = new ArrayList<>(runsCount);
+		for (Run<Key, Value> run : firstRuns) {
+			for (; run != null; run = run.next) {
+				runs.add(run);
+			}
+		}
+		return Collections.unmodifiableList(runs);
+	}
+
+	/**
+	 * 
+	 * @return the number of operations
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove all the operations.
+	 */
+	public void clear() {
+		firstRuns.clear();
+		lastRuns.clear();
+		last = null;
+		runsCount = 0;
+		size = 0;
+	}
+
+	/**
+	 * 
+	 * @param map
+	 *            the {@link MultiMap} to change
+	 * @return the number of changes done
+	 * @see MultiMap#apply(Batch)
+	 */
+	public Result applyTo(MultiMap<Key, Value> map) {
+		return map.apply(this);
+	}
+}
@@ -0,0 +1,52 @@
+package fr.vergne.multimap;
+
+import java.util.Collection;
+
+/**
+ * <p>
+ * A {@link BidirectionalMultiMap} is a {@link MultiMap} which also indexes its
+ * couples by value, so it can tell which keys are mapped to a given value
+ * without browsing all its couples.
+ * </p>
+ * <p>
+ * The reverse index is available through {@link #inverse()}, which is itself
+ * a {@link BidirectionalMultiMap} mapping each value to its keys. Both
+ * {@link BidirectionalMultiMap}s share the same couples: adding or removing a
+ * couple through one of them, including through their views, is reflected on
+ * the other.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public interface BidirectionalMultiMap<Key, Value> extends MultiMap<Key, Value> {
+
+	/**
+	 * 
+	 * @param value
+	 *            the value to search for
+	 * @return the keys mapped to this value, an empty {@link Collection} if
+	 *         there is none
+	 */
+	public Collection<Key> keysFor(Value value);
+
+	/**
+	 * Remove the value from all the keys it is mapped to. The keys remain, even
+	 * if they do not have any value anymore.
+	 * 
+	 * @param value
+	 *            the value to remove
+	 * @return <code>true</code> if at least one couple has been removed,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean removeValueEverywhere(Value value);
+
+	/**
+	 * 
+	 * @return the {@link BidirectionalMultiMap} mapping each value of this
+	 *         {@link BidirectionalMultiMap} to its keys
+	 */
+	public BidirectionalMultiMap<Value, Key> inverse();
+}
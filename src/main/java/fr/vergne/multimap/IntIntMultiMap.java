@@ -0,0 +1,164 @@
+package fr.vergne.multimap;
+
+import java.util.function.IntConsumer;
+
+/**
+ * An {@link IntIntMultiMap} is the <code>int</code>-specialized counterpart of
+ * a {@link MultiMap}<code>&lt;Integer, Integer&gt;</code>. Keys and values are
+ * stored as primitives, which avoids the memory and the garbage collection
+ * cost of their boxed versions. When an API requires a {@link MultiMap}, the
+ * {@link #asMultiMap()} view can be used.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ */
+public interface IntIntMultiMap {
+
+	/**
+	 * Map a key to the provided value. If there is already values mapped to this
+	 * key, the new value is added (the old ones are kept, not replaced).
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param value
+	 *            the value to map to that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean add(int key, int value);
+
+	/**
+	 * Map a key to all the provided values. If there is already values mapped to
+	 * this key, the new values are added (the old ones are kept, not replaced).
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param values
+	 *            the values to map to that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean addAll(int key, int... values);
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to retrieve
+	 * @return a live view on the values mapped to this key, <code>null</code> if
+	 *         the key is not mapped
+	 */
+	public IntValues getAll(int key);
+
+	/**
+	 * Unmap a specific value from a key.
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param value
+	 *            the value to remove from that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean remove(int key, int value);
+
+	/**
+	 * Unmap all the occurrences of some values from a key.
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param values
+	 *            the values to remove from that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean removeAll(int key, int... values);
+
+	/**
+	 * Unmap all the values mapped to a given key.
+	 * 
+	 * @param key
+	 *            the key to remove
+	 * @return <code>true</code> if the key was mapped, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean removeKey(int key);
+
+	/**
+	 * Remove all the keys of this {@link IntIntMultiMap}
+	 */
+	public void clear();
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to check
+	 * @return <code>true</code> if the key is mapped to some values,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean containsKey(int key);
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to check
+	 * @param value
+	 *            the value to check
+	 * @return <code>true</code> if the key is known and the value is actually
+	 *         mapped to it
+	 */
+	public boolean containsCouple(int key, int value);
+
+	/**
+	 * 
+	 * @param values
+	 *            the values to check
+	 * @return <code>true</code> if a key is mapped to values equivalent to the
+	 *         ones provided, as defined in
+	 *         {@link MultiMap#containsKeyMappedTo(java.util.Collection)}
+	 */
+	public boolean containsKeyMappedTo(int... values);
+
+	/**
+	 * 
+	 * @return the number of keys of this {@link IntIntMultiMap}
+	 */
+	public int size();
+
+	/**
+	 * 
+	 * @return <code>true</code> if no key is stored in this
+	 *         {@link IntIntMultiMap}, <code>false</code> otherwise
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * 
+	 * @param consumer
+	 *            the {@link IntConsumer} to call on each key
+	 */
+	public void forEachKey(IntConsumer consumer);
+
+	/**
+	 * 
+	 * @param consumer
+	 *            the {@link IntIntConsumer} to call on each couple
+	 */
+	public void forEachCouple(IntIntConsumer consumer);
+
+	/**
+	 * Provide a boxed view of this {@link IntIntMultiMap}, such that any change
+	 * made to one is reflected on the other.
+	 * 
+	 * @return a {@link MultiMap} backed by this {@link IntIntMultiMap}
+	 */
+	public MultiMap<Integer, Integer> asMultiMap();
+
+	/**
+	 * A consumer of <code>int</code> couples.
+	 */
+	@FunctionalInterface
+	public static interface IntIntConsumer {
+		public void accept(int key, int value);
+	}
+}
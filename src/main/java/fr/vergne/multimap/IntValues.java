@@ -0,0 +1,74 @@
+package fr.vergne.multimap;
+
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * An {@link IntValues} is a live view on the <code>int</code> values mapped to
+ * a key of an {@link IntIntMultiMap}. It allows to read them without boxing
+ * them into {@link Integer} instances.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ */
+public interface IntValues {
+
+	/**
+	 * 
+	 * @return the number of values
+	 */
+	public int size();
+
+	/**
+	 * 
+	 * @return <code>true</code> if there is no value, <code>false</code>
+	 *         otherwise
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * 
+	 * @param index
+	 *            the index of the value, between 0 and {@link #size()} excluded
+	 * @return the value at this index
+	 */
+	public int get(int index);
+
+	/**
+	 * 
+	 * @param value
+	 *            the value to check
+	 * @return <code>true</code> if the value is present, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean contains(int value);
+
+	/**
+	 * 
+	 * @return a copy of the values
+	 */
+	public int[] toArray();
+
+	/**
+	 * 
+	 * @param consumer
+	 *            the {@link IntConsumer} to call on each value
+	 */
+	public void forEach(IntConsumer consumer);
+
+	/**
+	 * 
+	 * @return a {@link PrimitiveIterator} over the values
+	 */
+	public PrimitiveIterator.OfInt iterator();
+
+	/**
+	 * 
+	 * @return an {@link IntStream} over the values
+	 */
+	default IntStream stream() {
+		return IntStream.of(toArray());
+	}
+}
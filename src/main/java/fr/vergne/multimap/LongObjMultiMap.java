@@ -0,0 +1,167 @@
+package fr.vergne.multimap;
+
+import java.util.Collection;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link LongObjMultiMap} is the counterpart of a
+ * {@link MultiMap}<code>&lt;Long, Value&gt;</code> which stores its keys as
+ * <code>long</code> primitives, which avoids the memory and the garbage
+ * collection cost of their boxed versions. When an API requires a
+ * {@link MultiMap}, the {@link #asMultiMap()} view can be used.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Value>
+ */
+public interface LongObjMultiMap<Value> {
+
+	/**
+	 * Map a key to the provided value. If there is already values mapped to this
+	 * key, the new value is added (the old ones are kept, not replaced).
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param value
+	 *            the value to map to that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean add(long key, Value value);
+
+	/**
+	 * Map a key to all the provided values. If there is already values mapped to
+	 * this key, the new values are added (the old ones are kept, not replaced).
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param values
+	 *            the values to map to that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean addAll(long key, Collection<Value> values);
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to retrieve
+	 * @return a live view on the values mapped to this key, <code>null</code> if
+	 *         the key is not mapped
+	 */
+	public Collection<Value> getAll(long key);
+
+	/**
+	 * Unmap a specific value from a key.
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param value
+	 *            the value to remove from that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean remove(long key, Value value);
+
+	/**
+	 * Unmap all the occurrences of some values from a key.
+	 * 
+	 * @param key
+	 *            the key to map
+	 * @param values
+	 *            the values to remove from that key
+	 * @return <code>true</code> if the mapping has been changed, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean removeAll(long key, Collection<Value> values);
+
+	/**
+	 * Unmap all the values mapped to a given key.
+	 * 
+	 * @param key
+	 *            the key to remove
+	 * @return <code>true</code> if the key was mapped, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean removeKey(long key);
+
+	/**
+	 * Remove all the keys of this {@link LongObjMultiMap}
+	 */
+	public void clear();
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to check
+	 * @return <code>true</code> if the key is mapped to some values,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean containsKey(long key);
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to check
+	 * @param value
+	 *            the value to check
+	 * @return <code>true</code> if the key is known and the value is actually
+	 *         mapped to it
+	 */
+	public boolean containsCouple(long key, Value value);
+
+	/**
+	 * 
+	 * @param collection
+	 *            the {@link Collection} to check
+	 * @return <code>true</code> if a key is mapped to values equivalent to the
+	 *         ones provided, as defined in
+	 *         {@link MultiMap#containsKeyMappedTo(Collection)}
+	 */
+	public boolean containsKeyMappedTo(Collection<Value> collection);
+
+	/**
+	 * 
+	 * @return the number of keys of this {@link LongObjMultiMap}
+	 */
+	public int size();
+
+	/**
+	 * 
+	 * @return <code>true</code> if no key is stored in this
+	 *         {@link LongObjMultiMap}, <code>false</code> otherwise
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * 
+	 * @param consumer
+	 *            the {@link LongConsumer} to call on each key
+	 */
+	public void forEachKey(LongConsumer consumer);
+
+	/**
+	 * 
+	 * @param consumer
+	 *            the {@link LongObjConsumer} to call on each couple
+	 */
+	public void forEachCouple(LongObjConsumer<? super Value> consumer);
+
+	/**
+	 * Provide a boxed view of this {@link LongObjMultiMap}, such that any change
+	 * made to one is reflected on the other.
+	 * 
+	 * @return a {@link MultiMap} backed by this {@link LongObjMultiMap}
+	 */
+	public MultiMap<Long, Value> asMultiMap();
+
+	/**
+	 * A consumer of couples made of a <code>long</code> and an object.
+	 */
+	@FunctionalInterface
+	public static interface LongObjConsumer<Value> {
+		public void accept(long key, Value value);
+	}
+}
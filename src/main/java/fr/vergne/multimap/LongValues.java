@@ -0,0 +1,74 @@
+package fr.vergne.multimap;
+
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * A {@link LongValues} is a live view on the <code>long</code> values mapped
+ * to a key of a {@link LongLongMultiMap}. It allows to read them without
+ * boxing them into {@link Long} instances.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ */
+public interface LongValues {
+
+	/**
+	 * 
+	 * @return the number of values
+	 */
+	public int size();
+
+	/**
+	 * 
+	 * @return <code>true</code> if there is no value, <code>false</code>
+	 *         otherwise
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * 
+	 * @param index
+	 *            the index of the value, between 0 and {@link #size()} excluded
+	 * @return the value at this index
+	 */
+	public long get(int index);
+
+	/**
+	 * 
+	 * @param value
+	 *            the value to check
+	 * @return <code>true</code> if the value is present, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean contains(long value);
+
+	/**
+	 * 
+	 * @return a copy of the values
+	 */
+	public long[] toArray();
+
+	/**
+	 * 
+	 * @param consumer
+	 *            the {@link LongConsumer} to call on each value
+	 */
+	public void forEach(LongConsumer consumer);
+
+	/**
+	 * 
+	 * @return a {@link PrimitiveIterator} over the values
+	 */
+	public PrimitiveIterator.OfLong iterator();
+
+	/**
+	 * 
+	 * @return a {@link LongStream} over the values
+	 */
+	default LongStream stream() {
+		return LongStream.of(toArray());
+	}
+}
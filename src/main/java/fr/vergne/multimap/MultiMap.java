@@ -4,7 +4,12 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * <p>
@@ -219,6 +224,121 @@ public interface MultiMap<Key, Value> extends Iterable<Entry<Key, Value>> {
 		return !iterator().hasNext();
 	}
 
+	/**
+	 * Browse all the couples of this {@link MultiMap}. Contrary to
+	 * {@link #forEach(java.util.function.Consumer)}, no {@link Entry} is
+	 * created for each couple.
+	 * 
+	 * @param action
+	 *            the action to execute on each couple
+	 */
+	default void forEachCouple(BiConsumer<? super Key, ? super Value> action) {
+		for (Entry<Key, Collection<Value>> entry : entrySet()) {
+			Key key = entry.getKey();
+			for (Value value : entry.getValue()) {
+				action.accept(key, value);
+			}
+		}
+	}
+
+	/**
+	 * Browse all the values of a key. Nothing happens if the key is unknown.
+	 * 
+	 * @param key
+	 *            the key to browse
+	 * @param action
+	 *            the action to execute on each value
+	 */
+	default void forEachValue(Key key, Consumer<? super Value> action) {
+		Collection<Value> values = getAll(key);
+		if (values != null) {
+			for (Value value : values) {
+				action.accept(value);
+			}
+		} else {
+			// unknown key
+		}
+	}
+
+	/**
+	 * Browse all the keys of this {@link MultiMap} with their
+	 * {@link Collection} of values.
+	 * 
+	 * @param action
+	 *            the action to execute on each key
+	 */
+	default void forEachKeyCollection(BiConsumer<? super Key, ? super Collection<Value>> action) {
+		for (Entry<Key, Collection<Value>> entry : entrySet()) {
+			action.accept(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Apply all the operations of a {@link Batch}, in the order of
+	 * {@link Batch#getRuns()}. By default, each
+	 * operation is applied through {@link #add(Object, Object)} or
+	 * {@link #remove(Object, Object)}, so the changes are counted even if the
+	 * key disappears meanwhile, like when it is evicted or pruned.
+	 * Implementations which can resolve the {@link Collection} of a key once
+	 * for all the {@link Batch.Run}s of this key should override it.
+	 * 
+	 * @param batch
+	 *            the {@link Batch} to apply
+	 * @return the number of changes done
+	 */
+	default Batch.Result apply(Batch<Key, Value> batch) {
+		int resolutions = 0;
+		long added = 0;
+		long removed = 0;
+		Key previous = null;
+		for (Batch.Run<Key, Value> run : batch.getRuns()) {
+			Key key = run.getKey();
+			if (resolutions == 0 || !Objects.equals(key, previous)) {
+				resolutions++;
+				previous = key;
+			} else {
+				// same key than the previous run
+			}
+			if (run.isAddition()) {
+				for (Value value : run.getValues()) {
+					if (add(key, value)) {
+						added++;
+					} else {
+						continue;
+					}
+				}
+			} else {
+				for (Value value : run.getValues()) {
+					if (remove(key, value)) {
+						removed++;
+					} else {
+						continue;
+					}
+				}
+			}
+		}
+		return new Batch.Result(resolutions, added, removed);
+	}
+
+	/**
+	 * 
+	 * @return a sequential {@link Stream} of all the couples of this
+	 *         {@link MultiMap}
+	 */
+	default Stream<Entry<Key, Value>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * 
+	 * @return a possibly parallel {@link Stream} of all the couples of this
+	 *         {@link MultiMap}, which parallelizes as well as its
+	 *         {@link #spliterator()} splits
+	 */
+	default Stream<Entry<Key, Value>> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
 	/**
 	 * Since Java 1.8, the {@link Map} interface includes a default method
 	 * {@link Map#remove(Object, Object)} which clashes with our own, for a
@@ -0,0 +1,126 @@
+package fr.vergne.multimap;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+import fr.vergne.multimap.impl.BackedMultiMap;
+
+/**
+ * <p>
+ * {@link MultiMapCollectors} provides the {@link Collector}s to build
+ * {@link MultiMap}s from {@link java.util.stream.Stream}s, similarly to
+ * {@link java.util.stream.Collectors#toMap(Function, Function)}.
+ * </p>
+ * <p>
+ * These {@link Collector}s support parallel {@link java.util.stream.Stream}s:
+ * each thread fills its own {@link MultiMap}, and the partial
+ * {@link MultiMap}s are combined by moving the whole {@link Collection} of a
+ * key from one to the other when they are {@link BackedMultiMap}s, instead of
+ * adding its values one by one. The order of the values of each key follows
+ * the encounter order of the {@link java.util.stream.Stream}.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public class MultiMapCollectors {
+
+	private MultiMapCollectors() {
+		// only static methods
+	}
+
+	/**
+	 * 
+	 * @param keyMapper
+	 *            the {@link Function} providing the key of each element
+	 * @param valueMapper
+	 *            the {@link Function} providing the value of each element
+	 * @param supplier
+	 *            the {@link Supplier} of empty {@link MultiMap}s to fill
+	 * @return a {@link Collector} which maps the key of each element to its
+	 *         value
+	 */
+	public static <T, Key, Value, M extends MultiMap<Key, Value>> Collector<T, ?, M> toMultiMap(
+			Function<? super T, ? extends Key> keyMapper, Function<? super T, ? extends Value> valueMapper,
+			Supplier<M> supplier) {
+		return Collector.of(supplier, (map, element) -> map.add(keyMapper.apply(element), valueMapper.apply(element)),
+				MultiMapCollectors::combine, Collector.Characteristics.IDENTITY_FINISH);
+	}
+
+	/**
+	 * Combine two partial results of the same {@link Collector}. Since they come
+	 * from the same {@link Supplier}, their {@link Collection}s have the same
+	 * type and can be moved from one {@link BackedMultiMap} to the other. The
+	 * right {@link MultiMap} is cleared, so it does not share them.
+	 */
+	private static <Key, Value, M extends MultiMap<Key, Value>> M combine(M left, M right) {
+		if (left instanceof BackedMultiMap && right instanceof BackedMultiMap) {
+			Map<Key, Collection<Value>> leftMap = left.toMap();
+			for (Entry<Key, Collection<Value>> entry : right.toMap().entrySet()) {
+				Key key = entry.getKey();
+				Collection<Value> leftValues = leftMap.get(key);
+				Collection<Value> rightValues = entry.getValue();
+				if (leftValues == null) {
+					leftMap.put(key, rightValues);
+				} else if (rightValues instanceof List && rightValues.size() > leftValues.size()) {
+					// insert the fewer values in front of the others
+					((List<Value>) rightValues).addAll(0, leftValues);
+					leftMap.put(key, rightValues);
+				} else {
+					leftValues.addAll(rightValues);
+				}
+			}
+			right.clear();
+			return left;
+		} else {
+			return merge(left, right);
+		}
+	}
+
+	/**
+	 * 
+	 * @return a {@link Collector} which fills a {@link BackedMultiMap} keeping
+	 *         the duplicated values of a key
+	 * @see #toMultiMap(Function, Function, Supplier)
+	 */
+	public static <T, Key, Value> Collector<T, ?, MultiMap<Key, Value>> toListMultiMap(
+			Function<? super T, ? extends Key> keyMapper, Function<? super T, ? extends Value> valueMapper) {
+		return toMultiMap(keyMapper, valueMapper, () -> BackedMultiMap.onLists());
+	}
+
+	/**
+	 * 
+	 * @return a {@link Collector} which fills a {@link BackedMultiMap} ignoring
+	 *         the duplicated values of a key
+	 * @see #toMultiMap(Function, Function, Supplier)
+	 */
+	public static <T, Key, Value> Collector<T, ?, MultiMap<Key, Value>> toSetMultiMap(
+			Function<? super T, ? extends Key> keyMapper, Function<? super T, ? extends Value> valueMapper) {
+		return toMultiMap(keyMapper, valueMapper, () -> BackedMultiMap.onSets());
+	}
+
+	/**
+	 * Add all the couples of a {@link MultiMap} to another one, through
+	 * {@link MultiMap#addAll(Object, Collection)}, so the target keeps its own
+	 * semantics. The values of the keys known by both are added after the ones
+	 * already present.
+	 * 
+	 * @param target
+	 *            the {@link MultiMap} to fill
+	 * @param source
+	 *            the {@link MultiMap} providing the couples, which is not
+	 *            modified
+	 * @return the target
+	 */
+	public static <Key, Value, M extends MultiMap<Key, Value>> M merge(M target, MultiMap<Key, Value> source) {
+		for (Entry<Key, Collection<Value>> entry : source.entrySet()) {
+			target.addAll(entry.getKey(), entry.getValue());
+		}
+		return target;
+	}
+}
@@ -0,0 +1,656 @@
+package fr.vergne.multimap;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * {@link MultiMapViews} provides live views of {@link MultiMap}s, which
+ * transform or filter their couples without copying them. Nothing is computed
+ * when the view is created: {@link MultiMap#getAll(Object)},
+ * {@link MultiMap#size()} and the iterators of a view evaluate the backing
+ * {@link MultiMap} on each call, so they always reflect its current content,
+ * and the {@link Collection}s they return are themselves live views.
+ * </p>
+ * <p>
+ * Consequently, a view costs almost no memory, but each access pays for the
+ * transformation or the filtering. In particular, the size of a view which
+ * filters values is computed by going through the values, and an expensive
+ * transformation should be memoized through
+ * {@link #transformValues(MultiMap, Function, boolean)}.
+ * </p>
+ * <p>
+ * The changes made through a view are applied to the backing {@link MultiMap}
+ * when possible, while the iterators of the views do not support removal. A
+ * view is as thread-safe as its backing {@link MultiMap}.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public class MultiMapViews {
+
+	private MultiMapViews() {
+		// only static methods
+	}
+
+	/**
+	 * 
+	 * @param map
+	 *            the backing {@link MultiMap}
+	 * @param function
+	 *            the {@link Function} to apply on each value, which should
+	 *            not have side effects since it may be called several times
+	 *            on the same value
+	 * @return a view of the {@link MultiMap} where each value is replaced by
+	 *         the result of the {@link Function}, which supports removals but
+	 *         no addition
+	 */
+	public static <Key, Value, Target> MultiMap<Key, Target> transformValues(MultiMap<Key, Value> map,
+			Function<? super Value, ? extends Target> function) {
+		return new TransformedView<>(map, function);
+	}
+
+	/**
+	 * 
+	 * @param map
+	 *            the backing {@link MultiMap}
+	 * @param function
+	 *            the {@link Function} to apply on each value
+	 * @param isMemoized
+	 *            <code>true</code> to compute the result of each value only
+	 *            once, as long as the value is referenced,
+	 *            <code>false</code> to compute it on each access
+	 * @return a view of the {@link MultiMap} where each value is replaced by
+	 *         the result of the {@link Function}
+	 * @see #transformValues(MultiMap, Function)
+	 */
+	public static <Key, Value, Target> MultiMap<Key, Target> transformValues(MultiMap<Key, Value> map,
+			Function<? super Value, ? extends Target> function, boolean isMemoized) {
+		return transformValues(map, isMemoized ? memoize(function) : function);
+	}
+
+	private static <Value, Target> Function<Value, Target> memoize(Function<? super Value, ? extends Target> function) {
+		Map<Value, Target> cache = Collections.synchronizedMap(new WeakHashMap<>());
+		return value -> {
+			Target target = cache.get(value);
+			if (target == null && !cache.containsKey(value)) {
+				target = function.apply(value);
+				cache.put(value, target);
+			} else {
+				// already computed
+			}
+			return target;
+		};
+	}
+
+	/**
+	 * 
+	 * @param map
+	 *            the backing {@link MultiMap}
+	 * @param predicate
+	 *            the {@link Predicate} telling which keys to keep
+	 * @return a view of the {@link MultiMap} having only the keys accepted by
+	 *         the {@link Predicate}, which rejects the additions on the other
+	 *         keys with an {@link IllegalArgumentException}
+	 */
+	public static <Key, Value> MultiMap<Key, Value> filterKeys(MultiMap<Key, Value> map,
+			Predicate<? super Key> predicate) {
+		return new FilteredView<>(map, predicate, (key, value) -> true, false);
+	}
+
+	/**
+	 * 
+	 * @param map
+	 *            the backing {@link MultiMap}
+	 * @param predicate
+	 *            the {@link Predicate} telling which values to keep
+	 * @return a view of the {@link MultiMap} having only the values accepted by
+	 *         the {@link Predicate}, and only the keys having at least one of
+	 *         them, which rejects the additions of other values with an
+	 *         {@link IllegalArgumentException}
+	 */
+	public static <Key, Value> MultiMap<Key, Value> filterValues(MultiMap<Key, Value> map,
+			Predicate<? super Value> predicate) {
+		return new FilteredView<>(map, key -> true, (key, value) -> predicate.test(value), true);
+	}
+
+	/**
+	 * 
+	 * @param map
+	 *            the backing {@link MultiMap}
+	 * @param predicate
+	 *            the {@link BiPredicate} telling which couples to keep
+	 * @return a view of the {@link MultiMap} having only the couples accepted
+	 *         by the {@link BiPredicate}, and only the keys having at least one
+	 *         of them, which rejects the additions of other couples with an
+	 *         {@link IllegalArgumentException}
+	 */
+	public static <Key, Value> MultiMap<Key, Value> filterEntries(MultiMap<Key, Value> map,
+			BiPredicate<? super Key, ? super Value> predicate) {
+		return new FilteredView<>(map, key -> true, predicate, true);
+	}
+
+	/**
+	 * The {@link Collection} of values of a key in a view.
+	 */
+	private static abstract class ValuesView<Source, Value> extends AbstractCollection<Value> {
+		protected final Collection<Source> source;
+
+		public ValuesView(Collection<Source> source) {
+			this.source = source;
+		}
+
+		/**
+		 * 
+		 * @return <code>true</code> if these values are the same than the
+		 *         ones of the {@link Collection}, in the sense of the backing
+		 *         {@link Collection}: with the same number of occurrences in
+		 *         the same order for a list, regardless of them for a
+		 *         {@link Set}
+		 */
+		public boolean isMappedTo(Collection<?> collection) {
+			if (source instanceof Set) {
+				return new HashSet<>(this).equals(new HashSet<>(collection));
+			} else {
+				return new ArrayList<>(this).equals(new ArrayList<>(collection));
+			}
+		}
+	}
+
+	/**
+	 * The common features of the views, based on {@link #keySet()} and
+	 * {@link #getAll(Object)}.
+	 */
+	private static abstract class View<Key, Source, Value> implements MultiMap<Key, Value> {
+		protected final MultiMap<Key, Source> map;
+
+		public View(MultiMap<Key, Source> map) {
+			this.map = map;
+		}
+
+		@Override
+		public abstract ValuesView<Source, Value> getAll(Object key);
+
+		@Override
+		public boolean removeAll(Key key, Collection<Value> values) {
+			boolean isChanged = false;
+			for (Value value : new LinkedHashSet<>(values)) {
+				while (remove(key, value)) {
+					isChanged = true;
+				}
+			}
+			return isChanged;
+		}
+
+		@Override
+		public void clear() {
+			for (Key key : new ArrayList<>(keySet())) {
+				remove(key);
+			}
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return getAll(key) != null;
+		}
+
+		@Override
+		public boolean containsCouple(Key key, Value value) {
+			Collection<Value> values = getAll(key);
+			return values != null && values.contains(value);
+		}
+
+		@Override
+		public boolean containsKeyMappedTo(Collection<Value> collection) {
+			for (Key key : keySet()) {
+				if (getAll(key).isMappedTo(collection)) {
+					return true;
+				} else {
+					continue;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public int size() {
+			return keySet().size();
+		}
+
+		@Override
+		public Collection<Collection<Value>> collections() {
+			return new AbstractCollection<Collection<Value>>() {
+
+				@Override
+				public Iterator<Collection<Value>> iterator() {
+					Iterator<Key> keys = keySet().iterator();
+					return new Iterator<Collection<Value>>() {
+
+						@Override
+						public boolean hasNext() {
+							return keys.hasNext();
+						}
+
+						@Override
+						public Collection<Value> next() {
+							return getAll(keys.next());
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return View.this.size();
+				}
+			};
+		}
+
+		@Override
+		public Set<Entry<Key, Collection<Value>>> entrySet() {
+			return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+				@Override
+				public Iterator<Entry<Key, Collection<Value>>> iterator() {
+					Iterator<Key> keys = keySet().iterator();
+					return new Iterator<Entry<Key, Collection<Value>>>() {
+
+						@Override
+						public boolean hasNext() {
+							return keys.hasNext();
+						}
+
+						@Override
+						public Entry<Key, Collection<Value>> next() {
+							Key key = keys.next();
+							return new AbstractMap.SimpleImmutableEntry<>(key, getAll(key));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return View.this.size();
+				}
+			};
+		}
+
+		@Override
+		public Iterator<Entry<Key, Value>> iterator() {
+			return new Iterator<Entry<Key, Value>>() {
+
+				private final Iterator<Key> keys = keySet().iterator();
+				private Iterator<Value> values;
+				private Key key;
+
+				@Override
+				public boolean hasNext() {
+					while (values == null || !values.hasNext()) {
+						if (keys.hasNext()) {
+							key = keys.next();
+							values = getAll(key).iterator();
+						} else {
+							return false;
+						}
+					}
+					return true;
+				}
+
+				@Override
+				public Entry<Key, Value> next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					} else {
+						return new AbstractMap.SimpleImmutableEntry<>(key, values.next());
+					}
+				}
+			};
+		}
+	}
+
+	private static class TransformedView<Key, Source, Value> extends View<Key, Source, Value> {
+		private final Function<? super Source, ? extends Value> function;
+
+		public TransformedView(MultiMap<Key, Source> map, Function<? super Source, ? extends Value> function) {
+			super(map);
+			this.function = function;
+		}
+
+		private class TransformedValues extends ValuesView<Source, Value> {
+
+			public TransformedValues(Collection<Source> source) {
+				super(source);
+			}
+
+			@Override
+			public Iterator<Value> iterator() {
+				Iterator<Source> iterator = source.iterator();
+				return new Iterator<Value>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Value next() {
+						return function.apply(iterator.next());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return source.size();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return source.isEmpty();
+			}
+		}
+
+		@Override
+		public TransformedValues getAll(Object key) {
+			Collection<Source> source = map.getAll(key);
+			return source == null ? null : new TransformedValues(source);
+		}
+
+		@Override
+		public Set<Key> keySet() {
+			return Collections.unmodifiableSet(map.keySet());
+		}
+
+		@Override
+		public boolean add(Key key, Value value) {
+			throw new UnsupportedOperationException("Cannot add to transformed values");
+		}
+
+		@Override
+		public boolean addAll(Key key, Collection<Value> values) {
+			throw new UnsupportedOperationException("Cannot add to transformed values");
+		}
+
+		@Override
+		public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+			throw new UnsupportedOperationException("Cannot add to transformed values");
+		}
+
+		/**
+		 * Remove the first value of the key which is transformed into the
+		 * given one.
+		 */
+		@Override
+		public boolean remove(Key key, Value value) {
+			Collection<Source> source = map.getAll(key);
+			if (source != null) {
+				for (Source candidate : source) {
+					if (Objects.equals(function.apply(candidate), value)) {
+						return map.remove(key, candidate);
+					} else {
+						continue;
+					}
+				}
+			} else {
+				// unknown key
+			}
+			return false;
+		}
+
+		@Override
+		public Collection<Value> remove(Object key) {
+			Collection<Source> removed = map.remove(key);
+			return removed == null ? null : new TransformedValues(removed);
+		}
+
+		@Override
+		public void clear() {
+			map.clear();
+		}
+	}
+
+	private static class FilteredView<Key, Value> extends View<Key, Value, Value> {
+		private final Predicate<? super Key> keyPredicate;
+		private final BiPredicate<? super Key, ? super Value> couplePredicate;
+		private final boolean isFilteringValues;
+
+		/**
+		 * 
+		 * @param isFilteringValues
+		 *            <code>true</code> if the couple {@link BiPredicate} may
+		 *            reject values, so the keys without accepted values are
+		 *            hidden
+		 */
+		public FilteredView(MultiMap<Key, Value> map, Predicate<? super Key> keyPredicate,
+				BiPredicate<? super Key, ? super Value> couplePredicate, boolean isFilteringValues) {
+			super(map);
+			this.keyPredicate = keyPredicate;
+			this.couplePredicate = couplePredicate;
+			this.isFilteringValues = isFilteringValues;
+		}
+
+		private boolean accepts(Key key, Value value) {
+			return keyPredicate.test(key) && couplePredicate.test(key, value);
+		}
+
+		private void checkAccepted(Key key) {
+			if (!keyPredicate.test(key)) {
+				throw new IllegalArgumentException("Key rejected by the filter: " + key);
+			} else {
+				// accepted key
+			}
+		}
+
+		private void checkAccepted(Key key, Value value) {
+			if (!accepts(key, value)) {
+				throw new IllegalArgumentException("Couple rejected by the filter: " + key + " -> " + value);
+			} else {
+				// accepted couple
+			}
+		}
+
+		private class FilteredValues extends ValuesView<Value, Value> {
+			private final Key key;
+
+			public FilteredValues(Key key, Collection<Value> source) {
+				super(source);
+				this.key = key;
+			}
+
+			@Override
+			public Iterator<Value> iterator() {
+				Iterator<Value> iterator = source.iterator();
+				return new Iterator<Value>() {
+
+					private boolean hasNext = false;
+					private Value next;
+
+					@Override
+					public boolean hasNext() {
+						while (!hasNext && iterator.hasNext()) {
+							Value value = iterator.next();
+							if (couplePredicate.test(key, value)) {
+								next = value;
+								hasNext = true;
+							} else {
+								continue;
+							}
+						}
+						return hasNext;
+					}
+
+					@Override
+					public Value next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						} else {
+							hasNext = false;
+							return next;
+						}
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				if (!isFilteringValues) {
+					return source.size();
+				} else {
+					int size = 0;
+					for (Iterator<Value> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+						size++;
+					}
+					return size;
+				}
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return isFilteringValues ? !iterator().hasNext() : source.isEmpty();
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public boolean contains(Object value) {
+				return source.contains(value) && couplePredicate.test(key, (Value) value);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public FilteredValues getAll(Object key) {
+			if (!map.containsKey(key) || !keyPredicate.test((Key) key)) {
+				return null;
+			} else {
+				FilteredValues values = new FilteredValues((Key) key, map.getAll(key));
+				return isFilteringValues && values.isEmpty() ? null : values;
+			}
+		}
+
+		@Override
+		public Set<Key> keySet() {
+			return new AbstractSet<Key>() {
+
+				@Override
+				public Iterator<Key> iterator() {
+					Iterator<Key> iterator = map.keySet().iterator();
+					return new Iterator<Key>() {
+
+						private boolean hasNext = false;
+						private Key next;
+
+						@Override
+						public boolean hasNext() {
+							while (!hasNext && iterator.hasNext()) {
+								Key key = iterator.next();
+								if (containsKey(key)) {
+									next = key;
+									hasNext = true;
+								} else {
+									continue;
+								}
+							}
+							return hasNext;
+						}
+
+						@Override
+						public Key next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							} else {
+								hasNext = false;
+								return next;
+							}
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (Iterator<Key> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+						size++;
+					}
+					return size;
+				}
+
+				@Override
+				public boolean contains(Object key) {
+					return containsKey(key);
+				}
+			};
+		}
+
+		@Override
+		public boolean add(Key key, Value value) {
+			checkAccepted(key, value);
+			return map.add(key, value);
+		}
+
+		@Override
+		public boolean addAll(Key key, Collection<Value> values) {
+			checkAccepted(key);
+			for (Value value : values) {
+				checkAccepted(key, value);
+			}
+			return map.addAll(key, values);
+		}
+
+		/**
+		 * Replace the accepted values of the key, while the rejected ones
+		 * remain in the backing {@link MultiMap}.
+		 */
+		@Override
+		public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+			checkAccepted(key);
+			for (Value value : collection) {
+				checkAccepted(key, value);
+			}
+			Collection<Value> previous = remove(key);
+			map.addAll(key, collection);
+			return previous;
+		}
+
+		@Override
+		public boolean remove(Key key, Value value) {
+			return accepts(key, value) && map.remove(key, value);
+		}
+
+		/**
+		 * Remove the accepted values of the key, while the rejected ones remain
+		 * in the backing {@link MultiMap}.
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public Collection<Value> remove(Object key) {
+			FilteredValues values = getAll(key);
+			if (values == null) {
+				return null;
+			} else if (!isFilteringValues) {
+				return map.remove(key);
+			} else {
+				Collection<Value> removed = new ArrayList<>(values);
+				for (Value value : removed) {
+					map.remove((Key) key, value);
+				}
+				return removed;
+			}
+		}
+	}
+}
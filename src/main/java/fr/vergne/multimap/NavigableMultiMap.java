@@ -0,0 +1,137 @@
+package fr.vergne.multimap;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A {@link NavigableMultiMap} is a {@link MultiMap} whose keys are sorted, so
+ * it can be browsed from a key to the closest ones and restricted to a range
+ * of keys, in the spirit of {@link java.util.NavigableMap}.
+ * </p>
+ * <p>
+ * The ranges returned by {@link #subMap(Object, boolean, Object, boolean)},
+ * {@link #headMap(Object, boolean)} and {@link #tailMap(Object, boolean)} are
+ * live views: the changes made on them are reflected on this
+ * {@link NavigableMultiMap} and vice-versa. Browsing a range only accesses
+ * the keys of the range. Adding a key out of the range of a view throws an
+ * {@link IllegalArgumentException}.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public interface NavigableMultiMap<Key, Value> extends MultiMap<Key, Value> {
+
+	/**
+	 * 
+	 * @return the {@link Comparator} ordering the keys, <code>null</code> if
+	 *         they are ordered by their natural ordering
+	 */
+	public Comparator<? super Key> comparator();
+
+	/**
+	 * 
+	 * @return the lowest key
+	 * @throws NoSuchElementException
+	 *             if there is no key
+	 */
+	public Key firstKey();
+
+	/**
+	 * 
+	 * @return the highest key
+	 * @throws NoSuchElementException
+	 *             if there is no key
+	 */
+	public Key lastKey();
+
+	/**
+	 * 
+	 * @return the greatest key strictly lower than the given one,
+	 *         <code>null</code> if there is none
+	 */
+	public Key lowerKey(Key key);
+
+	/**
+	 * 
+	 * @return the greatest key lower than or equal to the given one,
+	 *         <code>null</code> if there is none
+	 */
+	public Key floorKey(Key key);
+
+	/**
+	 * 
+	 * @return the least key greater than or equal to the given one,
+	 *         <code>null</code> if there is none
+	 */
+	public Key ceilingKey(Key key);
+
+	/**
+	 * 
+	 * @return the least key strictly greater than the given one,
+	 *         <code>null</code> if there is none
+	 */
+	public Key higherKey(Key key);
+
+	/**
+	 * 
+	 * @return the keys, in ascending order
+	 */
+	public NavigableSet<Key> navigableKeySet();
+
+	/**
+	 * 
+	 * @return a view of this {@link NavigableMultiMap} with the keys in
+	 *         descending order
+	 */
+	public NavigableMultiMap<Key, Value> descendingMap();
+
+	/**
+	 * 
+	 * @param fromKey
+	 *            the lower bound of the keys
+	 * @param fromInclusive
+	 *            <code>true</code> if the lower bound is part of the range
+	 * @param toKey
+	 *            the upper bound of the keys
+	 * @param toInclusive
+	 *            <code>true</code> if the upper bound is part of the range
+	 * @return a view of the keys of this {@link NavigableMultiMap} in the
+	 *         range, with their values
+	 */
+	public NavigableMultiMap<Key, Value> subMap(Key fromKey, boolean fromInclusive, Key toKey, boolean toInclusive);
+
+	/**
+	 * 
+	 * @param toKey
+	 *            the upper bound of the keys
+	 * @param inclusive
+	 *            <code>true</code> if the upper bound is part of the range
+	 * @return a view of the keys of this {@link NavigableMultiMap} lower than
+	 *         the bound, with their values
+	 */
+	public NavigableMultiMap<Key, Value> headMap(Key toKey, boolean inclusive);
+
+	/**
+	 * 
+	 * @param fromKey
+	 *            the lower bound of the keys
+	 * @param inclusive
+	 *            <code>true</code> if the lower bound is part of the range
+	 * @return a view of the keys of this {@link NavigableMultiMap} greater
+	 *         than the bound, with their values
+	 */
+	public NavigableMultiMap<Key, Value> tailMap(Key fromKey, boolean inclusive);
+
+	/**
+	 * 
+	 * @return a view of the keys in [fromKey, toKey), with their values
+	 */
+	default NavigableMultiMap<Key, Value> subMap(Key fromKey, Key toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+}
@@ -0,0 +1,135 @@
+package fr.vergne.multimap.event;
+
+import java.util.Collection;
+import java.util.Objects;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * A {@link Change} describes a modification of a {@link MultiMap}, so a
+ * derived structure can be updated incrementally instead of browsing the
+ * whole {@link MultiMap} again.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public final class Change<Key, Value> {
+
+	public static enum Type {
+		/**
+		 * A value has been added to a key.
+		 */
+		ADDED,
+		/**
+		 * A value has been removed from a key.
+		 */
+		REMOVED,
+		/**
+		 * All the values of a key have been replaced, or the key has been
+		 * removed if {@link Change#getValues()} is <code>null</code>.
+		 */
+		REPLACED,
+		/**
+		 * All the keys have been removed.
+		 */
+		CLEARED
+	}
+
+	private final Type type;
+	private final Key key;
+	private final Value value;
+	private final Collection<Value> values;
+
+	private Change(Type type, Key key, Value value, Collection<Value> values) {
+		this.type = type;
+		this.key = key;
+		this.value = value;
+		this.values = values;
+	}
+
+	public static <Key, Value> Change<Key, Value> added(Key key, Value value) {
+		return new Change<>(Type.ADDED, key, value, null);
+	}
+
+	public static <Key, Value> Change<Key, Value> removed(Key key, Value value) {
+		return new Change<>(Type.REMOVED, key, value, null);
+	}
+
+	/**
+	 * 
+	 * @param values
+	 *            the new values of the key, <code>null</code> if the key has
+	 *            been removed
+	 */
+	public static <Key, Value> Change<Key, Value> replaced(Key key, Collection<Value> values) {
+		return new Change<>(Type.REPLACED, key, null, values);
+	}
+
+	public static <Key, Value> Change<Key, Value> cleared() {
+		return new Change<>(Type.CLEARED, null, null, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * 
+	 * @return the key changed, <code>null</code> for {@link Type#CLEARED}
+	 */
+	public Key getKey() {
+		return key;
+	}
+
+	/**
+	 * 
+	 * @return the value added or removed, <code>null</code> for the other
+	 *         {@link Type}s
+	 */
+	public Value getValue() {
+		return value;
+	}
+
+	/**
+	 * 
+	 * @return the new values of a {@link Type#REPLACED} key,
+	 *         <code>null</code> if it has been removed or for the other
+	 *         {@link Type}s
+	 */
+	public Collection<Value> getValues() {
+		return values;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		} else if (obj instanceof Change) {
+			Change<?, ?> other = (Change<?, ?>) obj;
+			return type == other.type && Objects.equals(key, other.key) && Objects.equals(value, other.value)
+					&& Objects.equals(values, other.values);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(type, key, value, values);
+	}
+
+	@Override
+	public String toString() {
+		switch (type) {
+		case ADDED:
+		case REMOVED:
+			return type + "(" + key + ", " + value + ")";
+		case REPLACED:
+			return type + "(" + key + ", " + values + ")";
+		default:
+			return type.toString();
+		}
+	}
+}
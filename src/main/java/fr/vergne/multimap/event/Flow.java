@@ -0,0 +1,100 @@
+package fr.vergne.multimap.event;
+
+/**
+ * <p>
+ * {@link Flow} provides the interfaces of the reactive streams, for the
+ * publishers of items to control the flow of items sent to their subscribers
+ * depending on their demand. They have the same methods and contracts than
+ * the ones of the <code>java.util.concurrent.Flow</code> class introduced in
+ * Java 9, which are not available in Java 8.
+ * </p>
+ * <p>
+ * A {@link Subscriber} is registered to a {@link Publisher} through
+ * {@link Publisher#subscribe(Subscriber)}, then receives a
+ * {@link Subscription} through {@link Subscriber#onSubscribe(Subscription)}.
+ * The {@link Publisher} sends no more items than requested through
+ * {@link Subscription#request(long)}, until the {@link Subscriber} cancels
+ * the {@link Subscription} or the {@link Publisher} terminates it through
+ * {@link Subscriber#onComplete()} or {@link Subscriber#onError(Throwable)}.
+ * The calls to a given {@link Subscriber} are never concurrent.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public final class Flow {
+
+	private Flow() {
+		// only interfaces
+	}
+
+	/**
+	 * A producer of items received by {@link Subscriber}s.
+	 * 
+	 * @param <T>
+	 *            the type of items published
+	 */
+	@FunctionalInterface
+	public static interface Publisher<T> {
+		/**
+		 * Add a {@link Subscriber}, which receives its {@link Subscription}
+		 * through {@link Subscriber#onSubscribe(Subscription)}, or an error
+		 * through {@link Subscriber#onError(Throwable)} if it cannot be
+		 * subscribed.
+		 * 
+		 * @param subscriber
+		 *            the {@link Subscriber} to add
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items from a {@link Publisher}.
+	 * 
+	 * @param <T>
+	 *            the type of items received
+	 */
+	public static interface Subscriber<T> {
+		/**
+		 * Called before any other method, with the {@link Subscription}
+		 * through which the items are requested.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Called with the next item, only if it has been requested.
+		 */
+		void onNext(T item);
+
+		/**
+		 * Called when the {@link Subscription} is terminated by an error, after
+		 * which no other method is called.
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * Called when no more item will be published, after which no other
+		 * method is called.
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * The link between a {@link Publisher} and a {@link Subscriber}.
+	 */
+	public static interface Subscription {
+		/**
+		 * Request more items. A non-positive number terminates the
+		 * {@link Subscription} with an {@link IllegalArgumentException}.
+		 * 
+		 * @param n
+		 *            the number of additional items to send
+		 */
+		void request(long n);
+
+		/**
+		 * Stop sending items, possibly after a few ones already being sent.
+		 */
+		void cancel();
+	}
+}
@@ -0,0 +1,622 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * Common ground of the primitive-specialized multimaps, which store their keys
+ * in an open-addressing hash table of slots. The subclasses provide the access
+ * to their slots, and this class provides on top of them the boxed
+ * {@link MultiMap} view returned by {@link #asMultiMap()}.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ *            the boxed type of the keys
+ * @param <Value>
+ *            the boxed type of the values
+ */
+abstract class AbstractPrimitiveMultiMap<Key, Value> {
+
+	/**
+	 * Incremented on each change, so the iterators can detect concurrent
+	 * modifications.
+	 */
+	int modCount = 0;
+
+	private MultiMap<Key, Value> multiMap;
+
+	/**
+	 * 
+	 * @return <code>true</code> if the values of a key are a set,
+	 *         <code>false</code> if they are a list
+	 */
+	abstract boolean isDistinct();
+
+	/**
+	 * 
+	 * @return <code>true</code> if the value can be stored,
+	 *         <code>false</code> if it is <code>null</code> or not of the
+	 *         right type for a primitive
+	 */
+	abstract boolean isValidValue(Object value);
+
+	/**
+	 * Check the value before creating its slot, so a rejected value does not
+	 * leave an empty key behind.
+	 */
+	private void checkValue(Value value) {
+		if (isValidValue(value)) {
+			// valid value
+		} else if (value == null) {
+			throw new NullPointerException("No null value allowed");
+		} else {
+			throw new ClassCastException("Invalid value type: " + value.getClass());
+		}
+	}
+
+	private void checkValues(Collection<Value> values) {
+		for (Value value : values) {
+			checkValue(value);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the slot of the key, -1 if the key is not mapped or not of the
+	 *         right type
+	 */
+	abstract int slotOf(Object key);
+
+	/**
+	 * 
+	 * @return the slot of the key, created with no value if necessary
+	 */
+	abstract int insertSlot(Key key);
+
+	/**
+	 * 
+	 * @return the first used slot starting from this one, -1 if there is none
+	 */
+	abstract int nextSlot(int from);
+
+	abstract Key keyAt(int slot);
+
+	abstract int countAt(int slot);
+
+	abstract Value valueAt(int slot, int index);
+
+	abstract boolean addAt(int slot, Value value);
+
+	/**
+	 * 
+	 * @return the index of the value in the slot, -1 if absent or not of the
+	 *         right type
+	 */
+	abstract int valueIndex(int slot, Object value);
+
+	abstract void removeAt(int slot, int index);
+
+	abstract void removeSlot(int slot);
+
+	abstract int keyCount();
+
+	abstract void clearAll();
+
+	public MultiMap<Key, Value> asMultiMap() {
+		if (multiMap == null) {
+			multiMap = new BoxedMultiMap();
+		} else {
+			// reuse the already created view
+		}
+		return multiMap;
+	}
+
+	private Collection<Value> copyOf(int slot) {
+		int count = countAt(slot);
+		Collection<Value> copy = isDistinct() ? new HashSet<>() : new ArrayList<>(count);
+		for (int index = 0; index < count; index++) {
+			copy.add(valueAt(slot, index));
+		}
+		return copy;
+	}
+
+	private Collection<Value> viewOf(Key key) {
+		return isDistinct() ? new SetView(key) : new ListView(key);
+	}
+
+	private boolean isMappedTo(int slot, Collection<Value> typedCollection) {
+		int count = countAt(slot);
+		if (count != typedCollection.size()) {
+			return false;
+		} else if (isDistinct()) {
+			for (int index = 0; index < count; index++) {
+				if (!typedCollection.contains(valueAt(slot, index))) {
+					return false;
+				}
+			}
+			return true;
+		} else {
+			int index = 0;
+			for (Value value : typedCollection) {
+				Value stored = valueAt(slot, index++);
+				if (value == null ? stored != null : !value.equals(stored)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private abstract class SlotIterator<T> implements Iterator<T> {
+		private int expectedModCount = modCount;
+		private int nextSlot = nextSlot(0);
+		private int lastSlot = -1;
+
+		@Override
+		public boolean hasNext() {
+			return nextSlot >= 0;
+		}
+
+		@Override
+		public T next() {
+			checkModCount();
+			if (nextSlot < 0) {
+				throw new NoSuchElementException();
+			} else {
+				lastSlot = nextSlot;
+				nextSlot = nextSlot(nextSlot + 1);
+				return get(lastSlot);
+			}
+		}
+
+		abstract T get(int slot);
+
+		@Override
+		public void remove() {
+			checkModCount();
+			if (lastSlot < 0) {
+				throw new IllegalStateException();
+			} else {
+				// removed slots are marked, so the next slots do not move
+				removeSlot(lastSlot);
+				lastSlot = -1;
+				expectedModCount = modCount;
+			}
+		}
+
+		private void checkModCount() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			} else {
+				// no concurrent change
+			}
+		}
+	}
+
+	private class ValuesIterator implements Iterator<Value> {
+		private final Object key;
+		private int expectedModCount = modCount;
+		private int nextIndex = 0;
+		private int lastIndex = -1;
+
+		public ValuesIterator(Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean hasNext() {
+			int slot = slotOf(key);
+			return slot >= 0 && nextIndex < countAt(slot);
+		}
+
+		@Override
+		public Value next() {
+			checkModCount();
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			} else {
+				lastIndex = nextIndex++;
+				return valueAt(slotOf(key), lastIndex);
+			}
+		}
+
+		@Override
+		public void remove() {
+			checkModCount();
+			if (lastIndex < 0) {
+				throw new IllegalStateException();
+			} else {
+				removeAt(slotOf(key), lastIndex);
+				nextIndex = lastIndex;
+				lastIndex = -1;
+				expectedModCount = modCount;
+			}
+		}
+
+		private void checkModCount() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			} else {
+				// no concurrent change
+			}
+		}
+	}
+
+	private class ListView extends AbstractList<Value> {
+		private final Key key;
+
+		public ListView(Key key) {
+			this.key = key;
+		}
+
+		@Override
+		public Value get(int index) {
+			int slot = slotOf(key);
+			if (slot < 0 || index < 0 || index >= countAt(slot)) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			} else {
+				return valueAt(slot, index);
+			}
+		}
+
+		@Override
+		public int size() {
+			int slot = slotOf(key);
+			return slot < 0 ? 0 : countAt(slot);
+		}
+
+		@Override
+		public boolean contains(Object value) {
+			int slot = slotOf(key);
+			return slot >= 0 && valueIndex(slot, value) >= 0;
+		}
+
+		@Override
+		public boolean add(Value value) {
+			checkValue(value);
+			return addAt(insertSlot(key), value);
+		}
+
+		@Override
+		public Value remove(int index) {
+			Value value = get(index);
+			removeAt(slotOf(key), index);
+			return value;
+		}
+
+		@Override
+		public boolean remove(Object value) {
+			int slot = slotOf(key);
+			int index = slot < 0 ? -1 : valueIndex(slot, value);
+			if (index < 0) {
+				return false;
+			} else {
+				removeAt(slot, index);
+				return true;
+			}
+		}
+
+		@Override
+		public Iterator<Value> iterator() {
+			return new ValuesIterator(key);
+		}
+	}
+
+	private class SetView extends AbstractSet<Value> {
+		private final Key key;
+
+		public SetView(Key key) {
+			this.key = key;
+		}
+
+		@Override
+		public int size() {
+			int slot = slotOf(key);
+			return slot < 0 ? 0 : countAt(slot);
+		}
+
+		@Override
+		public boolean contains(Object value) {
+			int slot = slotOf(key);
+			return slot >= 0 && valueIndex(slot, value) >= 0;
+		}
+
+		@Override
+		public boolean add(Value value) {
+			checkValue(value);
+			return addAt(insertSlot(key), value);
+		}
+
+		@Override
+		public boolean remove(Object value) {
+			int slot = slotOf(key);
+			int index = slot < 0 ? -1 : valueIndex(slot, value);
+			if (index < 0) {
+				return false;
+			} else {
+				removeAt(slot, index);
+				return true;
+			}
+		}
+
+		@Override
+		public Iterator<Value> iterator() {
+			return new ValuesIterator(key);
+		}
+	}
+
+	private class BoxedMultiMap implements MultiMap<Key, Value> {
+
+		@Override
+		public boolean add(Key key, Value value) {
+			checkValue(value);
+			return addAt(insertSlot(key), value);
+		}
+
+		@Override
+		public boolean addAll(Key key, Collection<Value> values) {
+			checkValues(values);
+			int slot = insertSlot(key);
+			boolean isChanged = false;
+			for (Value value : values) {
+				isChanged |= addAt(slot, value);
+			}
+			return isChanged;
+		}
+
+		@Override
+		public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+			checkValues(collection);
+			int slot = slotOf(key);
+			Collection<Value> previous = null;
+			if (slot >= 0) {
+				previous = copyOf(slot);
+				removeSlot(slot);
+			} else {
+				// no previous values
+			}
+			addAll(key, collection);
+			return previous;
+		}
+
+		@Override
+		public Collection<Value> getAll(Object key) {
+			int slot = slotOf(key);
+			return slot < 0 ? null : viewOf(keyAt(slot));
+		}
+
+		@Override
+		public Set<Key> keySet() {
+			return new AbstractSet<Key>() {
+
+				@Override
+				public Iterator<Key> iterator() {
+					return new SlotIterator<Key>() {
+						@Override
+						Key get(int slot) {
+							return keyAt(slot);
+						}
+					};
+				}
+
+				@Override
+				public boolean contains(Object key) {
+					return slotOf(key) >= 0;
+				}
+
+				@Override
+				public boolean remove(Object key) {
+					return BoxedMultiMap.this.remove(key) != null;
+				}
+
+				@Override
+				public int size() {
+					return keyCount();
+				}
+
+				@Override
+				public void clear() {
+					clearAll();
+				}
+			};
+		}
+
+		@Override
+		public Collection<Collection<Value>> collections() {
+			return new AbstractCollection<Collection<Value>>() {
+
+				@Override
+				public Iterator<Collection<Value>> iterator() {
+					return new SlotIterator<Collection<Value>>() {
+						@Override
+						Collection<Value> get(int slot) {
+							return viewOf(keyAt(slot));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return keyCount();
+				}
+
+				@Override
+				public void clear() {
+					clearAll();
+				}
+			};
+		}
+
+		@Override
+		public Set<Entry<Key, Collection<Value>>> entrySet() {
+			return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+				@Override
+				public Iterator<Entry<Key, Collection<Value>>> iterator() {
+					return new SlotIterator<Entry<Key, Collection<Value>>>() {
+						@Override
+						Entry<Key, Collection<Value>> get(int slot) {
+							Key key = keyAt(slot);
+							return new AbstractMap.SimpleImmutableEntry<>(key, viewOf(key));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return keyCount();
+				}
+
+				@Override
+				public void clear() {
+					clearAll();
+				}
+			};
+		}
+
+		@Override
+		public boolean remove(Key key, Value value) {
+			int slot = slotOf(key);
+			int index = slot < 0 ? -1 : valueIndex(slot, value);
+			if (index < 0) {
+				return false;
+			} else {
+				removeAt(slot, index);
+				return true;
+			}
+		}
+
+		@Override
+		public Collection<Value> remove(Object key) {
+			int slot = slotOf(key);
+			if (slot < 0) {
+				return null;
+			} else {
+				Collection<Value> previous = copyOf(slot);
+				removeSlot(slot);
+				return previous;
+			}
+		}
+
+		@Override
+		public boolean removeAll(Key key, Collection<Value> values) {
+			int slot = slotOf(key);
+			if (slot < 0) {
+				return false;
+			} else {
+				Collection<?> removed = values instanceof Set ? values : new HashSet<>(values);
+				boolean isChanged = false;
+				for (int index = countAt(slot) - 1; index >= 0; index--) {
+					if (removed.contains(valueAt(slot, index))) {
+						removeAt(slot, index);
+						isChanged = true;
+					} else {
+						// keep the value
+					}
+				}
+				return isChanged;
+			}
+		}
+
+		@Override
+		public void clear() {
+			clearAll();
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return slotOf(key) >= 0;
+		}
+
+		@Override
+		public boolean containsCouple(Key key, Value value) {
+			int slot = slotOf(key);
+			return slot >= 0 && valueIndex(slot, value) >= 0;
+		}
+
+		@Override
+		public boolean containsKeyMappedTo(Collection<Value> collection) {
+			List<Value> list = new ArrayList<>(collection);
+			Collection<Value> typedCollection = isDistinct() ? new HashSet<>(list) : list;
+			for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+				if (isMappedTo(slot, typedCollection)) {
+					return true;
+				} else {
+					continue;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public int size() {
+			return keyCount();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return keyCount() == 0;
+		}
+
+		@Override
+		public Iterator<Entry<Key, Value>> iterator() {
+			return new Iterator<Entry<Key, Value>>() {
+				private int expectedModCount = modCount;
+				private int slot = nextSlot(0);
+				private int index = 0;
+				private int lastSlot = -1;
+				private int lastIndex = -1;
+
+				@Override
+				public boolean hasNext() {
+					while (slot >= 0 && index >= countAt(slot)) {
+						slot = nextSlot(slot + 1);
+						index = 0;
+					}
+					return slot >= 0;
+				}
+
+				@Override
+				public Entry<Key, Value> next() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					} else if (!hasNext()) {
+						throw new NoSuchElementException();
+					} else {
+						lastSlot = slot;
+						lastIndex = index++;
+						return new AbstractMap.SimpleImmutableEntry<>(keyAt(lastSlot), valueAt(lastSlot, lastIndex));
+					}
+				}
+
+				@Override
+				public void remove() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					} else if (lastIndex < 0) {
+						throw new IllegalStateException();
+					} else {
+						removeAt(lastSlot, lastIndex);
+						index = lastIndex;
+						lastIndex = -1;
+						expectedModCount = modCount;
+					}
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,530 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.BidirectionalMultiMap;
+
+/**
+ * <p>
+ * A {@link BackedBidirectionalMultiMap} is a {@link BidirectionalMultiMap}
+ * which implements its features above two {@link Map} instances: one mapping
+ * each key to its values, and one mapping each value to its keys. Each
+ * modification updates both {@link Map}s, so {@link #keysFor(Object)} costs a
+ * single lookup.
+ * </p>
+ * <p>
+ * Like a {@link BackedMultiMap}, a key remains when all its values are
+ * removed. This is true for the {@link BackedBidirectionalMultiMap} on which
+ * the removal is requested, while the opposite one forgets the entries which
+ * become empty, so the reverse index does not accumulate empty
+ * {@link Collection}s. For instance, removing a couple from
+ * {@link #inverse()} may remove the key from this
+ * {@link BackedBidirectionalMultiMap}.
+ * </p>
+ * <p>
+ * The {@link Collection}s of values returned by this
+ * {@link BackedBidirectionalMultiMap} are views which update both
+ * {@link Map}s when they are modified. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class BackedBidirectionalMultiMap<Key, Value> implements BidirectionalMultiMap<Key, Value> {
+
+	private final Map<Key, Collection<Value>> forward;
+	private final Map<Value, Collection<Key>> backward;
+	private final Supplier<Collection<Value>> valuesSupplier;
+	private final Supplier<Collection<Key>> keysSupplier;
+	private BackedBidirectionalMultiMap<Value, Key> inverse;
+
+	/**
+	 * 
+	 * @param forward
+	 *            the empty {@link Map} to store the values of each key
+	 * @param valuesSupplier
+	 *            the {@link Supplier} of the {@link Collection}s of values
+	 * @param backward
+	 *            the empty {@link Map} to store the keys of each value
+	 * @param keysSupplier
+	 *            the {@link Supplier} of the {@link Collection}s of keys, which
+	 *            should have the same semantics than the ones of values
+	 */
+	public BackedBidirectionalMultiMap(Map<Key, Collection<Value>> forward, Supplier<Collection<Value>> valuesSupplier,
+			Map<Value, Collection<Key>> backward, Supplier<Collection<Key>> keysSupplier) {
+		if (!forward.isEmpty() || !backward.isEmpty()) {
+			throw new IllegalArgumentException("The maps must be empty");
+		} else {
+			this.forward = forward;
+			this.valuesSupplier = valuesSupplier;
+			this.backward = backward;
+			this.keysSupplier = keysSupplier;
+		}
+	}
+
+	private BackedBidirectionalMultiMap(BackedBidirectionalMultiMap<Value, Key> inverse) {
+		this.forward = inverse.backward;
+		this.valuesSupplier = inverse.keysSupplier;
+		this.backward = inverse.forward;
+		this.keysSupplier = inverse.valuesSupplier;
+		this.inverse = inverse;
+	}
+
+	private Collection<Value> getContainerFor(Key key) {
+		Collection<Value> values = forward.get(key);
+		if (values == null) {
+			values = valuesSupplier.get();
+			forward.put(key, values);
+		} else {
+			// use the already present collection
+		}
+		return values;
+	}
+
+	private void link(Value value, Key key) {
+		Collection<Key> keys = backward.get(value);
+		if (keys == null) {
+			keys = keysSupplier.get();
+			backward.put(value, keys);
+		} else {
+			// use the already present collection
+		}
+		keys.add(key);
+	}
+
+	private void unlink(Value value, Key key) {
+		Collection<Key> keys = backward.get(value);
+		keys.remove(key);
+		if (keys.isEmpty()) {
+			backward.remove(value);
+		} else {
+			// other keys remain for this value
+		}
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		if (getContainerFor(key).add(value)) {
+			link(value, key);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		Collection<Value> container = getContainerFor(key);
+		boolean isChanged = false;
+		for (Value value : values) {
+			if (container.add(value)) {
+				link(value, key);
+				isChanged = true;
+			} else {
+				// value ignored by the collection
+			}
+		}
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		Collection<Value> container = valuesSupplier.get();
+		container.addAll(collection);
+		Collection<Value> previous = forward.put(key, container);
+		if (previous != null) {
+			for (Value value : previous) {
+				unlink(value, key);
+			}
+		} else {
+			// new key
+		}
+		for (Value value : container) {
+			link(value, key);
+		}
+		return previous;
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		@SuppressWarnings("unchecked")
+		Key typedKey = (Key) key;
+		return forward.containsKey(key) ? new ValuesView(typedKey) : null;
+	}
+
+	@Override
+	public Collection<Key> keysFor(Value value) {
+		Collection<Key> keys = backward.get(value);
+		return keys == null ? Collections.emptySet() : Collections.unmodifiableCollection(keys);
+	}
+
+	@Override
+	public boolean removeValueEverywhere(Value value) {
+		Collection<Key> keys = backward.remove(value);
+		if (keys == null) {
+			return false;
+		} else {
+			for (Key key : keys) {
+				forward.get(key).remove(value);
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public BidirectionalMultiMap<Value, Key> inverse() {
+		if (inverse == null) {
+			inverse = new BackedBidirectionalMultiMap<>(this);
+		} else {
+			// reuse the existing inverse
+		}
+		return inverse;
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return new AbstractSet<Key>() {
+
+			@Override
+			public Iterator<Key> iterator() {
+				return new KeysIterator<Key>() {
+					@Override
+					Key get(Entry<Key, Collection<Value>> entry) {
+						return entry.getKey();
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object key) {
+				return forward.containsKey(key);
+			}
+
+			@Override
+			public boolean remove(Object key) {
+				if (forward.containsKey(key)) {
+					BackedBidirectionalMultiMap.this.remove(key);
+					return true;
+				} else {
+					return false;
+				}
+			}
+
+			@Override
+			public int size() {
+				return forward.size();
+			}
+
+			@Override
+			public void clear() {
+				BackedBidirectionalMultiMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return new AbstractCollection<Collection<Value>>() {
+
+			@Override
+			public Iterator<Collection<Value>> iterator() {
+				return new KeysIterator<Collection<Value>>() {
+					@Override
+					Collection<Value> get(Entry<Key, Collection<Value>> entry) {
+						return new ValuesView(entry.getKey());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return forward.size();
+			}
+
+			@Override
+			public void clear() {
+				BackedBidirectionalMultiMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				return new KeysIterator<Entry<Key, Collection<Value>>>() {
+					@Override
+					Entry<Key, Collection<Value>> get(Entry<Key, Collection<Value>> entry) {
+						return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), new ValuesView(entry.getKey()));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return forward.size();
+			}
+
+			@Override
+			public void clear() {
+				BackedBidirectionalMultiMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		Collection<Value> values = forward.get(key);
+		if (values != null && values.remove(value)) {
+			unlink(value, key);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		Collection<Value> previous = forward.remove(key);
+		if (previous != null) {
+			@SuppressWarnings("unchecked")
+			Key typedKey = (Key) key;
+			for (Value value : previous) {
+				unlink(value, typedKey);
+			}
+		} else {
+			// unknown key
+		}
+		return previous;
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		Collection<Value> container = forward.get(key);
+		boolean isChanged = false;
+		if (container != null) {
+			Iterator<Value> iterator = container.iterator();
+			while (iterator.hasNext()) {
+				Value value = iterator.next();
+				if (values.contains(value)) {
+					iterator.remove();
+					unlink(value, key);
+					isChanged = true;
+				} else {
+					continue;
+				}
+			}
+		} else {
+			// unknown key
+		}
+		return isChanged;
+	}
+
+	@Override
+	public void clear() {
+		forward.clear();
+		backward.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return forward.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		Collection<Value> values = forward.get(key);
+		return values != null && values.contains(value);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = valuesSupplier.get();
+		typedCollection.addAll(collection);
+		return forward.containsValue(typedCollection);
+	}
+
+	@Override
+	public int size() {
+		return forward.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return forward.isEmpty();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+
+			private final Iterator<Entry<Key, Collection<Value>>> entriesIterator = forward.entrySet().iterator();
+			private Iterator<Value> valuesIterator;
+			private Key key;
+			private Value value;
+
+			@Override
+			public boolean hasNext() {
+				while (valuesIterator == null || !valuesIterator.hasNext()) {
+					if (entriesIterator.hasNext()) {
+						Entry<Key, Collection<Value>> entry = entriesIterator.next();
+						key = entry.getKey();
+						valuesIterator = entry.getValue().iterator();
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					value = valuesIterator.next();
+					return new AbstractMap.SimpleImmutableEntry<Key, Value>(key, value);
+				}
+			}
+
+			@Override
+			public void remove() {
+				valuesIterator.remove();
+				unlink(value, key);
+			}
+		};
+	}
+
+	private abstract class KeysIterator<T> implements Iterator<T> {
+		private final Iterator<Entry<Key, Collection<Value>>> iterator = forward.entrySet().iterator();
+		private Entry<Key, Collection<Value>> last;
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public T next() {
+			last = iterator.next();
+			return get(last);
+		}
+
+		abstract T get(Entry<Key, Collection<Value>> entry);
+
+		@Override
+		public void remove() {
+			iterator.remove();
+			for (Value value : last.getValue()) {
+				unlink(value, last.getKey());
+			}
+		}
+	}
+
+	private class ValuesView extends AbstractCollection<Value> {
+		private final Key key;
+
+		public ValuesView(Key key) {
+			this.key = key;
+		}
+
+		private Collection<Value> container() {
+			Collection<Value> values = forward.get(key);
+			return values == null ? Collections.emptySet() : values;
+		}
+
+		@Override
+		public int size() {
+			return container().size();
+		}
+
+		@Override
+		public boolean contains(Object value) {
+			return container().contains(value);
+		}
+
+		@Override
+		public boolean add(Value value) {
+			return BackedBidirectionalMultiMap.this.add(key, value);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean remove(Object value) {
+			return BackedBidirectionalMultiMap.this.remove(key, (Value) value);
+		}
+
+		@Override
+		public Iterator<Value> iterator() {
+			return new Iterator<Value>() {
+				private final Iterator<Value> iterator = container().iterator();
+				private Value last;
+
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Value next() {
+					last = iterator.next();
+					return last;
+				}
+
+				@Override
+				public void remove() {
+					iterator.remove();
+					unlink(last, key);
+				}
+			};
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			return container().equals(object instanceof BackedBidirectionalMultiMap.ValuesView
+					? ((BackedBidirectionalMultiMap<?, ?>.ValuesView) object).container() : object);
+		}
+
+		@Override
+		public int hashCode() {
+			return container().hashCode();
+		}
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link BackedBidirectionalMultiMap} which keeps the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> BackedBidirectionalMultiMap<Key, Value> onLists() {
+		return new BackedBidirectionalMultiMap<>(new HashMap<>(), () -> new LinkedList<>(), new HashMap<>(),
+				() -> new LinkedList<>());
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link BackedBidirectionalMultiMap} which ignores the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> BackedBidirectionalMultiMap<Key, Value> onSets() {
+		return new BackedBidirectionalMultiMap<>(new HashMap<>(), () -> new HashSet<>(), new HashMap<>(),
+				() -> new HashSet<>());
+	}
+}
@@ -1,22 +1,29 @@
 package fr.vergne.multimap.impl;
 
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.function.Supplier;
 
+import fr.vergne.multimap.Batch;
 import fr.vergne.multimap.MultiMap;
 
 /**
  * A {@link BackedMultiMap} is a {@link MultiMap} which implements its fetures
  * above a {@link Map} instance. In other words, any modification made to the
- * {@link Map} is reflected on the {@link BackedMultiMap} and vice-versa.
+ * {@link Map} is reflected on the {@link BackedMultiMap} and vice-versa. What
+ * happens to the containers of the keys which have no value is decided by its
+ * {@link Lifecycle}.
  * 
  * @author Matthieu Vergne <vergne@fbk.eu>
  * 
@@ -25,12 +32,132 @@ import fr.vergne.multimap.MultiMap;
  */
 public class BackedMultiMap<Key, Value> implements MultiMap<Key, Value> {
 
+	/**
+	 * <p>
+	 * A {@link Lifecycle} tells what a {@link BackedMultiMap} does with the
+	 * containers of its keys when they have no value:
+	 * </p>
+	 * <ul>
+	 * <li>{@link #EAGER}: a removal on an unknown key creates its empty
+	 * container, and the keys without value remain, like the other
+	 * {@link MultiMap}s,</li>
+	 * <li>{@link #LAZY}: a removal on an unknown key does not create any
+	 * container, but the keys without value remain,</li>
+	 * <li>{@link #PRUNING}: a removal on an unknown key does not create any
+	 * container, and a key is removed as soon as its last value is removed
+	 * through the {@link BackedMultiMap}, so {@link BackedMultiMap#getAll(Object)}
+	 * returns <code>null</code> instead of an empty container.</li>
+	 * </ul>
+	 * <p>
+	 * A {@link #pruning(int)} {@link Lifecycle} also recycles the containers
+	 * of the removed keys, to reuse them for the next keys instead of creating
+	 * new ones. In such a case, a container obtained through
+	 * {@link BackedMultiMap#getAll(Object)} must not be used anymore once its
+	 * key is removed, since it may become the container of another key.
+	 * </p>
+	 * <p>
+	 * Only the changes made through the {@link BackedMultiMap} are considered:
+	 * a container emptied directly, or through the backed {@link Map}, is not
+	 * pruned.
+	 * </p>
+	 * 
+	 * @author Matthieu Vergne <vergne@fbk.eu>
+	 * 
+	 */
+	public static class Lifecycle {
+		public static final Lifecycle EAGER = new Lifecycle(true, false, 0);
+		public static final Lifecycle LAZY = new Lifecycle(false, false, 0);
+		public static final Lifecycle PRUNING = new Lifecycle(false, true, 0);
+
+		private final boolean isMaterializingOnRemoval;
+		private final boolean isPruning;
+		private final int poolCapacity;
+
+		private Lifecycle(boolean isMaterializingOnRemoval, boolean isPruning, int poolCapacity) {
+			this.isMaterializingOnRemoval = isMaterializingOnRemoval;
+			this.isPruning = isPruning;
+			this.poolCapacity = poolCapacity;
+		}
+
+		/**
+		 * 
+		 * @param poolCapacity
+		 *            the maximum number of empty containers kept for reuse
+		 * @return a {@link Lifecycle} like {@link #PRUNING}, which also
+		 *         recycles the containers of the pruned keys
+		 */
+		public static Lifecycle pruning(int poolCapacity) {
+			if (poolCapacity < 0) {
+				throw new IllegalArgumentException("Negative pool capacity: " + poolCapacity);
+			} else {
+				return new Lifecycle(false, true, poolCapacity);
+			}
+		}
+
+		/**
+		 * 
+		 * @return <code>true</code> if a removal on an unknown key creates its
+		 *         empty container
+		 */
+		public boolean isMaterializingOnRemoval() {
+			return isMaterializingOnRemoval;
+		}
+
+		/**
+		 * 
+		 * @return <code>true</code> if a key is removed with its last value
+		 */
+		public boolean isPruning() {
+			return isPruning;
+		}
+
+		/**
+		 * 
+		 * @return the maximum number of empty containers kept for reuse
+		 */
+		public int getPoolCapacity() {
+			return poolCapacity;
+		}
+	}
+
 	private final Map<Key, Collection<Value>> map;
 	private final Supplier<Collection<Value>> collectionSupplier;
+	private final Supplier<Collection<Value>> comparisonSupplier;
+	private final Lifecycle lifecycle;
+	private final Deque<Collection<Value>> pool;
 
 	public BackedMultiMap(Map<Key, Collection<Value>> map, Supplier<Collection<Value>> collectionSupplier) {
+		this(map, collectionSupplier, Lifecycle.EAGER);
+	}
+
+	public BackedMultiMap(Map<Key, Collection<Value>> map, Supplier<Collection<Value>> collectionSupplier,
+			Lifecycle lifecycle) {
+		this(map, collectionSupplier, collectionSupplier, lifecycle);
+	}
+
+	/**
+	 * 
+	 * @param comparisonSupplier
+	 *            the {@link Supplier} of the temporary {@link Collection}s
+	 *            compared to the containers, of the same type than the ones of
+	 *            the collectionSupplier, so the latter only creates containers
+	 */
+	BackedMultiMap(Map<Key, Collection<Value>> map, Supplier<Collection<Value>> collectionSupplier,
+			Supplier<Collection<Value>> comparisonSupplier, Lifecycle lifecycle) {
 		this.map = map;
 		this.collectionSupplier = collectionSupplier;
+		this.comparisonSupplier = comparisonSupplier;
+		this.lifecycle = lifecycle;
+		this.pool = lifecycle.poolCapacity > 0 ? new ArrayDeque<>() : null;
+	}
+
+	/**
+	 * 
+	 * @return the {@link Lifecycle} of the containers of this
+	 *         {@link BackedMultiMap}
+	 */
+	public Lifecycle getLifecycle() {
+		return lifecycle;
 	}
 
 	@Override
@@ -47,23 +174,68 @@ public class BackedMultiMap<Key, Value> implements MultiMap<Key, Value> {
 
 	@Override
 	public boolean remove(Key key, Value value) {
-		Collection<Value> set = getContainerFor(key);
-		return set.remove(value);
+		Collection<Value> set = getContainerForRemoval(key);
+		if (set == null) {
+			return false;
+		} else {
+			boolean isRemoved = set.remove(value);
+			pruneIfEmpty(key, set);
+			return isRemoved;
+		}
 	}
 
 	@Override
 	public boolean removeAll(Key key, Collection<Value> values) {
-		Collection<Value> set = getContainerFor(key);
-		return set.removeAll(values);
+		Collection<Value> set = getContainerForRemoval(key);
+		if (set == null) {
+			return false;
+		} else {
+			boolean isRemoved = set.removeAll(values);
+			pruneIfEmpty(key, set);
+			return isRemoved;
+		}
 	}
 
 	private Collection<Value> getContainerFor(Key key) {
-		if (!containsKey(key)) {
-			map.put(key, collectionSupplier.get());
+		Collection<Value> container = map.get(key);
+		if (container == null) {
+			container = newContainer();
+			map.put(key, container);
 		} else {
 			// use the already present collection
 		}
-		return map.get(key);
+		return container;
+	}
+
+	/**
+	 * 
+	 * @return the container of the key, <code>null</code> if it is unknown
+	 *         and the {@link Lifecycle} does not create it
+	 */
+	private Collection<Value> getContainerForRemoval(Key key) {
+		return lifecycle.isMaterializingOnRemoval ? getContainerFor(key) : map.get(key);
+	}
+
+	private Collection<Value> newContainer() {
+		Collection<Value> container = pool == null ? null : pool.poll();
+		return container == null ? collectionSupplier.get() : container;
+	}
+
+	private void pruneIfEmpty(Key key, Collection<Value> container) {
+		if (lifecycle.isPruning && container.isEmpty()) {
+			map.remove(key);
+			recycle(container);
+		} else {
+			// keep the key
+		}
+	}
+
+	private void recycle(Collection<Value> container) {
+		if (pool != null && pool.size() < lifecycle.poolCapacity) {
+			pool.push(container);
+		} else {
+			// let it be garbage collected
+		}
 	}
 
 	@Override
@@ -75,39 +247,125 @@ public class BackedMultiMap<Key, Value> implements MultiMap<Key, Value> {
 	public Iterator<Entry<Key, Value>> iterator() {
 		return new Iterator<Entry<Key, Value>>() {
 
-			private Iterator<Key> keysIterator = keySet().iterator();
+			private Iterator<Entry<Key, Collection<Value>>> entriesIterator = map.entrySet().iterator();
+			private Collection<Value> container;
 			private Iterator<Value> valuesIterator;
 			private Key key;
-			private Value value;
 
 			@Override
 			public boolean hasNext() {
-				return keysIterator.hasNext() || valuesIterator != null && valuesIterator.hasNext();
+				return entriesIterator.hasNext() || valuesIterator != null && valuesIterator.hasNext();
 			}
 
 			@Override
 			public Entry<Key, Value> next() {
 				while (valuesIterator == null || !valuesIterator.hasNext()) {
-					key = keysIterator.next();
-					valuesIterator = BackedMultiMap.this.map.get(key).iterator();
+					Entry<Key, Collection<Value>> entry = entriesIterator.next();
+					key = entry.getKey();
+					container = entry.getValue();
+					valuesIterator = container.iterator();
 				}
-				value = valuesIterator.next();
-				return new AbstractMap.SimpleImmutableEntry<Key, Value>(key, value);
+				return new AbstractMap.SimpleImmutableEntry<Key, Value>(key, valuesIterator.next());
 			}
 
 			@Override
 			public void remove() {
-				BackedMultiMap.this.remove(key, value);
+				// remove the value returned, not an equal one, without invalidating the iterator
+				valuesIterator.remove();
+				if (lifecycle.isPruning && container.isEmpty()) {
+					entriesIterator.remove();
+					recycle(container);
+				} else {
+					// keep the key
+				}
 			}
 
 		};
 	}
 
+	/**
+	 * Resolve the {@link Collection} of a key once for all its consecutive
+	 * {@link Batch.Run}s, then apply them directly on it.
+	 */
+	@Override
+	public Batch.Result apply(Batch<Key, Value> batch) {
+		int resolutions = 0;
+		long added = 0;
+		long removed = 0;
+		Key key = null;
+		Collection<Value> container = null;
+		for (Batch.Run<Key, Value> run : batch.getRuns()) {
+			if (resolutions == 0 || !Objects.equals(run.getKey(), key)) {
+				if (container != null) {
+					pruneIfEmpty(key, container);
+				} else {
+					// no container to prune
+				}
+				resolutions++;
+				key = run.getKey();
+				container = map.get(key);
+			} else {
+				// same key than the previous run
+			}
+			if (container == null && (run.isAddition() || lifecycle.isMaterializingOnRemoval)) {
+				// the key is known to be absent, so no need to look it up again
+				container = newContainer();
+				map.put(key, container);
+			} else {
+				// already resolved, or not created by a removal
+			}
+			if (run.isAddition()) {
+				int before = container.size();
+				container.addAll(run.getValues());
+				added += container.size() - before;
+			} else {
+				if (container != null) {
+					removed += removeEach(container, run.getValues());
+				} else {
+					// unknown key, nothing to remove
+				}
+			}
+		}
+		if (container != null) {
+			pruneIfEmpty(key, container);
+		} else {
+			// no container to prune
+		}
+		return new Batch.Result(resolutions, added, removed);
+	}
+
+	private static <Value> int removeEach(Collection<Value> container, Collection<Value> values) {
+		int removed = 0;
+		for (Value value : values) {
+			if (container.remove(value)) {
+				removed++;
+			} else {
+				continue;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * The {@link Spliterator} splits by splitting the keys of the {@link Map},
+	 * so parallel {@link java.util.stream.Stream}s can process the couples of
+	 * different keys on different threads.
+	 */
+	@Override
+	public Spliterator<Entry<Key, Value>> spliterator() {
+		return new PairSpliterator<>(map.entrySet(), map.entrySet().spliterator());
+	}
+
 	@Override
 	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
-		Collection<Value> actualCollection = collectionSupplier.get();
+		Collection<Value> actualCollection = newContainer();
 		actualCollection.addAll(collection);
-		return map.put(key, actualCollection);
+		if (lifecycle.isPruning && actualCollection.isEmpty()) {
+			recycle(actualCollection);
+			return map.remove(key);
+		} else {
+			return map.put(key, actualCollection);
+		}
 	}
 
 	@Override
@@ -147,7 +405,7 @@ public class BackedMultiMap<Key, Value> implements MultiMap<Key, Value> {
 
 	@Override
 	public boolean containsKeyMappedTo(Collection<Value> collection) {
-		Collection<Value> typedCollection = collectionSupplier.get();
+		Collection<Value> typedCollection = comparisonSupplier.get();
 		typedCollection.addAll(collection);
 		return map.containsValue(typedCollection);
 	}
@@ -172,4 +430,46 @@ public class BackedMultiMap<Key, Value> implements MultiMap<Key, Value> {
 	public static <Key, Value> BackedMultiMap<Key, Value> onSets() {
 		return new BackedMultiMap<>(new HashMap<>(), () -> new HashSet<>());
 	}
+
+	/**
+	 * 
+	 * @return a {@link BackedMultiMap} with the semantics of {@link #onLists()},
+	 *         but storing the values in {@link CompactList}s to reduce the
+	 *         memory used by keys having few values
+	 */
+	public static <Key, Value> BackedMultiMap<Key, Value> onCompactLists() {
+		return new BackedMultiMap<>(new HashMap<>(), () -> new CompactList<>());
+	}
+
+	/**
+	 * 
+	 * @return a {@link BackedMultiMap} with the semantics of {@link #onSets()},
+	 *         but storing the values in {@link CompactSet}s to reduce the
+	 *         memory used by keys having few values
+	 */
+	public static <Key, Value> BackedMultiMap<Key, Value> onCompactSets() {
+		return onCompactSets(CompactSet.DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * 
+	 * @param threshold
+	 *            the number of values of a key above which they are hashed
+	 * @return a {@link BackedMultiMap} with the semantics of {@link #onSets()},
+	 *         but storing the values in {@link CompactSet}s to reduce the
+	 *         memory used by keys having few values
+	 */
+	public static <Key, Value> BackedMultiMap<Key, Value> onCompactSets(int threshold) {
+		return new BackedMultiMap<>(new HashMap<>(), () -> new CompactSet<>(threshold));
+	}
+
+	/**
+	 * 
+	 * @return a {@link BackedMultiMap} with the semantics of {@link #onSets()},
+	 *         but storing the {@link Integer} values in {@link RoaringIntSet}s
+	 *         to reduce the memory used by keys having many values
+	 */
+	public static <Key> BackedMultiMap<Key, Integer> onBitmaps() {
+		return new BackedMultiMap<>(new HashMap<>(), () -> new RoaringIntSet());
+	}
 }
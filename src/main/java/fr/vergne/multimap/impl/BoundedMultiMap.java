@@ -0,0 +1,609 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link BoundedMultiMap} is a {@link MultiMap} which evicts some of its
+ * keys, with all their values, when it becomes too heavy. The weight of each
+ * key is computed by a {@link Weigher}, and the keys are evicted, once the
+ * total weight exceeds a maximum, in the order of a {@link Policy}. It is
+ * typically used as a cache.
+ * </p>
+ * <p>
+ * The keys are ordered through linked lists, so each operation, including
+ * the eviction of a key, is done in constant time. Only the methods
+ * {@link #add(Object, Object)}, {@link #addAll(Object, Collection)},
+ * {@link #replaceAll(Object, Collection)} and {@link #getAll(Object)} count
+ * as an access to a key. The {@link Collection}s returned are unmodifiable,
+ * so all the changes go through the {@link BoundedMultiMap} which maintains
+ * the weights.
+ * </p>
+ * <p>
+ * A {@link BoundedMultiMap} is built through a {@link Builder}, obtained with
+ * {@link #onLists()} or {@link #onSets()}. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class BoundedMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	/**
+	 * The order in which the keys are evicted.
+	 */
+	public static enum Policy {
+		/**
+		 * Evict the least recently accessed key first.
+		 */
+		LRU,
+		/**
+		 * Evict the least frequently accessed key first, the least recently
+		 * accessed one among the keys having the same frequency.
+		 */
+		LFU
+	}
+
+	/**
+	 * A {@link Weigher} computes the weight of a key, for instance its number
+	 * of values. It is called each time the key is modified, so it should be
+	 * fast.
+	 * 
+	 * @param <Key>
+	 * @param <Value>
+	 */
+	@FunctionalInterface
+	public static interface Weigher<Key, Value> {
+		public long weigh(Key key, Collection<Value> values);
+	}
+
+	private static class Node<Key, Value> {
+		private final Key key;
+		private Collection<Value> values;
+		private Collection<Value> view;
+		private long weight;
+		private Bucket<Key, Value> bucket;
+		private Node<Key, Value> previous;
+		private Node<Key, Value> next;
+
+		public Node(Key key) {
+			this.key = key;
+		}
+
+		public void setValues(Collection<Value> values) {
+			this.values = values;
+			this.view = Collections.unmodifiableCollection(values);
+		}
+	}
+
+	/**
+	 * The keys accessed the same number of times, from the least to the most
+	 * recently accessed.
+	 */
+	private static class Bucket<Key, Value> {
+		private final long frequency;
+		private final Node<Key, Value> nodes = new Node<>(null);
+		private Bucket<Key, Value> previous;
+		private Bucket<Key, Value> next;
+
+		public Bucket(long frequency) {
+			this.frequency = frequency;
+			nodes.previous = nodes;
+			nodes.next = nodes;
+		}
+
+		public boolean isEmpty() {
+			return nodes.next == nodes;
+		}
+
+		public void append(Node<Key, Value> node) {
+			node.bucket = this;
+			node.previous = nodes.previous;
+			node.next = nodes;
+			nodes.previous.next = node;
+			nodes.previous = node;
+		}
+	}
+
+	private final Map<Key, Node<Key, Value>> nodes = new HashMap<>();
+	/**
+	 * The sentinel of the buckets, ordered by increasing frequency. With
+	 * {@link Policy#LRU}, a single bucket is used.
+	 */
+	private final Bucket<Key, Value> buckets = new Bucket<>(-1);
+	private final Supplier<Collection<Value>> collectionSupplier;
+	private final Policy policy;
+	private final Weigher<Key, Value> weigher;
+	private final long maximumWeight;
+	private final BiConsumer<? super Key, ? super Collection<Value>> evictionListener;
+	private long weight = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	private BoundedMultiMap(Builder<Key, Value> builder) {
+		this.collectionSupplier = builder.collectionSupplier;
+		this.policy = builder.policy;
+		this.weigher = builder.weigher;
+		this.maximumWeight = builder.maximumWeight;
+		this.evictionListener = builder.evictionListener;
+		buckets.previous = buckets;
+		buckets.next = buckets;
+	}
+
+	/* ORDERING */
+
+	private Bucket<Key, Value> insertBucketAfter(Bucket<Key, Value> previous, long frequency) {
+		Bucket<Key, Value> bucket = new Bucket<>(frequency);
+		bucket.previous = previous;
+		bucket.next = previous.next;
+		previous.next.previous = bucket;
+		previous.next = bucket;
+		return bucket;
+	}
+
+	private void unlink(Node<Key, Value> node) {
+		node.previous.next = node.next;
+		node.next.previous = node.previous;
+		Bucket<Key, Value> bucket = node.bucket;
+		if (policy == Policy.LFU && bucket.isEmpty()) {
+			bucket.previous.next = bucket.next;
+			bucket.next.previous = bucket.previous;
+		} else {
+			// keep the bucket
+		}
+	}
+
+	private void insert(Node<Key, Value> node) {
+		Bucket<Key, Value> first = buckets.next;
+		long frequency = policy == Policy.LFU ? 1 : 0;
+		if (first == buckets || first.frequency != frequency) {
+			first = insertBucketAfter(buckets, frequency);
+		} else {
+			// reuse the bucket
+		}
+		first.append(node);
+	}
+
+	private void touch(Node<Key, Value> node) {
+		Bucket<Key, Value> bucket = node.bucket;
+		if (policy == Policy.LRU) {
+			unlink(node);
+			bucket.append(node);
+		} else {
+			Bucket<Key, Value> next = bucket.next;
+			if (next == buckets || next.frequency != bucket.frequency + 1) {
+				next = insertBucketAfter(bucket, bucket.frequency + 1);
+			} else {
+				// reuse the bucket
+			}
+			unlink(node);
+			next.append(node);
+		}
+	}
+
+	/* WEIGHT */
+
+	private void reweigh(Node<Key, Value> node) {
+		long newWeight = weigher.weigh(node.key, node.view);
+		weight += newWeight - node.weight;
+		node.weight = newWeight;
+	}
+
+	/**
+	 * Evict keys until the weight is acceptable. The key just accessed is
+	 * evicted last, otherwise a new key would always be the first victim of
+	 * {@link Policy#LFU}.
+	 */
+	private void evictIfNeeded(Node<Key, Value> accessed) {
+		while (weight > maximumWeight && !nodes.isEmpty()) {
+			Node<Key, Value> victim = buckets.next.nodes.next;
+			if (victim == accessed && nodes.size() > 1) {
+				victim = victim.next != victim.bucket.nodes ? victim.next : victim.bucket.next.nodes.next;
+			} else {
+				// evict the first key
+			}
+			removeNode(victim);
+			evictions++;
+			evictionListener.accept(victim.key, victim.view);
+		}
+	}
+
+	private Node<Key, Value> accessNode(Key key) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node == null) {
+			node = new Node<>(key);
+			node.setValues(collectionSupplier.get());
+			nodes.put(key, node);
+			insert(node);
+		} else {
+			touch(node);
+		}
+		return node;
+	}
+
+	private void removeNode(Node<Key, Value> node) {
+		nodes.remove(node.key);
+		unlink(node);
+		weight -= node.weight;
+	}
+
+	/* MULTIMAP */
+
+	@Override
+	public boolean add(Key key, Value value) {
+		Node<Key, Value> node = accessNode(key);
+		boolean isChanged = node.values.add(value);
+		reweigh(node);
+		evictIfNeeded(node);
+		return isChanged;
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		Node<Key, Value> node = accessNode(key);
+		boolean isChanged = node.values.addAll(values);
+		reweigh(node);
+		evictIfNeeded(node);
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		Node<Key, Value> node = nodes.get(key);
+		Collection<Value> previous = node == null ? null : node.view;
+		node = accessNode(key);
+		Collection<Value> values = collectionSupplier.get();
+		values.addAll(collection);
+		node.setValues(values);
+		reweigh(node);
+		evictIfNeeded(node);
+		return previous;
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node == null) {
+			misses++;
+			return null;
+		} else {
+			hits++;
+			touch(node);
+			return node.view;
+		}
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return Collections.unmodifiableSet(nodes.keySet());
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return new AbstractCollection<Collection<Value>>() {
+
+			@Override
+			public Iterator<Collection<Value>> iterator() {
+				Iterator<Node<Key, Value>> iterator = nodes.values().iterator();
+				return new Iterator<Collection<Value>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Collection<Value> next() {
+						return iterator.next().view;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return nodes.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				Iterator<Node<Key, Value>> iterator = nodes.values().iterator();
+				return new Iterator<Entry<Key, Collection<Value>>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Entry<Key, Collection<Value>> next() {
+						Node<Key, Value> node = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<>(node.key, node.view);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return nodes.size();
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node != null && node.values.remove(value)) {
+			reweigh(node);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node == null) {
+			return null;
+		} else {
+			removeNode(node);
+			return node.view;
+		}
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node != null && node.values.removeAll(values)) {
+			reweigh(node);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public void clear() {
+		nodes.clear();
+		buckets.previous = buckets;
+		buckets.next = buckets;
+		weight = 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return nodes.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		Node<Key, Value> node = nodes.get(key);
+		return node != null && node.values.contains(value);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = collectionSupplier.get();
+		typedCollection.addAll(collection);
+		for (Node<Key, Value> node : nodes.values()) {
+			if (node.values.equals(typedCollection)) {
+				return true;
+			} else {
+				continue;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return nodes.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return nodes.isEmpty();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+
+			private final Iterator<Node<Key, Value>> nodesIterator = nodes.values().iterator();
+			private Iterator<Value> valuesIterator;
+			private Key key;
+
+			@Override
+			public boolean hasNext() {
+				while (valuesIterator == null || !valuesIterator.hasNext()) {
+					if (nodesIterator.hasNext()) {
+						Node<Key, Value> node = nodesIterator.next();
+						key = node.key;
+						valuesIterator = node.view.iterator();
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					return new AbstractMap.SimpleImmutableEntry<>(key, valuesIterator.next());
+				}
+			}
+		};
+	}
+
+	/* STATISTICS */
+
+	/**
+	 * 
+	 * @return the current total weight of the keys
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * 
+	 * @return the number of calls to {@link #getAll(Object)} on a present key
+	 */
+	public long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * 
+	 * @return the number of calls to {@link #getAll(Object)} on an absent key
+	 */
+	public long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * 
+	 * @return the ratio of hits among the calls to {@link #getAll(Object)}, 1
+	 *         if there was none
+	 */
+	public double getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 1 : (double) hits / requests;
+	}
+
+	/**
+	 * 
+	 * @return the number of keys evicted
+	 */
+	public long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * 
+	 * @return a {@link Builder} of {@link BoundedMultiMap} which keeps the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onLists() {
+		return new Builder<>(() -> new LinkedList<>());
+	}
+
+	/**
+	 * 
+	 * @return a {@link Builder} of {@link BoundedMultiMap} which ignores the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onSets() {
+		return new Builder<>(() -> new HashSet<>());
+	}
+
+	/**
+	 * A {@link Builder} configures the limits of a {@link BoundedMultiMap}. By
+	 * default, there is no limit and the {@link Policy#LRU} is used.
+	 * 
+	 * @author Matthieu Vergne <vergne@fbk.eu>
+	 * 
+	 * @param <Key>
+	 * @param <Value>
+	 */
+	public static class Builder<Key, Value> {
+
+		private final Supplier<Collection<Value>> collectionSupplier;
+		private Policy policy = Policy.LRU;
+		private Weigher<Key, Value> weigher = (key, values) -> 1;
+		private long maximumWeight = Long.MAX_VALUE;
+		private BiConsumer<? super Key, ? super Collection<Value>> evictionListener = (key, values) -> {
+		};
+
+		public Builder(Supplier<Collection<Value>> collectionSupplier) {
+			this.collectionSupplier = collectionSupplier;
+		}
+
+		public Builder<Key, Value> policy(Policy policy) {
+			this.policy = policy;
+			return this;
+		}
+
+		/**
+		 * 
+		 * @param maximumKeys
+		 *            the maximum number of keys
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> maximumKeys(long maximumKeys) {
+			return maximumWeight(maximumKeys, (key, values) -> 1);
+		}
+
+		/**
+		 * 
+		 * @param maximumValues
+		 *            the maximum number of values, all keys together
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> maximumValues(long maximumValues) {
+			return maximumWeight(maximumValues, (key, values) -> values.size());
+		}
+
+		/**
+		 * 
+		 * @param maximumWeight
+		 *            the maximum total weight of the keys
+		 * @param weigher
+		 *            the {@link Weigher} computing the weight of each key
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> maximumWeight(long maximumWeight, Weigher<Key, Value> weigher) {
+			if (maximumWeight < 0) {
+				throw new IllegalArgumentException("The maximum weight cannot be negative: " + maximumWeight);
+			} else {
+				this.maximumWeight = maximumWeight;
+				this.weigher = weigher;
+				return this;
+			}
+		}
+
+		/**
+		 * 
+		 * @param evictionListener
+		 *            the listener notified of each key evicted, with its values
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> evictionListener(
+				BiConsumer<? super Key, ? super Collection<Value>> evictionListener) {
+			this.evictionListener = evictionListener;
+			return this;
+		}
+
+		public BoundedMultiMap<Key, Value> build() {
+			return new BoundedMultiMap<>(this);
+		}
+	}
+}
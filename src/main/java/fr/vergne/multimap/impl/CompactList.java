@@ -0,0 +1,141 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * A {@link CompactList} is a {@link List} designed to store the values of a
+ * single key of a {@link BackedMultiMap}, where most keys have only a few
+ * values. A single value is stored directly, without any array, and several
+ * values are stored in an array which grows slowly. Thus, it costs a few dozen
+ * bytes where a {@link java.util.LinkedList} costs dozens of bytes per value.
+ * </p>
+ * <p>
+ * It has the same semantics than any other {@link List}: it keeps the order
+ * and the duplicates of its values.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Value>
+ */
+public class CompactList<Value> extends AbstractList<Value> implements RandomAccess {
+
+	/**
+	 * <code>null</code> if the list is empty, the value itself if there is a
+	 * single one, an array of values otherwise.
+	 */
+	private Object elements = null;
+	private int size = 0;
+
+	public CompactList() {
+		// empty list
+	}
+
+	public CompactList(Collection<? extends Value> values) {
+		addAll(values);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Value get(int index) {
+		checkIndex(index, size);
+		return size == 1 ? (Value) elements : (Value) ((Object[]) elements)[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Value set(int index, Value value) {
+		checkIndex(index, size);
+		Value previous;
+		if (size == 1) {
+			previous = (Value) elements;
+			elements = value;
+		} else {
+			Object[] array = (Object[]) elements;
+			previous = (Value) array[index];
+			array[index] = value;
+		}
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean add(Value value) {
+		add(size, value);
+		return true;
+	}
+
+	@Override
+	public void add(int index, Value value) {
+		checkIndex(index, size + 1);
+		if (size == 0) {
+			elements = value;
+		} else {
+			Object[] array;
+			if (size == 1) {
+				array = new Object[2];
+				array[0] = elements;
+			} else {
+				array = (Object[]) elements;
+				if (size == array.length) {
+					array = Arrays.copyOf(array, size + (size >> 1));
+				} else {
+					// enough room
+				}
+			}
+			System.arraycopy(array, index, array, index + 1, size - index);
+			array[index] = value;
+			elements = array;
+		}
+		size++;
+		modCount++;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Value remove(int index) {
+		checkIndex(index, size);
+		Value previous;
+		if (size == 1) {
+			previous = (Value) elements;
+			elements = null;
+		} else {
+			Object[] array = (Object[]) elements;
+			previous = (Value) array[index];
+			if (size == 2) {
+				// back to a single value stored directly
+				elements = array[1 - index];
+			} else {
+				System.arraycopy(array, index + 1, array, index, size - index - 1);
+				array[size - 1] = null;
+			}
+		}
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		elements = null;
+		size = 0;
+		modCount++;
+	}
+
+	private static void checkIndex(int index, int limit) {
+		if (index < 0 || index >= limit) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		} else {
+			// valid index
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>
+ * A {@link CompactSet} is a {@link Set} designed to store the values of a
+ * single key of a {@link BackedMultiMap}, where most keys have only a few
+ * values. A single value is stored directly, without any array, several
+ * values are stored in a small array checked linearly, and only above a given
+ * threshold the values are moved to a {@link HashSet}. Thus, small sets cost a
+ * few dozen bytes where an empty {@link HashSet} already costs more than a
+ * hundred.
+ * </p>
+ * <p>
+ * It has the same semantics than any other {@link Set}: it ignores the
+ * duplicates of its values.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Value>
+ */
+public class CompactSet<Value> extends AbstractSet<Value> {
+
+	public static final int DEFAULT_THRESHOLD = 8;
+
+	private final int threshold;
+	/**
+	 * <code>null</code> if the set is empty, the value itself if there is a
+	 * single one, a {@link HashSet} if the set is hashed, an array of values
+	 * otherwise.
+	 */
+	private Object elements = null;
+	private int size = 0;
+	private boolean isHashed = false;
+	private int modCount = 0;
+
+	/**
+	 * 
+	 * @param threshold
+	 *            the number of values above which a {@link HashSet} is used
+	 */
+	public CompactSet(int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("The threshold must be positive: " + threshold);
+		} else {
+			this.threshold = threshold;
+		}
+	}
+
+	public CompactSet() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	public CompactSet(Collection<? extends Value> values) {
+		this(DEFAULT_THRESHOLD);
+		addAll(values);
+	}
+
+	@SuppressWarnings("unchecked")
+	private HashSet<Value> hashed() {
+		return (HashSet<Value>) elements;
+	}
+
+	@Override
+	public int size() {
+		return isHashed ? hashed().size() : size;
+	}
+
+	@Override
+	public boolean contains(Object value) {
+		if (isHashed) {
+			return hashed().contains(value);
+		} else if (size == 0) {
+			return false;
+		} else if (size == 1) {
+			return Objects.equals(elements, value);
+		} else {
+			return indexOf((Object[]) elements, size, value) >= 0;
+		}
+	}
+
+	@Override
+	public boolean add(Value value) {
+		if (isHashed) {
+			return hashed().add(value);
+		} else if (contains(value)) {
+			return false;
+		} else if (size == 0) {
+			elements = value;
+		} else if (size == threshold) {
+			HashSet<Value> set = new HashSet<>();
+			for (Value stored : this) {
+				set.add(stored);
+			}
+			set.add(value);
+			elements = set;
+			isHashed = true;
+		} else if (size == 1) {
+			elements = new Object[] { elements, value };
+		} else {
+			Object[] array = (Object[]) elements;
+			if (size == array.length) {
+				array = Arrays.copyOf(array, Math.min(size + (size >> 1), threshold));
+				elements = array;
+			} else {
+				// enough room
+			}
+			array[size] = value;
+		}
+		size++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object value) {
+		if (isHashed) {
+			return hashed().remove(value);
+		} else if (size == 0) {
+			return false;
+		} else if (size == 1) {
+			if (Objects.equals(elements, value)) {
+				elements = null;
+				size = 0;
+				modCount++;
+				return true;
+			} else {
+				return false;
+			}
+		} else {
+			int index = indexOf((Object[]) elements, size, value);
+			if (index < 0) {
+				return false;
+			} else {
+				removeAt(index);
+				return true;
+			}
+		}
+	}
+
+	private void removeAt(int index) {
+		Object[] array = (Object[]) elements;
+		if (size == 2) {
+			// back to a single value stored directly
+			elements = array[1 - index];
+		} else {
+			System.arraycopy(array, index + 1, array, index, size - index - 1);
+			array[size - 1] = null;
+		}
+		size--;
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		elements = null;
+		size = 0;
+		isHashed = false;
+		modCount++;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Iterator<Value> iterator() {
+		if (isHashed) {
+			return hashed().iterator();
+		} else {
+			return new Iterator<Value>() {
+				private int expectedModCount = modCount;
+				private int nextIndex = 0;
+				private int lastIndex = -1;
+
+				@Override
+				public boolean hasNext() {
+					return nextIndex < size;
+				}
+
+				@Override
+				public Value next() {
+					checkModCount();
+					if (nextIndex >= size) {
+						throw new NoSuchElementException();
+					} else {
+						lastIndex = nextIndex++;
+						return size == 1 ? (Value) elements : (Value) ((Object[]) elements)[lastIndex];
+					}
+				}
+
+				@Override
+				public void remove() {
+					checkModCount();
+					if (lastIndex < 0) {
+						throw new IllegalStateException();
+					} else if (size == 1) {
+						CompactSet.this.clear();
+					} else {
+						removeAt(lastIndex);
+					}
+					nextIndex = lastIndex;
+					lastIndex = -1;
+					expectedModCount = modCount;
+				}
+
+				private void checkModCount() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					} else {
+						// no concurrent change
+					}
+				}
+			};
+		}
+	}
+
+	private static int indexOf(Object[] array, int size, Object value) {
+		for (int index = 0; index < size; index++) {
+			if (Objects.equals(array[index], value)) {
+				return index;
+			} else {
+				continue;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,252 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * A {@link ConcurrentAppendList} is a thread-safe {@link java.util.List}
+ * optimized for appending. Like a
+ * {@link java.util.concurrent.CopyOnWriteArrayList}, the reads never lock and
+ * use an immutable state, so its iterators browse the values available when
+ * they are created and never throw
+ * {@link java.util.ConcurrentModificationException}. However, appending does
+ * not copy the values: they are written in the free cells of the array, which
+ * no state sees yet, and the array grows by doubling, so appending costs an
+ * amortized constant time. The other changes copy the values, like a
+ * {@link java.util.concurrent.CopyOnWriteArrayList}.
+ * </p>
+ * <p>
+ * The changes are serialized. The iterators do not support any change.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Value>
+ */
+class ConcurrentAppendList<Value> extends AbstractList<Value> implements RandomAccess {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * The values visible to the reads. Only the appends reuse the array of the
+	 * current {@link State}, in cells beyond its size, so the cells seen by a
+	 * {@link State} never change.
+	 */
+	private static class State {
+		private static final State EMPTY = new State(new Object[0], 0);
+		private final Object[] array;
+		private final int size;
+
+		public State(Object[] array, int size) {
+			this.array = array;
+			this.size = size;
+		}
+	}
+
+	private volatile State state = State.EMPTY;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Value get(int index) {
+		State current = state;
+		if (index < 0 || index >= current.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + current.size);
+		} else {
+			return (Value) current.array[index];
+		}
+	}
+
+	@Override
+	public int size() {
+		return state.size;
+	}
+
+	@Override
+	public Iterator<Value> iterator() {
+		State current = state;
+		return new Iterator<Value>() {
+
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < current.size;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Value next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					return (Value) current.array[index++];
+				}
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return an unmodifiable {@link List} of the current values, which do not
+	 *         change afterwards
+	 */
+	private List<Value> snapshot() {
+		State current = state;
+		return Collections.unmodifiableList(new AbstractList<Value>() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Value get(int index) {
+				if (index < 0 || index >= current.size) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + current.size);
+				} else {
+					return (Value) current.array[index];
+				}
+			}
+
+			@Override
+			public int size() {
+				return current.size;
+			}
+		});
+	}
+
+	/**
+	 * The {@link ListIterator} browses the current values, so the methods
+	 * relying on it, like {@link #indexOf(Object)} or
+	 * {@link #equals(Object)}, are not affected by concurrent changes.
+	 */
+	@Override
+	public ListIterator<Value> listIterator(int index) {
+		return snapshot().listIterator(index);
+	}
+
+	private Object[] arrayToAppend(State current, int count) {
+		int newSize = current.size + count;
+		if (newSize <= current.array.length) {
+			return current.array;
+		} else {
+			Object[] array = new Object[Math.max(newSize, Math.max(INITIAL_CAPACITY, 2 * current.size))];
+			System.arraycopy(current.array, 0, array, 0, current.size);
+			return array;
+		}
+	}
+
+	@Override
+	public synchronized boolean add(Value value) {
+		State current = state;
+		Object[] array = arrayToAppend(current, 1);
+		array[current.size] = value;
+		state = new State(array, current.size + 1);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean addAll(Collection<? extends Value> values) {
+		Object[] added = values.toArray();
+		if (added.length == 0) {
+			return false;
+		} else {
+			State current = state;
+			Object[] array = arrayToAppend(current, added.length);
+			System.arraycopy(added, 0, array, current.size, added.length);
+			state = new State(array, current.size + added.length);
+			return true;
+		}
+	}
+
+	@Override
+	public synchronized void add(int index, Value value) {
+		State current = state;
+		if (index < 0 || index > current.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + current.size);
+		} else {
+			Object[] array = new Object[Math.max(INITIAL_CAPACITY, current.size + 1)];
+			System.arraycopy(current.array, 0, array, 0, index);
+			array[index] = value;
+			System.arraycopy(current.array, index, array, index + 1, current.size - index);
+			state = new State(array, current.size + 1);
+		}
+	}
+
+	@Override
+	public synchronized Value set(int index, Value value) {
+		Value previous = get(index);
+		State current = state;
+		Object[] array = Arrays.copyOf(current.array, current.size);
+		array[index] = value;
+		state = new State(array, current.size);
+		return previous;
+	}
+
+	@Override
+	public synchronized Value remove(int index) {
+		Value previous = get(index);
+		State current = state;
+		Object[] array = new Object[current.size - 1];
+		System.arraycopy(current.array, 0, array, 0, index);
+		System.arraycopy(current.array, index + 1, array, index, array.length - index);
+		state = new State(array, array.length);
+		return previous;
+	}
+
+	@Override
+	public synchronized boolean remove(Object value) {
+		int index = indexOf(value);
+		if (index < 0) {
+			return false;
+		} else {
+			remove(index);
+			return true;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized boolean removeIf(Predicate<? super Value> filter) {
+		State current = state;
+		Object[] array = new Object[current.size];
+		int size = 0;
+		for (int index = 0; index < current.size; index++) {
+			Object value = current.array[index];
+			if (filter.test((Value) value)) {
+				continue;
+			} else {
+				array[size++] = value;
+			}
+		}
+		if (size == current.size) {
+			return false;
+		} else {
+			state = new State(array, size);
+			return true;
+		}
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> values) {
+		Objects.requireNonNull(values);
+		return removeIf(values::contains);
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> values) {
+		Objects.requireNonNull(values);
+		return removeIf(value -> !values.contains(value));
+	}
+
+	@Override
+	public synchronized void clear() {
+		state = State.EMPTY;
+	}
+}
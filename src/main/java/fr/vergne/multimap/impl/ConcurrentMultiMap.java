@@ -0,0 +1,235 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link ConcurrentMultiMap} is a thread-safe {@link MultiMap} which can be
+ * shared between many threads without external synchronization. Each mutation
+ * of a key is performed atomically through the per-bin locking of a
+ * {@link ConcurrentHashMap}, so threads working on different keys do not
+ * block each other.
+ * </p>
+ * <p>
+ * The {@link Collection}s provided by the {@link Supplier} must be
+ * thread-safe themselves, like the ones used by {@link #onLists()} and
+ * {@link #onSets()}, because they are returned by {@link #getAll(Object)} and
+ * can be read while being modified. The iterators are weakly consistent: they
+ * never throw {@link java.util.ConcurrentModificationException} and reflect
+ * the state of the {@link ConcurrentMultiMap} at some point at or since their
+ * creation.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class ConcurrentMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	private final ConcurrentMap<Key, Collection<Value>> map;
+	private final Supplier<Collection<Value>> collectionSupplier;
+
+	public ConcurrentMultiMap(ConcurrentMap<Key, Collection<Value>> map,
+			Supplier<Collection<Value>> collectionSupplier) {
+		this.map = map;
+		this.collectionSupplier = collectionSupplier;
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		boolean[] isChanged = { false };
+		map.compute(key, (k, collection) -> {
+			Collection<Value> actualCollection = collection == null ? collectionSupplier.get() : collection;
+			isChanged[0] = actualCollection.add(value);
+			return actualCollection;
+		});
+		return isChanged[0];
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		boolean[] isChanged = { false };
+		map.compute(key, (k, collection) -> {
+			Collection<Value> actualCollection = collection == null ? collectionSupplier.get() : collection;
+			isChanged[0] = actualCollection.addAll(values);
+			return actualCollection;
+		});
+		return isChanged[0];
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		boolean[] isChanged = { false };
+		map.computeIfPresent(key, (k, collection) -> {
+			isChanged[0] = collection.remove(value);
+			return collection;
+		});
+		return isChanged[0];
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		boolean[] isChanged = { false };
+		map.computeIfPresent(key, (k, collection) -> {
+			isChanged[0] = collection.removeAll(values);
+			return collection;
+		});
+		return isChanged[0];
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		Collection<Value> collection = map.get(key);
+		return collection != null && collection.contains(value);
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+
+			private final Iterator<Entry<Key, Collection<Value>>> entriesIterator = map.entrySet().iterator();
+			private Iterator<Value> valuesIterator;
+			private Key key;
+			private Value value;
+
+			@Override
+			public boolean hasNext() {
+				/*
+				 * Contrary to BackedMultiMap, a collection can be emptied by another thread
+				 * between two calls, so we look ahead for the next available value.
+				 */
+				while (valuesIterator == null || !valuesIterator.hasNext()) {
+					if (entriesIterator.hasNext()) {
+						Entry<Key, Collection<Value>> entry = entriesIterator.next();
+						key = entry.getKey();
+						valuesIterator = entry.getValue().iterator();
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					value = valuesIterator.next();
+					return new AbstractMap.SimpleImmutableEntry<Key, Value>(key, value);
+				}
+			}
+
+			@Override
+			public void remove() {
+				ConcurrentMultiMap.this.remove(key, value);
+			}
+
+		};
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		Collection<Value> actualCollection = collectionSupplier.get();
+		actualCollection.addAll(collection);
+		return map.put(key, actualCollection);
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		return map.get(key);
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return map.keySet();
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return map.values();
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return map.entrySet();
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		return map.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		map.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = collectionSupplier.get();
+		typedCollection.addAll(collection);
+		return map.containsValue(typedCollection);
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Collection<Value> collection : map.values()) {
+			if (!collection.isEmpty()) {
+				return false;
+			} else {
+				continue;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the {@link ConcurrentMap} backed by this {@link ConcurrentMultiMap}
+	 */
+	@Override
+	public Map<Key, Collection<Value>> toMap() {
+		return map;
+	}
+
+	/**
+	 * 
+	 * @return a {@link ConcurrentMultiMap} storing the values of each key in a
+	 *         {@link java.util.List} which reads without locking and appends
+	 *         without copying, while the other changes copy its values
+	 */
+	public static <Key, Value> ConcurrentMultiMap<Key, Value> onLists() {
+		return new ConcurrentMultiMap<>(new ConcurrentHashMap<>(), () -> new ConcurrentAppendList<>());
+	}
+
+	/**
+	 * 
+	 * @return a {@link ConcurrentMultiMap} storing the values of each key in a
+	 *         concurrent {@link Set} backed by a {@link ConcurrentHashMap}
+	 */
+	public static <Key, Value> ConcurrentMultiMap<Key, Value> onSets() {
+		return new ConcurrentMultiMap<>(new ConcurrentHashMap<>(), () -> ConcurrentHashMap.newKeySet());
+	}
+}
@@ -0,0 +1,559 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link CopyOnWriteMultiMap} is a {@link MultiMap} whose whole content is
+ * an immutable structure, replaced at each change. The keys are stored in a
+ * {@link PersistentHashMap}, so a change only copies the path to the key,
+ * and the values of a key in an array or, for sets, in another
+ * {@link PersistentHashMap}. The versions of an array share it while values
+ * are appended to it, so adding values costs an amortized constant time,
+ * while removing one copies the values of its key. Thus,
+ * {@link #snapshot()} returns a consistent copy of the whole content in a
+ * constant time.
+ * </p>
+ * <p>
+ * The changes are serialized, while the reads never lock: they use the
+ * content available when they start, so an iteration always browses a
+ * consistent state, even if the {@link CopyOnWriteMultiMap} changes
+ * meanwhile. The {@link Collection}s returned are immutable, and the keys
+ * remain when their values are removed, like in a {@link BackedMultiMap}.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class CopyOnWriteMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	/**
+	 * The immutable values of a key. A change which does not modify the
+	 * values returns the same instance.
+	 */
+	private static interface Values<Value> extends Collection<Value> {
+		public Values<Value> with(Value value);
+
+		public Values<Value> withAll(Collection<Value> values);
+
+		public Values<Value> without(Object value);
+
+		public Values<Value> withoutAll(Collection<?> values);
+
+		public Collection<Value> sameType(Collection<Value> values);
+	}
+
+	/**
+	 * The successive versions of a list share their array as long as values
+	 * are appended: the cells of the array are claimed by the first version
+	 * appending to them, so the other versions, which do not see these cells,
+	 * copy the array instead. Thus, appending costs an amortized constant
+	 * time, while removing copies the values.
+	 */
+	private static class ListValues<Value> extends AbstractList<Value> implements Values<Value> {
+		private static final ListValues<?> EMPTY = new ListValues<>(new Object[0], 0, new AtomicInteger());
+		private final Object[] values;
+		private final int size;
+		private final AtomicInteger claimed;
+
+		private ListValues(Object[] values, int size, AtomicInteger claimed) {
+			this.values = values;
+			this.size = size;
+			this.claimed = claimed;
+		}
+
+		public ListValues(Object[] values) {
+			this(values, values.length, new AtomicInteger(values.length));
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Value get(int index) {
+			if (index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			} else {
+				return (Value) values[index];
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * 
+		 * @return the array to append the values to, which is the shared one
+		 *         if its next cells are free, a copy otherwise
+		 */
+		private Object[] arrayToAppend(int count) {
+			int newSize = size + count;
+			if (newSize <= values.length && claimed.compareAndSet(size, newSize)) {
+				return values;
+			} else {
+				Object[] copy = new Object[Math.max(newSize, 2 * size)];
+				System.arraycopy(values, 0, copy, 0, size);
+				return copy;
+			}
+		}
+
+		private ListValues<Value> appended(Object[] array, int count) {
+			int newSize = size + count;
+			return new ListValues<>(array, newSize, array == values ? claimed : new AtomicInteger(newSize));
+		}
+
+		@Override
+		public Values<Value> with(Value value) {
+			Object[] array = arrayToAppend(1);
+			array[size] = value;
+			return appended(array, 1);
+		}
+
+		@Override
+		public Values<Value> withAll(Collection<Value> added) {
+			if (added.isEmpty()) {
+				return this;
+			} else {
+				Object[] addedValues = added.toArray();
+				Object[] array = arrayToAppend(addedValues.length);
+				System.arraycopy(addedValues, 0, array, size, addedValues.length);
+				return appended(array, addedValues.length);
+			}
+		}
+
+		@Override
+		public Values<Value> without(Object value) {
+			int index = indexOf(value);
+			if (index < 0) {
+				return this;
+			} else {
+				Object[] copy = new Object[size - 1];
+				System.arraycopy(values, 0, copy, 0, index);
+				System.arraycopy(values, index + 1, copy, index, copy.length - index);
+				return new ListValues<>(copy);
+			}
+		}
+
+		@Override
+		public Values<Value> withoutAll(Collection<?> removed) {
+			Object[] copy = new Object[size];
+			int copySize = 0;
+			for (int index = 0; index < size; index++) {
+				Object value = values[index];
+				if (removed.contains(value)) {
+					continue;
+				} else {
+					copy[copySize++] = value;
+				}
+			}
+			return copySize == size ? this : new ListValues<>(Arrays.copyOf(copy, copySize));
+		}
+
+		@Override
+		public Collection<Value> sameType(Collection<Value> values) {
+			return new ArrayList<>(values);
+		}
+	}
+
+	private static class SetValues<Value> extends AbstractSet<Value> implements Values<Value> {
+		private static final SetValues<?> EMPTY = new SetValues<>(PersistentHashMap.empty());
+		private final PersistentHashMap<Value, Boolean> values;
+
+		public SetValues(PersistentHashMap<Value, Boolean> values) {
+			this.values = values;
+		}
+
+		@Override
+		public boolean contains(Object value) {
+			return values.containsKey(value);
+		}
+
+		@Override
+		public Iterator<Value> iterator() {
+			Iterator<Entry<Value, Boolean>> iterator = values.iterator();
+			return new Iterator<Value>() {
+
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Value next() {
+					return iterator.next().getKey();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return values.size();
+		}
+
+		private Values<Value> wrap(PersistentHashMap<Value, Boolean> changed) {
+			return changed == values ? this : new SetValues<>(changed);
+		}
+
+		@Override
+		public Values<Value> with(Value value) {
+			return wrap(values.put(value, Boolean.TRUE));
+		}
+
+		@Override
+		public Values<Value> withAll(Collection<Value> added) {
+			PersistentHashMap<Value, Boolean> changed = values;
+			for (Value value : added) {
+				changed = changed.put(value, Boolean.TRUE);
+			}
+			return wrap(changed);
+		}
+
+		@Override
+		public Values<Value> without(Object value) {
+			return wrap(values.remove(value));
+		}
+
+		@Override
+		public Values<Value> withoutAll(Collection<?> removed) {
+			PersistentHashMap<Value, Boolean> changed = values;
+			for (Object value : removed) {
+				changed = changed.remove(value);
+			}
+			return wrap(changed);
+		}
+
+		@Override
+		public Collection<Value> sameType(Collection<Value> values) {
+			return new HashSet<>(values);
+		}
+	}
+
+	private final Values<Value> emptyValues;
+	private final boolean isReadOnly;
+	private volatile PersistentHashMap<Key, Values<Value>> content;
+
+	private CopyOnWriteMultiMap(Values<Value> emptyValues, PersistentHashMap<Key, Values<Value>> content,
+			boolean isReadOnly) {
+		this.emptyValues = emptyValues;
+		this.content = content;
+		this.isReadOnly = isReadOnly;
+	}
+
+	/**
+	 * 
+	 * @return a read-only {@link MultiMap} with the current content of this
+	 *         {@link CopyOnWriteMultiMap}, which does not change afterwards
+	 */
+	public CopyOnWriteMultiMap<Key, Value> snapshot() {
+		return new CopyOnWriteMultiMap<>(emptyValues, content, true);
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if this {@link CopyOnWriteMultiMap} is a
+	 *         snapshot, which cannot be changed, <code>false</code> otherwise
+	 */
+	public boolean isReadOnly() {
+		return isReadOnly;
+	}
+
+	private void checkWritable() {
+		if (isReadOnly) {
+			throw new UnsupportedOperationException("Read-only snapshot");
+		} else {
+			// changes allowed
+		}
+	}
+
+	private Values<Value> valuesOf(Key key) {
+		Values<Value> values = content.get(key);
+		return values == null ? emptyValues : values;
+	}
+
+	@Override
+	public synchronized boolean add(Key key, Value value) {
+		checkWritable();
+		Values<Value> values = content.get(key);
+		Values<Value> changed = (values == null ? emptyValues : values).with(value);
+		if (changed == values) {
+			return false;
+		} else {
+			content = content.put(key, changed);
+			return true;
+		}
+	}
+
+	@Override
+	public synchronized boolean addAll(Key key, Collection<Value> values) {
+		checkWritable();
+		Values<Value> previous = valuesOf(key);
+		Values<Value> changed = previous.withAll(values);
+		content = content.put(key, changed);
+		return changed != previous;
+	}
+
+	@Override
+	public synchronized Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		checkWritable();
+		Values<Value> previous = content.get(key);
+		content = content.put(key, emptyValues.withAll(collection));
+		return previous;
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		return content.get(key);
+	}
+
+	@Override
+	public synchronized boolean remove(Key key, Value value) {
+		checkWritable();
+		Values<Value> values = content.get(key);
+		if (values == null) {
+			return false;
+		} else {
+			Values<Value> changed = values.without(value);
+			if (changed == values) {
+				return false;
+			} else {
+				content = content.put(key, changed);
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public synchronized Collection<Value> remove(Object key) {
+		checkWritable();
+		Values<Value> previous = content.get(key);
+		content = content.remove(key);
+		return previous;
+	}
+
+	@Override
+	public synchronized boolean removeAll(Key key, Collection<Value> values) {
+		checkWritable();
+		Values<Value> previous = content.get(key);
+		if (previous == null) {
+			return false;
+		} else {
+			Values<Value> changed = previous.withoutAll(values);
+			if (changed == previous) {
+				return false;
+			} else {
+				content = content.put(key, changed);
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		checkWritable();
+		content = PersistentHashMap.empty();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return content.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		Values<Value> values = content.get(key);
+		return values != null && values.contains(value);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = emptyValues.sameType(collection);
+		for (Entry<Key, Values<Value>> entry : content) {
+			if (entry.getValue().equals(typedCollection)) {
+				return true;
+			} else {
+				continue;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return content.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return content.isEmpty();
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return new AbstractSet<Key>() {
+
+			@Override
+			public Iterator<Key> iterator() {
+				Iterator<Entry<Key, Values<Value>>> iterator = content.iterator();
+				return new Iterator<Key>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Key next() {
+						return iterator.next().getKey();
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object key) {
+				return content.containsKey(key);
+			}
+
+			@Override
+			public int size() {
+				return content.size();
+			}
+		};
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return new AbstractCollection<Collection<Value>>() {
+
+			@Override
+			public Iterator<Collection<Value>> iterator() {
+				Iterator<Entry<Key, Values<Value>>> iterator = content.iterator();
+				return new Iterator<Collection<Value>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Collection<Value> next() {
+						return iterator.next().getValue();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return content.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				// the entries are immutable, so they can be returned directly
+				return (Iterator) content.iterator();
+			}
+
+			@Override
+			public int size() {
+				return content.size();
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+
+			private final Iterator<Entry<Key, Values<Value>>> keysIterator = content.iterator();
+			private Iterator<Value> valuesIterator;
+			private Key key;
+
+			@Override
+			public boolean hasNext() {
+				while (valuesIterator == null || !valuesIterator.hasNext()) {
+					if (keysIterator.hasNext()) {
+						Entry<Key, Values<Value>> entry = keysIterator.next();
+						key = entry.getKey();
+						valuesIterator = entry.getValue().iterator();
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					return new AbstractMap.SimpleImmutableEntry<>(key, valuesIterator.next());
+				}
+			}
+		};
+	}
+
+	@Override
+	public void forEachCouple(BiConsumer<? super Key, ? super Value> action) {
+		for (Entry<Key, Values<Value>> entry : content) {
+			Key key = entry.getKey();
+			for (Value value : entry.getValue()) {
+				action.accept(key, value);
+			}
+		}
+	}
+
+	@Override
+	public void forEachValue(Key key, Consumer<? super Value> action) {
+		Values<Value> values = content.get(key);
+		if (values != null) {
+			values.forEach(action);
+		} else {
+			// no value to browse
+		}
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link CopyOnWriteMultiMap} which keeps the duplicated
+	 *         values of a key
+	 */
+	@SuppressWarnings("unchecked")
+	public static <Key, Value> CopyOnWriteMultiMap<Key, Value> onLists() {
+		return new CopyOnWriteMultiMap<>((Values<Value>) ListValues.EMPTY, PersistentHashMap.empty(), false);
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link CopyOnWriteMultiMap} which ignores the
+	 *         duplicated values of a key
+	 */
+	@SuppressWarnings("unchecked")
+	public static <Key, Value> CopyOnWriteMultiMap<Key, Value> onSets() {
+		return new CopyOnWriteMultiMap<>((Values<Value>) SetValues.EMPTY, PersistentHashMap.empty(), false);
+	}
+}
@@ -0,0 +1,835 @@
+package fr.vergne.multimap.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.io.MultiMapReader;
+import fr.vergne.multimap.io.MultiMapWriter;
+import fr.vergne.multimap.io.SequenceSerializer;
+import fr.vergne.multimap.io.Serializer;
+
+/**
+ * <p>
+ * A {@link DurableMultiMap} is a {@link MultiMap} which survives the restarts
+ * of the application. Its content is kept in memory, in another
+ * {@link MultiMap} which serves all the reads directly, while each change is
+ * appended to a write-ahead log in a directory. From time to time, the
+ * content is written in a compact snapshot and the log restarts empty. When
+ * opened, a {@link DurableMultiMap} loads the last snapshot and replays the
+ * log written after it.
+ * </p>
+ * <p>
+ * Each record of the log is checked with a CRC, so a record partially
+ * written during a crash is detected and dropped, together with the rest of
+ * the log. The records are first buffered, then forced to the disk depending
+ * on the {@link Durability}. Concurrent changes waiting for the disk share
+ * the same force, so their cost is paid once for the group. A snapshot is
+ * written in a temporary file then renamed, so a crash never leaves a partial
+ * snapshot.
+ * </p>
+ * <p>
+ * The {@link Collection}s returned are unmodifiable, so all the changes go
+ * through the log. The changes are serialized, but the reads are not, so the
+ * {@link DurableMultiMap} is only as thread-safe as the {@link MultiMap} used
+ * in memory. It is obtained through a {@link Builder}, from
+ * {@link #onLists(Path, Serializer, Serializer)} or
+ * {@link #onSets(Path, Serializer, Serializer)}, and must be closed to
+ * release the log.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class DurableMultiMap<Key, Value> implements MultiMap<Key, Value>, Closeable {
+
+	/**
+	 * When the changes are forced to the disk.
+	 */
+	public static enum Durability {
+		/**
+		 * Only through {@link DurableMultiMap#sync()},
+		 * {@link DurableMultiMap#snapshot()} and
+		 * {@link DurableMultiMap#close()}. The changes done since the last one
+		 * may be lost in case of crash.
+		 */
+		ON_DEMAND,
+		/**
+		 * Before each change returns, so no acknowledged change is lost.
+		 */
+		ON_WRITE
+	}
+
+	private static final String SNAPSHOT_PREFIX = "snapshot.";
+	private static final String LOG_PREFIX = "log.";
+	private static final String TEMPORARY_SNAPSHOT = "snapshot.tmp";
+	private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+	private static final int PENDING_FLUSH_BYTES = 64 * 1024;
+
+	private static final byte ADD = 1;
+	private static final byte ADD_ALL = 2;
+	private static final byte REPLACE_ALL = 3;
+	private static final byte REMOVE_COUPLE = 4;
+	private static final byte REMOVE_KEY = 5;
+	private static final byte REMOVE_ALL = 6;
+	private static final byte CLEAR = 7;
+
+	private final MultiMap<Key, Value> memory;
+	private final Path directory;
+	private final Serializer<Key> keySerializer;
+	private final Serializer<Value> valueSerializer;
+	private final Durability durability;
+	private final long snapshotPeriod;
+
+	private final Object syncLock = new Object();
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer record = ByteBuffer.allocate(1024);
+	private ByteBuffer pending = ByteBuffer.allocate(PENDING_FLUSH_BYTES);
+	private FileChannel log;
+	private long generation;
+	private long appended = 0;
+	private final AtomicLong durable = new AtomicLong();
+	private long recordsSinceSnapshot = 0;
+	private boolean isClosed = false;
+
+	private DurableMultiMap(Builder<Key, Value> builder) throws IOException {
+		this.memory = builder.memorySupplier.get();
+		this.directory = builder.directory;
+		this.keySerializer = builder.keySerializer;
+		this.valueSerializer = builder.valueSerializer;
+		this.durability = builder.durability;
+		this.snapshotPeriod = builder.snapshotPeriod;
+		recover();
+	}
+
+	/* RECOVERY */
+
+	private Path snapshotPath(long generation) {
+		return directory.resolve(SNAPSHOT_PREFIX + generation);
+	}
+
+	private Path logPath(long generation) {
+		return directory.resolve(LOG_PREFIX + generation);
+	}
+
+	private static long generationOf(Path file, String prefix) {
+		String name = file.getFileName().toString();
+		if (name.startsWith(prefix)) {
+			try {
+				return Long.parseLong(name.substring(prefix.length()));
+			} catch (NumberFormatException cause) {
+				return -1;
+			}
+		} else {
+			return -1;
+		}
+	}
+
+	private void recover() throws IOException {
+		Files.createDirectories(directory);
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		generation = 0;
+		for (Path file : files) {
+			generation = Math.max(generation, generationOf(file, SNAPSHOT_PREFIX));
+		}
+
+		Path snapshot = snapshotPath(generation);
+		if (Files.exists(snapshot)) {
+			resetSerializers();
+			try (MultiMapReader<Key, Value> reader = new MultiMapReader<>(FileChannel.open(snapshot), keySerializer,
+					valueSerializer)) {
+				reader.readAll(memory);
+			}
+		} else {
+			// nothing saved yet
+		}
+		Path logFile = logPath(generation);
+		log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		// a created log must survive a crash with the changes forced into it
+		forceDirectory();
+		long end = replay(log);
+		if (end < log.size()) {
+			// torn or corrupted tail, dropped
+			log.truncate(end);
+			log.force(true);
+		} else {
+			// all records valid
+		}
+		log.position(end);
+
+		for (Path file : files) {
+			if (!file.equals(snapshot) && !file.equals(logFile) && (generationOf(file, SNAPSHOT_PREFIX) >= 0
+					|| generationOf(file, LOG_PREFIX) >= 0 || file.getFileName().toString().equals(TEMPORARY_SNAPSHOT))) {
+				Files.delete(file);
+			} else {
+				// not an obsolete file of ours
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return the position after the last valid record
+	 */
+	private long replay(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		long position = 0;
+		while (true) {
+			header.clear();
+			if (!readFully(channel, header)) {
+				return position;
+			} else {
+				header.flip();
+				int length = header.getInt();
+				int checksum = header.getInt();
+				if (length < 1 || length > channel.size() - channel.position()) {
+					return position;
+				} else {
+					ByteBuffer payload = ByteBuffer.allocate(length);
+					readFully(channel, payload);
+					payload.flip();
+					crc.reset();
+					crc.update(payload);
+					payload.flip();
+					if ((int) crc.getValue() != checksum) {
+						return position;
+					} else {
+						try {
+							apply(payload);
+						} catch (BufferUnderflowException cause) {
+							throw new IOException("Invalid record at " + position + " in " + logPath(generation), cause);
+						}
+						recordsSinceSnapshot++;
+						position += RECORD_HEADER_BYTES + length;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
+			} else {
+				continue;
+			}
+		}
+		return true;
+	}
+
+	private void apply(ByteBuffer payload) {
+		resetSerializers();
+		byte operation = payload.get();
+		switch (operation) {
+		case ADD:
+			memory.add(keySerializer.read(payload), valueSerializer.read(payload));
+			break;
+		case ADD_ALL:
+			memory.addAll(keySerializer.read(payload), readValues(payload));
+			break;
+		case REPLACE_ALL:
+			memory.replaceAll(keySerializer.read(payload), readValues(payload));
+			break;
+		case REMOVE_COUPLE:
+			memory.remove(keySerializer.read(payload), valueSerializer.read(payload));
+			break;
+		case REMOVE_KEY:
+			memory.remove(keySerializer.read(payload));
+			break;
+		case REMOVE_ALL:
+			memory.removeAll(keySerializer.read(payload), readValues(payload));
+			break;
+		case CLEAR:
+			memory.clear();
+			break;
+		default:
+			throw new IllegalStateException("Unknown operation: " + operation);
+		}
+	}
+
+	private List<Value> readValues(ByteBuffer payload) {
+		int count = payload.getInt();
+		List<Value> values = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			values.add(valueSerializer.read(payload));
+		}
+		return values;
+	}
+
+	private void resetSerializers() {
+		if (keySerializer instanceof SequenceSerializer) {
+			((SequenceSerializer<?>) keySerializer).reset();
+		} else {
+			// no state
+		}
+		if (valueSerializer instanceof SequenceSerializer) {
+			((SequenceSerializer<?>) valueSerializer).reset();
+		} else {
+			// no state
+		}
+	}
+
+	/* LOGGING */
+
+	private interface Encoder {
+		void encode(ByteBuffer buffer);
+	}
+
+	private void writeValues(Collection<Value> values, ByteBuffer buffer) {
+		buffer.putInt(values.size());
+		for (Value value : values) {
+			valueSerializer.write(value, buffer);
+		}
+	}
+
+	/**
+	 * Log a change and apply it to the memory.
+	 */
+	private <T> T change(byte operation, Encoder encoder, Supplier<T> change) {
+		long sequence;
+		boolean isSnapshotNeeded;
+		T result;
+		synchronized (this) {
+			if (isClosed) {
+				throw new IllegalStateException("Closed: " + directory);
+			} else {
+				encode(operation, encoder);
+				result = change.get();
+				sequence = append();
+				isSnapshotNeeded = recordsSinceSnapshot >= snapshotPeriod;
+			}
+		}
+		try {
+			if (isSnapshotNeeded) {
+				snapshot(false);
+			} else {
+				// no snapshot yet
+			}
+			if (durability == Durability.ON_WRITE) {
+				// immediate if the change is already in a snapshot
+				sync(sequence);
+			} else {
+				// forced later
+			}
+		} catch (IOException cause) {
+			throw new UncheckedIOException(cause);
+		}
+		return result;
+	}
+
+	private void encode(byte operation, Encoder encoder) {
+		while (true) {
+			resetSerializers();
+			record.clear();
+			try {
+				record.position(RECORD_HEADER_BYTES);
+				record.put(operation);
+				encoder.encode(record);
+				break;
+			} catch (BufferOverflowException cause) {
+				record = ByteBuffer.allocate(record.capacity() * 2);
+			}
+		}
+		int length = record.position() - RECORD_HEADER_BYTES;
+		record.flip();
+		record.position(RECORD_HEADER_BYTES);
+		crc.reset();
+		crc.update(record);
+		record.putInt(0, length);
+		record.putInt(Integer.BYTES, (int) crc.getValue());
+		record.rewind();
+	}
+
+	private long append() {
+		if (pending.remaining() < record.remaining()) {
+			flushPending();
+			if (pending.remaining() < record.remaining()) {
+				pending = ByteBuffer.allocate(record.remaining());
+			} else {
+				// enough room now
+			}
+		} else {
+			// enough room
+		}
+		pending.put(record);
+		recordsSinceSnapshot++;
+		return ++appended;
+	}
+
+	private void flushPending() {
+		pending.flip();
+		try {
+			while (pending.hasRemaining()) {
+				log.write(pending);
+			}
+		} catch (IOException cause) {
+			throw new UncheckedIOException(cause);
+		}
+		pending.clear();
+	}
+
+	private void sync(long sequence) throws IOException {
+		if (durable.get() >= sequence) {
+			return;
+		} else {
+			synchronized (syncLock) {
+				if (durable.get() >= sequence) {
+					// forced by another thread meanwhile
+					return;
+				} else {
+					long target;
+					synchronized (this) {
+						flushPending();
+						target = appended;
+					}
+					log.force(false);
+					durable.accumulateAndGet(target, Math::max);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Force all the changes done so far to the disk.
+	 * 
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		long sequence;
+		synchronized (this) {
+			sequence = appended;
+		}
+		sync(sequence);
+	}
+
+	/**
+	 * Write a snapshot of the current content and start a new empty log. The
+	 * changes are blocked meanwhile.
+	 * 
+	 * @throws IOException
+	 *             if the snapshot cannot be written
+	 */
+	public void snapshot() throws IOException {
+		snapshot(true);
+	}
+
+	/**
+	 * 
+	 * @param isForced
+	 *            <code>false</code> to take the snapshot only if the period is
+	 *            still reached, so the writers crossing it concurrently take a
+	 *            single one
+	 */
+	private void snapshot(boolean isForced) throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (isClosed) {
+					throw new IllegalStateException("Closed: " + directory);
+				} else if (!isForced && recordsSinceSnapshot < snapshotPeriod) {
+					// already taken by another writer
+				} else {
+					flushPending();
+					long next = generation + 1;
+					FileChannel nextLog = FileChannel.open(logPath(next), StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+					try {
+						forceDirectory();
+
+						Path temporary = directory.resolve(TEMPORARY_SNAPSHOT);
+						resetSerializers();
+						try (MultiMapWriter<Key, Value> writer = new MultiMapWriter<>(FileChannel.open(temporary,
+								StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+								keySerializer, valueSerializer)) {
+							writer.writeAll(memory);
+						}
+						try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+							channel.force(true);
+						}
+						Files.move(temporary, snapshotPath(next), StandardCopyOption.ATOMIC_MOVE,
+								StandardCopyOption.REPLACE_EXISTING);
+						// the new generation must survive a crash before the previous one is deleted
+						forceDirectory();
+					} catch (IOException | RuntimeException cause) {
+						// the current generation remains the valid one
+						try {
+							nextLog.close();
+							Files.deleteIfExists(snapshotPath(next));
+						} catch (IOException cleanCause) {
+							cause.addSuppressed(cleanCause);
+						}
+						throw cause;
+					}
+
+					log.close();
+					Files.deleteIfExists(logPath(generation));
+					Files.deleteIfExists(snapshotPath(generation));
+					log = nextLog;
+					generation = next;
+					recordsSinceSnapshot = 0;
+					durable.accumulateAndGet(appended, Math::max);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Force the entries of the directory to the disk, so the files created or
+	 * renamed in it survive a crash.
+	 */
+	private void forceDirectory() throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Force the changes to the disk and release the log. The
+	 * {@link DurableMultiMap} cannot be changed anymore.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (isClosed) {
+					return;
+				} else {
+					flushPending();
+					log.force(false);
+					log.close();
+					durable.accumulateAndGet(appended, Math::max);
+					isClosed = true;
+				}
+			}
+		}
+	}
+
+	/* CHANGES */
+
+	@Override
+	public boolean add(Key key, Value value) {
+		return change(ADD, buffer -> {
+			keySerializer.write(key, buffer);
+			valueSerializer.write(value, buffer);
+		}, () -> memory.add(key, value));
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		return change(ADD_ALL, buffer -> {
+			keySerializer.write(key, buffer);
+			writeValues(values, buffer);
+		}, () -> memory.addAll(key, values));
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		return change(REPLACE_ALL, buffer -> {
+			keySerializer.write(key, buffer);
+			writeValues(collection, buffer);
+		}, () -> unmodifiable(memory.replaceAll(key, collection)));
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		return change(REMOVE_COUPLE, buffer -> {
+			keySerializer.write(key, buffer);
+			valueSerializer.write(value, buffer);
+		}, () -> memory.remove(key, value));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Collection<Value> remove(Object key) {
+		if (!memory.containsKey(key)) {
+			return null;
+		} else {
+			return change(REMOVE_KEY, buffer -> keySerializer.write((Key) key, buffer),
+					() -> unmodifiable(memory.remove(key)));
+		}
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		return change(REMOVE_ALL, buffer -> {
+			keySerializer.write(key, buffer);
+			writeValues(values, buffer);
+		}, () -> memory.removeAll(key, values));
+	}
+
+	@Override
+	public void clear() {
+		change(CLEAR, buffer -> {
+		}, () -> {
+			memory.clear();
+			return null;
+		});
+	}
+
+	/* READS */
+
+	private static <Value> Collection<Value> unmodifiable(Collection<Value> values) {
+		return values == null ? null : Collections.unmodifiableCollection(values);
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		return unmodifiable(memory.getAll(key));
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return Collections.unmodifiableSet(memory.keySet());
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		Collection<Collection<Value>> collections = memory.collections();
+		return new AbstractCollection<Collection<Value>>() {
+
+			@Override
+			public Iterator<Collection<Value>> iterator() {
+				Iterator<Collection<Value>> iterator = collections.iterator();
+				return new Iterator<Collection<Value>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Collection<Value> next() {
+						return unmodifiable(iterator.next());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return collections.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		Set<Entry<Key, Collection<Value>>> entries = memory.entrySet();
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				Iterator<Entry<Key, Collection<Value>>> iterator = entries.iterator();
+				return new Iterator<Entry<Key, Collection<Value>>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Entry<Key, Collection<Value>> next() {
+						Entry<Key, Collection<Value>> entry = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), unmodifiable(entry.getValue()));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return entries.size();
+			}
+		};
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return memory.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		return memory.containsCouple(key, value);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		return memory.containsKeyMappedTo(collection);
+	}
+
+	@Override
+	public int size() {
+		return memory.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return memory.isEmpty();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		Iterator<Entry<Key, Value>> iterator = memory.iterator();
+		return new Iterator<Entry<Key, Value>>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				return iterator.next();
+			}
+		};
+	}
+
+	@Override
+	public void forEachCouple(BiConsumer<? super Key, ? super Value> action) {
+		memory.forEachCouple(action);
+	}
+
+	@Override
+	public void forEachValue(Key key, Consumer<? super Value> action) {
+		memory.forEachValue(key, action);
+	}
+
+	/**
+	 * 
+	 * @param directory
+	 *            the directory storing the snapshot and the log
+	 * @param keySerializer
+	 *            the {@link Serializer} of the keys
+	 * @param valueSerializer
+	 *            the {@link Serializer} of the values
+	 * @return a {@link Builder} of {@link DurableMultiMap} which keeps the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onLists(Path directory, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer) {
+		return new Builder<>(directory, () -> BackedMultiMap.onLists(), keySerializer, valueSerializer);
+	}
+
+	/**
+	 * 
+	 * @param directory
+	 *            the directory storing the snapshot and the log
+	 * @param keySerializer
+	 *            the {@link Serializer} of the keys
+	 * @param valueSerializer
+	 *            the {@link Serializer} of the values
+	 * @return a {@link Builder} of {@link DurableMultiMap} which ignores the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onSets(Path directory, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer) {
+		return new Builder<>(directory, () -> BackedMultiMap.onSets(), keySerializer, valueSerializer);
+	}
+
+	/**
+	 * A {@link Builder} configures and opens a {@link DurableMultiMap}. By
+	 * default, the changes are forced {@link Durability#ON_DEMAND} and a
+	 * snapshot is written every {@link #DEFAULT_SNAPSHOT_PERIOD} changes.
+	 * 
+	 * @author Matthieu Vergne <vergne@fbk.eu>
+	 * 
+	 * @param <Key>
+	 * @param <Value>
+	 */
+	public static class Builder<Key, Value> {
+
+		public static final long DEFAULT_SNAPSHOT_PERIOD = 1_000_000;
+
+		private final Path directory;
+		private final Supplier<MultiMap<Key, Value>> memorySupplier;
+		private final Serializer<Key> keySerializer;
+		private final Serializer<Value> valueSerializer;
+		private Durability durability = Durability.ON_DEMAND;
+		private long snapshotPeriod = DEFAULT_SNAPSHOT_PERIOD;
+
+		/**
+		 * 
+		 * @param directory
+		 *            the directory storing the snapshot and the log
+		 * @param memorySupplier
+		 *            the {@link Supplier} of the empty {@link MultiMap} to
+		 *            keep the content in memory
+		 * @param keySerializer
+		 *            the {@link Serializer} of the keys
+		 * @param valueSerializer
+		 *            the {@link Serializer} of the values
+		 */
+		public Builder(Path directory, Supplier<MultiMap<Key, Value>> memorySupplier, Serializer<Key> keySerializer,
+				Serializer<Value> valueSerializer) {
+			this.directory = directory;
+			this.memorySupplier = memorySupplier;
+			this.keySerializer = keySerializer;
+			this.valueSerializer = valueSerializer;
+		}
+
+		public Builder<Key, Value> durability(Durability durability) {
+			this.durability = durability;
+			return this;
+		}
+
+		/**
+		 * 
+		 * @param changes
+		 *            the number of changes logged between two automatic
+		 *            snapshots, {@link Long#MAX_VALUE} to only write them
+		 *            through {@link DurableMultiMap#snapshot()}
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> snapshotEvery(long changes) {
+			if (changes < 1) {
+				throw new IllegalArgumentException("The snapshot period must be positive: " + changes);
+			} else {
+				this.snapshotPeriod = changes;
+				return this;
+			}
+		}
+
+		/**
+		 * 
+		 * @return the {@link DurableMultiMap}, with the content recovered from
+		 *         the directory
+		 * @throws IOException
+		 *             if the directory cannot be read
+		 */
+		public DurableMultiMap<Key, Value> open() throws IOException {
+			return new DurableMultiMap<>(this);
+		}
+	}
+}
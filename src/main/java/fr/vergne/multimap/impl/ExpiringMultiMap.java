@@ -0,0 +1,421 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * An {@link ExpiringMultiMap} is a {@link MultiMap} in which each value
+ * expires after a time-to-live, given with
+ * {@link #add(Object, Object, long, TimeUnit)} or by default for the other
+ * methods. Once expired, a value is removed from its key and, contrary to the
+ * usual {@link MultiMap} behaviour, a key which loses its last value this way
+ * is removed too. The keys emptied explicitly, for instance through
+ * {@link #remove(Object, Object)}, remain as usual.
+ * </p>
+ * <p>
+ * The deadlines are scheduled on a hierarchical {@link TimerWheel}, so adding
+ * or removing a value costs a constant time. The expired values are removed
+ * by {@link #cleanUp()}, which is called at the start of each operation and
+ * costs a time proportional to the number of values expired, so an amortized
+ * constant time per value. It can also be called periodically, for instance
+ * from a {@link java.util.concurrent.ScheduledExecutorService}, to release
+ * the expired values of an idle {@link ExpiringMultiMap}.
+ * </p>
+ * <p>
+ * The values of a key are distinct: adding again a value replaces its
+ * time-to-live. The {@link Collection}s returned are unmodifiable, so all the
+ * changes go through the {@link ExpiringMultiMap} which maintains the
+ * deadlines. This class is not thread-safe: a background cleaner and the
+ * other users must synchronize on the {@link ExpiringMultiMap}.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class ExpiringMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	/**
+	 * The time-to-live of the values which never expire.
+	 */
+	public static final long NEVER = Long.MAX_VALUE;
+	/**
+	 * The duration of the smallest buckets of the {@link TimerWheel}, as a
+	 * power of 2 nanoseconds, so around a millisecond.
+	 */
+	private static final int RESOLUTION_SHIFT = 20;
+
+	private static class Expiry<Key, Value> extends TimerWheel.Timer {
+		private final Key key;
+		private final Value value;
+
+		public Expiry(Key key, Value value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final Map<Key, Map<Value, Expiry<Key, Value>>> map = new HashMap<>();
+	private final Map<Key, Set<Value>> views = new HashMap<>();
+	private final LongSupplier ticker;
+	private final long defaultTimeToLive;
+	private final TimerWheel<Expiry<Key, Value>> wheel;
+	private long expirationCount = 0;
+
+	/**
+	 * 
+	 * @param defaultTimeToLive
+	 *            the time-to-live of the values added without one, or
+	 *            {@link #NEVER}
+	 * @param unit
+	 *            the unit of the time-to-live
+	 * @param ticker
+	 *            the source of time, in nanoseconds, like
+	 *            {@link System#nanoTime()}
+	 */
+	public ExpiringMultiMap(long defaultTimeToLive, TimeUnit unit, LongSupplier ticker) {
+		this.ticker = ticker;
+		this.defaultTimeToLive = toNanos(defaultTimeToLive, unit);
+		this.wheel = new TimerWheel<>(RESOLUTION_SHIFT, ticker.getAsLong());
+	}
+
+	/**
+	 * 
+	 * @param defaultTimeToLive
+	 *            the time-to-live of the values added without one, or
+	 *            {@link #NEVER}
+	 * @param unit
+	 *            the unit of the time-to-live
+	 */
+	public ExpiringMultiMap(long defaultTimeToLive, TimeUnit unit) {
+		this(defaultTimeToLive, unit, System::nanoTime);
+	}
+
+	private static long toNanos(long timeToLive, TimeUnit unit) {
+		if (timeToLive <= 0) {
+			throw new IllegalArgumentException("The time-to-live must be positive: " + timeToLive);
+		} else if (timeToLive == NEVER) {
+			return NEVER;
+		} else {
+			return unit.toNanos(timeToLive);
+		}
+	}
+
+	/**
+	 * Remove the values which expired. This is done automatically at the start
+	 * of each operation.
+	 */
+	public void cleanUp() {
+		wheel.advance(ticker.getAsLong(), expiry -> {
+			Map<Value, Expiry<Key, Value>> expiries = map.get(expiry.key);
+			expiries.remove(expiry.value);
+			if (expiries.isEmpty()) {
+				map.remove(expiry.key);
+				views.remove(expiry.key);
+			} else {
+				// the key still has values
+			}
+			expirationCount++;
+		});
+	}
+
+	/**
+	 * Add a value to a key, or replace its time-to-live if it is already
+	 * there.
+	 * 
+	 * @param key
+	 *            the key to add the value to
+	 * @param value
+	 *            the value to add
+	 * @param timeToLive
+	 *            the time after which the value is removed, or {@link #NEVER}
+	 * @param unit
+	 *            the unit of the time-to-live
+	 * @return <code>true</code> if the value was not already mapped to the
+	 *         key, <code>false</code> otherwise
+	 */
+	public boolean add(Key key, Value value, long timeToLive, TimeUnit unit) {
+		cleanUp();
+		return put(key, value, toNanos(timeToLive, unit));
+	}
+
+	private boolean put(Key key, Value value, long timeToLive) {
+		Expiry<Key, Value> expiry = new Expiry<>(key, value);
+		if (timeToLive != NEVER) {
+			wheel.schedule(expiry, ticker.getAsLong() + timeToLive);
+		} else {
+			// never expires, so no need to schedule
+		}
+		Expiry<Key, Value> previous = expiries(key).put(value, expiry);
+		if (previous == null) {
+			return true;
+		} else {
+			wheel.cancel(previous);
+			return false;
+		}
+	}
+
+	private Map<Value, Expiry<Key, Value>> expiries(Key key) {
+		Map<Value, Expiry<Key, Value>> expiries = map.get(key);
+		if (expiries == null) {
+			expiries = new LinkedHashMap<>();
+			map.put(key, expiries);
+			views.put(key, Collections.unmodifiableSet(expiries.keySet()));
+		} else {
+			// reuse the existing one
+		}
+		return expiries;
+	}
+
+	private void cancelAll(Map<Value, Expiry<Key, Value>> expiries) {
+		for (Expiry<Key, Value> expiry : expiries.values()) {
+			wheel.cancel(expiry);
+		}
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key of the value
+	 * @param value
+	 *            the value to check
+	 * @param unit
+	 *            the unit of the result
+	 * @return the time remaining before the value expires, {@link #NEVER} if
+	 *         it does not expire, or <code>-1</code> if the value is not
+	 *         mapped to the key
+	 */
+	public long getTimeToLive(Key key, Value value, TimeUnit unit) {
+		cleanUp();
+		Map<Value, Expiry<Key, Value>> expiries = map.get(key);
+		Expiry<Key, Value> expiry = expiries == null ? null : expiries.get(value);
+		if (expiry == null) {
+			return -1;
+		} else if (!expiry.isScheduled()) {
+			return NEVER;
+		} else {
+			return unit.convert(expiry.getDeadline() - ticker.getAsLong(), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of values removed because they expired
+	 */
+	public long getExpirationCount() {
+		return expirationCount;
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		cleanUp();
+		return put(key, value, defaultTimeToLive);
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		cleanUp();
+		expiries(key);
+		boolean isChanged = false;
+		for (Value value : values) {
+			isChanged |= put(key, value, defaultTimeToLive);
+		}
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		cleanUp();
+		Map<Value, Expiry<Key, Value>> previous = map.remove(key);
+		Set<Value> previousView = views.remove(key);
+		if (previous != null) {
+			cancelAll(previous);
+		} else {
+			// nothing to cancel
+		}
+		expiries(key);
+		for (Value value : collection) {
+			put(key, value, defaultTimeToLive);
+		}
+		return previousView;
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		cleanUp();
+		return views.get(key);
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		cleanUp();
+		return Collections.unmodifiableSet(views.keySet());
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		cleanUp();
+		return Collections.<Collection<Value>> unmodifiableCollection(views.values());
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		cleanUp();
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				Iterator<Entry<Key, Set<Value>>> iterator = views.entrySet().iterator();
+				return new Iterator<Entry<Key, Collection<Value>>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Entry<Key, Collection<Value>> next() {
+						Entry<Key, Set<Value>> entry = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return views.size();
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		cleanUp();
+		Map<Value, Expiry<Key, Value>> expiries = map.get(key);
+		Expiry<Key, Value> expiry = expiries == null ? null : expiries.remove(value);
+		if (expiry == null) {
+			return false;
+		} else {
+			wheel.cancel(expiry);
+			return true;
+		}
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		cleanUp();
+		Map<Value, Expiry<Key, Value>> expiries = map.remove(key);
+		if (expiries == null) {
+			return null;
+		} else {
+			cancelAll(expiries);
+			return views.remove(key);
+		}
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		cleanUp();
+		boolean isChanged = false;
+		for (Value value : values) {
+			isChanged |= remove(key, value);
+		}
+		return isChanged;
+	}
+
+	@Override
+	public void clear() {
+		wheel.clear();
+		map.clear();
+		views.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		cleanUp();
+		return map.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		cleanUp();
+		Map<Value, Expiry<Key, Value>> expiries = map.get(key);
+		return expiries != null && expiries.containsKey(value);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		cleanUp();
+		Set<Value> values = new HashSet<>(collection);
+		for (Set<Value> view : views.values()) {
+			if (view.equals(values)) {
+				return true;
+			} else {
+				continue;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		cleanUp();
+		return map.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		cleanUp();
+		return map.isEmpty();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		cleanUp();
+		return new Iterator<Entry<Key, Value>>() {
+
+			private final Iterator<Entry<Key, Set<Value>>> keysIterator = views.entrySet().iterator();
+			private Iterator<Value> valuesIterator;
+			private Key key;
+
+			@Override
+			public boolean hasNext() {
+				while (valuesIterator == null || !valuesIterator.hasNext()) {
+					if (keysIterator.hasNext()) {
+						Entry<Key, Set<Value>> entry = keysIterator.next();
+						key = entry.getKey();
+						valuesIterator = entry.getValue().iterator();
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					return new AbstractMap.SimpleImmutableEntry<>(key, valuesIterator.next());
+				}
+			}
+		};
+	}
+}
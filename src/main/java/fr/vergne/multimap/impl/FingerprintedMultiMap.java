@@ -0,0 +1,410 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link FingerprintedMultiMap} is a {@link MultiMap} which indexes its keys
+ * by a fingerprint of their values, so {@link #containsKeyMappedTo(Collection)}
+ * and {@link #keysMappedTo(Collection)} only compare the {@link Collection}s
+ * having the same fingerprint, instead of all of them.
+ * </p>
+ * <p>
+ * The fingerprint of a {@link Collection} is the sum of a mix of the hash of
+ * each of its values. It does not depend on the order of the values, so it can
+ * be updated in a constant time when a value is added or removed, wherever it
+ * is. Equal {@link Collection}s, lists or sets, always have the same
+ * fingerprint, while the {@link Collection}s having the same fingerprint are
+ * compared with {@link Collection#equals(Object)} to confirm they are equal.
+ * </p>
+ * <p>
+ * The {@link Collection}s returned are unmodifiable, so all the changes go
+ * through the {@link FingerprintedMultiMap} which maintains the index. This
+ * class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class FingerprintedMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	private static class Node<Key, Value> {
+		private final Key key;
+		private final Collection<Value> values;
+		private final Collection<Value> view;
+		private long fingerprint = 0;
+
+		public Node(Key key, Collection<Value> values) {
+			this.key = key;
+			this.values = values;
+			this.view = Collections.unmodifiableCollection(values);
+		}
+	}
+
+	private final Map<Key, Node<Key, Value>> nodes = new HashMap<>();
+	private final Map<Long, Set<Key>> index = new HashMap<>();
+	private final Supplier<Collection<Value>> collectionSupplier;
+
+	/**
+	 * 
+	 * @param collectionSupplier
+	 *            the {@link Supplier} of the empty containers storing the
+	 *            values of each key
+	 */
+	public FingerprintedMultiMap(Supplier<Collection<Value>> collectionSupplier) {
+		this.collectionSupplier = collectionSupplier;
+	}
+
+	/**
+	 * 
+	 * @param value
+	 *            a value
+	 * @return the contribution of the value to the fingerprint of a
+	 *         {@link Collection}
+	 */
+	private static long mix(Object value) {
+		long hash = Objects.hashCode(value);
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static long fingerprint(Collection<?> values) {
+		long fingerprint = 0;
+		for (Object value : values) {
+			fingerprint += mix(value);
+		}
+		return fingerprint;
+	}
+
+	private void index(Node<Key, Value> node) {
+		Set<Key> keys = index.get(node.fingerprint);
+		if (keys == null) {
+			keys = new LinkedHashSet<>();
+			index.put(node.fingerprint, keys);
+		} else {
+			// add to the existing keys
+		}
+		keys.add(node.key);
+	}
+
+	private void unindex(Node<Key, Value> node) {
+		Set<Key> keys = index.get(node.fingerprint);
+		keys.remove(node.key);
+		if (keys.isEmpty()) {
+			index.remove(node.fingerprint);
+		} else {
+			// other keys have the same fingerprint
+		}
+	}
+
+	private void refingerprint(Node<Key, Value> node, long fingerprint) {
+		if (fingerprint != node.fingerprint) {
+			unindex(node);
+			node.fingerprint = fingerprint;
+			index(node);
+		} else {
+			// same fingerprint, same index
+		}
+	}
+
+	private Node<Key, Value> nodeFor(Key key) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node == null) {
+			node = new Node<>(key, collectionSupplier.get());
+			nodes.put(key, node);
+			index(node);
+		} else {
+			// reuse the existing one
+		}
+		return node;
+	}
+
+	private Node<Key, Value> removeNode(Object key) {
+		Node<Key, Value> node = nodes.remove(key);
+		if (node != null) {
+			unindex(node);
+		} else {
+			// nothing to unindex
+		}
+		return node;
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		Node<Key, Value> node = nodeFor(key);
+		if (node.values.add(value)) {
+			refingerprint(node, node.fingerprint + mix(value));
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		Node<Key, Value> node = nodeFor(key);
+		long fingerprint = node.fingerprint;
+		boolean isChanged = false;
+		for (Value value : values) {
+			if (node.values.add(value)) {
+				fingerprint += mix(value);
+				isChanged = true;
+			} else {
+				continue;
+			}
+		}
+		refingerprint(node, fingerprint);
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		Node<Key, Value> previous = removeNode(key);
+		Node<Key, Value> node = nodeFor(key);
+		node.values.addAll(collection);
+		refingerprint(node, fingerprint(node.values));
+		return previous == null ? null : previous.view;
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		Node<Key, Value> node = nodes.get(key);
+		return node == null ? null : node.view;
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return Collections.unmodifiableSet(nodes.keySet());
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return new AbstractCollection<Collection<Value>>() {
+
+			@Override
+			public Iterator<Collection<Value>> iterator() {
+				Iterator<Node<Key, Value>> iterator = nodes.values().iterator();
+				return new Iterator<Collection<Value>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Collection<Value> next() {
+						return iterator.next().view;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return nodes.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				Iterator<Node<Key, Value>> iterator = nodes.values().iterator();
+				return new Iterator<Entry<Key, Collection<Value>>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Entry<Key, Collection<Value>> next() {
+						Node<Key, Value> node = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<>(node.key, node.view);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return nodes.size();
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node != null && node.values.remove(value)) {
+			refingerprint(node, node.fingerprint - mix(value));
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		Node<Key, Value> node = removeNode(key);
+		return node == null ? null : node.view;
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		Node<Key, Value> node = nodes.get(key);
+		if (node != null && node.values.removeAll(values)) {
+			refingerprint(node, fingerprint(node.values));
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public void clear() {
+		nodes.clear();
+		index.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return nodes.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		Node<Key, Value> node = nodes.get(key);
+		return node != null && node.values.contains(value);
+	}
+
+	/**
+	 * 
+	 * @param collection
+	 *            the values to search for
+	 * @return the keys mapped to exactly these values, in the sense of
+	 *         {@link #containsKeyMappedTo(Collection)}
+	 */
+	public Set<Key> keysMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = collectionSupplier.get();
+		typedCollection.addAll(collection);
+		Set<Key> candidates = index.get(fingerprint(typedCollection));
+		if (candidates == null) {
+			return Collections.emptySet();
+		} else {
+			Set<Key> keys = new LinkedHashSet<>();
+			for (Key key : candidates) {
+				if (nodes.get(key).values.equals(typedCollection)) {
+					keys.add(key);
+				} else {
+					continue;
+				}
+			}
+			return keys;
+		}
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = collectionSupplier.get();
+		typedCollection.addAll(collection);
+		Set<Key> candidates = index.get(fingerprint(typedCollection));
+		if (candidates != null) {
+			for (Key key : candidates) {
+				if (nodes.get(key).values.equals(typedCollection)) {
+					return true;
+				} else {
+					continue;
+				}
+			}
+		} else {
+			// no collection with the same fingerprint
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return nodes.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return nodes.isEmpty();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+
+			private final Iterator<Node<Key, Value>> nodesIterator = nodes.values().iterator();
+			private Iterator<Value> valuesIterator;
+			private Key key;
+
+			@Override
+			public boolean hasNext() {
+				while (valuesIterator == null || !valuesIterator.hasNext()) {
+					if (nodesIterator.hasNext()) {
+						Node<Key, Value> node = nodesIterator.next();
+						key = node.key;
+						valuesIterator = node.view.iterator();
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					return new AbstractMap.SimpleImmutableEntry<>(key, valuesIterator.next());
+				}
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link FingerprintedMultiMap} which keeps the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> FingerprintedMultiMap<Key, Value> onLists() {
+		return new FingerprintedMultiMap<>(() -> new LinkedList<>());
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link FingerprintedMultiMap} which ignores the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> FingerprintedMultiMap<Key, Value> onSets() {
+		return new FingerprintedMultiMap<>(() -> new HashSet<>());
+	}
+}
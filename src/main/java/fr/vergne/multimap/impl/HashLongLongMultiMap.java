@@ -0,0 +1,478 @@
+package fr.vergne.multimap.impl;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+import fr.vergne.multimap.LongLongMultiMap;
+import fr.vergne.multimap.LongValues;
+
+/**
+ * <p>
+ * A {@link HashLongLongMultiMap} is a {@link LongLongMultiMap} which stores its
+ * keys in an open-addressing hash table, and the values of each key in a
+ * dedicated <code>long[]</code>. There is no boxing and no node allocation, so
+ * a couple costs only a few bytes instead of several dozens for a
+ * {@link BackedMultiMap}.
+ * </p>
+ * <p>
+ * The values of a key are either a list, which keeps them in insertion order
+ * with their duplicates, or a set, which keeps them sorted without
+ * duplicates. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ */
+public class HashLongLongMultiMap extends AbstractPrimitiveMultiMap<Long, Long> implements LongLongMultiMap {
+
+	private static final long[] NO_VALUE = new long[0];
+	private static final long[] REMOVED = new long[0];
+
+	private final boolean isDistinct;
+	private long[] keys;
+	private long[][] values;
+	private int[] counts;
+	private int size = 0;
+	private int removed = 0;
+
+	public HashLongLongMultiMap(int expectedKeys, boolean isDistinct) {
+		this.isDistinct = isDistinct;
+		allocate(PrimitiveHashing.capacityFor(expectedKeys));
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity][];
+		counts = new int[capacity];
+	}
+
+	@Override
+	public boolean add(long key, long value) {
+		return addValue(findOrInsert(key), value);
+	}
+
+	@Override
+	public boolean addAll(long key, long... values) {
+		int slot = findOrInsert(key);
+		boolean isChanged = false;
+		for (long value : values) {
+			isChanged |= addValue(slot, value);
+		}
+		return isChanged;
+	}
+
+	@Override
+	public LongValues getAll(long key) {
+		return find(key) < 0 ? null : new View(key);
+	}
+
+	@Override
+	public boolean remove(long key, long value) {
+		int slot = find(key);
+		int index = slot < 0 ? -1 : indexOfValue(slot, value);
+		if (index < 0) {
+			return false;
+		} else {
+			removeAt(slot, index);
+			return true;
+		}
+	}
+
+	@Override
+	public boolean removeAll(long key, long... removedValues) {
+		int slot = find(key);
+		if (slot < 0) {
+			return false;
+		} else {
+			long[] sorted = removedValues.clone();
+			Arrays.sort(sorted);
+			long[] array = values[slot];
+			int count = counts[slot];
+			int kept = 0;
+			for (int index = 0; index < count; index++) {
+				if (Arrays.binarySearch(sorted, array[index]) < 0) {
+					array[kept++] = array[index];
+				} else {
+					// remove the value
+				}
+			}
+			counts[slot] = kept;
+			if (kept < count) {
+				modCount++;
+				return true;
+			} else {
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public boolean removeKey(long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return false;
+		} else {
+			removeSlot(slot);
+			return true;
+		}
+	}
+
+	@Override
+	public void clear() {
+		clearAll();
+	}
+
+	@Override
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	@Override
+	public boolean containsCouple(long key, long value) {
+		int slot = find(key);
+		return slot >= 0 && indexOfValue(slot, value) >= 0;
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(long... checkedValues) {
+		long[] typedValues = isDistinct ? PrimitiveHashing.sortedDistinct(checkedValues) : checkedValues;
+		for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+			if (counts[slot] == typedValues.length && PrimitiveHashing.startsWith(values[slot], typedValues)) {
+				return true;
+			} else {
+				continue;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void forEachKey(LongConsumer consumer) {
+		for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+			consumer.accept(keys[slot]);
+		}
+	}
+
+	@Override
+	public void forEachCouple(LongLongConsumer consumer) {
+		for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+			long key = keys[slot];
+			long[] array = values[slot];
+			for (int index = 0, count = counts[slot]; index < count; index++) {
+				consumer.accept(key, array[index]);
+			}
+		}
+	}
+
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int slot = PrimitiveHashing.hash(key) & mask;
+		long[] array;
+		while ((array = values[slot]) != null) {
+			if (array != REMOVED && keys[slot] == key) {
+				return slot;
+			} else {
+				slot = (slot + 1) & mask;
+			}
+		}
+		return -1;
+	}
+
+	private int findOrInsert(long key) {
+		int mask = keys.length - 1;
+		int slot = PrimitiveHashing.hash(key) & mask;
+		int firstRemoved = -1;
+		long[] array;
+		while ((array = values[slot]) != null) {
+			if (array == REMOVED) {
+				firstRemoved = firstRemoved < 0 ? slot : firstRemoved;
+			} else if (keys[slot] == key) {
+				return slot;
+			} else {
+				// continue probing
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (firstRemoved >= 0) {
+			slot = firstRemoved;
+			removed--;
+		} else {
+			// use the free slot
+		}
+		keys[slot] = key;
+		values[slot] = NO_VALUE;
+		counts[slot] = 0;
+		size++;
+		modCount++;
+
+		if (PrimitiveHashing.isFull(size + removed, keys.length)) {
+			rehash(PrimitiveHashing.rehashCapacity(size, keys.length));
+			return find(key);
+		} else {
+			return slot;
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		long[][] oldValues = values;
+		int[] oldCounts = counts;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+			long[] array = oldValues[oldSlot];
+			if (array != null && array != REMOVED) {
+				int slot = PrimitiveHashing.hash(oldKeys[oldSlot]) & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[oldSlot];
+				values[slot] = array;
+				counts[slot] = oldCounts[oldSlot];
+			} else {
+				// ignore free and removed slots
+			}
+		}
+		removed = 0;
+	}
+
+	private boolean addValue(int slot, long value) {
+		long[] array = values[slot];
+		int count = counts[slot];
+		int index;
+		if (isDistinct) {
+			int search = Arrays.binarySearch(array, 0, count, value);
+			if (search >= 0) {
+				return false;
+			} else {
+				index = -search - 1;
+			}
+		} else {
+			index = count;
+		}
+
+		if (count == array.length) {
+			array = Arrays.copyOf(array, PrimitiveHashing.grow(count));
+			values[slot] = array;
+		} else {
+			// enough room
+		}
+		System.arraycopy(array, index, array, index + 1, count - index);
+		array[index] = value;
+		counts[slot] = count + 1;
+		modCount++;
+		return true;
+	}
+
+	private int indexOfValue(int slot, long value) {
+		long[] array = values[slot];
+		int count = counts[slot];
+		if (isDistinct) {
+			int index = Arrays.binarySearch(array, 0, count, value);
+			return index < 0 ? -1 : index;
+		} else {
+			for (int index = 0; index < count; index++) {
+				if (array[index] == value) {
+					return index;
+				} else {
+					continue;
+				}
+			}
+			return -1;
+		}
+	}
+
+	@Override
+	boolean isDistinct() {
+		return isDistinct;
+	}
+
+	@Override
+	boolean isValidValue(Object value) {
+		return value instanceof Long;
+	}
+
+	@Override
+	int slotOf(Object key) {
+		return key instanceof Long ? find((Long) key) : -1;
+	}
+
+	@Override
+	int insertSlot(Long key) {
+		return findOrInsert(key);
+	}
+
+	@Override
+	int nextSlot(int from) {
+		for (int slot = from; slot < values.length; slot++) {
+			long[] array = values[slot];
+			if (array != null && array != REMOVED) {
+				return slot;
+			} else {
+				continue;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	Long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	@Override
+	int countAt(int slot) {
+		return counts[slot];
+	}
+
+	@Override
+	Long valueAt(int slot, int index) {
+		return values[slot][index];
+	}
+
+	@Override
+	boolean addAt(int slot, Long value) {
+		return addValue(slot, value);
+	}
+
+	@Override
+	int valueIndex(int slot, Object value) {
+		return value instanceof Long ? indexOfValue(slot, (Long) value) : -1;
+	}
+
+	@Override
+	void removeAt(int slot, int index) {
+		long[] array = values[slot];
+		int count = counts[slot];
+		System.arraycopy(array, index + 1, array, index, count - index - 1);
+		counts[slot] = count - 1;
+		modCount++;
+	}
+
+	@Override
+	void removeSlot(int slot) {
+		values[slot] = REMOVED;
+		counts[slot] = 0;
+		size--;
+		removed++;
+		modCount++;
+	}
+
+	@Override
+	int keyCount() {
+		return size;
+	}
+
+	@Override
+	void clearAll() {
+		Arrays.fill(values, null);
+		Arrays.fill(counts, 0);
+		size = 0;
+		removed = 0;
+		modCount++;
+	}
+
+	private class View implements LongValues {
+		private final long key;
+
+		public View(long key) {
+			this.key = key;
+		}
+
+		@Override
+		public int size() {
+			int slot = find(key);
+			return slot < 0 ? 0 : counts[slot];
+		}
+
+		@Override
+		public long get(int index) {
+			int slot = find(key);
+			if (slot < 0 || index < 0 || index >= counts[slot]) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			} else {
+				return values[slot][index];
+			}
+		}
+
+		@Override
+		public boolean contains(long value) {
+			return containsCouple(key, value);
+		}
+
+		@Override
+		public long[] toArray() {
+			int slot = find(key);
+			return slot < 0 ? new long[0] : Arrays.copyOf(values[slot], counts[slot]);
+		}
+
+		@Override
+		public void forEach(LongConsumer consumer) {
+			int slot = find(key);
+			if (slot >= 0) {
+				long[] array = values[slot];
+				for (int index = 0, count = counts[slot]; index < count; index++) {
+					consumer.accept(array[index]);
+				}
+			} else {
+				// no value to consume
+			}
+		}
+
+		@Override
+		public PrimitiveIterator.OfLong iterator() {
+			return new PrimitiveIterator.OfLong() {
+				private final int expectedModCount = modCount;
+				private final int slot = find(key);
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return slot >= 0 && index < counts[slot];
+				}
+
+				@Override
+				public long nextLong() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					} else if (!hasNext()) {
+						throw new NoSuchElementException();
+					} else {
+						return values[slot][index++];
+					}
+				}
+			};
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(toArray());
+		}
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link HashLongLongMultiMap} which keeps the duplicated
+	 *         values of a key
+	 */
+	public static HashLongLongMultiMap onLists() {
+		return new HashLongLongMultiMap(PrimitiveHashing.DEFAULT_EXPECTED_KEYS, false);
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link HashLongLongMultiMap} which ignores the duplicated
+	 *         values of a key
+	 */
+	public static HashLongLongMultiMap onSets() {
+		return new HashLongLongMultiMap(PrimitiveHashing.DEFAULT_EXPECTED_KEYS, true);
+	}
+}
@@ -0,0 +1,379 @@
+package fr.vergne.multimap.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+import fr.vergne.multimap.LongObjMultiMap;
+
+/**
+ * <p>
+ * A {@link HashLongObjMultiMap} is a {@link LongObjMultiMap} which stores its
+ * keys in an open-addressing hash table, and the values of each key in a
+ * dedicated <code>Object[]</code>. There is no boxing of the keys and no node
+ * allocation, so each key costs only a few bytes more than its values.
+ * </p>
+ * <p>
+ * The values of a key are either a list, which keeps them in insertion order
+ * with their duplicates, or a set, which keeps them in insertion order
+ * without duplicates. Because sets are checked linearly, they are intended
+ * for keys having few values. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Value>
+ */
+public class HashLongObjMultiMap<Value> extends AbstractPrimitiveMultiMap<Long, Value>
+		implements LongObjMultiMap<Value> {
+
+	private static final Object[] NO_VALUE = new Object[0];
+	private static final Object[] REMOVED = new Object[0];
+
+	private final boolean isDistinct;
+	private long[] keys;
+	private Object[][] values;
+	private int[] counts;
+	private int size = 0;
+	private int removed = 0;
+
+	public HashLongObjMultiMap(int expectedKeys, boolean isDistinct) {
+		this.isDistinct = isDistinct;
+		allocate(PrimitiveHashing.capacityFor(expectedKeys));
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity][];
+		counts = new int[capacity];
+	}
+
+	@Override
+	public boolean add(long key, Value value) {
+		return addValue(findOrInsert(key), value);
+	}
+
+	@Override
+	public boolean addAll(long key, Collection<Value> values) {
+		int slot = findOrInsert(key);
+		boolean isChanged = false;
+		for (Value value : values) {
+			isChanged |= addValue(slot, value);
+		}
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> getAll(long key) {
+		return asMultiMap().getAll(key);
+	}
+
+	@Override
+	public boolean remove(long key, Value value) {
+		int slot = find(key);
+		int index = slot < 0 ? -1 : valueIndex(slot, value);
+		if (index < 0) {
+			return false;
+		} else {
+			removeAt(slot, index);
+			return true;
+		}
+	}
+
+	@Override
+	public boolean removeAll(long key, Collection<Value> removedValues) {
+		int slot = find(key);
+		if (slot < 0) {
+			return false;
+		} else {
+			Collection<?> removedSet = removedValues instanceof Set ? removedValues : new HashSet<>(removedValues);
+			Object[] array = values[slot];
+			int count = counts[slot];
+			int kept = 0;
+			for (int index = 0; index < count; index++) {
+				if (!removedSet.contains(array[index])) {
+					array[kept++] = array[index];
+				} else {
+					// remove the value
+				}
+			}
+			Arrays.fill(array, kept, count, null);
+			counts[slot] = kept;
+			if (kept < count) {
+				modCount++;
+				return true;
+			} else {
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public boolean removeKey(long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return false;
+		} else {
+			removeSlot(slot);
+			return true;
+		}
+	}
+
+	@Override
+	public void clear() {
+		clearAll();
+	}
+
+	@Override
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	@Override
+	public boolean containsCouple(long key, Value value) {
+		int slot = find(key);
+		return slot >= 0 && valueIndex(slot, value) >= 0;
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		return asMultiMap().containsKeyMappedTo(collection);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void forEachKey(LongConsumer consumer) {
+		for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+			consumer.accept(keys[slot]);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void forEachCouple(LongObjConsumer<? super Value> consumer) {
+		for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+			long key = keys[slot];
+			Object[] array = values[slot];
+			for (int index = 0, count = counts[slot]; index < count; index++) {
+				consumer.accept(key, (Value) array[index]);
+			}
+		}
+	}
+
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int slot = PrimitiveHashing.hash(key) & mask;
+		Object[] array;
+		while ((array = values[slot]) != null) {
+			if (array != REMOVED && keys[slot] == key) {
+				return slot;
+			} else {
+				slot = (slot + 1) & mask;
+			}
+		}
+		return -1;
+	}
+
+	private int findOrInsert(long key) {
+		int mask = keys.length - 1;
+		int slot = PrimitiveHashing.hash(key) & mask;
+		int firstRemoved = -1;
+		Object[] array;
+		while ((array = values[slot]) != null) {
+			if (array == REMOVED) {
+				firstRemoved = firstRemoved < 0 ? slot : firstRemoved;
+			} else if (keys[slot] == key) {
+				return slot;
+			} else {
+				// continue probing
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (firstRemoved >= 0) {
+			slot = firstRemoved;
+			removed--;
+		} else {
+			// use the free slot
+		}
+		keys[slot] = key;
+		values[slot] = NO_VALUE;
+		counts[slot] = 0;
+		size++;
+		modCount++;
+
+		if (PrimitiveHashing.isFull(size + removed, keys.length)) {
+			rehash(PrimitiveHashing.rehashCapacity(size, keys.length));
+			return find(key);
+		} else {
+			return slot;
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object[][] oldValues = values;
+		int[] oldCounts = counts;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+			Object[] array = oldValues[oldSlot];
+			if (array != null && array != REMOVED) {
+				int slot = PrimitiveHashing.hash(oldKeys[oldSlot]) & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[oldSlot];
+				values[slot] = array;
+				counts[slot] = oldCounts[oldSlot];
+			} else {
+				// ignore free and removed slots
+			}
+		}
+		removed = 0;
+	}
+
+	private boolean addValue(int slot, Value value) {
+		if (isDistinct && valueIndex(slot, value) >= 0) {
+			return false;
+		} else {
+			Object[] array = values[slot];
+			int count = counts[slot];
+			if (count == array.length) {
+				array = Arrays.copyOf(array, PrimitiveHashing.grow(count));
+				values[slot] = array;
+			} else {
+				// enough room
+			}
+			array[count] = value;
+			counts[slot] = count + 1;
+			modCount++;
+			return true;
+		}
+	}
+
+	@Override
+	boolean isDistinct() {
+		return isDistinct;
+	}
+
+	@Override
+	boolean isValidValue(Object value) {
+		return true;
+	}
+
+	@Override
+	int slotOf(Object key) {
+		return key instanceof Long ? find((Long) key) : -1;
+	}
+
+	@Override
+	int insertSlot(Long key) {
+		return findOrInsert(key);
+	}
+
+	@Override
+	int nextSlot(int from) {
+		for (int slot = from; slot < values.length; slot++) {
+			Object[] array = values[slot];
+			if (array != null && array != REMOVED) {
+				return slot;
+			} else {
+				continue;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	Long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	@Override
+	int countAt(int slot) {
+		return counts[slot];
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	Value valueAt(int slot, int index) {
+		return (Value) values[slot][index];
+	}
+
+	@Override
+	boolean addAt(int slot, Value value) {
+		return addValue(slot, value);
+	}
+
+	@Override
+	int valueIndex(int slot, Object value) {
+		Object[] array = values[slot];
+		for (int index = 0, count = counts[slot]; index < count; index++) {
+			if (Objects.equals(array[index], value)) {
+				return index;
+			} else {
+				continue;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	void removeAt(int slot, int index) {
+		Object[] array = values[slot];
+		int count = counts[slot];
+		System.arraycopy(array, index + 1, array, index, count - index - 1);
+		array[count - 1] = null;
+		counts[slot] = count - 1;
+		modCount++;
+	}
+
+	@Override
+	void removeSlot(int slot) {
+		values[slot] = REMOVED;
+		counts[slot] = 0;
+		size--;
+		removed++;
+		modCount++;
+	}
+
+	@Override
+	int keyCount() {
+		return size;
+	}
+
+	@Override
+	void clearAll() {
+		Arrays.fill(values, null);
+		Arrays.fill(counts, 0);
+		size = 0;
+		removed = 0;
+		modCount++;
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link HashLongObjMultiMap} which keeps the duplicated
+	 *         values of a key
+	 */
+	public static <Value> HashLongObjMultiMap<Value> onLists() {
+		return new HashLongObjMultiMap<>(PrimitiveHashing.DEFAULT_EXPECTED_KEYS, false);
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link HashLongObjMultiMap} which ignores the duplicated
+	 *         values of a key
+	 */
+	public static <Value> HashLongObjMultiMap<Value> onSets() {
+		return new HashLongObjMultiMap<>(PrimitiveHashing.DEFAULT_EXPECTED_KEYS, true);
+	}
+}
@@ -0,0 +1,623 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * An {@link ImmutableMultiMap} is a read-only {@link MultiMap} which stores
+ * all its values in a single array, the values of each key being contiguous,
+ * like a compressed sparse row matrix. The keys are stored in another array,
+ * indexed by an open-addressing hash table of <code>int</code>s. Thus, there
+ * is no node nor container per key: a key costs a few bytes more than its
+ * values, and reading the values of a key browses contiguous memory.
+ * </p>
+ * <p>
+ * The {@link Collection}s returned by {@link #getAll(Object)} are slices of
+ * the values array: they do not copy the values. The values of a key are
+ * either a {@link List}, which keeps their order and duplicates, or a
+ * {@link Set}, which ignores duplicates and checks its values linearly.
+ * </p>
+ * <p>
+ * All the methods which would modify the {@link ImmutableMultiMap}, including
+ * through its views, throw an {@link UnsupportedOperationException}. An
+ * {@link ImmutableMultiMap} is built either by {@link #copyOf(MultiMap)} or by
+ * a {@link Builder}. Being immutable, it can be shared between threads
+ * without synchronization.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class ImmutableMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	private final boolean isDistinct;
+	private final Object[] keys;
+	/**
+	 * The index of each key plus one, 0 for free slots.
+	 */
+	private final int[] table;
+	/**
+	 * The values of the key <code>i</code> are between the indexes
+	 * <code>offsets[i]</code> (included) and <code>offsets[i+1]</code>
+	 * (excluded) of {@link #values}.
+	 */
+	private final int[] offsets;
+	private final Object[] values;
+
+	private ImmutableMultiMap(boolean isDistinct, Object[] keys, int[] offsets, Object[] values) {
+		this.isDistinct = isDistinct;
+		this.keys = keys;
+		this.offsets = offsets;
+		this.values = values;
+		this.table = new int[PrimitiveHashing.capacityFor(keys.length)];
+		int mask = table.length - 1;
+		for (int index = 0; index < keys.length; index++) {
+			int slot = PrimitiveHashing.hash(keys[index].hashCode()) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = index + 1;
+		}
+	}
+
+	private int indexOf(Object key) {
+		if (key == null) {
+			return -1;
+		} else {
+			int mask = table.length - 1;
+			int slot = PrimitiveHashing.hash(key.hashCode()) & mask;
+			int entry;
+			while ((entry = table[slot]) != 0) {
+				if (keys[entry - 1].equals(key)) {
+					return entry - 1;
+				} else {
+					slot = (slot + 1) & mask;
+				}
+			}
+			return -1;
+		}
+	}
+
+	private int valueIndex(int keyIndex, Object value) {
+		for (int index = offsets[keyIndex], end = offsets[keyIndex + 1]; index < end; index++) {
+			if (Objects.equals(values[index], value)) {
+				return index;
+			} else {
+				continue;
+			}
+		}
+		return -1;
+	}
+
+	private Collection<Value> slice(int keyIndex) {
+		return isDistinct ? new SetSlice(keyIndex) : new ListSlice(keyIndex);
+	}
+
+	/**
+	 * This method reads the values of a key without creating any view.
+	 * 
+	 * @param key
+	 *            the key to check
+	 * @return the number of values mapped to the key, 0 if the key is unknown
+	 */
+	public int count(Object key) {
+		int keyIndex = indexOf(key);
+		return keyIndex < 0 ? 0 : offsets[keyIndex + 1] - offsets[keyIndex];
+	}
+
+	/**
+	 * This method reads the values of a key without creating any view.
+	 * 
+	 * @param key
+	 *            the key to read
+	 * @param index
+	 *            the index of the value, between 0 (included) and
+	 *            {@link #count(Object)} (excluded)
+	 * @return the value at the given index
+	 * @throws IndexOutOfBoundsException
+	 *             if the key has no value at this index
+	 */
+	@SuppressWarnings("unchecked")
+	public Value get(Object key, int index) {
+		int keyIndex = indexOf(key);
+		if (keyIndex < 0 || index < 0 || index >= offsets[keyIndex + 1] - offsets[keyIndex]) {
+			throw new IndexOutOfBoundsException("No value " + index + " for key " + key);
+		} else {
+			return (Value) values[offsets[keyIndex] + index];
+		}
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		int keyIndex = indexOf(key);
+		return keyIndex < 0 ? null : slice(keyIndex);
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return new AbstractSet<Key>() {
+
+			@Override
+			public Iterator<Key> iterator() {
+				return new IndexIterator<Key>(keys.length) {
+					@SuppressWarnings("unchecked")
+					@Override
+					Key get(int index) {
+						return (Key) keys[index];
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object key) {
+				return indexOf(key) >= 0;
+			}
+
+			@Override
+			public int size() {
+				return keys.length;
+			}
+		};
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return new AbstractCollection<Collection<Value>>() {
+
+			@Override
+			public Iterator<Collection<Value>> iterator() {
+				return new IndexIterator<Collection<Value>>(keys.length) {
+					@Override
+					Collection<Value> get(int index) {
+						return slice(index);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return keys.length;
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				return new IndexIterator<Entry<Key, Collection<Value>>>(keys.length) {
+					@SuppressWarnings("unchecked")
+					@Override
+					Entry<Key, Collection<Value>> get(int index) {
+						return new AbstractMap.SimpleImmutableEntry<>((Key) keys[index], slice(index));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return keys.length;
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		int keyIndex = indexOf(key);
+		return keyIndex >= 0 && valueIndex(keyIndex, value) >= 0;
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = isDistinct ? new HashSet<>(collection) : new ArrayList<>(collection);
+		for (int keyIndex = 0; keyIndex < keys.length; keyIndex++) {
+			if (offsets[keyIndex + 1] - offsets[keyIndex] == typedCollection.size()
+					&& slice(keyIndex).equals(typedCollection)) {
+				return true;
+			} else {
+				continue;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return keys.length == 0;
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+			private int keyIndex = 0;
+			private int valueIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				return valueIndex < values.length;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					while (offsets[keyIndex + 1] <= valueIndex) {
+						keyIndex++;
+					}
+					return new AbstractMap.SimpleImmutableEntry<>((Key) keys[keyIndex],
+							(Value) values[valueIndex++]);
+				}
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void forEachCouple(BiConsumer<? super Key, ? super Value> action) {
+		for (int keyIndex = 0; keyIndex < keys.length; keyIndex++) {
+			Key key = (Key) keys[keyIndex];
+			for (int index = offsets[keyIndex], end = offsets[keyIndex + 1]; index < end; index++) {
+				action.accept(key, (Value) values[index]);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void forEachValue(Key key, Consumer<? super Value> action) {
+		int keyIndex = indexOf(key);
+		if (keyIndex >= 0) {
+			for (int index = offsets[keyIndex], end = offsets[keyIndex + 1]; index < end; index++) {
+				action.accept((Value) values[index]);
+			}
+		} else {
+			// unknown key
+		}
+	}
+
+	@Override
+	public Map<Key, Collection<Value>> toMap() {
+		return new AbstractMap<Key, Collection<Value>>() {
+
+			@Override
+			public Collection<Value> get(Object key) {
+				return getAll(key);
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return indexOf(key) >= 0;
+			}
+
+			@Override
+			public Set<Entry<Key, Collection<Value>>> entrySet() {
+				return ImmutableMultiMap.this.entrySet();
+			}
+		};
+	}
+
+	private abstract class IndexIterator<T> implements Iterator<T> {
+		private final int end;
+		private int next;
+
+		public IndexIterator(int start, int end) {
+			this.next = start;
+			this.end = end;
+		}
+
+		public IndexIterator(int end) {
+			this(0, end);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < end;
+		}
+
+		@Override
+		public T next() {
+			if (next >= end) {
+				throw new NoSuchElementException();
+			} else {
+				return get(next++);
+			}
+		}
+
+		abstract T get(int index);
+	}
+
+	private class ListSlice extends AbstractList<Value> implements RandomAccess {
+		private final int start;
+		private final int end;
+
+		public ListSlice(int keyIndex) {
+			this.start = offsets[keyIndex];
+			this.end = offsets[keyIndex + 1];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Value get(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			} else {
+				return (Value) values[start + index];
+			}
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+
+	private class SetSlice extends AbstractSet<Value> {
+		private final int keyIndex;
+
+		public SetSlice(int keyIndex) {
+			this.keyIndex = keyIndex;
+		}
+
+		@Override
+		public boolean contains(Object value) {
+			return valueIndex(keyIndex, value) >= 0;
+		}
+
+		@Override
+		public Iterator<Value> iterator() {
+			return new IndexIterator<Value>(offsets[keyIndex], offsets[keyIndex + 1]) {
+				@SuppressWarnings("unchecked")
+				@Override
+				Value get(int index) {
+					return (Value) values[index];
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return offsets[keyIndex + 1] - offsets[keyIndex];
+		}
+	}
+
+	/**
+	 * 
+	 * @param map
+	 *            the {@link MultiMap} to copy
+	 * @return an {@link ImmutableMultiMap} having the same keys and values, which
+	 *         ignores duplicates if all the {@link Collection}s of the
+	 *         {@link MultiMap} are {@link Set}s
+	 */
+	public static <Key, Value> ImmutableMultiMap<Key, Value> copyOf(MultiMap<Key, Value> map) {
+		boolean isDistinct = !map.isEmpty();
+		for (Collection<Value> collection : map.collections()) {
+			isDistinct &= collection instanceof Set;
+		}
+		Builder<Key, Value> builder = new Builder<>(isDistinct);
+		for (Entry<Key, Collection<Value>> entry : map.entrySet()) {
+			builder.addAll(entry.getKey(), entry.getValue());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * 
+	 * @return a {@link Builder} of {@link ImmutableMultiMap} which keeps the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onLists() {
+		return new Builder<>(false);
+	}
+
+	/**
+	 * 
+	 * @return a {@link Builder} of {@link ImmutableMultiMap} which ignores the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onSets() {
+		return new Builder<>(true);
+	}
+
+	/**
+	 * <p>
+	 * A {@link Builder} accumulates couples in any order and builds the
+	 * {@link ImmutableMultiMap} in linear time. The keys are ordered by their
+	 * first addition, and the values of each key by their addition.
+	 * </p>
+	 * <p>
+	 * A {@link Builder} can build several {@link ImmutableMultiMap}s, each
+	 * having the couples added so far.
+	 * </p>
+	 * 
+	 * @author Matthieu Vergne <vergne@fbk.eu>
+	 * 
+	 * @param <Key>
+	 * @param <Value>
+	 */
+	public static class Builder<Key, Value> {
+
+		private final boolean isDistinct;
+		private final Map<Key, Integer> keyIndexes = new HashMap<>();
+		private final List<Key> keys = new ArrayList<>();
+		private int[] couplesKeys = new int[16];
+		private Object[] couplesValues = new Object[16];
+		private int couples = 0;
+
+		public Builder(boolean isDistinct) {
+			this.isDistinct = isDistinct;
+		}
+
+		private int keyIndex(Key key) {
+			Integer keyIndex = keyIndexes.get(Objects.requireNonNull(key, "null keys are not supported"));
+			if (keyIndex == null) {
+				keyIndex = keys.size();
+				keys.add(key);
+				keyIndexes.put(key, keyIndex);
+			} else {
+				// known key
+			}
+			return keyIndex;
+		}
+
+		/**
+		 * 
+		 * @param key
+		 *            the key to map the value to
+		 * @param value
+		 *            the value to add
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> add(Key key, Value value) {
+			int keyIndex = keyIndex(key);
+			if (couples == couplesKeys.length) {
+				int capacity = PrimitiveHashing.grow(couples);
+				couplesKeys = Arrays.copyOf(couplesKeys, capacity);
+				couplesValues = Arrays.copyOf(couplesValues, capacity);
+			} else {
+				// enough room
+			}
+			couplesKeys[couples] = keyIndex;
+			couplesValues[couples] = value;
+			couples++;
+			return this;
+		}
+
+		/**
+		 * 
+		 * @param key
+		 *            the key to map the values to, which is added even if there
+		 *            is no value
+		 * @param values
+		 *            the values to add
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> addAll(Key key, Collection<? extends Value> values) {
+			keyIndex(key);
+			for (Value value : values) {
+				add(key, value);
+			}
+			return this;
+		}
+
+		/**
+		 * 
+		 * @return an {@link ImmutableMultiMap} containing all the couples added
+		 *         to this {@link Builder}
+		 */
+		public ImmutableMultiMap<Key, Value> build() {
+			int keyCount = keys.size();
+			// counting sort of the couples by key
+			int[] offsets = new int[keyCount + 1];
+			for (int couple = 0; couple < couples; couple++) {
+				offsets[couplesKeys[couple] + 1]++;
+			}
+			for (int keyIndex = 0; keyIndex < keyCount; keyIndex++) {
+				offsets[keyIndex + 1] += offsets[keyIndex];
+			}
+			int[] cursors = Arrays.copyOf(offsets, keyCount);
+			Object[] values = new Object[couples];
+			for (int couple = 0; couple < couples; couple++) {
+				values[cursors[couplesKeys[couple]]++] = couplesValues[couple];
+			}
+
+			if (isDistinct) {
+				values = removeDuplicates(offsets, values);
+			} else {
+				// keep the duplicates
+			}
+			return new ImmutableMultiMap<>(isDistinct, keys.toArray(), offsets, values);
+		}
+
+		private static Object[] removeDuplicates(int[] offsets, Object[] values) {
+			Set<Object> seen = new HashSet<>();
+			int kept = 0;
+			int start = 0;
+			for (int keyIndex = 0; keyIndex < offsets.length - 1; keyIndex++) {
+				int end = offsets[keyIndex + 1];
+				offsets[keyIndex] = kept;
+				seen.clear();
+				for (int index = start; index < end; index++) {
+					if (seen.add(values[index])) {
+						values[kept++] = values[index];
+					} else {
+						// ignore the duplicate
+					}
+				}
+				start = end;
+			}
+			offsets[offsets.length - 1] = kept;
+			return kept == values.length ? values : Arrays.copyOf(values, kept);
+		}
+	}
+}
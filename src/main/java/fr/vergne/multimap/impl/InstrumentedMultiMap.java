@@ -0,0 +1,261 @@
+package fr.vergne.multimap.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.metrics.MetricsSink;
+import fr.vergne.multimap.metrics.MetricsSink.Operation;
+
+/**
+ * <p>
+ * An {@link InstrumentedMultiMap} is a decorator which measures the use of
+ * another {@link MultiMap} and reports it to a {@link MetricsSink}. Each
+ * operation is counted, as a hit or a miss, while only a random sample of
+ * them is timed, to limit the cost of {@link System#nanoTime()}. The
+ * cardinality of the keys is reported on demand through
+ * {@link #recordCardinalities()}.
+ * </p>
+ * <p>
+ * The creation of containers happens inside the decorated {@link MultiMap}. It
+ * can be measured by building it with a {@link Supplier} decorated by
+ * {@link #counting(Supplier, MetricsSink)}, like {@link #onLists(MetricsSink)}
+ * and {@link #onSets(MetricsSink)} do. A {@link BackedMultiMap} built with the
+ * public constructors also uses its {@link Supplier} for the temporary
+ * {@link java.util.Collection} of
+ * {@link #containsKeyMappedTo(java.util.Collection)}, which is then counted
+ * too, while these factories count the containers only.
+ * </p>
+ * <p>
+ * The views returned by {@link #keySet()}, {@link #collections()},
+ * {@link #entrySet()} and {@link #iterator()} are the ones of the decorated
+ * {@link MultiMap}, without measure. An {@link InstrumentedMultiMap} is
+ * thread-safe if the decorated {@link MultiMap} and the {@link MetricsSink}
+ * are.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class InstrumentedMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	public static final int DEFAULT_SAMPLING_PERIOD = 64;
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private final MultiMap<Key, Value> delegate;
+	private final MetricsSink sink;
+	private final int samplingPeriod;
+
+	/**
+	 * 
+	 * @param delegate
+	 *            the {@link MultiMap} to measure
+	 * @param sink
+	 *            the {@link MetricsSink} to report to
+	 * @param samplingPeriod
+	 *            the average number of executions per timed execution, 1 to
+	 *            time all of them
+	 */
+	public InstrumentedMultiMap(MultiMap<Key, Value> delegate, MetricsSink sink, int samplingPeriod) {
+		if (samplingPeriod < 1) {
+			throw new IllegalArgumentException("The sampling period must be positive: " + samplingPeriod);
+		} else {
+			this.delegate = delegate;
+			this.sink = sink;
+			this.samplingPeriod = samplingPeriod;
+		}
+	}
+
+	public InstrumentedMultiMap(MultiMap<Key, Value> delegate, MetricsSink sink) {
+		this(delegate, sink, DEFAULT_SAMPLING_PERIOD);
+	}
+
+	private long start() {
+		if (samplingPeriod == 1 || ThreadLocalRandom.current().nextInt(samplingPeriod) == 0) {
+			return System.nanoTime();
+		} else {
+			return NOT_TIMED;
+		}
+	}
+
+	private void stop(Operation operation, long start, boolean isHit) {
+		if (start != NOT_TIMED) {
+			sink.recordLatency(operation, System.nanoTime() - start);
+		} else {
+			// not sampled
+		}
+		sink.record(operation, isHit);
+	}
+
+	/**
+	 * Report the number of values of each key to the {@link MetricsSink}. This
+	 * browses the whole {@link MultiMap}.
+	 */
+	public void recordCardinalities() {
+		for (Collection<Value> values : delegate.collections()) {
+			sink.recordCardinality(values.size());
+		}
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		long start = start();
+		boolean isChanged = delegate.add(key, value);
+		stop(Operation.ADD, start, isChanged);
+		return isChanged;
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		long start = start();
+		boolean isChanged = delegate.addAll(key, values);
+		stop(Operation.ADD_ALL, start, isChanged);
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		long start = start();
+		Collection<Value> previous = delegate.replaceAll(key, collection);
+		stop(Operation.REPLACE_ALL, start, previous != null);
+		return previous;
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		long start = start();
+		Collection<Value> values = delegate.getAll(key);
+		stop(Operation.GET_ALL, start, values != null);
+		return values;
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return delegate.keySet();
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return delegate.collections();
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return delegate.entrySet();
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		long start = start();
+		boolean isChanged = delegate.remove(key, value);
+		stop(Operation.REMOVE_COUPLE, start, isChanged);
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		long start = start();
+		Collection<Value> previous = delegate.remove(key);
+		stop(Operation.REMOVE_KEY, start, previous != null);
+		return previous;
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		long start = start();
+		boolean isChanged = delegate.removeAll(key, values);
+		stop(Operation.REMOVE_ALL, start, isChanged);
+		return isChanged;
+	}
+
+	@Override
+	public void clear() {
+		long start = start();
+		delegate.clear();
+		stop(Operation.CLEAR, start, true);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		long start = start();
+		boolean isContained = delegate.containsKey(key);
+		stop(Operation.CONTAINS_KEY, start, isContained);
+		return isContained;
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		long start = start();
+		boolean isContained = delegate.containsCouple(key, value);
+		stop(Operation.CONTAINS_COUPLE, start, isContained);
+		return isContained;
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		long start = start();
+		boolean isContained = delegate.containsKeyMappedTo(collection);
+		stop(Operation.CONTAINS_KEY_MAPPED_TO, start, isContained);
+		return isContained;
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return delegate.isEmpty();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return delegate.iterator();
+	}
+
+	/**
+	 * 
+	 * @param supplier
+	 *            the {@link Supplier} of containers to measure
+	 * @param sink
+	 *            the {@link MetricsSink} to report to
+	 * @return a {@link Supplier} which reports each container it creates
+	 */
+	public static <T> Supplier<T> counting(Supplier<T> supplier, MetricsSink sink) {
+		return () -> {
+			sink.recordContainerAllocation();
+			return supplier.get();
+		};
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link InstrumentedMultiMap} over a
+	 *         {@link BackedMultiMap} which keeps the duplicated values of a key
+	 */
+	public static <Key, Value> InstrumentedMultiMap<Key, Value> onLists(MetricsSink sink) {
+		return new InstrumentedMultiMap<>(new BackedMultiMap<>(new HashMap<>(), counting(() -> new LinkedList<>(), sink),
+				() -> new LinkedList<>(), BackedMultiMap.Lifecycle.EAGER), sink);
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link InstrumentedMultiMap} over a
+	 *         {@link BackedMultiMap} which ignores the duplicated values of a
+	 *         key
+	 */
+	public static <Key, Value> InstrumentedMultiMap<Key, Value> onSets(MetricsSink sink) {
+		return new InstrumentedMultiMap<>(new BackedMultiMap<>(new HashMap<>(), counting(() -> new HashSet<>(), sink),
+				() -> new HashSet<>(), BackedMultiMap.Lifecycle.EAGER), sink);
+	}
+}
@@ -0,0 +1,506 @@
+package fr.vergne.multimap.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link LoadingMultiMap} is a thread-safe {@link MultiMap} which computes
+ * the values of a key through a {@link Loader} the first time they are
+ * requested through {@link #getAll(Object)}. The loaded values are stored
+ * like any other, so they can be changed through the usual methods, and a
+ * key loaded without value remains known, so it is not loaded again. The
+ * other methods, like {@link #containsKey(Object)} or {@link #iterator()},
+ * only consider the keys already loaded or added.
+ * </p>
+ * <p>
+ * At most one load of a key is in progress at any time: the threads
+ * requesting a key being loaded wait for the same load instead of starting
+ * their own. The loads run on the {@link Executor} of the {@link Builder},
+ * and {@link #getAllAsync(Object)} provides the values without waiting for
+ * them. The values of several keys can be requested at once through
+ * {@link #getAllFor(Iterable)}, which loads all the missing keys through a
+ * single {@link Loader#loadAll(Set)}.
+ * </p>
+ * <p>
+ * With {@link Builder#refreshAfterWrite(long, TimeUnit)}, a key whose values
+ * have not been written for the given time is reloaded in background when
+ * it is requested, while the current values are returned. The reloaded
+ * values replace the current ones, so the changes done during the reload
+ * are lost.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class LoadingMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	/**
+	 * A {@link Loader} computes the values of the keys of a
+	 * {@link LoadingMultiMap}.
+	 * 
+	 * @param <Key>
+	 * @param <Value>
+	 */
+	@FunctionalInterface
+	public static interface Loader<Key, Value> {
+		/**
+		 * 
+		 * @param key
+		 *            the key to load
+		 * @return the values of the key, <code>null</code> or empty if it has
+		 *         none
+		 * @throws Exception
+		 *             if the values cannot be loaded
+		 */
+		Collection<Value> load(Key key) throws Exception;
+
+		/**
+		 * Load several keys at once. By default, the keys are loaded one by
+		 * one through {@link #load(Object)}, but it should be overridden when
+		 * the source can provide several keys at a lower cost.
+		 * 
+		 * @param keys
+		 *            the keys to load
+		 * @return the values of the keys, the keys absent having no value
+		 * @throws Exception
+		 *             if the values cannot be loaded
+		 */
+		default Map<Key, Collection<Value>> loadAll(Set<Key> keys) throws Exception {
+			Map<Key, Collection<Value>> values = new LinkedHashMap<>();
+			for (Key key : keys) {
+				values.put(key, load(key));
+			}
+			return values;
+		}
+	}
+
+	private final ConcurrentMultiMap<Key, Value> map;
+	private final Loader<Key, Value> loader;
+	private final Executor executor;
+	private final long refreshNanos;
+	private final LongSupplier ticker;
+	private final ConcurrentMap<Key, CompletableFuture<Collection<Value>>> loads = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Key, Long> writeTimes = new ConcurrentHashMap<>();
+
+	private LoadingMultiMap(Builder<Key, Value> builder) {
+		this.map = builder.mapSupplier.get();
+		this.loader = builder.loader;
+		this.executor = builder.executor == null ? DefaultExecutor.INSTANCE : builder.executor;
+		this.refreshNanos = builder.refreshNanos;
+		this.ticker = builder.ticker;
+	}
+
+	private boolean isRefreshing() {
+		return refreshNanos != Long.MAX_VALUE;
+	}
+
+	private void written(Key key) {
+		if (isRefreshing()) {
+			writeTimes.put(key, ticker.getAsLong());
+		} else {
+			// no need to track the writes
+		}
+	}
+
+	private boolean isStale(Object key) {
+		if (isRefreshing()) {
+			Long writeTime = writeTimes.get(key);
+			return writeTime == null || ticker.getAsLong() - writeTime >= refreshNanos;
+		} else {
+			return false;
+		}
+	}
+
+	private void store(Key key, Collection<Value> values) {
+		map.replaceAll(key, values == null ? Collections.emptyList() : values);
+		written(key);
+	}
+
+	private static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException exception) {
+			Throwable cause = exception.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw exception;
+			}
+		}
+	}
+
+	/**
+	 * Start the load of some keys, unless they are already loading.
+	 * 
+	 * @param isRefresh
+	 *            <code>true</code> to reload the keys already known,
+	 *            <code>false</code> to only load the unknown ones
+	 * @return the loads of all the keys, in progress or started
+	 */
+	private Map<Key, CompletableFuture<Collection<Value>>> load(Set<Key> keys, boolean isRefresh) {
+		Map<Key, CompletableFuture<Collection<Value>>> futures = new LinkedHashMap<>();
+		Map<Key, CompletableFuture<Collection<Value>>> started = new LinkedHashMap<>();
+		for (Key key : keys) {
+			CompletableFuture<Collection<Value>> future = new CompletableFuture<>();
+			CompletableFuture<Collection<Value>> existing = loads.putIfAbsent(key, future);
+			if (existing != null) {
+				futures.put(key, existing);
+			} else if (!isRefresh && map.containsKey(key)) {
+				// loaded since the miss
+				loads.remove(key, future);
+				future.complete(map.getAll(key));
+				futures.put(key, future);
+			} else {
+				started.put(key, future);
+				futures.put(key, future);
+			}
+		}
+		if (!started.isEmpty()) {
+			Runnable task = () -> {
+				try {
+					Map<Key, Collection<Value>> loaded;
+					if (started.size() == 1) {
+						Key key = started.keySet().iterator().next();
+						loaded = Collections.singletonMap(key, loader.load(key));
+					} else {
+						loaded = loader.loadAll(Collections.unmodifiableSet(started.keySet()));
+					}
+					for (Entry<Key, CompletableFuture<Collection<Value>>> entry : started.entrySet()) {
+						Key key = entry.getKey();
+						store(key, loaded.get(key));
+						entry.getValue().complete(map.getAll(key));
+					}
+				} catch (Throwable cause) {
+					for (CompletableFuture<Collection<Value>> future : started.values()) {
+						future.completeExceptionally(cause);
+					}
+				} finally {
+					for (Entry<Key, CompletableFuture<Collection<Value>>> entry : started.entrySet()) {
+						loads.remove(entry.getKey(), entry.getValue());
+					}
+				}
+			};
+			try {
+				executor.execute(task);
+			} catch (RuntimeException cause) {
+				for (Entry<Key, CompletableFuture<Collection<Value>>> entry : started.entrySet()) {
+					loads.remove(entry.getKey(), entry.getValue());
+					entry.getValue().completeExceptionally(cause);
+				}
+			}
+		} else {
+			// all the keys are already loading
+		}
+		return futures;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to search for
+	 * @return a {@link CompletableFuture} providing the values of the key,
+	 *         once loaded if needed
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Collection<Value>> getAllAsync(Object key) {
+		Collection<Value> values = map.getAll(key);
+		if (values == null) {
+			return load(Collections.singleton((Key) key), false).get(key);
+		} else {
+			if (isStale(key)) {
+				load(Collections.singleton((Key) key), true);
+			} else {
+				// still fresh
+			}
+			return CompletableFuture.completedFuture(values);
+		}
+	}
+
+	/**
+	 * 
+	 * @param keys
+	 *            the keys to search for
+	 * @return a {@link CompletableFuture} providing the values of each key,
+	 *         the missing ones being loaded together through
+	 *         {@link Loader#loadAll(Set)}
+	 */
+	public CompletableFuture<Map<Key, Collection<Value>>> getAllForAsync(Iterable<? extends Key> keys) {
+		Map<Key, Collection<Value>> result = new LinkedHashMap<>();
+		Set<Key> missingKeys = new LinkedHashSet<>();
+		Set<Key> staleKeys = new LinkedHashSet<>();
+		for (Key key : keys) {
+			Collection<Value> values = map.getAll(key);
+			if (values == null) {
+				missingKeys.add(key);
+			} else {
+				if (isStale(key)) {
+					staleKeys.add(key);
+				} else {
+					// still fresh
+				}
+			}
+			result.put(key, values);
+		}
+		if (!staleKeys.isEmpty()) {
+			load(staleKeys, true);
+		} else {
+			// nothing to refresh
+		}
+		Map<Key, CompletableFuture<Collection<Value>>> futures = load(missingKeys, false);
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(ignored -> {
+					for (Entry<Key, CompletableFuture<Collection<Value>>> entry : futures.entrySet()) {
+						result.put(entry.getKey(), entry.getValue().join());
+					}
+					return Collections.unmodifiableMap(result);
+				});
+	}
+
+	/**
+	 * 
+	 * @param keys
+	 *            the keys to search for
+	 * @return the values of each key, the missing ones being loaded together
+	 *         through {@link Loader#loadAll(Set)}
+	 */
+	public Map<Key, Collection<Value>> getAllFor(Iterable<? extends Key> keys) {
+		return await(getAllForAsync(keys));
+	}
+
+	/**
+	 * Load the values of the key if it is unknown, or wait for the load in
+	 * progress.
+	 */
+	@Override
+	public Collection<Value> getAll(Object key) {
+		return await(getAllAsync(key));
+	}
+
+	/**
+	 * 
+	 * @return a {@link CompletableFuture} providing the reloaded values of
+	 *         the key, which replace the current ones
+	 */
+	public CompletableFuture<Collection<Value>> refresh(Key key) {
+		return load(Collections.singleton(key), true).get(key);
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		boolean isChanged = map.add(key, value);
+		written(key);
+		return isChanged;
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		boolean isChanged = map.addAll(key, values);
+		written(key);
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		Collection<Value> previous = map.replaceAll(key, collection);
+		written(key);
+		return previous;
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return map.keySet();
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return map.collections();
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return map.entrySet();
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		boolean isChanged = map.remove(key, value);
+		written(key);
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		writeTimes.remove(key);
+		return map.remove(key);
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		boolean isChanged = map.removeAll(key, values);
+		written(key);
+		return isChanged;
+	}
+
+	@Override
+	public void clear() {
+		map.clear();
+		writeTimes.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		return map.containsCouple(key, value);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		return map.containsKeyMappedTo(collection);
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return map.iterator();
+	}
+
+	/**
+	 * 
+	 * @param loader
+	 *            the {@link Loader} of the missing keys
+	 * @return a {@link Builder} of {@link LoadingMultiMap} which keeps the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onLists(Loader<Key, Value> loader) {
+		return new Builder<>(() -> ConcurrentMultiMap.onLists(), loader);
+	}
+
+	/**
+	 * 
+	 * @param loader
+	 *            the {@link Loader} of the missing keys
+	 * @return a {@link Builder} of {@link LoadingMultiMap} which ignores the
+	 *         duplicated values of a key
+	 */
+	public static <Key, Value> Builder<Key, Value> onSets(Loader<Key, Value> loader) {
+		return new Builder<>(() -> ConcurrentMultiMap.onSets(), loader);
+	}
+
+	/**
+	 * The default {@link Executor} of the loads, created on first use. Its
+	 * daemon threads can block on a slow source without starving the common
+	 * {@link ForkJoinPool}, which also runs the parallel streams, and stop
+	 * after a minute without load.
+	 */
+	private static class DefaultExecutor {
+		private static final AtomicInteger threadsCount = new AtomicInteger();
+		static final Executor INSTANCE = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task,
+					LoadingMultiMap.class.getSimpleName() + "-loader-" + threadsCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static class Builder<Key, Value> {
+
+		private final Supplier<ConcurrentMultiMap<Key, Value>> mapSupplier;
+		private final Loader<Key, Value> loader;
+		private Executor executor = null;
+		private long refreshNanos = Long.MAX_VALUE;
+		private LongSupplier ticker = System::nanoTime;
+
+		/**
+		 * 
+		 * @param mapSupplier
+		 *            the {@link Supplier} of the empty
+		 *            {@link ConcurrentMultiMap} storing the values
+		 * @param loader
+		 *            the {@link Loader} of the missing keys
+		 */
+		public Builder(Supplier<ConcurrentMultiMap<Key, Value>> mapSupplier, Loader<Key, Value> loader) {
+			this.mapSupplier = mapSupplier;
+			this.loader = loader;
+		}
+
+		/**
+		 * 
+		 * @param executor
+		 *            the {@link Executor} running the loads, by default a
+		 *            cached pool of daemon threads shared by the
+		 *            {@link LoadingMultiMap}s, rather than the common
+		 *            {@link ForkJoinPool}, since the loads may block
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * 
+		 * @param duration
+		 *            the time after the last write of a key from which it is
+		 *            reloaded when requested
+		 * @param unit
+		 *            the {@link TimeUnit} of the duration
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> refreshAfterWrite(long duration, TimeUnit unit) {
+			if (duration < 0) {
+				throw new IllegalArgumentException("The refresh duration cannot be negative: " + duration);
+			} else {
+				this.refreshNanos = unit.toNanos(duration);
+				return this;
+			}
+		}
+
+		/**
+		 * 
+		 * @param ticker
+		 *            the source of the time, in nanoseconds,
+		 *            {@link System#nanoTime()} by default
+		 * @return this {@link Builder}
+		 */
+		public Builder<Key, Value> ticker(LongSupplier ticker) {
+			this.ticker = ticker;
+			return this;
+		}
+
+		public LoadingMultiMap<Key, Value> build() {
+			return new LoadingMultiMap<>(this);
+		}
+	}
+}
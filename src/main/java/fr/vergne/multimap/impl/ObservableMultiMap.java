@@ -0,0 +1,611 @@
+package fr.vergne.multimap.impl;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.event.Change;
+import fr.vergne.multimap.event.Flow;
+
+/**
+ * <p>
+ * An {@link ObservableMultiMap} is a decorator which publishes the
+ * {@link Change}s done to another {@link MultiMap}, so the structures derived
+ * from it can be updated incrementally. The {@link Change}s are only recorded
+ * when the decorated {@link MultiMap} is actually modified, and are published
+ * by batches: the ones recorded since the last batch are published through
+ * {@link #publish()}, or automatically once a given number of them is
+ * recorded.
+ * </p>
+ * <p>
+ * The {@link Change}s of a batch are coalesced: a value added then removed
+ * from the same key produces no {@link Change}, the {@link Change}s of a key
+ * done before its replacement or removal are merged in a single
+ * {@link Change.Type#REPLACED}, and the ones done before a clear are dropped.
+ * Each {@link Flow.Subscriber} receives the batches on the {@link Executor}
+ * of the {@link ObservableMultiMap}, only when it requests them: while it
+ * does not, the batches published for it are merged and coalesced in a
+ * single one, so a slow {@link Flow.Subscriber} receives fewer but bigger
+ * batches instead of making the others wait. A {@link Flow.Subscriber}
+ * should subscribe before reading the initial content of the
+ * {@link MultiMap}, so it does not miss any {@link Change}.
+ * </p>
+ * <p>
+ * The mutations are serialized, so the {@link Change}s follow their order,
+ * while the reads go directly to the decorated {@link MultiMap}. The
+ * {@link Collection}s returned are unmodifiable, so all the changes go
+ * through the {@link ObservableMultiMap}. Closing it publishes the last
+ * batch and completes the {@link Flow.Subscriber}s.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class ObservableMultiMap<Key, Value>
+		implements MultiMap<Key, Value>, Flow.Publisher<List<Change<Key, Value>>>, Closeable {
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+	/**
+	 * Coalesce the {@link Change}s into an equivalent but smaller batch.
+	 */
+	private static class Coalescer<Key, Value> {
+
+		private static class KeyChanges<Value> {
+			private boolean isReplaced = false;
+			private List<Value> replacement;
+			private final List<Value> added = new ArrayList<>();
+			private final List<Value> removed = new ArrayList<>();
+
+			public boolean isEmpty() {
+				return !isReplaced && added.isEmpty() && removed.isEmpty();
+			}
+		}
+
+		private boolean isCleared = false;
+		private final Map<Key, KeyChanges<Value>> keys = new LinkedHashMap<>();
+
+		private KeyChanges<Value> changesOf(Key key) {
+			KeyChanges<Value> changes = keys.get(key);
+			if (changes == null) {
+				changes = new KeyChanges<>();
+				keys.put(key, changes);
+			} else {
+				// complete the existing changes
+			}
+			return changes;
+		}
+
+		public void accept(Change<Key, Value> change) {
+			Key key = change.getKey();
+			switch (change.getType()) {
+			case CLEARED:
+				keys.clear();
+				isCleared = true;
+				break;
+			case REPLACED:
+				KeyChanges<Value> replaced = changesOf(key);
+				replaced.isReplaced = true;
+				replaced.replacement = change.getValues() == null ? null : new ArrayList<>(change.getValues());
+				replaced.added.clear();
+				replaced.removed.clear();
+				break;
+			case ADDED:
+				KeyChanges<Value> added = changesOf(key);
+				if (added.isReplaced) {
+					if (added.replacement == null) {
+						added.replacement = new ArrayList<>();
+					} else {
+						// complete the replacement
+					}
+					added.replacement.add(change.getValue());
+				} else if (!added.removed.remove(change.getValue())) {
+					added.added.add(change.getValue());
+				} else if (added.isEmpty()) {
+					keys.remove(key);
+				} else {
+					// removal cancelled
+				}
+				break;
+			case REMOVED:
+				KeyChanges<Value> removed = changesOf(key);
+				if (removed.isReplaced) {
+					if (removed.replacement != null) {
+						removed.replacement.remove(change.getValue());
+					} else {
+						// nothing to remove
+					}
+				} else if (!removed.added.remove(change.getValue())) {
+					removed.removed.add(change.getValue());
+				} else if (removed.isEmpty()) {
+					keys.remove(key);
+				} else {
+					// addition cancelled
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown change: " + change);
+			}
+		}
+
+		public void acceptAll(List<Change<Key, Value>> changes) {
+			for (Change<Key, Value> change : changes) {
+				accept(change);
+			}
+		}
+
+		public boolean isEmpty() {
+			return !isCleared && keys.isEmpty();
+		}
+
+		/**
+		 * 
+		 * @return the coalesced {@link Change}s, after which this
+		 *         {@link Coalescer} is empty
+		 */
+		public List<Change<Key, Value>> drain() {
+			List<Change<Key, Value>> changes = new ArrayList<>();
+			if (isCleared) {
+				changes.add(Change.cleared());
+			} else {
+				// nothing cleared
+			}
+			for (Entry<Key, KeyChanges<Value>> entry : keys.entrySet()) {
+				Key key = entry.getKey();
+				KeyChanges<Value> keyChanges = entry.getValue();
+				if (keyChanges.isReplaced) {
+					List<Value> replacement = keyChanges.replacement;
+					changes.add(Change.replaced(key,
+							replacement == null ? null : Collections.unmodifiableList(replacement)));
+				} else {
+					for (Value value : keyChanges.removed) {
+						changes.add(Change.removed(key, value));
+					}
+					for (Value value : keyChanges.added) {
+						changes.add(Change.added(key, value));
+					}
+				}
+			}
+			isCleared = false;
+			keys.clear();
+			return changes;
+		}
+	}
+
+	private class ChangeSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super List<Change<Key, Value>>> subscriber;
+		private final Coalescer<Key, Value> pending = new Coalescer<>();
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger work = new AtomicInteger();
+		private boolean isSubscribed = false;
+		private volatile boolean isCompleted = false;
+		private volatile boolean isTerminated = false;
+		private volatile Throwable error;
+
+		public ChangeSubscription(Flow.Subscriber<? super List<Change<Key, Value>>> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void offer(List<Change<Key, Value>> changes) {
+			synchronized (pending) {
+				pending.acceptAll(changes);
+			}
+			schedule();
+		}
+
+		public void complete() {
+			isCompleted = true;
+			schedule();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("The number of requested items must be positive: " + n);
+			} else {
+				demand.accumulateAndGet(n, (current, added) -> {
+					long sum = current + added;
+					return sum < 0 ? Long.MAX_VALUE : sum;
+				});
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			terminate();
+		}
+
+		private void terminate() {
+			isTerminated = true;
+			subscriptions.remove(this);
+		}
+
+		private void schedule() {
+			if (work.getAndIncrement() == 0) {
+				try {
+					executor.execute(this::drain);
+				} catch (RuntimeException cause) {
+					terminate();
+				}
+			} else {
+				// the running drain will see it
+			}
+		}
+
+		private void drain() {
+			int missed = 1;
+			while (true) {
+				try {
+					if (!isSubscribed) {
+						isSubscribed = true;
+						subscriber.onSubscribe(this);
+					} else {
+						// already subscribed
+					}
+					while (!isTerminated) {
+						if (error != null) {
+							terminate();
+							subscriber.onError(error);
+						} else {
+							List<Change<Key, Value>> changes;
+							if (demand.get() > 0) {
+								synchronized (pending) {
+									changes = pending.drain();
+								}
+							} else {
+								changes = Collections.emptyList();
+							}
+							if (!changes.isEmpty()) {
+								demand.decrementAndGet();
+								subscriber.onNext(changes);
+							} else if (isCompleted && isPendingEmpty()) {
+								terminate();
+								subscriber.onComplete();
+							} else {
+								break;
+							}
+						}
+					}
+				} catch (Throwable cause) {
+					// the subscriber failed, so it is not called anymore
+					terminate();
+				}
+				missed = work.addAndGet(-missed);
+				if (missed == 0) {
+					break;
+				} else {
+					continue;
+				}
+			}
+		}
+
+		private boolean isPendingEmpty() {
+			synchronized (pending) {
+				return pending.isEmpty();
+			}
+		}
+	}
+
+	private final MultiMap<Key, Value> delegate;
+	private final Executor executor;
+	private final int maxBatchSize;
+	private final Coalescer<Key, Value> recorded = new Coalescer<>();
+	private final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private int recordedCount = 0;
+	private boolean isClosed = false;
+
+	/**
+	 * 
+	 * @param delegate
+	 *            the {@link MultiMap} to observe
+	 * @param executor
+	 *            the {@link Executor} delivering the batches to the
+	 *            {@link Flow.Subscriber}s
+	 * @param maxBatchSize
+	 *            the number of {@link Change}s recorded from which a batch is
+	 *            published automatically
+	 */
+	public ObservableMultiMap(MultiMap<Key, Value> delegate, Executor executor, int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive: " + maxBatchSize);
+		} else {
+			this.delegate = delegate;
+			this.executor = executor;
+			this.maxBatchSize = maxBatchSize;
+		}
+	}
+
+	public ObservableMultiMap(MultiMap<Key, Value> delegate) {
+		this(delegate, ForkJoinPool.commonPool(), DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super List<Change<Key, Value>>> subscriber) {
+		ChangeSubscription subscription = new ChangeSubscription(subscriber);
+		synchronized (this) {
+			if (isClosed) {
+				subscription.complete();
+			} else {
+				subscriptions.add(subscription);
+				subscription.schedule();
+			}
+		}
+	}
+
+	private void record(Change<Key, Value> change) {
+		if (!subscriptions.isEmpty()) {
+			recorded.accept(change);
+			recordedCount++;
+			if (recordedCount >= maxBatchSize) {
+				publish();
+			} else {
+				// wait for more changes
+			}
+		} else {
+			// nobody to publish to
+		}
+	}
+
+	/**
+	 * Publish the {@link Change}s recorded since the last batch.
+	 */
+	public synchronized void publish() {
+		recordedCount = 0;
+		List<Change<Key, Value>> changes = recorded.drain();
+		if (!changes.isEmpty()) {
+			List<Change<Key, Value>> batch = Collections.unmodifiableList(changes);
+			for (ChangeSubscription subscription : subscriptions) {
+				subscription.offer(batch);
+			}
+		} else {
+			// nothing to publish
+		}
+	}
+
+	/**
+	 * Publish the last batch and complete the {@link Flow.Subscriber}s. The
+	 * later changes are not published.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!isClosed) {
+			publish();
+			isClosed = true;
+			for (ChangeSubscription subscription : subscriptions) {
+				subscription.complete();
+			}
+		} else {
+			// already closed
+		}
+	}
+
+	@Override
+	public synchronized boolean add(Key key, Value value) {
+		if (delegate.add(key, value)) {
+			record(Change.added(key, value));
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * The values are added one by one, to know which ones are actually added.
+	 */
+	@Override
+	public synchronized boolean addAll(Key key, Collection<Value> values) {
+		boolean isChanged = false;
+		for (Value value : values) {
+			isChanged |= add(key, value);
+		}
+		return isChanged;
+	}
+
+	/**
+	 * The delegate may drop the key, like a pruning {@link BackedMultiMap}
+	 * replacing its values by none, in which case the key is published as
+	 * removed.
+	 */
+	@Override
+	public synchronized Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		Collection<Value> previous = delegate.replaceAll(key, collection);
+		Collection<Value> values = delegate.getAll(key);
+		if (values == null) {
+			if (previous != null) {
+				record(Change.replaced(key, null));
+			} else {
+				// still no key
+			}
+		} else if (values.equals(previous)) {
+			// same values than before
+		} else {
+			record(Change.replaced(key, new ArrayList<>(values)));
+		}
+		return previous;
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		Collection<Value> values = delegate.getAll(key);
+		return values == null ? null : Collections.unmodifiableCollection(values);
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return Collections.unmodifiableSet(delegate.keySet());
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		List<Collection<Value>> collections = new ArrayList<>();
+		for (Collection<Value> values : delegate.collections()) {
+			collections.add(Collections.unmodifiableCollection(values));
+		}
+		return Collections.unmodifiableList(collections);
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				Iterator<Entry<Key, Collection<Value>>> iterator = delegate.entrySet().iterator();
+				return new Iterator<Entry<Key, Collection<Value>>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Entry<Key, Collection<Value>> next() {
+						Entry<Key, Collection<Value>> entry = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+								Collections.unmodifiableCollection(entry.getValue()));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return delegate.size();
+			}
+		};
+	}
+
+	@Override
+	public synchronized boolean remove(Key key, Value value) {
+		if (delegate.remove(key, value)) {
+			if (delegate.containsKey(key)) {
+				record(Change.removed(key, value));
+			} else {
+				// the delegate dropped the key with its last value
+				record(Change.replaced(key, null));
+			}
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized Collection<Value> remove(Object key) {
+		Collection<Value> removed = delegate.remove(key);
+		if (removed != null) {
+			record(Change.replaced((Key) key, null));
+		} else {
+			// nothing removed
+		}
+		return removed;
+	}
+
+	/**
+	 * The values are removed one by one, to know which ones are actually
+	 * removed.
+	 */
+	@Override
+	public synchronized boolean removeAll(Key key, Collection<Value> values) {
+		boolean isChanged = false;
+		for (Value value : new LinkedHashSet<>(values)) {
+			while (remove(key, value)) {
+				isChanged = true;
+			}
+		}
+		return isChanged;
+	}
+
+	@Override
+	public synchronized void clear() {
+		if (!delegate.isEmpty()) {
+			delegate.clear();
+			record(Change.cleared());
+		} else {
+			// nothing to clear
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return delegate.containsKey(key);
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		return delegate.containsCouple(key, value);
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		return delegate.containsKeyMappedTo(collection);
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		Iterator<Entry<Key, Value>> iterator = delegate.iterator();
+		return new Iterator<Entry<Key, Value>>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				return iterator.next();
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link ObservableMultiMap} which keeps the duplicated
+	 *         values of a key, above a {@link BackedMultiMap} with a
+	 *         {@link BackedMultiMap.Lifecycle#LAZY} lifecycle, so removals
+	 *         never create keys without publishing them
+	 */
+	public static <Key, Value> ObservableMultiMap<Key, Value> onLists() {
+		return new ObservableMultiMap<>(
+				new BackedMultiMap<>(new HashMap<>(), () -> new LinkedList<>(), BackedMultiMap.Lifecycle.LAZY));
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link ObservableMultiMap} which ignores the duplicated
+	 *         values of a key, above a {@link BackedMultiMap} with a
+	 *         {@link BackedMultiMap.Lifecycle#LAZY} lifecycle, so removals
+	 *         never create keys without publishing them
+	 */
+	public static <Key, Value> ObservableMultiMap<Key, Value> onSets() {
+		return new ObservableMultiMap<>(
+				new BackedMultiMap<>(new HashMap<>(), () -> new HashSet<>(), BackedMultiMap.Lifecycle.LAZY));
+	}
+}
@@ -0,0 +1,908 @@
+package fr.vergne.multimap.impl;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.io.Serializer;
+
+/**
+ * <p>
+ * An {@link OffHeapMultiMap} is a {@link MultiMap} which stores its keys and
+ * values outside of the Java heap, in direct {@link ByteBuffer}s. Thus, the
+ * heap used by an {@link OffHeapMultiMap} remains roughly constant whatever
+ * the number of mappings, and the garbage collector does not have to browse
+ * them. The direct memory available is limited by the JVM option
+ * <code>-XX:MaxDirectMemorySize</code>.
+ * </p>
+ * <p>
+ * Keys and values are translated to bytes through {@link Serializer}s, and
+ * are compared through their bytes rather than through
+ * {@link Object#equals(Object)}. Each access to a key or a value deserializes
+ * it, so the instances returned are copies: modifying them does not modify
+ * the {@link OffHeapMultiMap}. Lookups serialize the given key or value
+ * too, so the exceptions of the {@link Serializer}s, like a
+ * {@link ClassCastException} or a {@link NullPointerException} for an
+ * unsupported instance, are propagated.
+ * </p>
+ * <p>
+ * The memory of removed keys and values is not reused immediately. It is
+ * reported by {@link #getGarbageBytes()} and reclaimed by {@link #compact()}.
+ * This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class OffHeapMultiMap<Key, Value> implements MultiMap<Key, Value> {
+
+	/*
+	 * A key record is made of: next key of the bucket (long), first value
+	 * (long), last value (long), number of values (int), hash (int), number of
+	 * bytes (int), the bytes.
+	 */
+	private static final int KEY_NEXT = 0;
+	private static final int KEY_FIRST_VALUE = 8;
+	private static final int KEY_LAST_VALUE = 16;
+	private static final int KEY_COUNT = 24;
+	private static final int KEY_HASH = 28;
+	private static final int KEY_LENGTH = 32;
+	private static final int KEY_BYTES = 36;
+	/*
+	 * A value record is made of: next value of the key (long), number of bytes
+	 * (int), the bytes.
+	 */
+	private static final int VALUE_NEXT = 0;
+	private static final int VALUE_LENGTH = 8;
+	private static final int VALUE_BYTES = 12;
+
+	private static final long NULL = 0;
+	private static final int FIRST_CHUNK_SIZE = 1 << 16;
+	public static final int DEFAULT_MAX_CHUNK_SIZE = 1 << 26;
+	/**
+	 * The maximum number of buckets, such that the int size of the buckets
+	 * buffer does not overflow.
+	 */
+	private static final int MAX_BUCKETS = 1 << 27;
+
+	private final Serializer<Key> keySerializer;
+	private final Serializer<Value> valueSerializer;
+	private final boolean isDistinct;
+	private final int maxChunkSize;
+
+	private List<ByteBuffer> chunks = new ArrayList<>();
+	private ByteBuffer buckets;
+	private int bucketsCount;
+	private int size;
+	private long usedBytes;
+	private long garbageBytes;
+	private int modCount = 0;
+
+	private ByteBuffer keyScratch = ByteBuffer.allocate(64);
+	private ByteBuffer valueScratch = ByteBuffer.allocate(64);
+
+	/**
+	 * 
+	 * @param keySerializer
+	 *            the {@link Serializer} of the keys
+	 * @param valueSerializer
+	 *            the {@link Serializer} of the values
+	 * @param isDistinct
+	 *            <code>true</code> to ignore the duplicated values of a key,
+	 *            <code>false</code> to keep them
+	 * @param maxChunkSize
+	 *            the maximum size of the direct {@link ByteBuffer}s allocated
+	 */
+	public OffHeapMultiMap(Serializer<Key> keySerializer, Serializer<Value> valueSerializer, boolean isDistinct,
+			int maxChunkSize) {
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.isDistinct = isDistinct;
+		this.maxChunkSize = maxChunkSize;
+		reset(16);
+	}
+
+	private void reset(int bucketsCount) {
+		this.chunks = new ArrayList<>();
+		this.bucketsCount = bucketsCount;
+		this.buckets = ByteBuffer.allocateDirect(bucketsCount * Long.BYTES);
+		this.size = 0;
+		this.usedBytes = 0;
+		this.garbageBytes = 0;
+		// the first bytes are never allocated, so no record has the NULL address
+		ByteBuffer firstChunk = ByteBuffer.allocateDirect(FIRST_CHUNK_SIZE);
+		firstChunk.position(Long.BYTES);
+		chunks.add(firstChunk);
+	}
+
+	/* MEMORY */
+
+	private ByteBuffer chunk(long address) {
+		return chunks.get((int) (address >>> 32));
+	}
+
+	private static int offset(long address) {
+		return (int) address;
+	}
+
+	private long getLong(long address, int field) {
+		return chunk(address).getLong(offset(address) + field);
+	}
+
+	private void putLong(long address, int field, long value) {
+		chunk(address).putLong(offset(address) + field, value);
+	}
+
+	private int getInt(long address, int field) {
+		return chunk(address).getInt(offset(address) + field);
+	}
+
+	private void putInt(long address, int field, int value) {
+		chunk(address).putInt(offset(address) + field, value);
+	}
+
+	private long allocate(int bytes) {
+		ByteBuffer chunk = chunks.get(chunks.size() - 1);
+		if (chunk.remaining() < bytes) {
+			int chunkSize = Math.max(Math.min(chunk.capacity() * 2, maxChunkSize), bytes);
+			chunk = ByteBuffer.allocateDirect(chunkSize);
+			chunks.add(chunk);
+		} else {
+			// enough room in the current chunk
+		}
+		int offset = chunk.position();
+		chunk.position(offset + bytes);
+		usedBytes += bytes;
+		return ((long) (chunks.size() - 1) << 32) | offset;
+	}
+
+	private void copyTo(long address, int field, ByteBuffer source, int length) {
+		ByteBuffer target = chunk(address).duplicate();
+		target.position(offset(address) + field);
+		target.put(source.array(), 0, length);
+	}
+
+	private boolean bytesEqual(long address, int field, ByteBuffer source, int length) {
+		ByteBuffer chunk = chunk(address);
+		int start = offset(address) + field;
+		byte[] bytes = source.array();
+		int index = 0;
+		for (; index + Long.BYTES <= length; index += Long.BYTES) {
+			if (chunk.getLong(start + index) != source.getLong(index)) {
+				return false;
+			} else {
+				continue;
+			}
+		}
+		for (; index < length; index++) {
+			if (chunk.get(start + index) != bytes[index]) {
+				return false;
+			} else {
+				continue;
+			}
+		}
+		return true;
+	}
+
+	private <T> T deserialize(Serializer<T> serializer, long address, int field, int length) {
+		ByteBuffer view = chunk(address).duplicate();
+		int start = offset(address) + field;
+		view.limit(start + length).position(start);
+		return serializer.read(view.slice());
+	}
+
+	/* SERIALIZATION */
+
+	private int serializeKey(Key key) {
+		while (true) {
+			keyScratch.clear();
+			try {
+				keySerializer.write(key, keyScratch);
+				return keyScratch.position();
+			} catch (BufferOverflowException cause) {
+				keyScratch = ByteBuffer.allocate(keyScratch.capacity() * 2);
+			}
+		}
+	}
+
+	private int serializeValue(Value value) {
+		while (true) {
+			valueScratch.clear();
+			try {
+				valueSerializer.write(value, valueScratch);
+				return valueScratch.position();
+			} catch (BufferOverflowException cause) {
+				valueScratch = ByteBuffer.allocate(valueScratch.capacity() * 2);
+			}
+		}
+	}
+
+	private static int hash(ByteBuffer bytes, int length) {
+		byte[] array = bytes.array();
+		int hash = 1;
+		for (int index = 0; index < length; index++) {
+			hash = 31 * hash + array[index];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/* KEYS */
+
+	private int bucketOf(int hash) {
+		return hash & (bucketsCount - 1);
+	}
+
+	private long findKey(int length, int hash) {
+		long address = buckets.getLong(bucketOf(hash) * Long.BYTES);
+		while (address != NULL) {
+			if (getInt(address, KEY_HASH) == hash && getInt(address, KEY_LENGTH) == length
+					&& bytesEqual(address, KEY_BYTES, keyScratch, length)) {
+				return address;
+			} else {
+				address = getLong(address, KEY_NEXT);
+			}
+		}
+		return NULL;
+	}
+
+	@SuppressWarnings("unchecked")
+	private long findKey(Object key) {
+		int length = serializeKey((Key) key);
+		return findKey(length, hash(keyScratch, length));
+	}
+
+	private long findOrInsertKey(Key key) {
+		int length = serializeKey(key);
+		int hash = hash(keyScratch, length);
+		long address = findKey(length, hash);
+		if (address == NULL) {
+			address = allocate(KEY_BYTES + length);
+			putLong(address, KEY_FIRST_VALUE, NULL);
+			putLong(address, KEY_LAST_VALUE, NULL);
+			putInt(address, KEY_COUNT, 0);
+			putInt(address, KEY_HASH, hash);
+			putInt(address, KEY_LENGTH, length);
+			copyTo(address, KEY_BYTES, keyScratch, length);
+			linkKey(address, hash);
+			size++;
+			modCount++;
+			if (size > bucketsCount && bucketsCount < MAX_BUCKETS) {
+				resize(bucketsCount * 2);
+			} else {
+				// load factor still acceptable
+			}
+		} else {
+			// already known key
+		}
+		return address;
+	}
+
+	private void linkKey(long address, int hash) {
+		int index = bucketOf(hash) * Long.BYTES;
+		putLong(address, KEY_NEXT, buckets.getLong(index));
+		buckets.putLong(index, address);
+	}
+
+	private void resize(int newBucketsCount) {
+		ByteBuffer oldBuckets = buckets;
+		int oldBucketsCount = bucketsCount;
+		buckets = ByteBuffer.allocateDirect(newBucketsCount * Long.BYTES);
+		bucketsCount = newBucketsCount;
+		for (int bucket = 0; bucket < oldBucketsCount; bucket++) {
+			long address = oldBuckets.getLong(bucket * Long.BYTES);
+			while (address != NULL) {
+				long next = getLong(address, KEY_NEXT);
+				linkKey(address, getInt(address, KEY_HASH));
+				address = next;
+			}
+		}
+	}
+
+	private void removeKey(long removed) {
+		int index = bucketOf(getInt(removed, KEY_HASH)) * Long.BYTES;
+		long address = buckets.getLong(index);
+		if (address == removed) {
+			buckets.putLong(index, getLong(removed, KEY_NEXT));
+		} else {
+			long previous = address;
+			while ((address = getLong(previous, KEY_NEXT)) != removed) {
+				previous = address;
+			}
+			putLong(previous, KEY_NEXT, getLong(removed, KEY_NEXT));
+		}
+		for (long value = getLong(removed, KEY_FIRST_VALUE); value != NULL; value = getLong(value, VALUE_NEXT)) {
+			garbageBytes += VALUE_BYTES + getInt(value, VALUE_LENGTH);
+		}
+		garbageBytes += KEY_BYTES + getInt(removed, KEY_LENGTH);
+		size--;
+		modCount++;
+	}
+
+	private long nextKey(long address, int bucket) {
+		if (address != NULL) {
+			address = getLong(address, KEY_NEXT);
+		} else {
+			// start from the bucket
+		}
+		while (address == NULL && ++bucket < bucketsCount) {
+			address = buckets.getLong(bucket * Long.BYTES);
+		}
+		return address;
+	}
+
+	private Key readKey(long address) {
+		return deserialize(keySerializer, address, KEY_BYTES, getInt(address, KEY_LENGTH));
+	}
+
+	/* VALUES */
+
+	private long findValue(long key, int length) {
+		for (long value = getLong(key, KEY_FIRST_VALUE); value != NULL; value = getLong(value, VALUE_NEXT)) {
+			if (getInt(value, VALUE_LENGTH) == length && bytesEqual(value, VALUE_BYTES, valueScratch, length)) {
+				return value;
+			} else {
+				continue;
+			}
+		}
+		return NULL;
+	}
+
+	@SuppressWarnings("unchecked")
+	private long findValue(long key, Object value) {
+		int length = serializeValue((Value) value);
+		return findValue(key, length);
+	}
+
+	private boolean addValue(long key, Value value) {
+		int length = serializeValue(value);
+		if (isDistinct && findValue(key, length) != NULL) {
+			return false;
+		} else {
+			long address = allocate(VALUE_BYTES + length);
+			putLong(address, VALUE_NEXT, NULL);
+			putInt(address, VALUE_LENGTH, length);
+			copyTo(address, VALUE_BYTES, valueScratch, length);
+			long last = getLong(key, KEY_LAST_VALUE);
+			if (last == NULL) {
+				putLong(key, KEY_FIRST_VALUE, address);
+			} else {
+				putLong(last, VALUE_NEXT, address);
+			}
+			putLong(key, KEY_LAST_VALUE, address);
+			putInt(key, KEY_COUNT, getInt(key, KEY_COUNT) + 1);
+			modCount++;
+			return true;
+		}
+	}
+
+	private void removeValue(long key, long removed) {
+		long previous = NULL;
+		long address = getLong(key, KEY_FIRST_VALUE);
+		while (address != removed) {
+			previous = address;
+			address = getLong(address, VALUE_NEXT);
+		}
+		long next = getLong(removed, VALUE_NEXT);
+		if (previous == NULL) {
+			putLong(key, KEY_FIRST_VALUE, next);
+		} else {
+			putLong(previous, VALUE_NEXT, next);
+		}
+		if (next == NULL) {
+			putLong(key, KEY_LAST_VALUE, previous);
+		} else {
+			// the last value remains the same
+		}
+		putInt(key, KEY_COUNT, getInt(key, KEY_COUNT) - 1);
+		garbageBytes += VALUE_BYTES + getInt(removed, VALUE_LENGTH);
+		modCount++;
+	}
+
+	private void removeAllValues(long key) {
+		for (long value = getLong(key, KEY_FIRST_VALUE); value != NULL; value = getLong(value, VALUE_NEXT)) {
+			garbageBytes += VALUE_BYTES + getInt(value, VALUE_LENGTH);
+		}
+		putLong(key, KEY_FIRST_VALUE, NULL);
+		putLong(key, KEY_LAST_VALUE, NULL);
+		putInt(key, KEY_COUNT, 0);
+		modCount++;
+	}
+
+	private Value readValue(long address) {
+		return deserialize(valueSerializer, address, VALUE_BYTES, getInt(address, VALUE_LENGTH));
+	}
+
+	private Collection<Value> copyValues(long key) {
+		Collection<Value> copy = isDistinct ? new HashSet<>() : new ArrayList<>(getInt(key, KEY_COUNT));
+		for (long value = getLong(key, KEY_FIRST_VALUE); value != NULL; value = getLong(value, VALUE_NEXT)) {
+			copy.add(readValue(value));
+		}
+		return copy;
+	}
+
+	/* MULTIMAP */
+
+	@Override
+	public boolean add(Key key, Value value) {
+		return addValue(findOrInsertKey(key), value);
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		long address = findOrInsertKey(key);
+		boolean isChanged = false;
+		for (Value value : values) {
+			isChanged |= addValue(address, value);
+		}
+		return isChanged;
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		long address = findKey(key);
+		Collection<Value> previous;
+		if (address == NULL) {
+			previous = null;
+			address = findOrInsertKey(key);
+		} else {
+			previous = copyValues(address);
+			removeAllValues(address);
+		}
+		for (Value value : collection) {
+			addValue(address, value);
+		}
+		return previous;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Collection<Value> getAll(Object key) {
+		return findKey(key) == NULL ? null : new ValuesView((Key) key);
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return new AbstractSet<Key>() {
+
+			@Override
+			public Iterator<Key> iterator() {
+				return new KeysIterator<Key>() {
+					@Override
+					Key get(long address) {
+						return readKey(address);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object key) {
+				return containsKey(key);
+			}
+
+			@Override
+			public boolean remove(Object key) {
+				return OffHeapMultiMap.this.remove(key) != null;
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void clear() {
+				OffHeapMultiMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return new AbstractCollection<Collection<Value>>() {
+
+			@Override
+			public Iterator<Collection<Value>> iterator() {
+				return new KeysIterator<Collection<Value>>() {
+					@Override
+					Collection<Value> get(long address) {
+						return new ValuesView(readKey(address));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void clear() {
+				OffHeapMultiMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return new AbstractSet<Entry<Key, Collection<Value>>>() {
+
+			@Override
+			public Iterator<Entry<Key, Collection<Value>>> iterator() {
+				return new KeysIterator<Entry<Key, Collection<Value>>>() {
+					@Override
+					Entry<Key, Collection<Value>> get(long address) {
+						Key key = readKey(address);
+						return new AbstractMap.SimpleImmutableEntry<>(key, new ValuesView(key));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void clear() {
+				OffHeapMultiMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		long address = findKey(key);
+		long valueAddress = address == NULL ? NULL : findValue(address, value);
+		if (valueAddress == NULL) {
+			return false;
+		} else {
+			removeValue(address, valueAddress);
+			return true;
+		}
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		long address = findKey(key);
+		if (address == NULL) {
+			return null;
+		} else {
+			Collection<Value> previous = copyValues(address);
+			removeKey(address);
+			return previous;
+		}
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		long address = findKey(key);
+		if (address == NULL) {
+			return false;
+		} else {
+			boolean isChanged = false;
+			for (Value value : values) {
+				long valueAddress;
+				while ((valueAddress = findValue(address, value)) != NULL) {
+					removeValue(address, valueAddress);
+					isChanged = true;
+				}
+			}
+			return isChanged;
+		}
+	}
+
+	@Override
+	public void clear() {
+		reset(16);
+		modCount++;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return findKey(key) != NULL;
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		long address = findKey(key);
+		return address != NULL && findValue(address, value) != NULL;
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> typedCollection = isDistinct ? new HashSet<>(collection) : new ArrayList<>(collection);
+		for (long address = nextKey(NULL, -1); address != NULL; address = nextKey(address, bucketOfKey(address))) {
+			if (getInt(address, KEY_COUNT) == typedCollection.size()
+					&& copyValues(address).equals(typedCollection)) {
+				return true;
+			} else {
+				continue;
+			}
+		}
+		return false;
+	}
+
+	private int bucketOfKey(long address) {
+		return bucketOf(getInt(address, KEY_HASH));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+			private int expectedModCount = modCount;
+			private long key = NULL;
+			private Key currentKey;
+			private long nextValue = NULL;
+			private long lastKey = NULL;
+			private long lastValue = NULL;
+
+			@Override
+			public boolean hasNext() {
+				while (nextValue == NULL) {
+					key = nextKey(key, key == NULL ? -1 : bucketOfKey(key));
+					if (key == NULL) {
+						return false;
+					} else {
+						nextValue = getLong(key, KEY_FIRST_VALUE);
+						currentKey = null;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				} else if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					if (currentKey == null) {
+						currentKey = readKey(key);
+					} else {
+						// already deserialized
+					}
+					lastKey = key;
+					lastValue = nextValue;
+					nextValue = getLong(nextValue, VALUE_NEXT);
+					return new AbstractMap.SimpleImmutableEntry<>(currentKey, readValue(lastValue));
+				}
+			}
+
+			@Override
+			public void remove() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				} else if (lastValue == NULL) {
+					throw new IllegalStateException();
+				} else {
+					removeValue(lastKey, lastValue);
+					lastValue = NULL;
+					expectedModCount = modCount;
+				}
+			}
+		};
+	}
+
+	/* MEMORY MANAGEMENT */
+
+	/**
+	 * 
+	 * @return the number of off-heap bytes allocated for keys and values,
+	 *         including the garbage
+	 */
+	public long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * 
+	 * @return the number of off-heap bytes of the removed keys and values, which
+	 *         can be reclaimed by {@link #compact()}
+	 */
+	public long getGarbageBytes() {
+		return garbageBytes;
+	}
+
+	/**
+	 * Copy all the keys and values in fresh memory, so the memory of the
+	 * removed ones is released. During the copy, both the old and the new
+	 * memory are allocated.
+	 */
+	public void compact() {
+		OffHeapMultiMap<Key, Value> target = new OffHeapMultiMap<>(keySerializer, valueSerializer, isDistinct,
+				maxChunkSize);
+		target.resize(bucketsCount);
+		for (long key = nextKey(NULL, -1); key != NULL; key = nextKey(key, bucketOfKey(key))) {
+			long copy = target.allocate(KEY_BYTES + getInt(key, KEY_LENGTH));
+			copyRecord(key, target, copy, KEY_BYTES + getInt(key, KEY_LENGTH));
+			target.putLong(copy, KEY_FIRST_VALUE, NULL);
+			target.putLong(copy, KEY_LAST_VALUE, NULL);
+			target.linkKey(copy, getInt(key, KEY_HASH));
+			long last = NULL;
+			for (long value = getLong(key, KEY_FIRST_VALUE); value != NULL; value = getLong(value, VALUE_NEXT)) {
+				long valueCopy = target.allocate(VALUE_BYTES + getInt(value, VALUE_LENGTH));
+				copyRecord(value, target, valueCopy, VALUE_BYTES + getInt(value, VALUE_LENGTH));
+				target.putLong(valueCopy, VALUE_NEXT, NULL);
+				if (last == NULL) {
+					target.putLong(copy, KEY_FIRST_VALUE, valueCopy);
+				} else {
+					target.putLong(last, VALUE_NEXT, valueCopy);
+				}
+				last = valueCopy;
+			}
+			target.putLong(copy, KEY_LAST_VALUE, last);
+		}
+		chunks = target.chunks;
+		buckets = target.buckets;
+		usedBytes = target.usedBytes;
+		garbageBytes = 0;
+		modCount++;
+	}
+
+	private void copyRecord(long address, OffHeapMultiMap<?, ?> target, long targetAddress, int length) {
+		ByteBuffer source = chunk(address).duplicate();
+		source.limit(offset(address) + length).position(offset(address));
+		ByteBuffer destination = target.chunk(targetAddress).duplicate();
+		destination.position(offset(targetAddress));
+		destination.put(source);
+	}
+
+	/* VIEWS */
+
+	private abstract class KeysIterator<T> implements Iterator<T> {
+		private int expectedModCount = modCount;
+		private long next = nextKey(NULL, -1);
+		private long last = NULL;
+
+		@Override
+		public boolean hasNext() {
+			return next != NULL;
+		}
+
+		@Override
+		public T next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			} else if (next == NULL) {
+				throw new NoSuchElementException();
+			} else {
+				last = next;
+				next = nextKey(next, bucketOfKey(next));
+				return get(last);
+			}
+		}
+
+		abstract T get(long address);
+
+		@Override
+		public void remove() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			} else if (last == NULL) {
+				throw new IllegalStateException();
+			} else {
+				// the next key is already known, so unlinking this one is safe
+				removeKey(last);
+				last = NULL;
+				expectedModCount = modCount;
+			}
+		}
+	}
+
+	private class ValuesView extends AbstractCollection<Value> {
+		private final Key key;
+
+		public ValuesView(Key key) {
+			this.key = key;
+		}
+
+		@Override
+		public int size() {
+			long address = findKey(key);
+			return address == NULL ? 0 : getInt(address, KEY_COUNT);
+		}
+
+		@Override
+		public boolean contains(Object value) {
+			long address = findKey(key);
+			return address != NULL && findValue(address, value) != NULL;
+		}
+
+		@Override
+		public boolean add(Value value) {
+			return OffHeapMultiMap.this.add(key, value);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean remove(Object value) {
+			return OffHeapMultiMap.this.remove(key, (Value) value);
+		}
+
+		@Override
+		public Iterator<Value> iterator() {
+			return new Iterator<Value>() {
+				private int expectedModCount = modCount;
+				private final long keyAddress = findKey(key);
+				private long next = keyAddress == NULL ? NULL : getLong(keyAddress, KEY_FIRST_VALUE);
+				private long last = NULL;
+
+				@Override
+				public boolean hasNext() {
+					return next != NULL;
+				}
+
+				@Override
+				public Value next() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					} else if (next == NULL) {
+						throw new NoSuchElementException();
+					} else {
+						last = next;
+						next = getLong(next, VALUE_NEXT);
+						return readValue(last);
+					}
+				}
+
+				@Override
+				public void remove() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					} else if (last == NULL) {
+						throw new IllegalStateException();
+					} else {
+						removeValue(keyAddress, last);
+						last = NULL;
+						expectedModCount = modCount;
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link OffHeapMultiMap} which keeps the duplicated values
+	 *         of a key
+	 */
+	public static <Key, Value> OffHeapMultiMap<Key, Value> onLists(Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer) {
+		return new OffHeapMultiMap<>(keySerializer, valueSerializer, false, DEFAULT_MAX_CHUNK_SIZE);
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link OffHeapMultiMap} which ignores the duplicated
+	 *         values of a key
+	 */
+	public static <Key, Value> OffHeapMultiMap<Key, Value> onSets(Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer) {
+		return new OffHeapMultiMap<>(keySerializer, valueSerializer, true, DEFAULT_MAX_CHUNK_SIZE);
+	}
+}
@@ -0,0 +1,141 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A {@link PairSpliterator} browses the couples of a
+ * {@link fr.vergne.multimap.MultiMap} by relying on a {@link Spliterator} of
+ * its keys. It splits by splitting the keys, so each part browses all the
+ * values of a range of keys, and its size is the one of the keys multiplied by
+ * the average number of values per key.
+ * </p>
+ * <p>
+ * The size of the whole {@link fr.vergne.multimap.MultiMap} is computed
+ * exactly, by summing the sizes of its {@link Collection}s, the first time it
+ * is requested. Once split, the sizes are estimated.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+class PairSpliterator<Key, Value> implements Spliterator<Entry<Key, Value>> {
+
+	private static final long UNKNOWN = -1;
+
+	private final Spliterator<Entry<Key, Collection<Value>>> entries;
+	private final Iterable<Entry<Key, Collection<Value>>> source;
+	private Key key;
+	private Iterator<Value> values;
+	private long size;
+	private long consumedBeforeSize = 0;
+	private boolean isExact;
+
+	/**
+	 * 
+	 * @param source
+	 *            the entries to browse, which are browsed a first time to
+	 *            compute the exact size when requested
+	 * @param entries
+	 *            the {@link Spliterator} of the entries
+	 */
+	public PairSpliterator(Iterable<Entry<Key, Collection<Value>>> source,
+			Spliterator<Entry<Key, Collection<Value>>> entries) {
+		this(source, entries, UNKNOWN, true);
+	}
+
+	private PairSpliterator(Iterable<Entry<Key, Collection<Value>>> source,
+			Spliterator<Entry<Key, Collection<Value>>> entries, long size, boolean isExact) {
+		this.source = source;
+		this.entries = entries;
+		this.size = size;
+		this.isExact = isExact;
+	}
+
+	private long size() {
+		if (size == UNKNOWN) {
+			long count = 0;
+			for (Entry<Key, Collection<Value>> entry : source) {
+				count += entry.getValue().size();
+			}
+			size = count - consumedBeforeSize;
+		} else {
+			// already computed
+		}
+		return size;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Entry<Key, Value>> action) {
+		while (values == null || !values.hasNext()) {
+			if (!entries.tryAdvance(entry -> {
+				key = entry.getKey();
+				values = entry.getValue().iterator();
+			})) {
+				return false;
+			} else {
+				continue;
+			}
+		}
+		if (size == UNKNOWN) {
+			consumedBeforeSize++;
+		} else if (size > 0) {
+			size--;
+		} else {
+			// estimation exhausted
+		}
+		action.accept(new AbstractMap.SimpleImmutableEntry<>(key, values.next()));
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Entry<Key, Value>> action) {
+		if (values != null) {
+			while (values.hasNext()) {
+				action.accept(new AbstractMap.SimpleImmutableEntry<>(key, values.next()));
+			}
+		} else {
+			// no key started
+		}
+		entries.forEachRemaining(entry -> {
+			Key key = entry.getKey();
+			for (Value value : entry.getValue()) {
+				action.accept(new AbstractMap.SimpleImmutableEntry<>(key, value));
+			}
+		});
+		size = 0;
+	}
+
+	@Override
+	public Spliterator<Entry<Key, Value>> trySplit() {
+		long keysBefore = entries.estimateSize();
+		Spliterator<Entry<Key, Collection<Value>>> prefix = entries.trySplit();
+		if (prefix == null) {
+			return null;
+		} else {
+			// the keys may still split once their estimation is exhausted
+			long total = size();
+			long prefixSize = keysBefore == 0 ? 0 : (long) ((double) total * prefix.estimateSize() / keysBefore);
+			size = total - prefixSize;
+			isExact = false;
+			return new PairSpliterator<>(source, prefix, prefixSize, false);
+		}
+	}
+
+	@Override
+	public long estimateSize() {
+		return size();
+	}
+
+	@Override
+	public int characteristics() {
+		return isExact ? SIZED : 0;
+	}
+}
@@ -0,0 +1,377 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A {@link PersistentHashMap} is an immutable map stored as a hash array
+ * mapped trie: each node uses 5 bits of the hash of the keys to select one of
+ * its 32 children, and only stores the children which exist. Changing a key
+ * produces a new {@link PersistentHashMap} which shares all the nodes of the
+ * previous one, except the few ones on the path to the key, so the change
+ * costs a time and a memory logarithmic in the size of the map, and the
+ * previous {@link PersistentHashMap} remains valid.
+ * </p>
+ * <p>
+ * A change which does not modify the content returns the same instance. The
+ * keys can be <code>null</code>, but not the values.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <K>
+ * @param <V>
+ */
+class PersistentHashMap<K, V> implements Iterable<Entry<K, V>> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	private static final int MAX_DEPTH = 32 / BITS + 3;
+	@SuppressWarnings("rawtypes")
+	private static final PersistentHashMap EMPTY = new PersistentHashMap<>(new Branch(0, new Object[0]), 0);
+
+	private static class Leaf<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+		private static final long serialVersionUID = 1L;
+		private final int hash;
+
+		public Leaf(int hash, K key, V value) {
+			super(key, value);
+			this.hash = hash;
+		}
+
+		public boolean matches(int hash, Object key) {
+			return this.hash == hash && Objects.equals(getKey(), key);
+		}
+	}
+
+	/**
+	 * A node whose children are selected by the bits of the hash.
+	 */
+	private static class Branch {
+		private final int bitmap;
+		private final Object[] children;
+
+		public Branch(int bitmap, Object[] children) {
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+	}
+
+	/**
+	 * A node whose leaves all have the same hash.
+	 */
+	private static class Collision {
+		private final int hash;
+		private final Object[] leaves;
+
+		public Collision(int hash, Object[] leaves) {
+			this.hash = hash;
+			this.leaves = leaves;
+		}
+	}
+
+	private final Branch root;
+	private final int size;
+
+	private PersistentHashMap(Branch root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentHashMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	private static int hash(Object key) {
+		int hash = Objects.hashCode(key);
+		return hash ^ (hash >>> 16);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to search for
+	 * @return the value of the key, <code>null</code> if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		int hash = hash(key);
+		Object node = root;
+		int shift = 0;
+		while (true) {
+			if (node instanceof Branch) {
+				Branch branch = (Branch) node;
+				int bit = 1 << ((hash >>> shift) & MASK);
+				if ((branch.bitmap & bit) == 0) {
+					return null;
+				} else {
+					node = branch.children[Integer.bitCount(branch.bitmap & (bit - 1))];
+					shift += BITS;
+				}
+			} else if (node instanceof Collision) {
+				for (Object leaf : ((Collision) node).leaves) {
+					if (((Leaf<K, V>) leaf).matches(hash, key)) {
+						return ((Leaf<K, V>) leaf).getValue();
+					} else {
+						continue;
+					}
+				}
+				return null;
+			} else {
+				Leaf<K, V> leaf = (Leaf<K, V>) node;
+				return leaf.matches(hash, key) ? leaf.getValue() : null;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to change
+	 * @param value
+	 *            the new value of the key
+	 * @return a {@link PersistentHashMap} with this value for the key
+	 */
+	public PersistentHashMap<K, V> put(K key, V value) {
+		Objects.requireNonNull(value, "No null value allowed");
+		int hash = hash(key);
+		boolean isNew = !containsKey(key);
+		Branch newRoot = (Branch) put(root, 0, new Leaf<>(hash, key, value));
+		return newRoot == root ? this : new PersistentHashMap<>(newRoot, isNew ? size + 1 : size);
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            the key to remove
+	 * @return a {@link PersistentHashMap} without this key
+	 */
+	public PersistentHashMap<K, V> remove(Object key) {
+		int hash = hash(key);
+		Object newRoot = remove(root, 0, hash, key);
+		if (newRoot == root) {
+			return this;
+		} else if (newRoot == null) {
+			return empty();
+		} else if (newRoot instanceof Branch) {
+			return new PersistentHashMap<>((Branch) newRoot, size - 1);
+		} else {
+			// a single leaf or collision remains, kept under a branch
+			int bit = 1 << (hashOf(newRoot) & MASK);
+			return new PersistentHashMap<>(new Branch(bit, new Object[] { newRoot }), size - 1);
+		}
+	}
+
+	private static int hashOf(Object node) {
+		return node instanceof Leaf ? ((Leaf<?, ?>) node).hash : ((Collision) node).hash;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object put(Object node, int shift, Leaf<?, ?> leaf) {
+		if (node instanceof Branch) {
+			Branch branch = (Branch) node;
+			int bit = 1 << ((leaf.hash >>> shift) & MASK);
+			int index = Integer.bitCount(branch.bitmap & (bit - 1));
+			if ((branch.bitmap & bit) == 0) {
+				Object[] children = new Object[branch.children.length + 1];
+				System.arraycopy(branch.children, 0, children, 0, index);
+				children[index] = leaf;
+				System.arraycopy(branch.children, index, children, index + 1, branch.children.length - index);
+				return new Branch(branch.bitmap | bit, children);
+			} else {
+				Object child = branch.children[index];
+				Object newChild = put(child, shift + BITS, leaf);
+				if (newChild == child) {
+					return branch;
+				} else {
+					Object[] children = branch.children.clone();
+					children[index] = newChild;
+					return new Branch(branch.bitmap, children);
+				}
+			}
+		} else if (node instanceof Collision) {
+			Collision collision = (Collision) node;
+			if (collision.hash == leaf.hash) {
+				for (int i = 0; i < collision.leaves.length; i++) {
+					Leaf<?, ?> existing = (Leaf<?, ?>) collision.leaves[i];
+					if (existing.matches(leaf.hash, leaf.getKey())) {
+						if (existing.getValue() == leaf.getValue()) {
+							return collision;
+						} else {
+							Object[] leaves = collision.leaves.clone();
+							leaves[i] = leaf;
+							return new Collision(collision.hash, leaves);
+						}
+					} else {
+						continue;
+					}
+				}
+				Object[] leaves = new Object[collision.leaves.length + 1];
+				System.arraycopy(collision.leaves, 0, leaves, 0, collision.leaves.length);
+				leaves[collision.leaves.length] = leaf;
+				return new Collision(collision.hash, leaves);
+			} else {
+				return split(collision, collision.hash, leaf, shift);
+			}
+		} else {
+			Leaf<Object, Object> existing = (Leaf<Object, Object>) node;
+			if (existing.matches(leaf.hash, leaf.getKey())) {
+				return existing.getValue() == leaf.getValue() ? existing : leaf;
+			} else if (existing.hash == leaf.hash) {
+				return new Collision(leaf.hash, new Object[] { existing, leaf });
+			} else {
+				return split(existing, existing.hash, leaf, shift);
+			}
+		}
+	}
+
+	/**
+	 * Create a {@link Branch} containing a node and a leaf of different
+	 * hashes.
+	 */
+	private static Object split(Object node, int hash, Leaf<?, ?> leaf, int shift) {
+		int nodeBit = 1 << ((hash >>> shift) & MASK);
+		int leafBit = 1 << ((leaf.hash >>> shift) & MASK);
+		if (nodeBit == leafBit) {
+			return new Branch(nodeBit, new Object[] { split(node, hash, leaf, shift + BITS) });
+		} else if (Integer.compareUnsigned(nodeBit, leafBit) < 0) {
+			return new Branch(nodeBit | leafBit, new Object[] { node, leaf });
+		} else {
+			return new Branch(nodeBit | leafBit, new Object[] { leaf, node });
+		}
+	}
+
+	/**
+	 * 
+	 * @return the same node if the key is absent, <code>null</code> if the
+	 *         node becomes empty, a single {@link Leaf} or {@link Collision}
+	 *         if only this one remains, a new node otherwise
+	 */
+	private static Object remove(Object node, int shift, int hash, Object key) {
+		if (node instanceof Branch) {
+			Branch branch = (Branch) node;
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((branch.bitmap & bit) == 0) {
+				return branch;
+			} else {
+				int index = Integer.bitCount(branch.bitmap & (bit - 1));
+				Object child = branch.children[index];
+				Object newChild = remove(child, shift + BITS, hash, key);
+				if (newChild == child) {
+					return branch;
+				} else if (newChild == null) {
+					if (branch.children.length == 1) {
+						return null;
+					} else {
+						Object[] children = new Object[branch.children.length - 1];
+						System.arraycopy(branch.children, 0, children, 0, index);
+						System.arraycopy(branch.children, index + 1, children, index, children.length - index);
+						if (children.length == 1 && !(children[0] instanceof Branch)) {
+							return children[0];
+						} else {
+							return new Branch(branch.bitmap & ~bit, children);
+						}
+					}
+				} else if (branch.children.length == 1 && !(newChild instanceof Branch)) {
+					return newChild;
+				} else {
+					Object[] children = branch.children.clone();
+					children[index] = newChild;
+					return new Branch(branch.bitmap, children);
+				}
+			}
+		} else if (node instanceof Collision) {
+			Collision collision = (Collision) node;
+			for (int i = 0; i < collision.leaves.length; i++) {
+				if (((Leaf<?, ?>) collision.leaves[i]).matches(hash, key)) {
+					if (collision.leaves.length == 2) {
+						return collision.leaves[1 - i];
+					} else {
+						Object[] leaves = new Object[collision.leaves.length - 1];
+						System.arraycopy(collision.leaves, 0, leaves, 0, i);
+						System.arraycopy(collision.leaves, i + 1, leaves, i, leaves.length - i);
+						return new Collision(collision.hash, leaves);
+					}
+				} else {
+					continue;
+				}
+			}
+			return collision;
+		} else {
+			return ((Leaf<?, ?>) node).matches(hash, key) ? null : node;
+		}
+	}
+
+	@Override
+	public Iterator<Entry<K, V>> iterator() {
+		return new Iterator<Entry<K, V>>() {
+
+			private final Object[][] arrays = new Object[MAX_DEPTH + 1][];
+			private final int[] indexes = new int[MAX_DEPTH + 1];
+			private int depth = 0;
+			private Leaf<K, V> next;
+
+			{
+				arrays[0] = root.children;
+				advance();
+			}
+
+			@SuppressWarnings("unchecked")
+			private void advance() {
+				next = null;
+				while (depth >= 0) {
+					if (indexes[depth] < arrays[depth].length) {
+						Object node = arrays[depth][indexes[depth]++];
+						if (node instanceof Branch) {
+							depth++;
+							arrays[depth] = ((Branch) node).children;
+							indexes[depth] = 0;
+						} else if (node instanceof Collision) {
+							depth++;
+							arrays[depth] = ((Collision) node).leaves;
+							indexes[depth] = 0;
+						} else {
+							next = (Leaf<K, V>) node;
+							return;
+						}
+					} else {
+						depth--;
+					}
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Entry<K, V> next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				} else {
+					Leaf<K, V> current = next;
+					advance();
+					return current;
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,127 @@
+package fr.vergne.multimap.impl;
+
+import java.util.Arrays;
+
+/**
+ * Helpers shared by the open-addressing hash tables of the
+ * primitive-specialized multimaps.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ */
+final class PrimitiveHashing {
+
+	static final int DEFAULT_EXPECTED_KEYS = 16;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private PrimitiveHashing() {
+		// not instantiable
+	}
+
+	static int hash(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	static int hash(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * 
+	 * @return a power of two able to store the expected keys while keeping a
+	 *         load factor below 3/4
+	 */
+	static int capacityFor(int expectedKeys) {
+		long minimum = Math.max(expectedKeys, 1) * 4L / 3 + 1;
+		if (minimum > MAX_CAPACITY) {
+			throw new IllegalStateException("Too many keys: " + expectedKeys);
+		} else {
+			return Math.max(Integer.highestOneBit((int) minimum - 1) << 1, 4);
+		}
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if the used slots, including the removed ones,
+	 *         exceed the load factor of 3/4
+	 */
+	static boolean isFull(int usedSlots, int capacity) {
+		return usedSlots > capacity - (capacity >>> 2);
+	}
+
+	/**
+	 * 
+	 * @return the capacity to use when a full table is rehashed: doubled if at
+	 *         least half of it are actual keys, unchanged otherwise so that only
+	 *         the removed slots are cleaned
+	 */
+	static int rehashCapacity(int size, int capacity) {
+		if (size < (capacity >>> 1)) {
+			return capacity;
+		} else if (capacity == MAX_CAPACITY) {
+			throw new IllegalStateException("Too many keys: " + size);
+		} else {
+			return capacity << 1;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the new length of an array of values which is full, growing slowly
+	 *         for the small ones because most keys have only a few values
+	 */
+	static int grow(int length) {
+		return length < 4 ? length + 1 : length + (length >> 1);
+	}
+
+	static int[] sortedDistinct(int[] values) {
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int index = 0; index < sorted.length; index++) {
+			if (index == 0 || sorted[index] != sorted[distinct - 1]) {
+				sorted[distinct++] = sorted[index];
+			} else {
+				// skip the duplicate
+			}
+		}
+		return Arrays.copyOf(sorted, distinct);
+	}
+
+	static long[] sortedDistinct(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int index = 0; index < sorted.length; index++) {
+			if (index == 0 || sorted[index] != sorted[distinct - 1]) {
+				sorted[distinct++] = sorted[index];
+			} else {
+				// skip the duplicate
+			}
+		}
+		return Arrays.copyOf(sorted, distinct);
+	}
+
+	static boolean startsWith(int[] array, int[] prefix) {
+		for (int index = 0; index < prefix.length; index++) {
+			if (array[index] != prefix[index]) {
+				return false;
+			} else {
+				continue;
+			}
+		}
+		return true;
+	}
+
+	static boolean startsWith(long[] array, long[] prefix) {
+		for (int index = 0; index < prefix.length; index++) {
+			if (array[index] != prefix[index]) {
+				return false;
+			} else {
+				continue;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,665 @@
+package fr.vergne.multimap.impl;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+
+/**
+ * <p>
+ * A {@link RoaringIntSet} is a {@link Set} of {@link Integer}s compressed like
+ * a Roaring bitmap, designed to store the many values of a single key of a
+ * {@link BackedMultiMap}. The values are partitioned by their 16 upper bits,
+ * and the 16 lower bits of each partition are stored in the most compact of
+ * three containers:
+ * </p>
+ * <ul>
+ * <li>a sorted array of 2 bytes per value, for at most 4096 values,</li>
+ * <li>a bitmap of 8 kB, for more values,</li>
+ * <li>a list of runs of consecutive values, of 4 bytes per run, used by
+ * {@link #runOptimize()} when it is smaller than the two others.</li>
+ * </ul>
+ * <p>
+ * Thus, a dense set costs about 1 bit per value, and a sparse one about 2
+ * bytes per value, where a {@link java.util.HashSet} costs more than 40 bytes
+ * per value. {@link #contains(int)}, {@link #add(int)} and
+ * {@link #remove(int)} find the partition by binary search, then work in a
+ * constant time on a bitmap and a logarithmic time on the other containers,
+ * while the values are iterated in increasing order.
+ * </p>
+ * <p>
+ * It has the same semantics than any other {@link Set}, but does not accept
+ * <code>null</code>.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public class RoaringIntSet extends AbstractSet<Integer> {
+
+	/**
+	 * The maximum cardinality of an {@link ArrayContainer}, above which a
+	 * {@link BitmapContainer} is smaller.
+	 */
+	private static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_BYTES = 8192;
+	private static final int LOW_MAX = 0xFFFF;
+
+	/**
+	 * The lower bits of the values of a partition.
+	 */
+	private static abstract class Container {
+
+		public abstract int cardinality();
+
+		public abstract boolean contains(char low);
+
+		/**
+		 * @return this {@link Container}, or another one storing the values
+		 *         more efficiently
+		 */
+		public abstract Container add(char low);
+
+		/**
+		 * @return this {@link Container}, or another one storing the values
+		 *         more efficiently
+		 */
+		public abstract Container remove(char low);
+
+		/**
+		 * 
+		 * @return the smallest value greater or equal to the given one, -1 if
+		 *         there is none
+		 */
+		public abstract int next(int from);
+
+		public abstract int sizeInBytes();
+
+		public int runCount() {
+			int runs = 0;
+			int previous = -2;
+			for (int low = next(0); low >= 0; low = next(low + 1)) {
+				if (low != previous + 1) {
+					runs++;
+				} else {
+					// same run
+				}
+				previous = low;
+			}
+			return runs;
+		}
+
+		/**
+		 * 
+		 * @return a {@link RunContainer} if it is smaller, this
+		 *         {@link Container} otherwise
+		 */
+		public Container runOptimize() {
+			if (RunContainer.sizeInBytes(runCount()) < sizeInBytes()) {
+				RunContainer runs = new RunContainer();
+				for (int low = next(0); low >= 0; low = next(low + 1)) {
+					runs.append((char) low);
+				}
+				return runs;
+			} else {
+				return this;
+			}
+		}
+
+		/**
+		 * 
+		 * @return an {@link ArrayContainer} or a {@link BitmapContainer}
+		 *         having the same values
+		 */
+		public Container toArrayOrBitmap() {
+			return copyTo(cardinality() <= ARRAY_MAX ? new ArrayContainer() : new BitmapContainer());
+		}
+
+		protected Container copyTo(Container target) {
+			for (int low = next(0); low >= 0; low = next(low + 1)) {
+				target = target.add((char) low);
+			}
+			return target;
+		}
+	}
+
+	private static class ArrayContainer extends Container {
+		private char[] values = new char[4];
+		private int cardinality = 0;
+
+		@Override
+		public int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public boolean contains(char low) {
+			return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+		}
+
+		@Override
+		public Container add(char low) {
+			int index = Arrays.binarySearch(values, 0, cardinality, low);
+			if (index >= 0) {
+				return this;
+			} else if (cardinality == ARRAY_MAX) {
+				return copyTo(new BitmapContainer()).add(low);
+			} else {
+				index = -index - 1;
+				if (cardinality == values.length) {
+					values = Arrays.copyOf(values, Math.min(2 * values.length, ARRAY_MAX));
+				} else {
+					// enough space
+				}
+				System.arraycopy(values, index, values, index + 1, cardinality - index);
+				values[index] = low;
+				cardinality++;
+				return this;
+			}
+		}
+
+		@Override
+		public Container remove(char low) {
+			int index = Arrays.binarySearch(values, 0, cardinality, low);
+			if (index < 0) {
+				return this;
+			} else {
+				System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+				cardinality--;
+				return this;
+			}
+		}
+
+		@Override
+		public int next(int from) {
+			if (from > LOW_MAX) {
+				return -1;
+			} else {
+				int index = Arrays.binarySearch(values, 0, cardinality, (char) from);
+				if (index < 0) {
+					index = -index - 1;
+				} else {
+					// exact value
+				}
+				return index < cardinality ? values[index] : -1;
+			}
+		}
+
+		@Override
+		public int sizeInBytes() {
+			return 2 * cardinality;
+		}
+	}
+
+	private static class BitmapContainer extends Container {
+		private final long[] words = new long[BITMAP_BYTES / 8];
+		private int cardinality = 0;
+
+		@Override
+		public int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public boolean contains(char low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		public Container add(char low) {
+			long word = words[low >>> 6];
+			long bit = 1L << low;
+			if ((word & bit) == 0) {
+				words[low >>> 6] = word | bit;
+				cardinality++;
+			} else {
+				// already present
+			}
+			return this;
+		}
+
+		@Override
+		public Container remove(char low) {
+			long word = words[low >>> 6];
+			long bit = 1L << low;
+			if ((word & bit) != 0) {
+				words[low >>> 6] = word & ~bit;
+				cardinality--;
+				return cardinality <= ARRAY_MAX ? copyTo(new ArrayContainer()) : this;
+			} else {
+				return this;
+			}
+		}
+
+		@Override
+		public int next(int from) {
+			if (from > LOW_MAX) {
+				return -1;
+			} else {
+				int index = from >>> 6;
+				long word = words[index] & (-1L << from);
+				while (word == 0) {
+					index++;
+					if (index == words.length) {
+						return -1;
+					} else {
+						word = words[index];
+					}
+				}
+				return index * 64 + Long.numberOfTrailingZeros(word);
+			}
+		}
+
+		@Override
+		public int sizeInBytes() {
+			return BITMAP_BYTES;
+		}
+
+		@Override
+		public int runCount() {
+			int runs = 0;
+			for (int index = 0; index < words.length; index++) {
+				long word = words[index];
+				long previousBit = index == 0 ? 0 : words[index - 1] >>> 63;
+				// count the bits starting a run: set, with the previous one unset
+				runs += Long.bitCount(word & ~((word << 1) | previousBit));
+			}
+			return runs;
+		}
+	}
+
+	/**
+	 * The values are stored as pairs of chars: the start of the run, then its
+	 * length minus one.
+	 */
+	private static class RunContainer extends Container {
+		private char[] runs = new char[4];
+		private int runCount = 0;
+		private int cardinality = 0;
+
+		public static int sizeInBytes(int runCount) {
+			return 4 * runCount;
+		}
+
+		private int start(int run) {
+			return runs[2 * run];
+		}
+
+		private int end(int run) {
+			return runs[2 * run] + runs[2 * run + 1];
+		}
+
+		private void set(int run, int start, int end) {
+			runs[2 * run] = (char) start;
+			runs[2 * run + 1] = (char) (end - start);
+		}
+
+		private void insert(int run, int start, int end) {
+			if (2 * runCount == runs.length) {
+				runs = Arrays.copyOf(runs, 2 * runs.length);
+			} else {
+				// enough space
+			}
+			System.arraycopy(runs, 2 * run, runs, 2 * run + 2, 2 * (runCount - run));
+			runCount++;
+			set(run, start, end);
+		}
+
+		private void delete(int run) {
+			System.arraycopy(runs, 2 * run + 2, runs, 2 * run, 2 * (runCount - run - 1));
+			runCount--;
+		}
+
+		/**
+		 * 
+		 * @return the last run starting before or at the value, -1 if there
+		 *         is none
+		 */
+		private int floorRun(int low) {
+			int min = 0;
+			int max = runCount - 1;
+			while (min <= max) {
+				int middle = (min + max) >>> 1;
+				if (start(middle) <= low) {
+					min = middle + 1;
+				} else {
+					max = middle - 1;
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * 
+		 * @return this {@link RunContainer}, or an {@link ArrayContainer} or a
+		 *         {@link BitmapContainer} if it is smaller
+		 */
+		private Container optimize() {
+			int other = cardinality <= ARRAY_MAX ? 2 * cardinality : BITMAP_BYTES;
+			return sizeInBytes() > other ? toArrayOrBitmap() : this;
+		}
+
+		@Override
+		public int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public boolean contains(char low) {
+			int run = floorRun(low);
+			return run >= 0 && low <= end(run);
+		}
+
+		/**
+		 * Add a value without converting to another {@link Container}.
+		 * 
+		 * @return <code>true</code> if the value was not present yet
+		 */
+		public boolean append(char low) {
+			int run = floorRun(low);
+			if (run >= 0 && low <= end(run)) {
+				return false;
+			} else {
+				boolean extendsPrevious = run >= 0 && end(run) + 1 == low;
+				boolean extendsNext = run + 1 < runCount && start(run + 1) == low + 1;
+				if (extendsPrevious && extendsNext) {
+					set(run, start(run), end(run + 1));
+					delete(run + 1);
+				} else if (extendsPrevious) {
+					set(run, start(run), low);
+				} else if (extendsNext) {
+					set(run + 1, low, end(run + 1));
+				} else {
+					insert(run + 1, low, low);
+				}
+				cardinality++;
+				return true;
+			}
+		}
+
+		@Override
+		public Container add(char low) {
+			return append(low) ? optimize() : this;
+		}
+
+		@Override
+		public Container remove(char low) {
+			int run = floorRun(low);
+			if (run < 0 || low > end(run)) {
+				return this;
+			} else {
+				int start = start(run);
+				int end = end(run);
+				if (start == end) {
+					delete(run);
+				} else if (low == start) {
+					set(run, start + 1, end);
+				} else if (low == end) {
+					set(run, start, end - 1);
+				} else {
+					set(run, start, low - 1);
+					insert(run + 1, low + 1, end);
+				}
+				cardinality--;
+				return optimize();
+			}
+		}
+
+		@Override
+		public int next(int from) {
+			if (from > LOW_MAX) {
+				return -1;
+			} else {
+				int run = floorRun(from);
+				if (run >= 0 && from <= end(run)) {
+					return from;
+				} else {
+					return run + 1 < runCount ? start(run + 1) : -1;
+				}
+			}
+		}
+
+		@Override
+		public int sizeInBytes() {
+			return sizeInBytes(runCount);
+		}
+
+		@Override
+		public int runCount() {
+			return runCount;
+		}
+
+		@Override
+		public Container runOptimize() {
+			return this;
+		}
+	}
+
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int containerCount = 0;
+	private int size = 0;
+	private int modCount = 0;
+
+	public RoaringIntSet() {
+		// empty set
+	}
+
+	public RoaringIntSet(Collection<Integer> values) {
+		addAll(values);
+	}
+
+	/**
+	 * The sign bit is flipped, so the partitions are sorted like signed
+	 * {@link Integer}s.
+	 */
+	private static char high(int value) {
+		return (char) ((value >>> 16) ^ 0x8000);
+	}
+
+	private static int value(char high, int low) {
+		return ((high ^ 0x8000) << 16) | low;
+	}
+
+	private static char low(int value) {
+		return (char) value;
+	}
+
+	private int containerIndex(char high) {
+		return Arrays.binarySearch(keys, 0, containerCount, high);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int value) {
+		int index = containerIndex(high(value));
+		return index >= 0 && containers[index].contains(low(value));
+	}
+
+	@Override
+	public boolean contains(Object value) {
+		return value instanceof Integer && contains(((Integer) value).intValue());
+	}
+
+	public boolean add(int value) {
+		char high = high(value);
+		int index = containerIndex(high);
+		if (index < 0) {
+			index = -index - 1;
+			if (containerCount == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * keys.length);
+				containers = Arrays.copyOf(containers, 2 * containers.length);
+			} else {
+				// enough space
+			}
+			System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+			System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+			keys[index] = high;
+			containers[index] = new ArrayContainer();
+			containerCount++;
+		} else {
+			// use the existing container
+		}
+		Container container = containers[index];
+		int before = container.cardinality();
+		container = container.add(low(value));
+		containers[index] = container;
+		if (container.cardinality() != before) {
+			size++;
+			modCount++;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean add(Integer value) {
+		return add(Objects.requireNonNull(value, "No null value allowed").intValue());
+	}
+
+	public boolean remove(int value) {
+		int index = containerIndex(high(value));
+		if (index < 0) {
+			return false;
+		} else {
+			Container container = containers[index];
+			int before = container.cardinality();
+			container = container.remove(low(value));
+			if (container.cardinality() == before) {
+				return false;
+			} else {
+				if (container.cardinality() == 0) {
+					System.arraycopy(keys, index + 1, keys, index, containerCount - index - 1);
+					System.arraycopy(containers, index + 1, containers, index, containerCount - index - 1);
+					containerCount--;
+					containers[containerCount] = null;
+				} else {
+					containers[index] = container;
+				}
+				size--;
+				modCount++;
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public boolean remove(Object value) {
+		return value instanceof Integer && remove(((Integer) value).intValue());
+	}
+
+	@Override
+	public void clear() {
+		keys = new char[4];
+		containers = new Container[4];
+		containerCount = 0;
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * Store the partitions of consecutive values as runs when it is smaller.
+	 * This is worth after adding long ranges of values, since the runs are not
+	 * created otherwise.
+	 */
+	public void runOptimize() {
+		for (int index = 0; index < containerCount; index++) {
+			containers[index] = containers[index].runOptimize();
+		}
+	}
+
+	/**
+	 * 
+	 * @return an estimation of the memory used by the values, excluding the
+	 *         overhead of the objects
+	 */
+	public long sizeInBytes() {
+		long bytes = 10L * containerCount;
+		for (int index = 0; index < containerCount; index++) {
+			bytes += containers[index].sizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * The values are provided in increasing order.
+	 */
+	@Override
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+
+			private int expectedModCount = modCount;
+			private int index = 0;
+			private int nextLow = containerCount == 0 ? -1 : containers[0].next(0);
+			private boolean canRemove = false;
+			private int last;
+
+			private void checkModCount() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				} else {
+					// no concurrent change
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				checkModCount();
+				return nextLow >= 0;
+			}
+
+			@Override
+			public int nextInt() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					last = value(keys[index], nextLow);
+					canRemove = true;
+					seek(index, nextLow + 1);
+					return last;
+				}
+			}
+
+			/**
+			 * Move to the first value greater or equal to the given one in the
+			 * given container, or in the next ones.
+			 */
+			private void seek(int containerIndex, int from) {
+				index = containerIndex;
+				nextLow = index < containerCount ? containers[index].next(from) : -1;
+				while (nextLow < 0 && index + 1 < containerCount) {
+					index++;
+					nextLow = containers[index].next(0);
+				}
+			}
+
+			@Override
+			public void remove() {
+				checkModCount();
+				if (!canRemove) {
+					throw new IllegalStateException();
+				} else {
+					// the containers may move, so locate the next value again
+					int next = nextLow >= 0 ? value(keys[index], nextLow) : 0;
+					RoaringIntSet.this.remove(last);
+					expectedModCount = modCount;
+					canRemove = false;
+					if (nextLow >= 0) {
+						int containerIndex = containerIndex(high(next));
+						seek(containerIndex >= 0 ? containerIndex : -containerIndex - 1, nextLow);
+					} else {
+						// no more value
+					}
+				}
+			}
+		};
+	}
+}
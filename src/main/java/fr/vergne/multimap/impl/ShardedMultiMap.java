@@ -0,0 +1,666 @@
+package fr.vergne.multimap.impl;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.Batch;
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link ShardedMultiMap} is a thread-safe {@link MultiMap} which partitions
+ * its keys, by their hash, between independent {@link BackedMultiMap} shards.
+ * Each shard is owned by a single worker thread, which is the only one to
+ * access it: the operations on a key are queued to the worker of its shard,
+ * which drains its queue by batches and merges the consecutive
+ * {@link #addLater(Object, Object)} and {@link #removeLater(Object, Object)}
+ * in a single {@link Batch}. Consequently, the writers never contend on the
+ * same locks or cache lines than the workers of other shards, and the shards
+ * need no synchronization.
+ * </p>
+ * <p>
+ * Besides the usual synchronous methods, which wait for their operation to
+ * be done, the mutations can be done asynchronously through
+ * {@link #addAsync(Object, Object)} and similar methods, which return a
+ * {@link CompletableFuture} completed by the worker, or without result
+ * through {@link #addLater(Object, Object)} and
+ * {@link #removeLater(Object, Object)}, which only wait when the queue of the
+ * shard is full. The operations of a thread on a key are applied in the order
+ * they are called, so a synchronous read sees all the previous writes of the
+ * same thread, and {@link #flush()} waits for all of them.
+ * </p>
+ * <p>
+ * Since the shards are only accessed by their worker, the {@link Collection}s
+ * returned are unmodifiable snapshots. The operations on all the keys, like
+ * {@link #size()}, {@link #keySet()} or {@link #clear()}, aggregate the
+ * shards one after the other, so they are not atomic, and the iterators go
+ * through a snapshot of each shard in turn. A {@link ShardedMultiMap} must be
+ * closed to stop its workers, after which its operations fail with an
+ * {@link IllegalStateException}.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class ShardedMultiMap<Key, Value> implements MultiMap<Key, Value>, Closeable {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+	private static final int MAX_DRAIN = 1024;
+	private static final long FULL_QUEUE_PAUSE_NANOS = 10_000;
+
+	private static interface Task<Key, Value> {
+		void run(BackedMultiMap<Key, Value> map);
+	}
+
+	private static class Mutation<Key, Value> implements Task<Key, Value> {
+		private final boolean isAddition;
+		private final Key key;
+		private final Value value;
+
+		public Mutation(boolean isAddition, Key key, Value value) {
+			this.isAddition = isAddition;
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public void run(BackedMultiMap<Key, Value> map) {
+			if (isAddition) {
+				map.add(key, value);
+			} else {
+				map.remove(key, value);
+			}
+		}
+	}
+
+	private static class Call<Key, Value, T> implements Task<Key, Value> {
+		private final Function<BackedMultiMap<Key, Value>, T> function;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		public Call(Function<BackedMultiMap<Key, Value>, T> function) {
+			this.function = function;
+		}
+
+		@Override
+		public void run(BackedMultiMap<Key, Value> map) {
+			try {
+				future.complete(function.apply(map));
+			} catch (Throwable cause) {
+				future.completeExceptionally(cause);
+			}
+		}
+	}
+
+	private static final Task<?, ?> STOP = map -> {
+		throw new IllegalStateException("The stop task should not be run");
+	};
+
+	/**
+	 * The queue of a {@link Shard} is a lock-free {@link ConcurrentLinkedQueue},
+	 * so the producers never block each other. The worker parks when the queue
+	 * is empty, and the producers unpark it only if it announced it, so a busy
+	 * worker costs them a single volatile read.
+	 */
+	private class Shard implements Runnable {
+		private final BackedMultiMap<Key, Value> map;
+		private final Queue<Task<Key, Value>> queue = new ConcurrentLinkedQueue<>();
+		private final int queueCapacity;
+		private final AtomicInteger pending = new AtomicInteger();
+		private final Thread worker;
+		private volatile boolean isClosed = false;
+		private volatile boolean isWaiting = false;
+
+		public Shard(int index, BackedMultiMap<Key, Value> map, int queueCapacity) {
+			this.map = map;
+			this.queueCapacity = queueCapacity;
+			this.worker = new Thread(this, ShardedMultiMap.class.getSimpleName() + "-shard-" + index);
+			this.worker.setDaemon(true);
+		}
+
+		public void enqueue(Task<Key, Value> task) {
+			awaitCapacity();
+			pending.incrementAndGet();
+			queue.offer(task);
+			if (isClosed && queue.remove(task)) {
+				// closed meanwhile and not taken by the worker, so never run
+				pending.decrementAndGet();
+				throw new IllegalStateException("Closed");
+			} else if (isWaiting) {
+				LockSupport.unpark(worker);
+			} else {
+				// the worker will find it
+			}
+		}
+
+		private void awaitCapacity() {
+			while (true) {
+				if (isClosed) {
+					throw new IllegalStateException("Closed");
+				} else if (pending.get() < queueCapacity) {
+					return;
+				} else {
+					LockSupport.parkNanos(this, FULL_QUEUE_PAUSE_NANOS);
+				}
+			}
+		}
+
+		public <T> CompletableFuture<T> call(Function<BackedMultiMap<Key, Value>, T> function) {
+			Call<Key, Value, T> call = new Call<>(function);
+			enqueue(call);
+			return call.future;
+		}
+
+		/**
+		 * Once the stop task is found, the tasks enqueued meanwhile are still
+		 * done, since their producers did not see the closing in time to take
+		 * them back.
+		 */
+		@Override
+		public void run() {
+			Batch<Key, Value> batch = new Batch<>();
+			int drained = 0;
+			boolean isStopping = false;
+			while (true) {
+				Task<Key, Value> task = queue.poll();
+				if (task == null) {
+					applyAndClear(batch);
+					pending.addAndGet(-drained);
+					drained = 0;
+					if (isStopping) {
+						return;
+					} else {
+						awaitTask();
+					}
+				} else if (task == STOP) {
+					isStopping = true;
+				} else {
+					drained++;
+					if (task instanceof Mutation) {
+						Mutation<Key, Value> mutation = (Mutation<Key, Value>) task;
+						if (mutation.isAddition) {
+							batch.add(mutation.key, mutation.value);
+						} else {
+							batch.remove(mutation.key, mutation.value);
+						}
+					} else {
+						applyAndClear(batch);
+						task.run(map);
+					}
+					if (drained == MAX_DRAIN) {
+						applyAndClear(batch);
+						pending.addAndGet(-drained);
+						drained = 0;
+					} else {
+						// continue to drain
+					}
+				}
+			}
+		}
+
+		private void awaitTask() {
+			isWaiting = true;
+			if (queue.isEmpty()) {
+				LockSupport.park(this);
+				// interruptions are ignored, only closing stops the worker
+				Thread.interrupted();
+			} else {
+				// enqueued meanwhile
+			}
+			isWaiting = false;
+		}
+
+		/**
+		 * Apply the pending {@link Mutation}s. Since nobody waits for them, a
+		 * failure is reported to the {@link Thread.UncaughtExceptionHandler}
+		 * of the worker, which continues with the next operations.
+		 */
+		private void applyAndClear(Batch<Key, Value> batch) {
+			if (!batch.isEmpty()) {
+				try {
+					map.apply(batch);
+				} catch (RuntimeException cause) {
+					worker.getUncaughtExceptionHandler().uncaughtException(worker, cause);
+				} finally {
+					batch.clear();
+				}
+			} else {
+				// nothing to apply
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		public void close() {
+			synchronized (this) {
+				if (isClosed) {
+					return;
+				} else {
+					isClosed = true;
+					queue.offer((Task<Key, Value>) STOP);
+					LockSupport.unpark(worker);
+				}
+			}
+			boolean isInterrupted = false;
+			while (worker.isAlive()) {
+				try {
+					worker.join();
+				} catch (InterruptedException cause) {
+					isInterrupted = true;
+				}
+			}
+			if (isInterrupted) {
+				Thread.currentThread().interrupt();
+			} else {
+				// nothing to restore
+			}
+		}
+	}
+
+	private final List<Shard> shards;
+
+	/**
+	 * 
+	 * @param shardCount
+	 *            the number of shards, so of worker threads
+	 * @param queueCapacity
+	 *            the number of operations which can wait for the worker of a
+	 *            shard before to block the callers, which can be exceeded by
+	 *            the callers checking it concurrently
+	 * @param shardSupplier
+	 *            the {@link Supplier} of the empty {@link BackedMultiMap}s
+	 *            storing the couples of each shard
+	 */
+	public ShardedMultiMap(int shardCount, int queueCapacity, Supplier<BackedMultiMap<Key, Value>> shardSupplier) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("At least one shard is needed: " + shardCount);
+		} else if (queueCapacity < 1) {
+			throw new IllegalArgumentException("The queue capacity must be positive: " + queueCapacity);
+		} else {
+			List<Shard> shards = new ArrayList<>(shardCount);
+			for (int index = 0; index < shardCount; index++) {
+				shards.add(new Shard(index, shardSupplier.get(), queueCapacity));
+			}
+			this.shards = Collections.unmodifiableList(shards);
+			for (Shard shard : shards) {
+				shard.worker.start();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of shards of this {@link ShardedMultiMap}
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	private int shardIndexOf(Object key) {
+		int hash = key == null ? 0 : key.hashCode();
+		hash ^= hash >>> 16;
+		return Math.floorMod(hash, shards.size());
+	}
+
+	private Shard shardOf(Object key) {
+		return shards.get(shardIndexOf(key));
+	}
+
+	private static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException exception) {
+			Throwable cause = exception.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw exception;
+			}
+		}
+	}
+
+	private static <Value> Collection<Value> snapshot(Collection<Value> values) {
+		if (values == null) {
+			return null;
+		} else if (values instanceof Set) {
+			return Collections.unmodifiableSet(new LinkedHashSet<>(values));
+		} else {
+			return Collections.unmodifiableList(new ArrayList<>(values));
+		}
+	}
+
+	/**
+	 * 
+	 * @return a {@link CompletableFuture} telling whether the couple has been
+	 *         added
+	 */
+	public CompletableFuture<Boolean> addAsync(Key key, Value value) {
+		return shardOf(key).call(map -> map.add(key, value));
+	}
+
+	/**
+	 * 
+	 * @return a {@link CompletableFuture} telling whether some couples have
+	 *         been added
+	 */
+	public CompletableFuture<Boolean> addAllAsync(Key key, Collection<Value> values) {
+		Collection<Value> copy = new ArrayList<>(values);
+		return shardOf(key).call(map -> map.addAll(key, copy));
+	}
+
+	/**
+	 * 
+	 * @return a {@link CompletableFuture} telling whether the couple has been
+	 *         removed
+	 */
+	public CompletableFuture<Boolean> removeAsync(Key key, Value value) {
+		return shardOf(key).call(map -> map.remove(key, value));
+	}
+
+	/**
+	 * Add a couple without waiting for it, unless the queue of its shard is
+	 * full.
+	 */
+	public void addLater(Key key, Value value) {
+		shardOf(key).enqueue(new Mutation<>(true, key, value));
+	}
+
+	/**
+	 * Remove a couple without waiting for it, unless the queue of its shard
+	 * is full.
+	 */
+	public void removeLater(Key key, Value value) {
+		shardOf(key).enqueue(new Mutation<>(false, key, value));
+	}
+
+	/**
+	 * 
+	 * @return a {@link CompletableFuture} completed once all the operations
+	 *         queued so far are done
+	 */
+	public CompletableFuture<Void> flush() {
+		List<CompletableFuture<Object>> futures = new ArrayList<>(shards.size());
+		for (Shard shard : shards) {
+			futures.add(shard.call(map -> null));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+	}
+
+	/**
+	 * Split the {@link Batch} by shard, so each shard applies its part in a
+	 * single task.
+	 * 
+	 * @return a {@link CompletableFuture} providing the sum of the
+	 *         {@link Batch.Result}s of the shards
+	 */
+	public CompletableFuture<Batch.Result> applyAsync(Batch<Key, Value> batch) {
+		List<Batch<Key, Value>> parts = new ArrayList<>(shards.size());
+		for (int index = 0; index < shards.size(); index++) {
+			parts.add(new Batch<>());
+		}
+		for (Batch.Run<Key, Value> run : batch.getRuns()) {
+			Key key = run.getKey();
+			Batch<Key, Value> part = parts.get(shardIndexOf(key));
+			if (run.isAddition()) {
+				part.addAll(key, run.getValues());
+			} else {
+				for (Value value : run.getValues()) {
+					part.remove(key, value);
+				}
+			}
+		}
+		CompletableFuture<Batch.Result> result = CompletableFuture.completedFuture(new Batch.Result(0, 0, 0));
+		for (int index = 0; index < shards.size(); index++) {
+			Batch<Key, Value> part = parts.get(index);
+			if (part.isEmpty()) {
+				continue;
+			} else {
+				CompletableFuture<Batch.Result> partResult = shards.get(index).call(map -> map.apply(part));
+				result = result.thenCombine(partResult, (r1, r2) -> new Batch.Result(r1.getResolutions() + r2.getResolutions(),
+						r1.getAdded() + r2.getAdded(), r1.getRemoved() + r2.getRemoved()));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Batch.Result apply(Batch<Key, Value> batch) {
+		return await(applyAsync(batch));
+	}
+
+	@Override
+	public boolean add(Key key, Value value) {
+		return await(addAsync(key, value));
+	}
+
+	@Override
+	public boolean addAll(Key key, Collection<Value> values) {
+		return await(addAllAsync(key, values));
+	}
+
+	@Override
+	public Collection<Value> replaceAll(Key key, Collection<Value> collection) {
+		Collection<Value> copy = new ArrayList<>(collection);
+		return await(shardOf(key).call(map -> snapshot(map.replaceAll(key, copy))));
+	}
+
+	@Override
+	public Collection<Value> getAll(Object key) {
+		return await(shardOf(key).call(map -> snapshot(map.getAll(key))));
+	}
+
+	@Override
+	public boolean remove(Key key, Value value) {
+		return await(removeAsync(key, value));
+	}
+
+	@Override
+	public Collection<Value> remove(Object key) {
+		return await(shardOf(key).call(map -> snapshot(map.remove(key))));
+	}
+
+	@Override
+	public boolean removeAll(Key key, Collection<Value> values) {
+		Collection<Value> copy = new ArrayList<>(values);
+		return await(shardOf(key).call(map -> map.removeAll(key, copy)));
+	}
+
+	@Override
+	public void clear() {
+		List<CompletableFuture<Object>> futures = new ArrayList<>(shards.size());
+		for (Shard shard : shards) {
+			futures.add(shard.call(map -> {
+				map.clear();
+				return null;
+			}));
+		}
+		for (CompletableFuture<Object> future : futures) {
+			await(future);
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return await(shardOf(key).call(map -> map.containsKey(key)));
+	}
+
+	@Override
+	public boolean containsCouple(Key key, Value value) {
+		return await(shardOf(key).call(map -> map.containsCouple(key, value)));
+	}
+
+	@Override
+	public boolean containsKeyMappedTo(Collection<Value> collection) {
+		Collection<Value> copy = new ArrayList<>(collection);
+		List<CompletableFuture<Boolean>> futures = new ArrayList<>(shards.size());
+		for (Shard shard : shards) {
+			futures.add(shard.call(map -> map.containsKeyMappedTo(copy)));
+		}
+		boolean isContained = false;
+		for (CompletableFuture<Boolean> future : futures) {
+			isContained |= await(future);
+		}
+		return isContained;
+	}
+
+	@Override
+	public int size() {
+		List<CompletableFuture<Integer>> futures = new ArrayList<>(shards.size());
+		for (Shard shard : shards) {
+			futures.add(shard.call(map -> map.size()));
+		}
+		int size = 0;
+		for (CompletableFuture<Integer> future : futures) {
+			size += await(future);
+		}
+		return size;
+	}
+
+	private <T> List<T> collect(Function<BackedMultiMap<Key, Value>, List<T>> function) {
+		List<CompletableFuture<List<T>>> futures = new ArrayList<>(shards.size());
+		for (Shard shard : shards) {
+			futures.add(shard.call(function));
+		}
+		List<T> result = new ArrayList<>();
+		for (CompletableFuture<List<T>> future : futures) {
+			result.addAll(await(future));
+		}
+		return result;
+	}
+
+	@Override
+	public Set<Key> keySet() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(collect(map -> new ArrayList<>(map.keySet()))));
+	}
+
+	@Override
+	public Collection<Collection<Value>> collections() {
+		return Collections.unmodifiableList(collect(map -> {
+			List<Collection<Value>> collections = new ArrayList<>(map.size());
+			for (Collection<Value> values : map.collections()) {
+				collections.add(snapshot(values));
+			}
+			return collections;
+		}));
+	}
+
+	@Override
+	public Set<Entry<Key, Collection<Value>>> entrySet() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(collect(map -> {
+			List<Entry<Key, Collection<Value>>> entries = new ArrayList<>(map.size());
+			for (Entry<Key, Collection<Value>> entry : map.entrySet()) {
+				entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), snapshot(entry.getValue())));
+			}
+			return entries;
+		})));
+	}
+
+	/**
+	 * The couples of each shard are copied when the {@link Iterator} reaches
+	 * it, so the {@link Iterator} does not support removal.
+	 */
+	@Override
+	public Iterator<Entry<Key, Value>> iterator() {
+		return new Iterator<Entry<Key, Value>>() {
+
+			private final Iterator<Shard> shardsIterator = shards.iterator();
+			private Iterator<Entry<Key, Value>> couplesIterator = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!couplesIterator.hasNext()) {
+					if (shardsIterator.hasNext()) {
+						couplesIterator = await(shardsIterator.next().call(map -> {
+							List<Entry<Key, Value>> couples = new ArrayList<>();
+							for (Entry<Key, Value> couple : map) {
+								couples.add(couple);
+							}
+							return couples;
+						})).iterator();
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				} else {
+					return couplesIterator.next();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Stop the workers once they have done the operations already queued.
+	 */
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			shard.close();
+		}
+	}
+
+	/**
+	 * 
+	 * @param shardCount
+	 *            the number of shards, so of worker threads
+	 * @return an empty {@link ShardedMultiMap} which keeps the duplicated
+	 *         values of a key
+	 */
+	public static <Key, Value> ShardedMultiMap<Key, Value> onLists(int shardCount) {
+		return new ShardedMultiMap<>(shardCount, DEFAULT_QUEUE_CAPACITY, () -> BackedMultiMap.onLists());
+	}
+
+	/**
+	 * 
+	 * @param shardCount
+	 *            the number of shards, so of worker threads
+	 * @return an empty {@link ShardedMultiMap} which ignores the duplicated
+	 *         values of a key
+	 */
+	public static <Key, Value> ShardedMultiMap<Key, Value> onSets(int shardCount) {
+		return new ShardedMultiMap<>(shardCount, DEFAULT_QUEUE_CAPACITY, () -> BackedMultiMap.onSets());
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link ShardedMultiMap} which keeps the duplicated
+	 *         values of a key, with one shard per available processor
+	 */
+	public static <Key, Value> ShardedMultiMap<Key, Value> onLists() {
+		return onLists(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link ShardedMultiMap} which ignores the duplicated
+	 *         values of a key, with one shard per available processor
+	 */
+	public static <Key, Value> ShardedMultiMap<Key, Value> onSets() {
+		return onSets(Runtime.getRuntime().availableProcessors());
+	}
+}
@@ -0,0 +1,159 @@
+package fr.vergne.multimap.impl;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import fr.vergne.multimap.NavigableMultiMap;
+
+/**
+ * <p>
+ * A {@link SortedBackedMultiMap} is a {@link BackedMultiMap} above a
+ * {@link NavigableMap}, like a {@link TreeMap}, which exposes the navigation
+ * features of its {@link NavigableMap}. Its ranges are
+ * {@link SortedBackedMultiMap}s above the ranges of the {@link NavigableMap},
+ * so they are live and only browse their own keys.
+ * </p>
+ * <p>
+ * Since a range cannot contain keys outside of its bounds, the ranges never
+ * create a key on removal, whatever their {@link BackedMultiMap.Lifecycle}.
+ * For the same behaviour through the whole {@link SortedBackedMultiMap}, its
+ * {@link BackedMultiMap.Lifecycle} is {@link BackedMultiMap.Lifecycle#LAZY}
+ * by default.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class SortedBackedMultiMap<Key, Value> extends BackedMultiMap<Key, Value>
+		implements NavigableMultiMap<Key, Value> {
+
+	private final NavigableMap<Key, Collection<Value>> map;
+	private final Supplier<Collection<Value>> collectionSupplier;
+
+	public SortedBackedMultiMap(NavigableMap<Key, Collection<Value>> map,
+			Supplier<Collection<Value>> collectionSupplier) {
+		this(map, collectionSupplier, Lifecycle.LAZY);
+	}
+
+	public SortedBackedMultiMap(NavigableMap<Key, Collection<Value>> map,
+			Supplier<Collection<Value>> collectionSupplier, Lifecycle lifecycle) {
+		super(map, collectionSupplier, lifecycle);
+		this.map = map;
+		this.collectionSupplier = collectionSupplier;
+	}
+
+	private SortedBackedMultiMap<Key, Value> view(NavigableMap<Key, Collection<Value>> range) {
+		Lifecycle lifecycle = getLifecycle();
+		return new SortedBackedMultiMap<>(range, collectionSupplier,
+				lifecycle.isMaterializingOnRemoval() ? Lifecycle.LAZY : lifecycle);
+	}
+
+	@Override
+	public Comparator<? super Key> comparator() {
+		return map.comparator();
+	}
+
+	@Override
+	public Key firstKey() {
+		return map.firstKey();
+	}
+
+	@Override
+	public Key lastKey() {
+		return map.lastKey();
+	}
+
+	@Override
+	public Key lowerKey(Key key) {
+		return map.lowerKey(key);
+	}
+
+	@Override
+	public Key floorKey(Key key) {
+		return map.floorKey(key);
+	}
+
+	@Override
+	public Key ceilingKey(Key key) {
+		return map.ceilingKey(key);
+	}
+
+	@Override
+	public Key higherKey(Key key) {
+		return map.higherKey(key);
+	}
+
+	@Override
+	public NavigableSet<Key> navigableKeySet() {
+		return map.navigableKeySet();
+	}
+
+	@Override
+	public SortedBackedMultiMap<Key, Value> descendingMap() {
+		return view(map.descendingMap());
+	}
+
+	@Override
+	public SortedBackedMultiMap<Key, Value> subMap(Key fromKey, boolean fromInclusive, Key toKey,
+			boolean toInclusive) {
+		return view(map.subMap(fromKey, fromInclusive, toKey, toInclusive));
+	}
+
+	@Override
+	public SortedBackedMultiMap<Key, Value> headMap(Key toKey, boolean inclusive) {
+		return view(map.headMap(toKey, inclusive));
+	}
+
+	@Override
+	public SortedBackedMultiMap<Key, Value> tailMap(Key fromKey, boolean inclusive) {
+		return view(map.tailMap(fromKey, inclusive));
+	}
+
+	@Override
+	public SortedBackedMultiMap<Key, Value> subMap(Key fromKey, Key toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	/**
+	 * @return the {@link NavigableMap} backed by this
+	 *         {@link SortedBackedMultiMap}
+	 */
+	@Override
+	public NavigableMap<Key, Collection<Value>> toMap() {
+		return map;
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link SortedBackedMultiMap} ordering its keys by their
+	 *         natural ordering and keeping the duplicated values of a key
+	 */
+	public static <Key, Value> SortedBackedMultiMap<Key, Value> onLists() {
+		return new SortedBackedMultiMap<>(new TreeMap<>(), () -> new LinkedList<>());
+	}
+
+	/**
+	 * 
+	 * @return an empty {@link SortedBackedMultiMap} ordering its keys by their
+	 *         natural ordering and ignoring the duplicated values of a key
+	 */
+	public static <Key, Value> SortedBackedMultiMap<Key, Value> onSets() {
+		return new SortedBackedMultiMap<>(new TreeMap<>(), () -> new HashSet<>());
+	}
+
+	public static <Key, Value> SortedBackedMultiMap<Key, Value> onLists(Comparator<? super Key> comparator) {
+		return new SortedBackedMultiMap<>(new TreeMap<>(comparator), () -> new LinkedList<>());
+	}
+
+	public static <Key, Value> SortedBackedMultiMap<Key, Value> onSets(Comparator<? super Key> comparator) {
+		return new SortedBackedMultiMap<>(new TreeMap<>(comparator), () -> new HashSet<>());
+	}
+}
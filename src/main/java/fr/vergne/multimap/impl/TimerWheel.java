@@ -0,0 +1,208 @@
+package fr.vergne.multimap.impl;
+
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A {@link TimerWheel} schedules {@link Timer}s in a hierarchical timing
+ * wheel: each level is an array of 64 buckets, each bucket of a level
+ * covering 64 times the duration of a bucket of the previous level. A
+ * {@link Timer} is stored in the lowest level able to reach its deadline, and
+ * goes down the levels as time advances, until it expires. Thus, scheduling
+ * and cancelling a {@link Timer} cost a constant time, and advancing the time
+ * costs a time proportional to the number of {@link Timer}s which expire or
+ * go down.
+ * </p>
+ * <p>
+ * The time is provided in nanoseconds, and a {@link Timer} never expires
+ * before its deadline. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <T>
+ */
+class TimerWheel<T extends TimerWheel.Timer> {
+
+	private static final int LEVELS = 6;
+	private static final int BUCKET_BITS = 6;
+	private static final int BUCKETS = 1 << BUCKET_BITS;
+	private static final int MASK = BUCKETS - 1;
+
+	/**
+	 * A {@link Timer} is an element scheduled in a {@link TimerWheel}.
+	 */
+	static class Timer {
+		long deadline;
+		Timer previous;
+		Timer next;
+
+		/**
+		 * 
+		 * @return the time, in nanoseconds, at which this {@link Timer} expires
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * 
+		 * @return <code>true</code> if this {@link Timer} is scheduled in a
+		 *         {@link TimerWheel}, <code>false</code> otherwise
+		 */
+		public boolean isScheduled() {
+			return next != null;
+		}
+	}
+
+	private final int resolutionShift;
+	private final Timer[][] wheel = new Timer[LEVELS][BUCKETS];
+	private long now;
+
+	/**
+	 * 
+	 * @param resolutionShift
+	 *            the duration of a bucket of the lowest level is 2 to the
+	 *            power of this value, in nanoseconds
+	 * @param now
+	 *            the current time
+	 */
+	public TimerWheel(int resolutionShift, long now) {
+		this.resolutionShift = resolutionShift;
+		this.now = now;
+		for (Timer[] level : wheel) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				Timer sentinel = new Timer();
+				sentinel.previous = sentinel;
+				sentinel.next = sentinel;
+				level[bucket] = sentinel;
+			}
+		}
+	}
+
+	private int shift(int level) {
+		return resolutionShift + BUCKET_BITS * level;
+	}
+
+	/**
+	 * Schedule a {@link Timer}, which must not be already scheduled.
+	 * 
+	 * @param timer
+	 *            the {@link Timer} to schedule
+	 * @param deadline
+	 *            the time at which it expires
+	 */
+	public void schedule(T timer, long deadline) {
+		timer.deadline = deadline;
+		insert(timer);
+	}
+
+	private void insert(Timer timer) {
+		long delay = timer.deadline - now;
+		int level = 0;
+		while (level < LEVELS - 1 && delay >>> shift(level + 1) != 0) {
+			level++;
+		}
+		Timer sentinel = wheel[level][(int) (timer.deadline >> shift(level)) & MASK];
+		timer.previous = sentinel.previous;
+		timer.next = sentinel;
+		sentinel.previous.next = timer;
+		sentinel.previous = timer;
+	}
+
+	/**
+	 * Remove a {@link Timer} from this {@link TimerWheel}. Nothing happens if
+	 * it is not scheduled.
+	 * 
+	 * @param timer
+	 *            the {@link Timer} to remove
+	 */
+	public void cancel(T timer) {
+		if (timer.isScheduled()) {
+			timer.previous.next = timer.next;
+			timer.next.previous = timer.previous;
+			timer.previous = null;
+			timer.next = null;
+		} else {
+			// nothing to remove
+		}
+	}
+
+	/**
+	 * Advance the time and expire the {@link Timer}s which reached their
+	 * deadline. Going back in time has no effect.
+	 * 
+	 * @param time
+	 *            the new current time
+	 * @param expiration
+	 *            the action to execute on each expired {@link Timer}, which is
+	 *            not scheduled anymore
+	 */
+	public void advance(long time, Consumer<? super T> expiration) {
+		if (time - now < 0) {
+			return;
+		} else {
+			long previous = now;
+			now = time;
+			for (int level = 0; level < LEVELS; level++) {
+				long previousTicks = previous >> shift(level);
+				long currentTicks = time >> shift(level);
+				if (level > 0 && previousTicks == currentTicks) {
+					// the upper levels did not change either
+					break;
+				} else {
+					// the current bucket of the lowest level is checked each
+					// time, since it may contain timers not yet expired
+					long buckets = Math.min(currentTicks - previousTicks + 1, BUCKETS);
+					for (long tick = previousTicks; tick < previousTicks + buckets; tick++) {
+						expire(wheel[level][(int) tick & MASK], expiration);
+					}
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void expire(Timer sentinel, Consumer<? super T> expiration) {
+		if (sentinel.next == sentinel) {
+			return;
+		} else {
+			// detach the bucket, so the timers rescheduled in it are not
+			// processed again
+			Timer timer = sentinel.next;
+			sentinel.previous.next = null;
+			sentinel.previous = sentinel;
+			sentinel.next = sentinel;
+			while (timer != null) {
+				Timer next = timer.next;
+				if (timer.deadline - now <= 0) {
+					timer.previous = null;
+					timer.next = null;
+					expiration.accept((T) timer);
+				} else {
+					insert(timer);
+				}
+				timer = next;
+			}
+		}
+	}
+
+	/**
+	 * Remove all the {@link Timer}s, without expiring them.
+	 */
+	public void clear() {
+		for (Timer[] level : wheel) {
+			for (Timer sentinel : level) {
+				Timer timer = sentinel.next;
+				while (timer != sentinel) {
+					Timer next = timer.next;
+					timer.previous = null;
+					timer.next = null;
+					timer = next;
+				}
+				sentinel.previous = sentinel;
+				sentinel.next = sentinel;
+			}
+		}
+	}
+}
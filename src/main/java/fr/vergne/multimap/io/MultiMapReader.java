@@ -0,0 +1,222 @@
+package fr.vergne.multimap.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link MultiMapReader} reads from a {@link ReadableByteChannel} the keys
+ * and values written by a {@link MultiMapWriter}, using the same
+ * {@link Serializer}s. The bytes go through a single {@link ByteBuffer},
+ * refilled from the channel when an instance is not fully available, so the
+ * content can be loaded progressively, one key with {@link #readNext()} or
+ * one couple with {@link #forEachCouple(BiConsumer)}, without materializing the
+ * whole {@link MultiMap}.
+ * </p>
+ * <p>
+ * {@link #close()} closes the channel. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class MultiMapReader<Key, Value> implements Closeable {
+
+	/**
+	 * The count of a header is not trusted to allocate the values, so a corrupt
+	 * one fails when reading them instead of exhausting the memory.
+	 */
+	private static final int MAX_INITIAL_CAPACITY = 1024;
+
+	private final ReadableByteChannel channel;
+	private final Serializer<Key> keySerializer;
+	private final Serializer<Value> valueSerializer;
+	private ByteBuffer buffer;
+	private boolean isStarted = false;
+	private boolean isFinished = false;
+
+	/**
+	 * 
+	 * @param channel
+	 *            the channel to read from
+	 * @param keySerializer
+	 *            the {@link Serializer} of the keys
+	 * @param valueSerializer
+	 *            the {@link Serializer} of the values
+	 * @param bufferSize
+	 *            the initial size of the {@link ByteBuffer}
+	 */
+	public MultiMapReader(ReadableByteChannel channel, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer, int bufferSize) {
+		if (bufferSize < VarInts.MAX_BYTES) {
+			throw new IllegalArgumentException("The buffer must contain at least " + VarInts.MAX_BYTES + " bytes: "
+					+ bufferSize);
+		} else {
+			this.channel = channel;
+			this.keySerializer = keySerializer;
+			this.valueSerializer = valueSerializer;
+			this.buffer = ByteBuffer.allocateDirect(bufferSize);
+			buffer.flip();
+		}
+	}
+
+	public MultiMapReader(ReadableByteChannel channel, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer) {
+		this(channel, keySerializer, valueSerializer, MultiMapWriter.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * 
+	 * @return the next key with its values, <code>null</code> if all of them
+	 *         have been read
+	 * @throws IOException
+	 *             if the channel cannot be read or its content is invalid
+	 */
+	public Entry<Key, List<Value>> readNext() throws IOException {
+		long count = readHeader();
+		if (count < 0) {
+			return null;
+		} else {
+			Key key = read(keySerializer);
+			List<Value> values = new ArrayList<>((int) Math.min(count, MAX_INITIAL_CAPACITY));
+			readValues(count, values::add);
+			return new AbstractMap.SimpleImmutableEntry<>(key, values);
+		}
+	}
+
+	/**
+	 * Read all the remaining couples, one at a time.
+	 * 
+	 * @param action
+	 *            the action to execute on each couple
+	 * @throws IOException
+	 *             if the channel cannot be read or its content is invalid
+	 */
+	public void forEachCouple(BiConsumer<? super Key, ? super Value> action) throws IOException {
+		long count;
+		while ((count = readHeader()) >= 0) {
+			Key key = read(keySerializer);
+			readValues(count, value -> action.accept(key, value));
+		}
+	}
+
+	/**
+	 * Read all the remaining keys and add them with their values to a
+	 * {@link MultiMap}.
+	 * 
+	 * @param map
+	 *            the {@link MultiMap} to fill
+	 * @throws IOException
+	 *             if the channel cannot be read or its content is invalid
+	 */
+	public void readAll(MultiMap<Key, Value> map) throws IOException {
+		Entry<Key, List<Value>> entry;
+		while ((entry = readNext()) != null) {
+			map.addAll(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of values of the next key, or -1 if there is none
+	 */
+	private long readHeader() throws IOException {
+		if (isFinished) {
+			return -1;
+		} else if (!isStarted) {
+			require(Integer.BYTES + 1);
+			int magic = buffer.getInt();
+			byte version = buffer.get();
+			if (magic != MultiMapWriter.MAGIC) {
+				throw new IOException("Not a MultiMap stream: " + Integer.toHexString(magic));
+			} else if (version != MultiMapWriter.VERSION) {
+				throw new IOException("Unsupported version: " + version);
+			} else {
+				isStarted = true;
+			}
+		} else {
+			// header already checked
+		}
+		long header = read(VarInts::readUnsigned);
+		if (header == 0) {
+			isFinished = true;
+			return -1;
+		} else {
+			return header - 1;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readValues(long count, Consumer<Value> consumer) throws IOException {
+		if (valueSerializer instanceof SequenceSerializer) {
+			((SequenceSerializer<Value>) valueSerializer).reset();
+		} else {
+			// values decoded independently
+		}
+		for (long i = 0; i < count; i++) {
+			consumer.accept(read(valueSerializer));
+		}
+	}
+
+	private interface Decoder<T> {
+		T read(ByteBuffer buffer);
+	}
+
+	private <T> T read(Serializer<T> serializer) throws IOException {
+		return read(serializer::read);
+	}
+
+	private <T> T read(Decoder<T> decoder) throws IOException {
+		while (true) {
+			int position = buffer.position();
+			try {
+				return decoder.read(buffer);
+			} catch (BufferUnderflowException cause) {
+				buffer.position(position);
+				fill();
+			}
+		}
+	}
+
+	private void require(int bytes) throws IOException {
+		while (buffer.remaining() < bytes) {
+			fill();
+		}
+	}
+
+	private void fill() throws IOException {
+		buffer.compact();
+		if (!buffer.hasRemaining()) {
+			buffer.flip();
+			buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2).put(buffer);
+		} else {
+			// there is room for more bytes
+		}
+		int read = channel.read(buffer);
+		buffer.flip();
+		if (read < 0) {
+			throw new EOFException("Truncated MultiMap stream");
+		} else {
+			// some bytes may have been read
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,189 @@
+package fr.vergne.multimap.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map.Entry;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link MultiMapWriter} writes the content of {@link MultiMap}s to a
+ * {@link WritableByteChannel} in a compact binary format, which can be read
+ * back with a {@link MultiMapReader}. The keys and values are encoded by
+ * {@link Serializer}s. If the {@link Serializer} of the values is a
+ * {@link SequenceSerializer}, it is reset at each key, so the values of a key
+ * can be encoded relatively to each other.
+ * </p>
+ * <p>
+ * The format starts with a magic number and a version. Then, each key is
+ * written with a header giving its number of values, followed by the key and
+ * its values. The end is marked by a header of 0. The couples go through a
+ * single fixed-size {@link ByteBuffer}, flushed to the channel when full, so
+ * the {@link MultiMap} can be written progressively, with
+ * {@link #write(Object, Collection)}, without copying it. The
+ * {@link ByteBuffer} only grows if a single key or value does not fit in it.
+ * </p>
+ * <p>
+ * The end marker is written by {@link #close()}, which also closes the
+ * channel. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <Key>
+ * @param <Value>
+ */
+public class MultiMapWriter<Key, Value> implements Closeable {
+
+	static final int MAGIC = 0x4D4D4150;
+	static final byte VERSION = 1;
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final Serializer<Key> keySerializer;
+	private final Serializer<Value> valueSerializer;
+	private ByteBuffer buffer;
+	private boolean isClosed = false;
+
+	/**
+	 * 
+	 * @param channel
+	 *            the channel to write to
+	 * @param keySerializer
+	 *            the {@link Serializer} of the keys
+	 * @param valueSerializer
+	 *            the {@link Serializer} of the values
+	 * @param bufferSize
+	 *            the initial size of the {@link ByteBuffer}
+	 */
+	public MultiMapWriter(WritableByteChannel channel, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer, int bufferSize) {
+		if (bufferSize < VarInts.MAX_BYTES) {
+			throw new IllegalArgumentException("The buffer must contain at least " + VarInts.MAX_BYTES + " bytes: "
+					+ bufferSize);
+		} else {
+			this.channel = channel;
+			this.keySerializer = keySerializer;
+			this.valueSerializer = valueSerializer;
+			this.buffer = ByteBuffer.allocateDirect(bufferSize);
+			buffer.putInt(MAGIC);
+			buffer.put(VERSION);
+		}
+	}
+
+	public MultiMapWriter(WritableByteChannel channel, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer) {
+		this(channel, keySerializer, valueSerializer, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Write a key and its values.
+	 * 
+	 * @param key
+	 *            the key to write
+	 * @param values
+	 *            the values of the key
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	@SuppressWarnings("unchecked")
+	public void write(Key key, Collection<Value> values) throws IOException {
+		if (isClosed) {
+			throw new IOException("Writer closed");
+		} else {
+			writeHeader(values.size() + 1L);
+			write(keySerializer, key);
+			if (valueSerializer instanceof SequenceSerializer) {
+				((SequenceSerializer<Value>) valueSerializer).reset();
+			} else {
+				// values encoded independently
+			}
+			int count = 0;
+			for (Value value : values) {
+				write(valueSerializer, value);
+				count++;
+			}
+			if (count != values.size()) {
+				throw new IllegalStateException(
+						"The collection of " + key + " changed while being written: " + count + " values instead of "
+								+ values.size());
+			} else {
+				// header is consistent
+			}
+		}
+	}
+
+	/**
+	 * Write all the keys of a {@link MultiMap} and their values.
+	 * 
+	 * @param map
+	 *            the {@link MultiMap} to write
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void writeAll(MultiMap<Key, Value> map) throws IOException {
+		for (Entry<Key, Collection<Value>> entry : map.entrySet()) {
+			write(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void writeHeader(long header) throws IOException {
+		if (buffer.remaining() < VarInts.MAX_BYTES) {
+			flush();
+		} else {
+			// enough room for any header
+		}
+		VarInts.writeUnsigned(header, buffer);
+	}
+
+	private <T> void write(Serializer<T> serializer, T instance) throws IOException {
+		while (true) {
+			int position = buffer.position();
+			try {
+				serializer.write(instance, buffer);
+				return;
+			} catch (BufferOverflowException cause) {
+				buffer.position(position);
+				if (position == 0) {
+					buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+				} else {
+					flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the buffered bytes to the channel.
+	 * 
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Write the end marker, flush and close the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (isClosed) {
+			return;
+		} else {
+			writeHeader(0);
+			flush();
+			isClosed = true;
+			channel.close();
+		}
+	}
+}
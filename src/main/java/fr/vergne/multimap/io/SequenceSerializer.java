@@ -0,0 +1,88 @@
+package fr.vergne.multimap.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A {@link SequenceSerializer} is a {@link Serializer} which encodes each
+ * instance relatively to the previous one, for instance as the difference
+ * between them. It is efficient for sequences of close values, like sorted
+ * identifiers or timestamps. The same sequence of calls must be done when
+ * writing and when reading, {@link #reset()} included, to get the instances
+ * back.
+ * </p>
+ * <p>
+ * A {@link SequenceSerializer} updates its state only once an instance has
+ * been fully written or read, so a call which fails because of the size of the
+ * {@link ByteBuffer} can be retried.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <T>
+ */
+public interface SequenceSerializer<T> extends Serializer<T> {
+
+	/**
+	 * Forget the previous instance, so the next one is encoded on its own.
+	 */
+	public void reset();
+
+	/**
+	 * 
+	 * @return a {@link SequenceSerializer} which writes the difference with the
+	 *         previous {@link Integer} on 1 to 5 bytes
+	 */
+	public static SequenceSerializer<Integer> ofIntDeltas() {
+		return new SequenceSerializer<Integer>() {
+
+			private int previous = 0;
+
+			@Override
+			public void write(Integer value, ByteBuffer buffer) {
+				VarInts.writeSigned(value - previous, buffer);
+				previous = value;
+			}
+
+			@Override
+			public Integer read(ByteBuffer buffer) {
+				previous += (int) VarInts.readSigned(buffer);
+				return previous;
+			}
+
+			@Override
+			public void reset() {
+				previous = 0;
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return a {@link SequenceSerializer} which writes the difference with the
+	 *         previous {@link Long} on 1 to 10 bytes
+	 */
+	public static SequenceSerializer<Long> ofLongDeltas() {
+		return new SequenceSerializer<Long>() {
+
+			private long previous = 0;
+
+			@Override
+			public void write(Long value, ByteBuffer buffer) {
+				VarInts.writeSigned(value - previous, buffer);
+				previous = value;
+			}
+
+			@Override
+			public Long read(ByteBuffer buffer) {
+				previous += VarInts.readSigned(buffer);
+				return previous;
+			}
+
+			@Override
+			public void reset() {
+				previous = 0;
+			}
+		};
+	}
+}
@@ -0,0 +1,165 @@
+package fr.vergne.multimap.io;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * A {@link Serializer} translates instances of a given type to bytes and
+ * back. It writes to and reads from {@link ByteBuffer}s, so the same
+ * {@link Serializer} can be used on heap and off-heap memory.
+ * </p>
+ * <p>
+ * When the {@link ByteBuffer} provided to {@link #write(Object, ByteBuffer)}
+ * is too small, a {@link BufferOverflowException} is thrown and the caller is
+ * expected to retry with a bigger one. Similarly, when the {@link ByteBuffer}
+ * provided to {@link #read(ByteBuffer)} does not contain all the bytes of the
+ * instance, a {@link BufferUnderflowException} is thrown. The default
+ * behaviour of the {@link ByteBuffer} methods already satisfies these
+ * constraints.
+ * </p>
+ * <p>
+ * Some storages compare the serialized forms instead of the instances
+ * themselves. Thus, equal instances should always produce the same bytes.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ * @param <T>
+ */
+public interface Serializer<T> {
+
+	/**
+	 * 
+	 * @param value
+	 *            the instance to serialize
+	 * @param buffer
+	 *            the {@link ByteBuffer} to write to, starting at its position
+	 * @throws BufferOverflowException
+	 *             if the {@link ByteBuffer} is too small
+	 */
+	public void write(T value, ByteBuffer buffer) throws BufferOverflowException;
+
+	/**
+	 * 
+	 * @param buffer
+	 *            the {@link ByteBuffer} to read from, starting at its position
+	 * @return the deserialized instance
+	 * @throws BufferUnderflowException
+	 *             if the {@link ByteBuffer} does not contain enough bytes
+	 */
+	public T read(ByteBuffer buffer) throws BufferUnderflowException;
+
+	/**
+	 * 
+	 * @return a {@link Serializer} which uses 4 bytes per {@link Integer}
+	 */
+	public static Serializer<Integer> ofIntegers() {
+		return new Serializer<Integer>() {
+
+			@Override
+			public void write(Integer value, ByteBuffer buffer) {
+				buffer.putInt(value);
+			}
+
+			@Override
+			public Integer read(ByteBuffer buffer) {
+				return buffer.getInt();
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return a {@link Serializer} which uses 8 bytes per {@link Long}
+	 */
+	public static Serializer<Long> ofLongs() {
+		return new Serializer<Long>() {
+
+			@Override
+			public void write(Long value, ByteBuffer buffer) {
+				buffer.putLong(value);
+			}
+
+			@Override
+			public Long read(ByteBuffer buffer) {
+				return buffer.getLong();
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return a {@link Serializer} which writes the UTF-8 bytes of a
+	 *         {@link String} after their number
+	 */
+	public static Serializer<String> ofStrings() {
+		return new Serializer<String>() {
+
+			@Override
+			public void write(String value, ByteBuffer buffer) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				if (buffer.remaining() < Integer.BYTES + bytes.length) {
+					throw new BufferOverflowException();
+				} else {
+					buffer.putInt(bytes.length);
+					buffer.put(bytes);
+				}
+			}
+
+			@Override
+			public String read(ByteBuffer buffer) {
+				int length = buffer.getInt();
+				if (buffer.remaining() < length) {
+					throw new BufferUnderflowException();
+				} else {
+					byte[] bytes = new byte[length];
+					buffer.get(bytes);
+					return new String(bytes, StandardCharsets.UTF_8);
+				}
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return a {@link Serializer} which uses 1 to 5 bytes per
+	 *         {@link Integer}, the fewer for the values closest to 0
+	 */
+	public static Serializer<Integer> ofVarInts() {
+		return new Serializer<Integer>() {
+
+			@Override
+			public void write(Integer value, ByteBuffer buffer) {
+				VarInts.writeSigned(value, buffer);
+			}
+
+			@Override
+			public Integer read(ByteBuffer buffer) {
+				return (int) VarInts.readSigned(buffer);
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @return a {@link Serializer} which uses 1 to 10 bytes per {@link Long},
+	 *         the fewer for the values closest to 0
+	 */
+	public static Serializer<Long> ofVarLongs() {
+		return new Serializer<Long>() {
+
+			@Override
+			public void write(Long value, ByteBuffer buffer) {
+				VarInts.writeSigned(value, buffer);
+			}
+
+			@Override
+			public Long read(ByteBuffer buffer) {
+				return VarInts.readSigned(buffer);
+			}
+		};
+	}
+}
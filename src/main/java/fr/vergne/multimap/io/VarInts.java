@@ -0,0 +1,53 @@
+package fr.vergne.multimap.io;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length encoding of integers: 7 bits per byte, the highest bit
+ * telling whether another byte follows. Signed values are zigzag-encoded
+ * first, so small negative values remain short.
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+class VarInts {
+
+	public static final int MAX_BYTES = 10;
+
+	private VarInts() {
+		// static methods only
+	}
+
+	public static void writeUnsigned(long value, ByteBuffer buffer) throws BufferOverflowException {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	public static long readUnsigned(ByteBuffer buffer) throws BufferUnderflowException {
+		long value = 0;
+		for (int shift = 0; shift < 7 * MAX_BYTES; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			} else {
+				continue;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable-length integer");
+	}
+
+	public static void writeSigned(long value, ByteBuffer buffer) throws BufferOverflowException {
+		writeUnsigned((value << 1) ^ (value >> 63), buffer);
+	}
+
+	public static long readSigned(ByteBuffer buffer) throws BufferUnderflowException {
+		long value = readUnsigned(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
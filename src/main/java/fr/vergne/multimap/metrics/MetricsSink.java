@@ -0,0 +1,67 @@
+package fr.vergne.multimap.metrics;
+
+import fr.vergne.multimap.MultiMap;
+
+/**
+ * <p>
+ * A {@link MetricsSink} receives the measures made on a {@link MultiMap}, for
+ * instance by an {@link fr.vergne.multimap.impl.InstrumentedMultiMap}. It can
+ * aggregate them itself, like {@link StripedMetrics}, or forward them to an
+ * external monitoring system.
+ * </p>
+ * <p>
+ * The methods are called on the hot paths of the {@link MultiMap}, possibly
+ * from many threads at once, so they should be thread-safe and cheap.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public interface MetricsSink {
+
+	/**
+	 * The operations of a {@link MultiMap} which are measured.
+	 */
+	public static enum Operation {
+		ADD, ADD_ALL, REPLACE_ALL, GET_ALL, REMOVE_COUPLE, REMOVE_KEY, REMOVE_ALL, CLEAR, CONTAINS_KEY,
+		CONTAINS_COUPLE, CONTAINS_KEY_MAPPED_TO
+	}
+
+	/**
+	 * Record an execution of an operation.
+	 * 
+	 * @param operation
+	 *            the operation executed
+	 * @param isHit
+	 *            <code>true</code> if the operation has found what it was
+	 *            looking for or has modified the {@link MultiMap},
+	 *            <code>false</code> otherwise
+	 */
+	public void record(Operation operation, boolean isHit);
+
+	/**
+	 * Record the time spent in an operation. Only a sample of the executions
+	 * may be timed, so the number of latencies recorded can be lower than the
+	 * number of executions.
+	 * 
+	 * @param operation
+	 *            the operation executed
+	 * @param nanos
+	 *            the time spent, in nanoseconds
+	 */
+	public void recordLatency(Operation operation, long nanos);
+
+	/**
+	 * Record the creation of a {@link java.util.Collection} to store the values
+	 * of a key.
+	 */
+	public void recordContainerAllocation();
+
+	/**
+	 * Record the number of values of a key.
+	 * 
+	 * @param values
+	 *            the number of values mapped to the key
+	 */
+	public void recordCardinality(int values);
+}
@@ -0,0 +1,155 @@
+package fr.vergne.multimap.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A {@link StripedMetrics} is a {@link MetricsSink} which aggregates the
+ * measures in memory. All the counters are {@link LongAdder}s, which spread
+ * the concurrent updates over several cells, so threads recording at the same
+ * time do not contend on a single variable.
+ * </p>
+ * <p>
+ * Latencies and cardinalities are aggregated in histograms of 64 buckets,
+ * where the bucket <i>b</i> counts the measures between
+ * 2<sup><i>b</i>-1</sup> (included) and 2<sup><i>b</i></sup> (excluded), the
+ * bucket 0 counting the measures equal to 0.
+ * </p>
+ * 
+ * @author Matthieu Vergne <vergne@fbk.eu>
+ * 
+ */
+public class StripedMetrics implements MetricsSink {
+
+	private static final int BUCKETS = 64;
+	private static final int OPERATIONS = Operation.values().length;
+
+	private final LongAdder[] hits = adders(OPERATIONS);
+	private final LongAdder[] misses = adders(OPERATIONS);
+	private final LongAdder[][] latencies = new LongAdder[OPERATIONS][];
+	private final LongAdder[] cardinalities = adders(BUCKETS);
+	private final LongAdder containerAllocations = new LongAdder();
+
+	public StripedMetrics() {
+		for (int operation = 0; operation < OPERATIONS; operation++) {
+			latencies[operation] = adders(BUCKETS);
+		}
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int index = 0; index < count; index++) {
+			adders[index] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static int bucketOf(long measure) {
+		return measure <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(measure));
+	}
+
+	private static long[] sum(LongAdder[] adders) {
+		long[] sums = new long[adders.length];
+		for (int index = 0; index < adders.length; index++) {
+			sums[index] = adders[index].sum();
+		}
+		return sums;
+	}
+
+	@Override
+	public void record(Operation operation, boolean isHit) {
+		(isHit ? hits : misses)[operation.ordinal()].increment();
+	}
+
+	@Override
+	public void recordLatency(Operation operation, long nanos) {
+		latencies[operation.ordinal()][bucketOf(nanos)].increment();
+	}
+
+	@Override
+	public void recordContainerAllocation() {
+		containerAllocations.increment();
+	}
+
+	@Override
+	public void recordCardinality(int values) {
+		cardinalities[bucketOf(values)].increment();
+	}
+
+	/**
+	 * 
+	 * @param operation
+	 *            the operation to check
+	 * @return the number of executions of the operation
+	 */
+	public long getCount(Operation operation) {
+		return getHits(operation) + getMisses(operation);
+	}
+
+	/**
+	 * 
+	 * @param operation
+	 *            the operation to check
+	 * @return the number of executions of the operation which found something
+	 *         or modified the {@link fr.vergne.multimap.MultiMap}
+	 */
+	public long getHits(Operation operation) {
+		return hits[operation.ordinal()].sum();
+	}
+
+	/**
+	 * 
+	 * @param operation
+	 *            the operation to check
+	 * @return the number of executions of the operation which found nothing
+	 *         and did not modify the {@link fr.vergne.multimap.MultiMap}
+	 */
+	public long getMisses(Operation operation) {
+		return misses[operation.ordinal()].sum();
+	}
+
+	/**
+	 * 
+	 * @param operation
+	 *            the operation to check
+	 * @return the histogram of the latencies, in nanoseconds, of the timed
+	 *         executions of the operation
+	 */
+	public long[] getLatencyHistogram(Operation operation) {
+		return sum(latencies[operation.ordinal()]);
+	}
+
+	/**
+	 * 
+	 * @return the histogram of the numbers of values per key
+	 */
+	public long[] getCardinalityHistogram() {
+		return sum(cardinalities);
+	}
+
+	/**
+	 * 
+	 * @return the number of {@link java.util.Collection}s created to store the
+	 *         values of a key
+	 */
+	public long getContainerAllocations() {
+		return containerAllocations.sum();
+	}
+
+	/**
+	 * Reset all the counters. Measures recorded concurrently may be lost.
+	 */
+	public void reset() {
+		for (int operation = 0; operation < OPERATIONS; operation++) {
+			hits[operation].reset();
+			misses[operation].reset();
+			for (LongAdder adder : latencies[operation]) {
+				adder.reset();
+			}
+		}
+		for (LongAdder adder : cardinalities) {
+			adder.reset();
+		}
+		containerAllocations.reset();
+	}
+}
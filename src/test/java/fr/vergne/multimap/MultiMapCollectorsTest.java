@@ -0,0 +1,77 @@
+package fr.vergne.multimap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.multimap.impl.BackedMultiMap;
+import fr.vergne.multimap.impl.ConcurrentMultiMap;
+
+@RunWith(JUnitPlatform.class)
+public class MultiMapCollectorsTest {
+
+	@Test
+	public void testSequentialCollectMapsAllElements() {
+		MultiMap<Integer, Integer> map = IntStream.range(0, 100).boxed()
+				.collect(MultiMapCollectors.toSetMultiMap(i -> i % 10, i -> i));
+
+		assertEquals(10, map.size());
+		for (int key = 0; key < 10; key++) {
+			Collection<Integer> expected = new HashSet<>();
+			for (int value = key; value < 100; value += 10) {
+				expected.add(value);
+			}
+			assertEquals(expected, map.getAll(key));
+		}
+	}
+
+	@Test
+	public void testParallelCollectKeepsEncounterOrder() {
+		MultiMap<Integer, Integer> map = IntStream.range(0, 100000).boxed().parallel()
+				.collect(MultiMapCollectors.toListMultiMap(i -> i % 7, i -> i));
+
+		assertEquals(7, map.size());
+		for (int key = 0; key < 7; key++) {
+			List<Integer> expected = new ArrayList<>();
+			for (int value = key; value < 100000; value += 7) {
+				expected.add(value);
+			}
+			assertEquals(expected, new ArrayList<>(map.getAll(key)));
+		}
+	}
+
+	@Test
+	public void testCollectUsesSupplier() {
+		ConcurrentMultiMap<String, Integer> map = IntStream.range(0, 1000).boxed().parallel()
+				.collect(MultiMapCollectors.toMultiMap(i -> "key " + (i % 3), i -> i, ConcurrentMultiMap::onSets));
+
+		assertEquals(3, map.size());
+		assertEquals(334, map.getAll("key 0").size());
+	}
+
+	@Test
+	public void testMergeAddsCouplesWithTargetSemantics() {
+		MultiMap<String, Integer> target = BackedMultiMap.onSets();
+		target.addAll("a", Arrays.asList(1, 2));
+		MultiMap<String, Integer> source = BackedMultiMap.onLists();
+		source.addAll("a", Arrays.asList(3));
+		source.addAll("b", Arrays.asList(1, 1, 2));
+
+		assertSame(target, MultiMapCollectors.merge(target, source));
+		assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), target.getAll("a"));
+		assertEquals(new HashSet<>(Arrays.asList(1, 2)), target.getAll("b"));
+
+		source.add("b", 9);
+		assertFalse(target.containsCouple("b", 9));
+		assertEquals(Arrays.asList(1, 1, 2, 9), source.getAll("b"));
+	}
+}
@@ -421,4 +421,59 @@ public interface MultiMapTest<Key, Value> {
 
 		assertFalse(map.containsKeyMappedTo(Arrays.asList(v1, v2, v3, v4)));
 	}
+
+	@Test
+	default void testApplyBatchIsEquivalentToSeparateOperations() {
+		HeterogeneousMap context = new HeterogeneousMap();
+		MultiMap<Key, Value> map = createMultiMap(context);
+
+		Key key1 = createValidKey(map, context);
+		Value v1 = createValidValue(map, key1, context);
+		Value v2 = createValidValue(map, key1, context);
+		Value v3 = createValidValue(map, key1, context);
+		Key key2 = createValidKey(map, context);
+		Value v4 = createValidValue(map, key2, context);
+		Batch<Key, Value> batch = new Batch<>();
+		batch.add(key1, v1).add(key1, v2).add(key2, v4).remove(key1, v1).add(key1, v3);
+		Batch.Result result = map.apply(batch);
+
+		// the operations are grouped by key, so key1 is not resolved again
+		assertEquals(2, result.getResolutions());
+		assertEquals(4, result.getAdded());
+		assertEquals(1, result.getRemoved());
+		assertFalse(map.containsCouple(key1, v1));
+		assertTrue(map.containsCouple(key1, v2));
+		assertTrue(map.containsCouple(key1, v3));
+		assertTrue(map.containsCouple(key2, v4));
+	}
+
+	@Test
+	default void testApplyBatchCountsSameChangesAsSeparateOperations() {
+		HeterogeneousMap context = new HeterogeneousMap();
+		MultiMap<Key, Value> batchMap = createMultiMap(context);
+		MultiMap<Key, Value> separateMap = createMultiMap(context);
+
+		Key key = createValidKey(batchMap, context);
+		Value v1 = createValidValue(batchMap, key, context);
+		Value v2 = createValidValue(batchMap, key, context);
+		Value v3 = createValidValue(batchMap, key, context);
+		Batch<Key, Value> batch = new Batch<>();
+		batch.add(key, v1).add(key, v2).add(key, v3).remove(key, v1).remove(key, v2).remove(key, v3).add(key, v2);
+		Batch.Result result = batchMap.apply(batch);
+
+		long added = 0;
+		long removed = 0;
+		added += separateMap.add(key, v1) ? 1 : 0;
+		added += separateMap.add(key, v2) ? 1 : 0;
+		added += separateMap.add(key, v3) ? 1 : 0;
+		removed += separateMap.remove(key, v1) ? 1 : 0;
+		removed += separateMap.remove(key, v2) ? 1 : 0;
+		removed += separateMap.remove(key, v3) ? 1 : 0;
+		added += separateMap.add(key, v2) ? 1 : 0;
+
+		assertEquals(added, result.getAdded());
+		assertEquals(removed, result.getRemoved());
+		assertEquals(separateMap.containsKey(key), batchMap.containsKey(key));
+		assertEquals(separateMap.containsCouple(key, v2), batchMap.containsCouple(key, v2));
+	}
 }
@@ -0,0 +1,202 @@
+package fr.vergne.multimap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.impl.BackedMultiMap;
+
+@RunWith(JUnitPlatform.class)
+public class MultiMapViewsTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return MultiMapViews.filterKeys(BackedMultiMap.onSets(), key -> key.startsWith("key"));
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testTransformedValuesReflectBackingMap() {
+		MultiMap<String, Integer> map = BackedMultiMap.onLists();
+		MultiMap<String, String> view = MultiMapViews.transformValues(map, value -> "v" + value);
+		assertTrue(view.isEmpty());
+
+		map.addAll("a", Arrays.asList(1, 2, 1));
+		map.add("b", 3);
+
+		assertEquals(2, view.size());
+		assertEquals(Arrays.asList("v1", "v2", "v1"), new ArrayList<>(view.getAll("a")));
+		assertTrue(view.containsCouple("b", "v3"));
+		assertTrue(view.containsKeyMappedTo(Arrays.asList("v1", "v2", "v1")));
+		assertFalse(view.containsKeyMappedTo(Arrays.asList("v1", "v1", "v2")));
+		assertNull(view.getAll("c"));
+
+		assertTrue(view.remove("a", "v1"));
+		assertEquals(Arrays.asList(2, 1), new ArrayList<>(map.getAll("a")));
+		assertFalse(view.remove("a", "v3"));
+	}
+
+	@Test
+	public void testTransformedValuesRejectAdditions() {
+		MultiMap<String, String> view = MultiMapViews.transformValues(BackedMultiMap.<String, Integer> onSets(),
+				value -> "v" + value);
+		try {
+			view.add("a", "v1");
+			fail("No exception thrown");
+		} catch (UnsupportedOperationException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testTransformedValuesAreComputedOnAccessUnlessMemoized() {
+		MultiMap<String, Integer> map = BackedMultiMap.onSets();
+		map.addAll("a", Arrays.asList(1, 2, 3));
+		AtomicInteger calls = new AtomicInteger();
+
+		MultiMap<String, Integer> lazy = MultiMapViews.transformValues(map, value -> {
+			calls.incrementAndGet();
+			return value * 10;
+		});
+		assertEquals(0, calls.get());
+		assertEquals(new HashSet<>(Arrays.asList(10, 20, 30)), new HashSet<>(lazy.getAll("a")));
+		assertEquals(new HashSet<>(Arrays.asList(10, 20, 30)), new HashSet<>(lazy.getAll("a")));
+		assertEquals(6, calls.get());
+
+		calls.set(0);
+		MultiMap<String, Integer> memoized = MultiMapViews.transformValues(map, value -> {
+			calls.incrementAndGet();
+			return value * 10;
+		}, true);
+		assertEquals(new HashSet<>(Arrays.asList(10, 20, 30)), new HashSet<>(memoized.getAll("a")));
+		assertEquals(new HashSet<>(Arrays.asList(10, 20, 30)), new HashSet<>(memoized.getAll("a")));
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void testFilteredKeysReflectBackingMap() {
+		MultiMap<String, Integer> map = BackedMultiMap.onSets();
+		MultiMap<String, Integer> view = MultiMapViews.filterKeys(map, key -> key.startsWith("a"));
+		map.add("a1", 1);
+		map.add("b1", 2);
+		map.add("a2", 3);
+
+		assertEquals(2, view.size());
+		assertEquals(new HashSet<>(Arrays.asList("a1", "a2")), new HashSet<>(view.keySet()));
+		assertNull(view.getAll("b1"));
+		assertFalse(view.containsCouple("b1", 2));
+
+		view.clear();
+		assertEquals(1, map.size());
+		assertTrue(map.containsCouple("b1", 2));
+	}
+
+	@Test
+	public void testFilteredKeysRejectOtherKeys() {
+		MultiMap<String, Integer> view = MultiMapViews.filterKeys(BackedMultiMap.onSets(), key -> key.startsWith("a"));
+		try {
+			view.add("b", 1);
+			fail("No exception thrown");
+		} catch (IllegalArgumentException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testFilteredKeysRejectOtherKeysWithoutValues() {
+		MultiMap<String, Integer> map = BackedMultiMap.onSets();
+		MultiMap<String, Integer> view = MultiMapViews.filterKeys(map, key -> key.startsWith("a"));
+		try {
+			view.addAll("b", Collections.emptyList());
+			fail("No exception thrown");
+		} catch (IllegalArgumentException cause) {
+			// OK
+		}
+		try {
+			view.replaceAll("b", Collections.emptyList());
+			fail("No exception thrown");
+		} catch (IllegalArgumentException cause) {
+			// OK
+		}
+		assertFalse(map.containsKey("b"));
+	}
+
+	@Test
+	public void testFilteredValuesHideKeysWithoutAcceptedValue() {
+		MultiMap<String, Integer> map = BackedMultiMap.onSets();
+		MultiMap<String, Integer> view = MultiMapViews.filterValues(map, value -> value % 2 == 0);
+		map.addAll("a", Arrays.asList(1, 2, 3, 4));
+		map.addAll("b", Arrays.asList(1, 3));
+
+		assertEquals(1, view.size());
+		assertEquals(new HashSet<>(Arrays.asList(2, 4)), new HashSet<>(view.getAll("a")));
+		assertEquals(2, view.getAll("a").size());
+		assertFalse(view.containsKey("b"));
+		assertTrue(view.containsKeyMappedTo(Arrays.asList(4, 2)));
+
+		assertEquals(new HashSet<>(Arrays.asList(2, 4)), new HashSet<>(view.remove("a")));
+		assertEquals(new HashSet<>(Arrays.asList(1, 3)), map.getAll("a"));
+		assertTrue(view.isEmpty());
+
+		map.add("b", 6);
+		assertEquals(1, view.size());
+	}
+
+	@Test
+	public void testFilteredEntriesApplyOnCouples() {
+		MultiMap<String, Integer> map = BackedMultiMap.onLists();
+		MultiMap<String, Integer> view = MultiMapViews.filterEntries(map, (key, value) -> key.length() == value);
+		map.addAll("a", Arrays.asList(1, 2));
+		map.addAll("bb", Arrays.asList(1, 2, 2));
+
+		int couples = 0;
+		for (Iterator<?> iterator = view.iterator(); iterator.hasNext(); iterator.next()) {
+			couples++;
+		}
+		assertEquals(3, couples);
+		assertFalse(view.remove("a", 2));
+		assertTrue(map.containsCouple("a", 2));
+		assertTrue(view.removeAll("bb", Arrays.asList(2)));
+		assertEquals(Arrays.asList(1), new ArrayList<>(map.getAll("bb")));
+
+		try {
+			view.add("a", 3);
+			fail("No exception thrown");
+		} catch (IllegalArgumentException cause) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.BidirectionalMultiMap;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class BackedBidirectionalMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return BackedBidirectionalMultiMap.onSets();
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testKeysForReflectsAdditionsAndRemovals() {
+		BidirectionalMultiMap<String, Integer> map = BackedBidirectionalMultiMap.onSets();
+
+		map.add("a", 1);
+		map.add("b", 1);
+		map.add("b", 2);
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(map.keysFor(1)));
+		assertEquals(Collections.singleton("b"), new HashSet<>(map.keysFor(2)));
+		assertTrue(map.keysFor(3).isEmpty());
+
+		map.remove("a", 1);
+		assertEquals(Collections.singleton("b"), new HashSet<>(map.keysFor(1)));
+
+		map.remove("b");
+		assertTrue(map.keysFor(1).isEmpty());
+		assertTrue(map.keysFor(2).isEmpty());
+		assertTrue(map.inverse().isEmpty());
+	}
+
+	@Test
+	public void testReplaceAllUpdatesReverseIndex() {
+		BidirectionalMultiMap<String, Integer> map = BackedBidirectionalMultiMap.onSets();
+
+		map.addAll("a", Arrays.asList(1, 2));
+		map.replaceAll("a", Arrays.asList(2, 3));
+		assertTrue(map.keysFor(1).isEmpty());
+		assertEquals(Collections.singleton("a"), new HashSet<>(map.keysFor(2)));
+		assertEquals(Collections.singleton("a"), new HashSet<>(map.keysFor(3)));
+	}
+
+	@Test
+	public void testRemoveValueEverywhereKeepsKeys() {
+		BidirectionalMultiMap<String, Integer> map = BackedBidirectionalMultiMap.onLists();
+
+		map.add("a", 1);
+		map.add("a", 1);
+		map.add("a", 2);
+		map.add("b", 1);
+		assertTrue(map.removeValueEverywhere(1));
+		assertFalse(map.removeValueEverywhere(1));
+		assertEquals(Arrays.asList(2), new LinkedList<>(map.getAll("a")));
+		assertTrue(map.getAll("b").isEmpty());
+		assertTrue(map.containsKey("b"));
+		assertFalse(map.inverse().containsKey(1));
+	}
+
+	@Test
+	public void testInverseSharesCouples() {
+		BidirectionalMultiMap<String, Integer> map = BackedBidirectionalMultiMap.onSets();
+		BidirectionalMultiMap<Integer, String> inverse = map.inverse();
+
+		map.add("a", 1);
+		inverse.add(2, "a");
+		assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(map.getAll("a")));
+		assertTrue(inverse.containsCouple(1, "a"));
+		assertSame(map, inverse.inverse());
+
+		inverse.remove(1, "a");
+		assertFalse(map.containsCouple("a", 1));
+		inverse.remove(2);
+		assertFalse(map.containsKey("a"));
+	}
+
+	@Test
+	public void testViewsUpdateReverseIndex() {
+		BidirectionalMultiMap<String, Integer> map = BackedBidirectionalMultiMap.onSets();
+
+		map.getAll(map.add("a", 1) ? "a" : null).add(2);
+		assertEquals(Collections.singleton("a"), new HashSet<>(map.keysFor(2)));
+
+		Iterator<Integer> values = map.getAll("a").iterator();
+		values.next();
+		values.remove();
+		assertEquals(1, map.inverse().size());
+
+		Iterator<Entry<String, Integer>> couples = map.iterator();
+		couples.next();
+		couples.remove();
+		assertTrue(map.inverse().isEmpty());
+
+		map.add("b", 3);
+		map.keySet().remove("b");
+		assertTrue(map.keysFor(3).isEmpty());
+	}
+}
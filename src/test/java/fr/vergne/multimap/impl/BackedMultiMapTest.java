@@ -6,8 +6,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.function.Supplier;
 
 import org.junit.jupiter.api.Test;
@@ -16,6 +19,7 @@ import org.junit.runner.RunWith;
 
 import fr.vergne.heterogeneousmap.HeterogeneousMap;
 import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.Batch;
 import fr.vergne.multimap.MultiMap;
 import fr.vergne.multimap.MultiMapTest;
 
@@ -71,6 +75,137 @@ public class BackedMultiMapTest implements MultiMapTest<String, Integer> {
 		assertTrue(new LinkedList<>(map.getAll("key")).equals(Arrays.asList(0, 1, 2, 1)));
 	}
 
+	@Test
+	public void testEagerLifecycleCreatesContainerOnRemoval() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onSets();
+		assertSame(BackedMultiMap.Lifecycle.EAGER, map.getLifecycle());
+
+		assertFalse(map.remove("key", 0));
+		assertTrue(map.containsKey("key"));
+		assertTrue(map.getAll("key").isEmpty());
+	}
+
+	@Test
+	public void testLazyLifecycleDoesNotCreateContainerOnRemoval() {
+		BackedMultiMap<String, Integer> map = new BackedMultiMap<>(new HashMap<>(), () -> new HashSet<>(),
+				BackedMultiMap.Lifecycle.LAZY);
+
+		assertFalse(map.remove("key", 0));
+		assertFalse(map.removeAll("key", Arrays.asList(0, 1)));
+		assertFalse(map.containsKey("key"));
+
+		map.add("key", 0);
+		map.remove("key", 0);
+		assertTrue(map.containsKey("key"));
+		assertTrue(map.getAll("key").isEmpty());
+	}
+
+	@Test
+	public void testPruningLifecycleRemovesKeysWithoutValue() {
+		BackedMultiMap<String, Integer> map = new BackedMultiMap<>(new HashMap<>(), () -> new HashSet<>(),
+				BackedMultiMap.Lifecycle.PRUNING);
+		map.addAll("a", Arrays.asList(0, 1));
+		map.addAll("b", Arrays.asList(0, 1));
+		map.addAll("c", Arrays.asList(0, 1));
+		map.addAll("d", Arrays.asList(0, 1));
+
+		assertFalse(map.remove("x", 0));
+		assertFalse(map.containsKey("x"));
+
+		map.remove("a", 0);
+		assertTrue(map.containsKey("a"));
+		map.remove("a", 1);
+		assertFalse(map.containsKey("a"));
+
+		map.removeAll("b", Arrays.asList(0, 1));
+		assertFalse(map.containsKey("b"));
+
+		map.replaceAll("c", Arrays.asList());
+		assertFalse(map.containsKey("c"));
+
+		new Batch<String, Integer>().remove("d", 0).remove("d", 1).remove("y", 0).applyTo(map);
+		assertFalse(map.containsKey("d"));
+		assertFalse(map.containsKey("y"));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testPruningLifecycleRemovesKeysWithoutValueThroughIterator() {
+		BackedMultiMap<String, Integer> map = new BackedMultiMap<>(new HashMap<>(), () -> new LinkedList<>(),
+				BackedMultiMap.Lifecycle.PRUNING);
+		map.add("a", 0);
+		map.add("b", 1);
+		map.add("c", 2);
+
+		Iterator<Entry<String, Integer>> iterator = map.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getKey().equals("b")) {
+				iterator.remove();
+			} else {
+				continue;
+			}
+		}
+
+		assertEquals(new HashSet<>(Arrays.asList("a", "c")), map.keySet());
+	}
+
+	@Test
+	public void testPruningLifecycleRecyclesContainers() {
+		BackedMultiMap<String, Integer> map = new BackedMultiMap<>(new HashMap<>(), () -> new HashSet<>(),
+				BackedMultiMap.Lifecycle.pruning(1));
+		map.add("a", 0);
+		map.add("b", 0);
+		Collection<Integer> containerA = map.getAll("a");
+		Collection<Integer> containerB = map.getAll("b");
+		map.remove("a", 0);
+		map.remove("b", 0);
+
+		map.add("c", 1);
+		map.add("d", 1);
+		assertSame(containerA, map.getAll("c"));
+		assertNotSame(containerB, map.getAll("d"));
+		assertEquals(new HashSet<>(Arrays.asList(1)), map.getAll("c"));
+	}
+
+	@Test
+	public void testPruningLifecycleRejectsNegativePoolCapacity() {
+		try {
+			BackedMultiMap.Lifecycle.pruning(-1);
+			fail("No exception thrown");
+		} catch (IllegalArgumentException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testApplyBatchGroupsInterleavedKeys() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onLists();
+
+		Batch.Result result = new Batch<String, Integer>().add("a", 1).add("b", 2).remove("a", 1).add("a", 3)
+				.add("b", 4).add("a", 1).applyTo(map);
+
+		assertEquals(Arrays.asList(3, 1), new LinkedList<>(map.getAll("a")));
+		assertEquals(Arrays.asList(2, 4), new LinkedList<>(map.getAll("b")));
+		assertEquals(2, result.getResolutions());
+		assertEquals(5, result.getAdded());
+		assertEquals(1, result.getRemoved());
+	}
+
+	@Test
+	public void testApplyBatchPreservesOrderOfOperationsOnLists() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onLists();
+		map.add("key", 0);
+
+		Batch.Result result = new Batch<String, Integer>().add("key", 1).add("key", 0).remove("key", 0)
+				.addAll("key", Arrays.asList(2, 1)).remove("key", 3).add("other", 4).applyTo(map);
+
+		assertEquals(Arrays.asList(1, 0, 2, 1), new LinkedList<>(map.getAll("key")));
+		assertEquals(Arrays.asList(4), new LinkedList<>(map.getAll("other")));
+		assertEquals(2, result.getResolutions());
+		assertEquals(5, result.getAdded());
+		assertEquals(1, result.getRemoved());
+	}
+
 	@Test
 	public void testSetBasedBackedMapDoesNotMaintainDuplicates() {
 		BackedMultiMap<String, Integer> map = BackedMultiMap.onSets();
@@ -81,4 +216,131 @@ public class BackedMultiMapTest implements MultiMapTest<String, Integer> {
 		map.add("key", 1);
 		assertTrue(new LinkedList<>(map.getAll("key")).equals(Arrays.asList(0, 1, 2)));
 	}
+
+	@Test
+	public void testCompactListBasedBackedMapMaintainsDuplicates() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onCompactLists();
+
+		map.add("key", 0);
+		map.add("key", 1);
+		map.add("key", 2);
+		map.add("key", 1);
+		assertTrue(new LinkedList<>(map.getAll("key")).equals(Arrays.asList(0, 1, 2, 1)));
+	}
+
+	@Test
+	public void testCompactSetBasedBackedMapDoesNotMaintainDuplicates() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onCompactSets(2);
+
+		map.add("key", 0);
+		map.add("key", 1);
+		map.add("key", 2);
+		map.add("key", 1);
+		assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), map.getAll("key"));
+	}
+
+	@Test
+	public void testCompactBackedMapsAreEquivalentToRegularOnes() {
+		BackedMultiMap<String, Integer> compactSets = BackedMultiMap.onCompactSets();
+		compactSets.addAll("key", Arrays.asList(2, 1, 2, 0));
+		assertTrue(compactSets.containsKeyMappedTo(new HashSet<>(Arrays.asList(0, 1, 2))));
+		assertTrue(compactSets.containsKeyMappedTo(Arrays.asList(0, 0, 1, 2)));
+
+		BackedMultiMap<String, Integer> compactLists = BackedMultiMap.onCompactLists();
+		compactLists.addAll("key", Arrays.asList(2, 1, 2, 0));
+		assertTrue(compactLists.containsKeyMappedTo(new LinkedList<>(Arrays.asList(2, 1, 2, 0))));
+		assertFalse(compactLists.containsKeyMappedTo(Arrays.asList(0, 1, 2)));
+	}
+
+	@Test
+	public void testForEachCoupleBrowsesAllCouples() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onLists();
+		map.addAll("a", Arrays.asList(1, 2, 1));
+		map.addAll("b", Arrays.asList(3));
+		map.addAll("c", Arrays.asList());
+
+		Collection<String> couples = new HashSet<>();
+		int[] count = { 0 };
+		map.forEachCouple((key, value) -> {
+			couples.add(key + "=" + value);
+			count[0]++;
+		});
+		assertEquals(new HashSet<>(Arrays.asList("a=1", "a=2", "b=3")), couples);
+		assertEquals(4, count[0]);
+	}
+
+	@Test
+	public void testForEachAcceptsListAddReference() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onLists();
+		map.addAll("a", Arrays.asList(1, 2));
+
+		// List.add also has an arity 2, which must not make the call ambiguous
+		List<Entry<String, Integer>> couples = new LinkedList<>();
+		map.forEach(couples::add);
+		assertEquals(2, couples.size());
+	}
+
+	@Test
+	public void testForEachValueBrowsesValuesOfKey() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onLists();
+		map.addAll("a", Arrays.asList(1, 2, 1));
+
+		Collection<Integer> values = new LinkedList<>();
+		map.forEachValue("a", values::add);
+		map.forEachValue("unknown", values::add);
+		assertEquals(Arrays.asList(1, 2, 1), values);
+	}
+
+	@Test
+	public void testForEachKeyCollectionBrowsesContainers() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onSets();
+		map.addAll("a", Arrays.asList(1, 2));
+		map.addAll("b", Arrays.asList());
+
+		Map<String, Collection<Integer>> browsed = new HashMap<>();
+		map.forEachKeyCollection(browsed::put);
+		assertEquals(map.toMap(), browsed);
+		assertSame(map.getAll("a"), browsed.get("a"));
+	}
+
+	@Test
+	public void testOnBitmapsStoresValuesInRoaringIntSets() {
+		BackedMultiMap<String, Integer> map = BackedMultiMap.onBitmaps();
+		map.addAll("a", Arrays.asList(3, -1, 3, 100000));
+		map.add("b", 5);
+
+		assertTrue(map.getAll("a") instanceof RoaringIntSet);
+		assertEquals(Arrays.asList(-1, 3, 100000), new LinkedList<>(map.getAll("a")));
+		assertTrue(map.containsCouple("a", 100000));
+		assertFalse(map.containsCouple("b", 100000));
+		assertTrue(map.containsKeyMappedTo(new HashSet<>(Arrays.asList(5))));
+
+		assertTrue(map.remove("a", 3));
+		assertFalse(map.remove("a", 3));
+		assertEquals(2, map.getAll("a").size());
+	}
+
+	@Test
+	public void testIteratorRemovesReturnedValue() {
+		BackedMultiMap<String, Integer> sets = BackedMultiMap.onSets();
+		sets.addAll("a", Arrays.asList(1, 2, 3, 4));
+		Iterator<Entry<String, Integer>> setIterator = sets.iterator();
+		while (setIterator.hasNext()) {
+			if (setIterator.next().getValue() % 2 == 0) {
+				setIterator.remove();
+			} else {
+				continue;
+			}
+		}
+		assertEquals(new HashSet<>(Arrays.asList(1, 3)), sets.getAll("a"));
+
+		BackedMultiMap<String, Integer> lists = BackedMultiMap.onLists();
+		lists.addAll("a", Arrays.asList(1, 2, 1, 3));
+		Iterator<Entry<String, Integer>> listIterator = lists.iterator();
+		listIterator.next();
+		listIterator.next();
+		listIterator.next();
+		listIterator.remove();
+		assertEquals(Arrays.asList(1, 2, 3), lists.getAll("a"));
+	}
 }
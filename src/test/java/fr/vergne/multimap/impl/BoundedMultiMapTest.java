@@ -0,0 +1,168 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.Batch;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+import fr.vergne.multimap.impl.BoundedMultiMap.Policy;
+
+@RunWith(JUnitPlatform.class)
+public class BoundedMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return BoundedMultiMap.<String, Integer> onSets().build();
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testLruEvictsLeastRecentlyAccessedKey() {
+		Map<String, Collection<Integer>> evicted = new LinkedHashMap<>();
+		BoundedMultiMap<String, Integer> map = BoundedMultiMap.<String, Integer> onLists().maximumKeys(2)
+				.evictionListener((key, values) -> evicted.put(key, new ArrayList<>(values))).build();
+
+		map.add("a", 1);
+		map.add("b", 2);
+		map.getAll("a");
+		map.add("c", 3);
+
+		assertEquals(2, map.size());
+		assertTrue(map.containsKey("a"));
+		assertFalse(map.containsKey("b"));
+		assertEquals(Arrays.asList(2), evicted.get("b"));
+		assertEquals(1, map.getEvictionCount());
+	}
+
+	@Test
+	public void testLfuEvictsLeastFrequentlyAccessedKey() {
+		BoundedMultiMap<String, Integer> map = BoundedMultiMap.<String, Integer> onLists().policy(Policy.LFU)
+				.maximumKeys(2).build();
+
+		map.add("a", 1);
+		map.getAll("a");
+		map.getAll("a");
+		map.add("b", 2);
+		map.getAll("b");
+		map.add("c", 3);
+		// b is more recent than a but less frequent
+		assertTrue(map.containsKey("a"));
+		assertFalse(map.containsKey("b"));
+		assertTrue(map.containsKey("c"));
+
+		// among keys of same frequency, the least recent is evicted
+		map.getAll("c");
+		map.getAll("c");
+		map.add("d", 4);
+		assertFalse(map.containsKey("a"));
+		assertTrue(map.containsKey("c"));
+		assertTrue(map.containsKey("d"));
+	}
+
+	@Test
+	public void testMaximumValuesCountsAllValues() {
+		BoundedMultiMap<String, Integer> map = BoundedMultiMap.<String, Integer> onLists().maximumValues(3).build();
+
+		map.addAll("a", Arrays.asList(1, 2));
+		map.add("b", 3);
+		assertEquals(3, map.getWeight());
+		map.add("b", 4);
+		assertFalse(map.containsKey("a"));
+		assertEquals(2, map.getWeight());
+
+		map.remove("b", 3);
+		assertEquals(1, map.getWeight());
+		map.remove("b");
+		assertEquals(0, map.getWeight());
+	}
+
+	@Test
+	public void testCustomWeigher() {
+		BoundedMultiMap<String, Integer> map = BoundedMultiMap.<String, Integer> onSets()
+				.maximumWeight(10, (key, values) -> key.length() + values.size()).build();
+
+		map.add("aaaa", 1);
+		map.add("bbbb", 1);
+		assertEquals(10, map.getWeight());
+		map.add("c", 1);
+		assertFalse(map.containsKey("aaaa"));
+		assertEquals(7, map.getWeight());
+	}
+
+	@Test
+	public void testHitAndMissStatistics() {
+		BoundedMultiMap<String, Integer> map = BoundedMultiMap.<String, Integer> onSets().build();
+
+		map.add("a", 1);
+		map.getAll("a");
+		map.getAll("a");
+		map.getAll("b");
+		assertEquals(2, map.getHitCount());
+		assertEquals(1, map.getMissCount());
+		assertEquals(2.0 / 3, map.getHitRate(), 1e-9);
+	}
+
+	@Test
+	public void testCollectionsAreUnmodifiable() {
+		BoundedMultiMap<String, Integer> map = BoundedMultiMap.<String, Integer> onSets().build();
+
+		map.add("a", 1);
+		try {
+			map.getAll("a").add(2);
+			fail("No exception thrown");
+		} catch (UnsupportedOperationException cause) {
+			// expected
+		}
+		try {
+			map.keySet().remove("a");
+			fail("No exception thrown");
+		} catch (UnsupportedOperationException cause) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testApplyBatchCountsAdditionsOfEvictedKey() {
+		BoundedMultiMap<String, Integer> map = BoundedMultiMap.<String, Integer> onLists().maximumValues(2).build();
+
+		Batch.Result result = map.apply(new Batch<String, Integer>().add("a", 1).add("a", 2).add("a", 3));
+
+		assertEquals(3, result.getAdded());
+		assertEquals(1, map.getEvictionCount());
+		assertFalse(map.containsKey("a"));
+	}
+}
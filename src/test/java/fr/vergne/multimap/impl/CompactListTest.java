@@ -0,0 +1,45 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+public class CompactListTest {
+
+	@Test
+	public void testBehavesLikeLinkedList() {
+		List<Integer> compact = new CompactList<>();
+		List<Integer> reference = new LinkedList<>();
+		for (int value = 0; value < 10; value++) {
+			compact.add(value % 3);
+			reference.add(value % 3);
+			assertEquals(reference, compact);
+			assertEquals(reference.hashCode(), compact.hashCode());
+		}
+		compact.add(2, 42);
+		reference.add(2, 42);
+		assertEquals(reference, compact);
+		while (!reference.isEmpty()) {
+			assertEquals(reference.remove(reference.size() / 2), compact.remove(compact.size() / 2));
+			assertEquals(reference, compact);
+		}
+		assertTrue(compact.isEmpty());
+	}
+
+	@Test
+	public void testRemovesSingleOccurrence() {
+		List<Integer> list = new CompactList<>(Arrays.asList(1, 2, 1));
+		assertTrue(list.remove((Integer) 1));
+		assertEquals(Arrays.asList(2, 1), list);
+		assertTrue(list.remove((Integer) 2));
+		assertEquals(Arrays.asList(1), list);
+		assertFalse(list.remove((Integer) 2));
+	}
+}
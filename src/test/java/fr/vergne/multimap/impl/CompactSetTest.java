@@ -0,0 +1,57 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+public class CompactSetTest {
+
+	@Test
+	public void testBehavesLikeHashSetAcrossThreshold() {
+		Set<Integer> compact = new CompactSet<>(4);
+		Set<Integer> reference = new HashSet<>();
+		for (int value = 0; value < 10; value++) {
+			assertEquals(reference.add(value % 7), compact.add(value % 7));
+			assertEquals(reference, compact);
+			assertEquals(reference.hashCode(), compact.hashCode());
+		}
+		for (int value = 0; value < 10; value++) {
+			assertEquals(reference.remove(value), compact.remove(value));
+			assertEquals(reference, compact);
+		}
+		assertTrue(compact.isEmpty());
+	}
+
+	@Test
+	public void testSupportsNullValue() {
+		Set<String> set = new CompactSet<>();
+		assertTrue(set.add(null));
+		assertFalse(set.add(null));
+		assertTrue(set.contains(null));
+		assertTrue(set.add("a"));
+		assertTrue(set.remove(null));
+		assertEquals(new HashSet<>(Arrays.asList("a")), set);
+	}
+
+	@Test
+	public void testIteratorRemovesValues() {
+		Set<Integer> set = new CompactSet<>(Arrays.asList(1, 2, 3, 4));
+		Iterator<Integer> iterator = set.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() % 2 == 0) {
+				iterator.remove();
+			} else {
+				// keep it
+			}
+		}
+		assertEquals(new HashSet<>(Arrays.asList(1, 3)), set);
+	}
+}
@@ -0,0 +1,106 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+public class ConcurrentAppendListTest {
+
+	@Test
+	public void testBehavesLikeArrayListOnRandomOperations() {
+		Random random = new Random(0);
+		ConcurrentAppendList<Integer> list = new ConcurrentAppendList<>();
+		List<Integer> reference = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			int value = random.nextInt(100);
+			switch (random.nextInt(6)) {
+			case 0:
+				assertEquals(reference.remove((Integer) value), list.remove((Integer) value));
+				break;
+			case 1:
+				int index = random.nextInt(reference.size() + 1);
+				reference.add(index, value);
+				list.add(index, value);
+				break;
+			case 2:
+				assertEquals(reference.addAll(Arrays.asList(value, -value)), list.addAll(Arrays.asList(value, -value)));
+				break;
+			default:
+				assertEquals(reference.add(value), list.add(value));
+				break;
+			}
+		}
+		assertEquals(reference, list);
+		assertEquals(list, reference);
+		assertEquals(reference.hashCode(), list.hashCode());
+		assertEquals(reference.indexOf(50), list.indexOf(50));
+
+		reference.removeAll(Arrays.asList(1, 2, 3));
+		list.removeAll(Arrays.asList(1, 2, 3));
+		assertEquals(reference, list);
+	}
+
+	@Test
+	public void testIteratorIsNotAffectedByLaterChanges() {
+		ConcurrentAppendList<Integer> list = new ConcurrentAppendList<>();
+		list.addAll(Arrays.asList(1, 2, 3));
+
+		Iterator<Integer> iterator = list.iterator();
+		assertEquals(1, (int) iterator.next());
+		list.add(4);
+		list.remove((Integer) 2);
+		list.set(1, 5);
+
+		List<Integer> remaining = new ArrayList<>();
+		iterator.forEachRemaining(remaining::add);
+		assertEquals(Arrays.asList(2, 3), remaining);
+		assertEquals(Arrays.asList(1, 5, 4), list);
+	}
+
+	@Test
+	public void testConcurrentAppendsAreAllKept() throws InterruptedException {
+		ConcurrentAppendList<Integer> list = new ConcurrentAppendList<>();
+		int threadsCount = 4;
+		int valuesPerThread = 10000;
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadsCount; t++) {
+			int offset = t * valuesPerThread;
+			threads.add(new Thread(() -> {
+				for (int value = 0; value < valuesPerThread; value++) {
+					list.add(offset + value);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		int lastSize = 0;
+		while (list.size() < threadsCount * valuesPerThread) {
+			// each read sees a consistent prefix of the appends
+			int count = 0;
+			for (Integer value : list) {
+				assertNotNull(value);
+				count++;
+			}
+			assertTrue(count >= lastSize);
+			lastSize = count;
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		List<Integer> sorted = new ArrayList<>(list);
+		sorted.sort(null);
+		for (int value = 0; value < threadsCount * valuesPerThread; value++) {
+			assertEquals(value, (int) sorted.get(value));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class ConcurrentMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		Supplier<Collection<Integer>> collectionSupplier = () -> ConcurrentHashMap.newKeySet();
+		return new ConcurrentMultiMap<>(new ConcurrentHashMap<>(), collectionSupplier);
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testListBasedMapMaintainsDuplicates() {
+		ConcurrentMultiMap<String, Integer> map = ConcurrentMultiMap.onLists();
+
+		map.add("key", 0);
+		map.add("key", 1);
+		map.add("key", 2);
+		map.add("key", 1);
+		assertTrue(new LinkedList<>(map.getAll("key")).equals(Arrays.asList(0, 1, 2, 1)));
+	}
+
+	@Test
+	public void testSetBasedMapDoesNotMaintainDuplicates() {
+		ConcurrentMultiMap<String, Integer> map = ConcurrentMultiMap.onSets();
+
+		map.add("key", 0);
+		map.add("key", 1);
+		map.add("key", 2);
+		map.add("key", 1);
+		assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), new HashSet<>(map.getAll("key")));
+		assertEquals(3, map.getAll("key").size());
+	}
+
+	@Test
+	public void testRemoveOnUnknownKeyDoesNotCreateKey() {
+		ConcurrentMultiMap<String, Integer> map = ConcurrentMultiMap.onSets();
+
+		assertFalse(map.remove("key", 0));
+		assertFalse(map.removeAll("key", Arrays.asList(0, 1)));
+		assertFalse(map.containsKey("key"));
+	}
+
+	@Test
+	public void testConcurrentAddsAreNotLost() throws Exception {
+		ConcurrentMultiMap<Integer, Integer> map = ConcurrentMultiMap.onSets();
+		int threads = 8;
+		int valuesPerThread = 10000;
+		int keys = 10;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int offset = t * valuesPerThread;
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < valuesPerThread; i++) {
+					map.add(i % keys, offset + i);
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		assertEquals(keys, map.size());
+		int total = 0;
+		for (Collection<Integer> values : map.collections()) {
+			total += values.size();
+		}
+		assertEquals(threads * valuesPerThread, total);
+	}
+
+	@Test
+	public void testIteratorToleratesConcurrentModifications() {
+		ConcurrentMultiMap<String, Integer> map = ConcurrentMultiMap.onSets();
+		map.addAll("a", Arrays.asList(1, 2, 3));
+		map.addAll("b", Arrays.asList(4, 5, 6));
+
+		int count = 0;
+		for (Entry<String, Integer> entry : map) {
+			map.add("c", entry.getValue());
+			map.remove(entry.getKey(), entry.getValue());
+			count++;
+		}
+		assertTrue(count >= 6);
+		assertTrue(map.getAll("a").isEmpty());
+		assertTrue(map.getAll("b").isEmpty());
+	}
+
+	@Test
+	public void testKeysWithoutValuesAreEmpty() {
+		ConcurrentMultiMap<String, Integer> map = ConcurrentMultiMap.onLists();
+		map.addAll("a", Arrays.asList(1, 2));
+		map.removeAll("a", Arrays.asList(1, 2));
+		map.addAll("b", Arrays.asList());
+
+		assertTrue(map.containsKey("a"));
+		assertTrue(map.isEmpty());
+		map.add("b", 3);
+		assertFalse(map.isEmpty());
+	}
+}
@@ -0,0 +1,153 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class CopyOnWriteMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return CopyOnWriteMultiMap.onSets();
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testSnapshotIsNotAffectedByLaterChanges() {
+		CopyOnWriteMultiMap<String, Integer> map = CopyOnWriteMultiMap.onLists();
+		map.addAll("a", Arrays.asList(1, 2, 2));
+		map.add("b", 3);
+
+		CopyOnWriteMultiMap<String, Integer> snapshot = map.snapshot();
+		map.add("a", 4);
+		map.remove("b");
+		map.add("c", 5);
+
+		assertEquals(Arrays.asList(1, 2, 2), snapshot.getAll("a"));
+		assertEquals(Arrays.asList(3), snapshot.getAll("b"));
+		assertFalse(snapshot.containsKey("c"));
+		assertEquals(2, snapshot.size());
+		assertEquals(Arrays.asList(1, 2, 2, 4), map.getAll("a"));
+	}
+
+	@Test
+	public void testSnapshotIsNotAffectedByLaterAppends() {
+		CopyOnWriteMultiMap<String, Integer> map = CopyOnWriteMultiMap.onLists();
+		Collection<Integer> expected = new ArrayList<>();
+		for (int value = 0; value < 1000; value++) {
+			map.add("a", value);
+			expected.add(value);
+		}
+
+		CopyOnWriteMultiMap<String, Integer> snapshot = map.snapshot();
+		Collection<Integer> before = map.getAll("a");
+		map.add("a", -1);
+		map.remove("a", -1);
+		map.addAll("a", Arrays.asList(-2, -3));
+
+		assertEquals(expected, new ArrayList<>(snapshot.getAll("a")));
+		assertEquals(expected, new ArrayList<>(before));
+		expected.add(-2);
+		expected.add(-3);
+		assertEquals(expected, new ArrayList<>(map.getAll("a")));
+	}
+
+	@Test
+	public void testSnapshotIsReadOnly() {
+		CopyOnWriteMultiMap<String, Integer> snapshot = CopyOnWriteMultiMap.<String, Integer> onSets().snapshot();
+		assertTrue(snapshot.isReadOnly());
+		try {
+			snapshot.add("a", 1);
+			fail("No exception thrown");
+		} catch (UnsupportedOperationException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testReturnedCollectionsAreImmutable() {
+		CopyOnWriteMultiMap<String, Integer> map = CopyOnWriteMultiMap.onSets();
+		map.add("a", 1);
+		Collection<Integer> values = map.getAll("a");
+		map.add("a", 2);
+
+		assertEquals(1, values.size());
+		try {
+			values.add(3);
+			fail("No exception thrown");
+		} catch (UnsupportedOperationException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testIterationIsConsistentDuringChanges() throws InterruptedException {
+		CopyOnWriteMultiMap<Integer, Integer> map = CopyOnWriteMultiMap.onLists();
+		AtomicBoolean isRunning = new AtomicBoolean(true);
+		Thread writer = new Thread(() -> {
+			int i = 0;
+			while (isRunning.get()) {
+				// each change keeps the total number of values even
+				if (i / 100 % 100 == 99) {
+					// reset the key to bound the values to iterate
+					map.replaceAll(i % 100, Arrays.asList(i, i));
+				} else {
+					map.addAll(i % 100, Arrays.asList(i, i));
+				}
+				i++;
+			}
+		});
+		writer.start();
+		try {
+			for (int round = 0; round < 100; round++) {
+				int count = 0;
+				for (Entry<Integer, Integer> couple : map) {
+					assertNotNull(couple.getValue());
+					count++;
+				}
+				assertEquals(0, count % 2);
+				assertEquals(0, new ArrayList<>(map.snapshot().collections()).stream().mapToInt(Collection::size).sum()
+						% 2);
+			}
+		} finally {
+			isRunning.set(false);
+			writer.join();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+import fr.vergne.multimap.impl.DurableMultiMap.Durability;
+import fr.vergne.multimap.io.Serializer;
+
+@RunWith(JUnitPlatform.class)
+public class DurableMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	private static Path createDirectory() {
+		try {
+			Path directory = Files.createTempDirectory("durable");
+			directory.toFile().deleteOnExit();
+			return directory;
+		} catch (IOException cause) {
+			throw new UncheckedIOException(cause);
+		}
+	}
+
+	private static DurableMultiMap<String, Integer> open(Path directory) throws IOException {
+		return DurableMultiMap.onLists(directory, Serializer.ofStrings(), Serializer.ofVarInts()).open();
+	}
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		try {
+			return open(createDirectory());
+		} catch (IOException cause) {
+			throw new UncheckedIOException(cause);
+		}
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testReopenReplaysLog() throws IOException {
+		Path directory = createDirectory();
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			map.addAll("a", Arrays.asList(1, 2, 2));
+			map.add("b", 3);
+			map.remove("a", 2);
+			map.replaceAll("c", Arrays.asList(4, 5));
+			map.remove("b");
+			map.remove("d", 6);
+		}
+
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			assertEquals(Arrays.asList(1, 2), new ArrayList<>(map.getAll("a")));
+			assertFalse(map.containsKey("b"));
+			assertEquals(Arrays.asList(4, 5), new ArrayList<>(map.getAll("c")));
+			assertTrue(map.getAll("d").isEmpty());
+			assertEquals(3, map.size());
+		}
+	}
+
+	@Test
+	public void testReopenLoadsSnapshotAndLogTail() throws IOException {
+		Path directory = createDirectory();
+		try (DurableMultiMap<String, Integer> map = DurableMultiMap
+				.onLists(directory, Serializer.ofStrings(), Serializer.ofVarInts()).snapshotEvery(10).open()) {
+			for (int i = 0; i < 25; i++) {
+				map.add("key " + (i % 3), i);
+			}
+			map.clear();
+			map.add("a", 1);
+			map.snapshot();
+			map.add("a", 2);
+		}
+
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			assertEquals(Arrays.asList(1, 2), new ArrayList<>(map.getAll("a")));
+			assertEquals(1, map.size());
+		}
+		assertEquals(2, Files.list(directory).count());
+	}
+
+	@Test
+	public void testTornTailIsDropped() throws IOException {
+		Path directory = createDirectory();
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			map.add("a", 1);
+			map.add("a", 2);
+		}
+		Path log = directory.resolve("log.0");
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			assertEquals(Arrays.asList(1), new ArrayList<>(map.getAll("a")));
+			map.add("a", 3);
+		}
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			assertEquals(Arrays.asList(1, 3), new ArrayList<>(map.getAll("a")));
+		}
+	}
+
+	@Test
+	public void testCorruptedRecordIsDropped() throws IOException {
+		Path directory = createDirectory();
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			map.add("a", 1);
+			map.add("b", 2);
+		}
+		Path log = directory.resolve("log.0");
+		byte[] bytes = Files.readAllBytes(log);
+		bytes[bytes.length - 1]++;
+		Files.write(log, bytes);
+
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			assertTrue(map.containsKey("a"));
+			assertFalse(map.containsKey("b"));
+		}
+	}
+
+	@Test
+	public void testConcurrentWritesAreDurable() throws Exception {
+		Path directory = createDirectory();
+		try (DurableMultiMap<String, Integer> map = DurableMultiMap
+				.onSets(directory, Serializer.ofStrings(), Serializer.ofVarInts()).durability(Durability.ON_WRITE)
+				.open()) {
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				String key = "key " + t;
+				Thread thread = new Thread(() -> {
+					for (int i = 0; i < 50; i++) {
+						map.add(key, i);
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+
+		try (DurableMultiMap<String, Integer> map = DurableMultiMap
+				.onSets(directory, Serializer.ofStrings(), Serializer.ofVarInts()).open()) {
+			assertEquals(4, map.size());
+			for (int t = 0; t < 4; t++) {
+				assertEquals(50, map.getAll("key " + t).size());
+			}
+		}
+	}
+
+	@Test
+	public void testCollectionsAreUnmodifiable() throws IOException {
+		try (DurableMultiMap<String, Integer> map = open(createDirectory())) {
+			map.add("a", 1);
+			try {
+				map.getAll("a").add(2);
+				fail("No exception thrown");
+			} catch (UnsupportedOperationException cause) {
+				// OK
+			}
+		}
+	}
+
+	@Test
+	public void testFailedSnapshotKeepsCurrentGeneration() throws IOException {
+		Path directory = createDirectory();
+		boolean[] isFailing = { false };
+		Serializer<String> strings = Serializer.ofStrings();
+		Serializer<String> failingStrings = new Serializer<String>() {
+
+			@Override
+			public void write(String value, ByteBuffer buffer) {
+				if (isFailing[0]) {
+					throw new IllegalStateException("Failing serializer");
+				} else {
+					strings.write(value, buffer);
+				}
+			}
+
+			@Override
+			public String read(ByteBuffer buffer) {
+				return strings.read(buffer);
+			}
+		};
+		try (DurableMultiMap<String, Integer> map = DurableMultiMap
+				.onLists(directory, failingStrings, Serializer.ofVarInts()).open()) {
+			map.add("a", 1);
+			isFailing[0] = true;
+			try {
+				map.snapshot();
+				fail("No exception thrown");
+			} catch (IllegalStateException cause) {
+				// OK
+			}
+			isFailing[0] = false;
+			map.add("a", 2);
+		}
+
+		try (DurableMultiMap<String, Integer> map = open(directory)) {
+			assertEquals(Arrays.asList(1, 2), new ArrayList<>(map.getAll("a")));
+		}
+		assertEquals(1, Files.list(directory).count());
+	}
+}
@@ -0,0 +1,124 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class ExpiringMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return new ExpiringMultiMap<>(1, TimeUnit.HOURS);
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testValueExpiresAfterItsTimeToLive() {
+		AtomicLong time = new AtomicLong();
+		ExpiringMultiMap<String, Integer> map = new ExpiringMultiMap<>(10, TimeUnit.SECONDS, time::get);
+		map.add("a", 1);
+		map.add("a", 2, 5, TimeUnit.SECONDS);
+
+		time.set(TimeUnit.SECONDS.toNanos(5) - 1);
+		assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(map.getAll("a")));
+
+		time.set(TimeUnit.SECONDS.toNanos(5));
+		assertEquals(new HashSet<>(Arrays.asList(1)), new HashSet<>(map.getAll("a")));
+		assertEquals(1, map.getExpirationCount());
+	}
+
+	@Test
+	public void testKeyDisappearsWithItsLastExpiredValue() {
+		AtomicLong time = new AtomicLong();
+		ExpiringMultiMap<String, Integer> map = new ExpiringMultiMap<>(1, TimeUnit.MINUTES, time::get);
+		map.add("a", 1);
+		map.add("b", 2, ExpiringMultiMap.NEVER, TimeUnit.NANOSECONDS);
+
+		time.set(TimeUnit.DAYS.toNanos(1000));
+		assertFalse(map.containsKey("a"));
+		assertNull(map.getAll("a"));
+		assertEquals(1, map.size());
+		assertEquals(ExpiringMultiMap.NEVER, map.getTimeToLive("b", 2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testExplicitlyEmptiedKeyRemains() {
+		AtomicLong time = new AtomicLong();
+		ExpiringMultiMap<String, Integer> map = new ExpiringMultiMap<>(1, TimeUnit.SECONDS, time::get);
+		map.add("a", 1);
+		map.remove("a", 1);
+
+		time.set(TimeUnit.SECONDS.toNanos(2));
+		assertTrue(map.containsKey("a"));
+		assertTrue(map.getAll("a").isEmpty());
+		assertEquals(0, map.getExpirationCount());
+	}
+
+	@Test
+	public void testAddingAgainRefreshesTimeToLive() {
+		AtomicLong time = new AtomicLong();
+		ExpiringMultiMap<String, Integer> map = new ExpiringMultiMap<>(10, TimeUnit.SECONDS, time::get);
+		map.add("a", 1);
+		time.set(TimeUnit.SECONDS.toNanos(8));
+		assertFalse(map.add("a", 1));
+		assertEquals(10, map.getTimeToLive("a", 1, TimeUnit.SECONDS));
+
+		time.set(TimeUnit.SECONDS.toNanos(12));
+		assertTrue(map.containsCouple("a", 1));
+		time.set(TimeUnit.SECONDS.toNanos(18));
+		assertFalse(map.containsCouple("a", 1));
+	}
+
+	@Test
+	public void testManyDeadlinesExpireInOrder() {
+		AtomicLong time = new AtomicLong(-123456789);
+		ExpiringMultiMap<Integer, Integer> map = new ExpiringMultiMap<>(1, TimeUnit.DAYS, time::get);
+		long start = time.get();
+		for (int i = 1; i <= 1000; i++) {
+			map.add(i, i, (long) i * i * i, TimeUnit.MILLISECONDS);
+		}
+
+		for (int i = 1; i <= 1000; i++) {
+			time.set(start + TimeUnit.MILLISECONDS.toNanos((long) i * i * i) - 1);
+			assertTrue(map.containsKey(i));
+			time.set(start + TimeUnit.MILLISECONDS.toNanos((long) i * i * i));
+			assertFalse(map.containsKey(i));
+			assertEquals(1000 - i, map.size());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class FingerprintedMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return FingerprintedMultiMap.onSets();
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testIndexFollowsChanges() {
+		FingerprintedMultiMap<String, Integer> map = FingerprintedMultiMap.onSets();
+		map.addAll("a", Arrays.asList(1, 2, 3));
+		map.addAll("b", Arrays.asList(3, 2));
+		assertEquals(Collections.singleton("a"), map.keysMappedTo(Arrays.asList(3, 2, 1)));
+
+		map.add("b", 1);
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), map.keysMappedTo(Arrays.asList(1, 2, 3)));
+
+		map.remove("a", 2);
+		map.removeAll("b", Arrays.asList(1, 2, 3));
+		assertEquals(Collections.singleton("a"), map.keysMappedTo(Arrays.asList(1, 3)));
+		assertEquals(Collections.singleton("b"), map.keysMappedTo(Collections.emptyList()));
+
+		map.replaceAll("b", Arrays.asList(3, 1));
+		map.remove("a");
+		assertEquals(Collections.singleton("b"), map.keysMappedTo(Arrays.asList(1, 3)));
+		assertTrue(map.toMap().containsValue(new HashSet<>(Arrays.asList(1, 3))));
+	}
+
+	@Test
+	public void testListsAreComparedInOrder() {
+		FingerprintedMultiMap<String, Integer> map = FingerprintedMultiMap.onLists();
+		map.addAll("a", Arrays.asList(1, 2, 2));
+
+		assertTrue(map.containsKeyMappedTo(Arrays.asList(1, 2, 2)));
+		assertFalse(map.containsKeyMappedTo(Arrays.asList(2, 1, 2)));
+		assertFalse(map.containsKeyMappedTo(Arrays.asList(1, 2)));
+
+		map.remove("a", 2);
+		assertTrue(map.containsKeyMappedTo(Arrays.asList(1, 2)));
+	}
+
+	@Test
+	public void testCollectionsAreUnmodifiable() {
+		FingerprintedMultiMap<String, Integer> map = FingerprintedMultiMap.onSets();
+		map.add("a", 1);
+		try {
+			map.getAll("a").add(2);
+			fail("No exception thrown");
+		} catch (UnsupportedOperationException cause) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.IntValues;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class HashIntIntMultiMapTest implements MultiMapTest<Integer, Integer> {
+
+	private final Key<Integer> lastKey = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<Integer, Integer> createMultiMap(HeterogeneousMap context) {
+		return HashIntIntMultiMap.onSets().asMultiMap();
+	}
+
+	@Override
+	public Integer createValidKey(MultiMap<Integer, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKey)) {
+			context.put(lastKey, 0);
+		} else {
+			context.put(lastKey, context.get(lastKey) + 1);
+		}
+		return context.get(lastKey);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<Integer, Integer> map, Integer key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testListBasedMapMaintainsDuplicates() {
+		HashIntIntMultiMap map = HashIntIntMultiMap.onLists();
+
+		map.add(5, 0);
+		map.add(5, 1);
+		map.add(5, 2);
+		map.add(5, 1);
+		assertArrayEquals(new int[] { 0, 1, 2, 1 }, map.getAll(5).toArray());
+	}
+
+	@Test
+	public void testSetBasedMapDoesNotMaintainDuplicates() {
+		HashIntIntMultiMap map = HashIntIntMultiMap.onSets();
+
+		assertTrue(map.add(5, 2));
+		assertTrue(map.add(5, 0));
+		assertTrue(map.add(5, 1));
+		assertFalse(map.add(5, 1));
+		assertArrayEquals(new int[] { 0, 1, 2 }, map.getAll(5).toArray());
+	}
+
+	@Test
+	public void testGetAllIsLiveView() {
+		HashIntIntMultiMap map = HashIntIntMultiMap.onLists();
+		map.add(1, 10);
+		IntValues values = map.getAll(1);
+
+		map.add(1, 20);
+		assertEquals(2, values.size());
+		assertEquals(20, values.get(1));
+		assertTrue(values.contains(20));
+
+		map.remove(1, 10);
+		assertEquals(1, values.size());
+		assertFalse(values.contains(10));
+		assertNull(map.getAll(2));
+	}
+
+	@Test
+	public void testRemoveAllRemovesAllOccurrences() {
+		HashIntIntMultiMap map = HashIntIntMultiMap.onLists();
+		map.addAll(1, 1, 2, 3, 2, 1);
+
+		assertTrue(map.removeAll(1, 2, 3));
+		assertArrayEquals(new int[] { 1, 1 }, map.getAll(1).toArray());
+		assertFalse(map.removeAll(1, 4));
+	}
+
+	@Test
+	public void testForEachVisitsAllCouples() {
+		HashIntIntMultiMap map = HashIntIntMultiMap.onLists();
+		map.addAll(1, 10, 11);
+		map.addAll(2, 20);
+
+		List<String> couples = new ArrayList<>();
+		map.forEachCouple((key, value) -> couples.add(key + "=" + value));
+		couples.sort(null);
+		assertEquals(Arrays.asList("1=10", "1=11", "2=20"), couples);
+	}
+
+	@Test
+	public void testManyKeysSurviveRehashAndRemovals() {
+		HashIntIntMultiMap map = HashIntIntMultiMap.onSets();
+		int keys = 100000;
+		for (int key = 0; key < keys; key++) {
+			map.add(key, key * 2);
+			map.add(key, key * 2 + 1);
+		}
+		for (int key = 0; key < keys; key += 2) {
+			assertTrue(map.removeKey(key));
+		}
+		for (int key = keys; key < 2 * keys; key++) {
+			map.add(key, key);
+		}
+
+		assertEquals(keys / 2 + keys, map.size());
+		for (int key = 0; key < keys; key++) {
+			assertEquals(key % 2 == 1, map.containsCouple(key, key * 2 + 1));
+		}
+		for (int key = keys; key < 2 * keys; key++) {
+			assertTrue(map.containsCouple(key, key));
+		}
+	}
+
+	@Test
+	public void testContainsKeyMappedToFollowsValuesSemantics() {
+		HashIntIntMultiMap sets = HashIntIntMultiMap.onSets();
+		sets.addAll(1, 3, 1, 2);
+		assertTrue(sets.containsKeyMappedTo(2, 3, 1, 1));
+		assertFalse(sets.containsKeyMappedTo(1, 2));
+
+		HashIntIntMultiMap lists = HashIntIntMultiMap.onLists();
+		lists.addAll(1, 3, 1, 2);
+		assertTrue(lists.containsKeyMappedTo(3, 1, 2));
+		assertFalse(lists.containsKeyMappedTo(1, 2, 3));
+	}
+
+	@Test
+	public void testBoxedViewReflectsPrimitiveChanges() {
+		HashIntIntMultiMap map = HashIntIntMultiMap.onLists();
+		MultiMap<Integer, Integer> boxed = map.asMultiMap();
+
+		map.add(1, 10);
+		assertTrue(boxed.containsCouple(1, 10));
+		boxed.add(1, 20);
+		assertTrue(map.containsCouple(1, 20));
+		assertEquals(Arrays.asList(10, 20), boxed.getAll(1));
+		assertFalse(boxed.containsKey("1"));
+	}
+
+	@Test
+	public void testBoxedNullValueIsRejectedWithoutCreatingKey() {
+		MultiMap<Integer, Integer> boxed = HashIntIntMultiMap.onLists().asMultiMap();
+		try {
+			boxed.add(1, null);
+			fail("No exception thrown");
+		} catch (NullPointerException cause) {
+			// OK
+		}
+		try {
+			boxed.addAll(2, Arrays.asList(3, null));
+			fail("No exception thrown");
+		} catch (NullPointerException cause) {
+			// OK
+		}
+		assertTrue(boxed.isEmpty());
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testBoxedInvalidReplacementKeepsPreviousValues() {
+		MultiMap<Integer, Integer> boxed = HashIntIntMultiMap.onLists().asMultiMap();
+		boxed.addAll(1, Arrays.asList(10, 20));
+		try {
+			boxed.replaceAll(1, Arrays.asList(30, null));
+			fail("No exception thrown");
+		} catch (NullPointerException cause) {
+			// OK
+		}
+		try {
+			((MultiMap) boxed).replaceAll(1, Arrays.asList(30, "40"));
+			fail("No exception thrown");
+		} catch (ClassCastException cause) {
+			// OK
+		}
+		assertEquals(Arrays.asList(10, 20), boxed.getAll(1));
+	}
+}
@@ -0,0 +1,160 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.LongValues;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class HashLongLongMultiMapTest implements MultiMapTest<Long, Long> {
+
+	private final Key<Long> lastKey = new Key<>(Long.class);
+	private final Key<Long> lastValue = new Key<>(Long.class);
+
+	@Override
+	public MultiMap<Long, Long> createMultiMap(HeterogeneousMap context) {
+		return HashLongLongMultiMap.onSets().asMultiMap();
+	}
+
+	@Override
+	public Long createValidKey(MultiMap<Long, Long> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKey)) {
+			context.put(lastKey, 0L);
+		} else {
+			context.put(lastKey, context.get(lastKey) + 1);
+		}
+		return context.get(lastKey);
+	}
+
+	@Override
+	public Long createValidValue(MultiMap<Long, Long> map, Long key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0L);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testListBasedMapMaintainsDuplicates() {
+		HashLongLongMultiMap map = HashLongLongMultiMap.onLists();
+
+		map.add(5, 0L << 40);
+		map.add(5, 1);
+		map.add(5, 2);
+		map.add(5, 1);
+		assertArrayEquals(new long[] { 0L << 40, 1, 2, 1 }, map.getAll(5).toArray());
+	}
+
+	@Test
+	public void testSetBasedMapDoesNotMaintainDuplicates() {
+		HashLongLongMultiMap map = HashLongLongMultiMap.onSets();
+
+		assertTrue(map.add(5, 2));
+		assertTrue(map.add(5, 0));
+		assertTrue(map.add(5, 1));
+		assertFalse(map.add(5, 1));
+		assertArrayEquals(new long[] { 0, 1, 2 }, map.getAll(5).toArray());
+	}
+
+	@Test
+	public void testGetAllIsLiveView() {
+		HashLongLongMultiMap map = HashLongLongMultiMap.onLists();
+		map.add(1, 10);
+		LongValues values = map.getAll(1);
+
+		map.add(1, 20);
+		assertEquals(2, values.size());
+		assertEquals(20L, values.get(1));
+		assertTrue(values.contains(20));
+
+		map.remove(1, 10);
+		assertEquals(1, values.size());
+		assertFalse(values.contains(10));
+		assertNull(map.getAll(2));
+	}
+
+	@Test
+	public void testRemoveAllRemovesAllOccurrences() {
+		HashLongLongMultiMap map = HashLongLongMultiMap.onLists();
+		map.addAll(1, 1, 2, 3, 2, 1);
+
+		assertTrue(map.removeAll(1, 2, 3));
+		assertArrayEquals(new long[] { 1, 1 }, map.getAll(1).toArray());
+		assertFalse(map.removeAll(1, 4));
+	}
+
+	@Test
+	public void testForEachVisitsAllCouples() {
+		HashLongLongMultiMap map = HashLongLongMultiMap.onLists();
+		map.addAll(1, 10, 11);
+		map.addAll(2, 20);
+
+		List<String> couples = new ArrayList<>();
+		map.forEachCouple((key, value) -> couples.add(key + "=" + value));
+		couples.sort(null);
+		assertEquals(Arrays.asList("1=10", "1=11", "2=20"), couples);
+	}
+
+	@Test
+	public void testManyKeysSurviveRehashAndRemovals() {
+		HashLongLongMultiMap map = HashLongLongMultiMap.onSets();
+		long keys = 100000;
+		for (long key = 0; key < keys; key++) {
+			map.add(key, key * 2);
+			map.add(key, key * 2 + 1);
+		}
+		for (long key = 0; key < keys; key += 2) {
+			assertTrue(map.removeKey(key));
+		}
+		for (long key = keys; key < 2 * keys; key++) {
+			map.add(key, key);
+		}
+
+		assertEquals(keys / 2 + keys, map.size());
+		for (long key = 0; key < keys; key++) {
+			assertEquals(key % 2 == 1, map.containsCouple(key, key * 2 + 1));
+		}
+		for (long key = keys; key < 2 * keys; key++) {
+			assertTrue(map.containsCouple(key, key));
+		}
+	}
+
+	@Test
+	public void testContainsKeyMappedToFollowsValuesSemantics() {
+		HashLongLongMultiMap sets = HashLongLongMultiMap.onSets();
+		sets.addAll(1, 3, 1, 2);
+		assertTrue(sets.containsKeyMappedTo(2, 3, 1, 1));
+		assertFalse(sets.containsKeyMappedTo(1, 2));
+
+		HashLongLongMultiMap lists = HashLongLongMultiMap.onLists();
+		lists.addAll(1, 3, 1, 2);
+		assertTrue(lists.containsKeyMappedTo(3, 1, 2));
+		assertFalse(lists.containsKeyMappedTo(1, 2, 3));
+	}
+
+	@Test
+	public void testBoxedViewReflectsPrimitiveChanges() {
+		HashLongLongMultiMap map = HashLongLongMultiMap.onLists();
+		MultiMap<Long, Long> boxed = map.asMultiMap();
+
+		map.add(1, 10);
+		assertTrue(boxed.containsCouple(1L, 10L));
+		boxed.add(1L, 20L);
+		assertTrue(map.containsCouple(1, 20));
+		assertEquals(Arrays.asList(10L, 20L), boxed.getAll(1L));
+		assertFalse(boxed.containsKey(1));
+	}
+}
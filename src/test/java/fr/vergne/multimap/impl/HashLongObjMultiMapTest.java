@@ -0,0 +1,105 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class HashLongObjMultiMapTest implements MultiMapTest<Long, String> {
+
+	private final Key<Long> lastKey = new Key<>(Long.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<Long, String> createMultiMap(HeterogeneousMap context) {
+		return HashLongObjMultiMap.<String>onSets().asMultiMap();
+	}
+
+	@Override
+	public Long createValidKey(MultiMap<Long, String> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKey)) {
+			context.put(lastKey, 0L);
+		} else {
+			context.put(lastKey, context.get(lastKey) + 1);
+		}
+		return context.get(lastKey);
+	}
+
+	@Override
+	public String createValidValue(MultiMap<Long, String> map, Long key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return "value " + context.get(lastValue);
+	}
+
+	@Test
+	public void testListBasedMapMaintainsDuplicates() {
+		HashLongObjMultiMap<String> map = HashLongObjMultiMap.onLists();
+
+		map.add(5, "a");
+		map.add(5, "b");
+		map.add(5, "c");
+		map.add(5, "b");
+		assertEquals(Arrays.asList("a", "b", "c", "b"), map.getAll(5));
+	}
+
+	@Test
+	public void testSetBasedMapDoesNotMaintainDuplicates() {
+		HashLongObjMultiMap<String> map = HashLongObjMultiMap.onSets();
+
+		assertTrue(map.add(5, "a"));
+		assertTrue(map.add(5, "b"));
+		assertFalse(map.add(5, "a"));
+		assertEquals(2, map.getAll(5).size());
+	}
+
+	@Test
+	public void testRemoveAllRemovesAllOccurrences() {
+		HashLongObjMultiMap<String> map = HashLongObjMultiMap.onLists();
+		map.addAll(1, Arrays.asList("a", "b", "a", "c"));
+
+		assertTrue(map.removeAll(1, Arrays.asList("a", "c")));
+		assertEquals(Arrays.asList("b"), map.getAll(1));
+		assertFalse(map.removeAll(1, Arrays.asList("d")));
+	}
+
+	@Test
+	public void testForEachVisitsAllCouples() {
+		HashLongObjMultiMap<String> map = HashLongObjMultiMap.onLists();
+		map.addAll(1, Arrays.asList("a", "b"));
+		map.add(2, "c");
+
+		List<String> couples = new ArrayList<>();
+		map.forEachCouple((key, value) -> couples.add(key + "=" + value));
+		couples.sort(null);
+		assertEquals(Arrays.asList("1=a", "1=b", "2=c"), couples);
+	}
+
+	@Test
+	public void testRemoveKeyThroughKeySetIterator() {
+		HashLongObjMultiMap<String> map = HashLongObjMultiMap.onLists();
+		for (long key = 0; key < 100; key++) {
+			map.add(key, "v" + key);
+		}
+
+		map.asMultiMap().keySet().removeIf(key -> key % 2 == 0);
+		assertEquals(50, map.size());
+		for (long key = 0; key < 100; key++) {
+			assertEquals(key % 2 == 1, map.containsKey(key));
+		}
+	}
+}
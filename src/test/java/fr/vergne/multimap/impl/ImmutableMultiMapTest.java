@@ -0,0 +1,124 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.multimap.MultiMap;
+
+@RunWith(JUnitPlatform.class)
+public class ImmutableMultiMapTest {
+
+	@Test
+	public void testListBasedMapMaintainsDuplicatesAndOrder() {
+		ImmutableMultiMap<String, Integer> map = ImmutableMultiMap.<String, Integer> onLists().add("a", 0)
+				.add("b", 5).add("a", 1).add("a", 0).build();
+
+		assertEquals(Arrays.asList(0, 1, 0), map.getAll("a"));
+		assertEquals(Arrays.asList(5), map.getAll("b"));
+		assertTrue(map.getAll("a") instanceof List);
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testSetBasedMapDoesNotMaintainDuplicates() {
+		ImmutableMultiMap<String, Integer> map = ImmutableMultiMap.<String, Integer> onSets().add("a", 0)
+				.add("a", 1).add("a", 0).add("b", 1).build();
+
+		assertEquals(new HashSet<>(Arrays.asList(0, 1)), map.getAll("a"));
+		assertEquals(2, map.getAll("a").size());
+		assertTrue(map.getAll("a") instanceof Set);
+		assertEquals(Collections.singleton(1), map.getAll("b"));
+	}
+
+	@Test
+	public void testCopyOfKeepsAllMappings() {
+		MultiMap<String, Integer> source = BackedMultiMap.onSets();
+		for (int key = 0; key < 100; key++) {
+			for (int value = 0; value < key % 5; value++) {
+				source.add("key " + key, value);
+			}
+		}
+		source.addAll("empty", Collections.emptyList());
+
+		ImmutableMultiMap<String, Integer> copy = ImmutableMultiMap.copyOf(source);
+		assertEquals(source.size(), copy.size());
+		assertEquals(source.keySet(), copy.keySet());
+		for (String key : source.keySet()) {
+			assertEquals(source.getAll(key), copy.getAll(key));
+			assertEquals(source.getAll(key).size(), copy.count(key));
+		}
+		assertTrue(copy.getAll("empty").isEmpty());
+		assertNull(copy.getAll("unknown"));
+		assertEquals(source.toMap(), copy.toMap());
+	}
+
+	@Test
+	public void testCopyOfListsKeepsDuplicates() {
+		MultiMap<String, Integer> source = BackedMultiMap.onLists();
+		source.add("key", 1);
+		source.add("key", 1);
+
+		ImmutableMultiMap<String, Integer> copy = ImmutableMultiMap.copyOf(source);
+		assertEquals(Arrays.asList(1, 1), copy.getAll("key"));
+		assertTrue(copy.containsKeyMappedTo(new LinkedList<>(Arrays.asList(1, 1))));
+		assertFalse(copy.containsKeyMappedTo(Arrays.asList(1)));
+	}
+
+	@Test
+	public void testIteratorBrowsesAllCouples() {
+		ImmutableMultiMap<String, Integer> map = ImmutableMultiMap.<String, Integer> onLists()
+				.addAll("empty", Collections.<Integer> emptyList()).add("a", 0).add("b", 1).add("a", 2).build();
+
+		List<String> couples = new LinkedList<>();
+		map.forEach(entry -> couples.add(entry.getKey() + "=" + entry.getValue()));
+		assertEquals(Arrays.asList("a=0", "a=2", "b=1"), couples);
+	}
+
+	@Test
+	public void testGetReadsValuesWithoutView() {
+		ImmutableMultiMap<String, Integer> map = ImmutableMultiMap.<String, Integer> onLists().add("a", 3)
+				.add("a", 4).build();
+
+		assertEquals(2, map.count("a"));
+		assertEquals(0, map.count("b"));
+		assertEquals(Integer.valueOf(3), map.get("a", 0));
+		assertEquals(Integer.valueOf(4), map.get("a", 1));
+		try {
+			map.get("a", 2);
+			fail("No exception thrown");
+		} catch (IndexOutOfBoundsException cause) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMutatorsThrowException() {
+		ImmutableMultiMap<String, Integer> map = ImmutableMultiMap.<String, Integer> onLists().add("a", 0).build();
+
+		Collection<Runnable> mutators = Arrays.asList(() -> map.add("a", 1), () -> map.addAll("a", Arrays.asList(1)),
+				() -> map.replaceAll("a", Arrays.asList(1)), () -> map.remove("a", 0), () -> map.remove("a"),
+				() -> map.removeAll("a", Arrays.asList(0)), () -> map.clear(), () -> map.getAll("a").add(1),
+				() -> map.getAll("a").clear(), () -> map.keySet().remove("a"), () -> map.toMap().remove("a"),
+				() -> map.iterator().remove());
+		for (Runnable mutator : mutators) {
+			try {
+				mutator.run();
+				fail("No exception thrown");
+			} catch (UnsupportedOperationException | IllegalStateException cause) {
+				// expected
+			}
+		}
+		assertEquals(Arrays.asList(0), map.getAll("a"));
+	}
+}
@@ -0,0 +1,125 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+import fr.vergne.multimap.metrics.MetricsSink.Operation;
+import fr.vergne.multimap.metrics.StripedMetrics;
+
+@RunWith(JUnitPlatform.class)
+public class InstrumentedMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return InstrumentedMultiMap.onSets(new StripedMetrics());
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testHitsAndMissesAreCounted() {
+		StripedMetrics metrics = new StripedMetrics();
+		MultiMap<String, Integer> map = InstrumentedMultiMap.onSets(metrics);
+
+		map.add("a", 1);
+		map.add("a", 1);
+		map.getAll("a");
+		map.getAll("b");
+		map.getAll("c");
+		map.containsCouple("a", 1);
+
+		assertEquals(1, metrics.getHits(Operation.ADD));
+		assertEquals(1, metrics.getMisses(Operation.ADD));
+		assertEquals(1, metrics.getHits(Operation.GET_ALL));
+		assertEquals(2, metrics.getMisses(Operation.GET_ALL));
+		assertEquals(1, metrics.getCount(Operation.CONTAINS_COUPLE));
+		assertEquals(0, metrics.getCount(Operation.REMOVE_KEY));
+	}
+
+	@Test
+	public void testContainerAllocationsAreCounted() {
+		StripedMetrics metrics = new StripedMetrics();
+		MultiMap<String, Integer> map = InstrumentedMultiMap.onLists(metrics);
+
+		map.add("a", 1);
+		map.add("a", 2);
+		map.add("b", 1);
+		// BackedMultiMap creates a container for an unknown key
+		map.remove("c", 1);
+		// the temporary collection compared to the containers is not one
+		map.containsKeyMappedTo(Arrays.asList(1, 2));
+
+		assertEquals(3, metrics.getContainerAllocations());
+	}
+
+	@Test
+	public void testAllExecutionsTimedWithoutSampling() {
+		StripedMetrics metrics = new StripedMetrics();
+		MultiMap<String, Integer> map = new InstrumentedMultiMap<>(BackedMultiMap.onSets(), metrics, 1);
+
+		for (int index = 0; index < 10; index++) {
+			map.containsKey("a");
+		}
+
+		assertEquals(10, Arrays.stream(metrics.getLatencyHistogram(Operation.CONTAINS_KEY)).sum());
+	}
+
+	@Test
+	public void testSamplingTimesFewerExecutions() {
+		StripedMetrics metrics = new StripedMetrics();
+		MultiMap<String, Integer> map = new InstrumentedMultiMap<>(BackedMultiMap.onSets(), metrics, 1000);
+
+		for (int index = 0; index < 10000; index++) {
+			map.containsKey("a");
+		}
+
+		assertEquals(10000, metrics.getCount(Operation.CONTAINS_KEY));
+		assertTrue(Arrays.stream(metrics.getLatencyHistogram(Operation.CONTAINS_KEY)).sum() < 1000);
+	}
+
+	@Test
+	public void testCardinalitiesAreRecordedOnDemand() {
+		StripedMetrics metrics = new StripedMetrics();
+		InstrumentedMultiMap<String, Integer> map = InstrumentedMultiMap.onSets(metrics);
+
+		map.addAll("a", Arrays.asList(1));
+		map.addAll("b", Arrays.asList(1, 2, 3));
+		map.addAll("c", Arrays.asList(1, 2));
+		assertEquals(0, Arrays.stream(metrics.getCardinalityHistogram()).sum());
+
+		map.recordCardinalities();
+		long[] histogram = metrics.getCardinalityHistogram();
+		assertEquals(1, histogram[1]);
+		assertEquals(2, histogram[2]);
+	}
+}
@@ -0,0 +1,192 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class LoadingMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return LoadingMultiMap.<String, Integer> onSets(key -> Collections.emptyList()).build();
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testMissingKeyIsLoadedOnce() {
+		AtomicInteger loads = new AtomicInteger();
+		LoadingMultiMap<String, Integer> map = LoadingMultiMap.<String, Integer> onLists(key -> {
+			loads.incrementAndGet();
+			return Arrays.asList(key.length(), 0);
+		}).build();
+
+		assertFalse(map.containsKey("abc"));
+		assertEquals(Arrays.asList(3, 0), map.getAll("abc"));
+		assertEquals(Arrays.asList(3, 0), map.getAll("abc"));
+		assertEquals(1, loads.get());
+		assertTrue(map.containsCouple("abc", 3));
+	}
+
+	@Test
+	public void testConcurrentMissesShareTheSameLoad() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger loads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			LoadingMultiMap<String, Integer> map = LoadingMultiMap.<String, Integer> onSets(key -> {
+				loads.incrementAndGet();
+				release.await();
+				return Arrays.asList(1);
+			}).executor(executor).build();
+
+			List<CompletableFuture<Collection<Integer>>> futures = new CopyOnWriteArrayList<>();
+			for (int request = 0; request < 10; request++) {
+				futures.add(map.getAllAsync("key"));
+			}
+			release.countDown();
+			for (CompletableFuture<Collection<Integer>> future : futures) {
+				assertEquals(new HashSet<>(Arrays.asList(1)), new HashSet<>(future.join()));
+			}
+			assertEquals(1, loads.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBulkMissesAreLoadedTogether() {
+		List<Set<String>> calls = new CopyOnWriteArrayList<>();
+		LoadingMultiMap<String, Integer> map = LoadingMultiMap.onSets(new LoadingMultiMap.Loader<String, Integer>() {
+
+			@Override
+			public Collection<Integer> load(String key) {
+				throw new IllegalStateException("Should load in bulk");
+			}
+
+			@Override
+			public Map<String, Collection<Integer>> loadAll(Set<String> keys) {
+				calls.add(new HashSet<>(keys));
+				Map<String, Collection<Integer>> values = new LinkedHashMap<>();
+				for (String key : keys) {
+					if (!key.equals("none")) {
+						values.put(key, Arrays.asList(key.length()));
+					} else {
+						continue;
+					}
+				}
+				return values;
+			}
+		}).build();
+		map.add("known", 0);
+
+		Map<String, Collection<Integer>> values = map.getAllFor(Arrays.asList("a", "bb", "known", "none"));
+
+		assertEquals(Arrays.asList(new HashSet<>(Arrays.asList("a", "bb", "none"))), calls);
+		assertEquals(new HashSet<>(Arrays.asList(2)), new HashSet<>(values.get("bb")));
+		assertEquals(new HashSet<>(Arrays.asList(0)), new HashSet<>(values.get("known")));
+		assertTrue(values.get("none").isEmpty());
+		assertTrue(map.containsKey("none"));
+	}
+
+	@Test
+	public void testFailedLoadIsRetried() {
+		AtomicInteger loads = new AtomicInteger();
+		LoadingMultiMap<String, Integer> map = LoadingMultiMap.<String, Integer> onSets(key -> {
+			if (loads.incrementAndGet() == 1) {
+				throw new IllegalStateException("Unavailable");
+			} else {
+				return Arrays.asList(1);
+			}
+		}).build();
+
+		try {
+			map.getAll("key");
+			fail("No exception thrown");
+		} catch (IllegalStateException cause) {
+			// OK
+		}
+		assertFalse(map.containsKey("key"));
+		assertEquals(new HashSet<>(Arrays.asList(1)), new HashSet<>(map.getAll("key")));
+	}
+
+	@Test
+	public void testStaleKeyIsRefreshedInBackground() {
+		AtomicLong time = new AtomicLong();
+		AtomicInteger loads = new AtomicInteger();
+		LoadingMultiMap<String, Integer> map = LoadingMultiMap.<String, Integer> onSets(
+				key -> Arrays.asList(loads.incrementAndGet())).executor(Runnable::run)
+				.refreshAfterWrite(10, TimeUnit.NANOSECONDS).ticker(time::get).build();
+
+		assertEquals(new HashSet<>(Arrays.asList(1)), new HashSet<>(map.getAll("key")));
+		time.set(5);
+		assertEquals(new HashSet<>(Arrays.asList(1)), new HashSet<>(map.getAll("key")));
+		assertEquals(1, loads.get());
+
+		time.set(10);
+		map.getAll("key");
+		assertEquals(2, loads.get());
+		assertEquals(new HashSet<>(Arrays.asList(2)), new HashSet<>(map.getAll("key")));
+	}
+
+	@Test
+	public void testDefaultLoadsRunOutsideCommonPool() {
+		List<Thread> threads = new CopyOnWriteArrayList<>();
+		LoadingMultiMap<String, Integer> map = LoadingMultiMap.<String, Integer> onLists(key -> {
+			threads.add(Thread.currentThread());
+			return Arrays.asList(1);
+		}).build();
+
+		assertEquals(Arrays.asList(1), map.getAll("a"));
+		assertEquals(1, threads.size());
+		assertFalse(threads.get(0) instanceof ForkJoinWorkerThread);
+		assertTrue(threads.get(0).isDaemon());
+	}
+}
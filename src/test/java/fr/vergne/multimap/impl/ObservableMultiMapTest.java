@@ -0,0 +1,257 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+import fr.vergne.multimap.event.Change;
+import fr.vergne.multimap.event.Flow;
+
+@RunWith(JUnitPlatform.class)
+public class ObservableMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return ObservableMultiMap.onSets();
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	private static class RecordingSubscriber implements Flow.Subscriber<List<Change<String, Integer>>> {
+		private final long initialRequest;
+		private Flow.Subscription subscription;
+		private final List<List<Change<String, Integer>>> batches = new ArrayList<>();
+		private Throwable error;
+		private boolean isCompleted = false;
+
+		public RecordingSubscriber(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(initialRequest);
+		}
+
+		@Override
+		public void onNext(List<Change<String, Integer>> item) {
+			batches.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			isCompleted = true;
+		}
+	}
+
+	private static ObservableMultiMap<String, Integer> createSynchronousMap(int maxBatchSize) {
+		return new ObservableMultiMap<>(BackedMultiMap.onLists(), Runnable::run, maxBatchSize);
+	}
+
+	@Test
+	public void testBatchCancelsAdditionsRemovedAfterward() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		map.add("a", 1);
+		map.add("a", 2);
+		map.remove("a", 1);
+		map.add("b", 3);
+		map.remove("b", 4);
+		assertTrue(subscriber.batches.isEmpty());
+		map.publish();
+
+		assertEquals(Arrays.asList(Arrays.asList(Change.added("a", 2), Change.added("b", 3))), subscriber.batches);
+	}
+
+	@Test
+	public void testBatchMergesChangesOfReplacedKey() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		map.add("a", 0);
+		map.add("b", 0);
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		map.add("a", 1);
+		map.replaceAll("a", Arrays.asList(5));
+		map.add("a", 6);
+		map.remove("b");
+		map.publish();
+
+		assertEquals(Arrays.asList(Arrays.asList(Change.replaced("a", Arrays.asList(5, 6)), Change.replaced("b", null))),
+				subscriber.batches);
+	}
+
+	@Test
+	public void testBatchDropsChangesBeforeClear() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		map.add("a", 1);
+		map.clear();
+		map.add("b", 2);
+		map.publish();
+
+		assertEquals(Arrays.asList(Arrays.asList(Change.cleared(), Change.added("b", 2))), subscriber.batches);
+	}
+
+	@Test
+	public void testBatchIsPublishedAutomaticallyWhenFull() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(2);
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		map.add("a", 1);
+		assertEquals(0, subscriber.batches.size());
+		map.add("a", 2);
+		assertEquals(1, subscriber.batches.size());
+	}
+
+	@Test
+	public void testSlowSubscriberReceivesCoalescedBatches() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		RecordingSubscriber subscriber = new RecordingSubscriber(1);
+		map.subscribe(subscriber);
+
+		map.add("a", 1);
+		map.publish();
+		map.add("b", 2);
+		map.publish();
+		map.remove("b", 2);
+		map.add("c", 3);
+		map.publish();
+		assertEquals(Arrays.asList(Arrays.asList(Change.added("a", 1))), subscriber.batches);
+
+		subscriber.subscription.request(5);
+		assertEquals(Arrays.asList(Arrays.asList(Change.added("a", 1)), Arrays.asList(Change.added("c", 3))),
+				subscriber.batches);
+	}
+
+	@Test
+	public void testCloseCompletesSubscribers() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		map.add("a", 1);
+		map.close();
+
+		assertEquals(Arrays.asList(Arrays.asList(Change.added("a", 1))), subscriber.batches);
+		assertTrue(subscriber.isCompleted);
+
+		RecordingSubscriber late = new RecordingSubscriber(1);
+		map.subscribe(late);
+		assertTrue(late.isCompleted);
+	}
+
+	@Test
+	public void testNonPositiveRequestTerminatesWithError() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		map.subscribe(subscriber);
+
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		map.add("a", 1);
+		map.publish();
+		assertTrue(subscriber.batches.isEmpty());
+	}
+
+	@Test
+	public void testViewsAreUnmodifiable() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		map.add("a", 1);
+		try {
+			map.getAll("a").add(2);
+			fail("No exception thrown");
+		} catch (UnsupportedOperationException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testKeysDroppedByDelegateArePublishedAsRemoved() {
+		ObservableMultiMap<String, Integer> map = new ObservableMultiMap<>(
+				new BackedMultiMap<>(new HashMap<>(), () -> new ArrayList<>(), BackedMultiMap.Lifecycle.PRUNING),
+				Runnable::run, 100);
+		map.add("a", 1);
+		map.add("b", 2);
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		assertEquals(Arrays.asList(1), map.replaceAll("a", Collections.emptyList()));
+		assertTrue(map.remove("b", 2));
+		map.publish();
+
+		assertEquals(Arrays.asList(Arrays.asList(Change.replaced("a", null), Change.replaced("b", null))),
+				subscriber.batches);
+	}
+
+	@Test
+	public void testReplacementBySameValuesIsNotPublished() {
+		ObservableMultiMap<String, Integer> map = createSynchronousMap(100);
+		map.addAll("a", Arrays.asList(1, 2));
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		map.replaceAll("a", Arrays.asList(1, 2));
+		map.publish();
+
+		assertTrue(subscriber.batches.isEmpty());
+	}
+
+	@Test
+	public void testRemovalsOnUnknownKeyDoNotCreateIt() {
+		ObservableMultiMap<String, Integer> map = ObservableMultiMap.onLists();
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		map.subscribe(subscriber);
+
+		assertFalse(map.remove("a", 1));
+		assertFalse(map.removeAll("b", Arrays.asList(1, 2)));
+		assertFalse(map.addAll("c", Collections.emptyList()));
+		map.publish();
+
+		assertTrue(map.isEmpty());
+		assertTrue(subscriber.batches.isEmpty());
+	}
+}
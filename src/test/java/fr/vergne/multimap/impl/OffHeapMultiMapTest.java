@@ -0,0 +1,152 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+import fr.vergne.multimap.io.Serializer;
+
+@RunWith(JUnitPlatform.class)
+public class OffHeapMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return OffHeapMultiMap.onSets(Serializer.ofStrings(), Serializer.ofIntegers());
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testListBasedMapMaintainsDuplicates() {
+		OffHeapMultiMap<String, Integer> map = OffHeapMultiMap.onLists(Serializer.ofStrings(),
+				Serializer.ofIntegers());
+
+		map.add("key", 0);
+		map.add("key", 1);
+		map.add("key", 2);
+		map.add("key", 1);
+		assertEquals(Arrays.asList(0, 1, 2, 1), new LinkedList<>(map.getAll("key")));
+	}
+
+	@Test
+	public void testSetBasedMapDoesNotMaintainDuplicates() {
+		OffHeapMultiMap<String, Integer> map = OffHeapMultiMap.onSets(Serializer.ofStrings(),
+				Serializer.ofIntegers());
+
+		map.add("key", 0);
+		map.add("key", 1);
+		map.add("key", 2);
+		map.add("key", 1);
+		assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), new HashSet<>(map.getAll("key")));
+		assertEquals(3, map.getAll("key").size());
+	}
+
+	@Test
+	public void testManyKeysSurviveResizeAndChunkGrowth() {
+		OffHeapMultiMap<String, Integer> map = OffHeapMultiMap.onLists(Serializer.ofStrings(),
+				Serializer.ofIntegers());
+
+		int keys = 20000;
+		for (int index = 0; index < keys; index++) {
+			map.add("key " + index, index);
+			map.add("key " + index, -index);
+		}
+		assertEquals(keys, map.size());
+		for (int index = 0; index < keys; index++) {
+			assertEquals(Arrays.asList(index, -index), new LinkedList<>(map.getAll("key " + index)));
+		}
+	}
+
+	@Test
+	public void testCompactReleasesGarbageAndKeepsMappings() {
+		OffHeapMultiMap<String, Integer> map = OffHeapMultiMap.onLists(Serializer.ofStrings(),
+				Serializer.ofIntegers());
+
+		for (int index = 0; index < 100; index++) {
+			map.add("key " + index, index);
+			map.add("key " + index, index + 1);
+		}
+		for (int index = 0; index < 100; index += 2) {
+			map.remove("key " + index);
+		}
+		map.remove("key 1", 1);
+		long usedBefore = map.getUsedBytes();
+		assertTrue(map.getGarbageBytes() > 0);
+
+		map.compact();
+		assertEquals(0, map.getGarbageBytes());
+		assertTrue(map.getUsedBytes() < usedBefore);
+		assertEquals(50, map.size());
+		assertEquals(Arrays.asList(2), new LinkedList<>(map.getAll("key 1")));
+		assertEquals(Arrays.asList(3, 4), new LinkedList<>(map.getAll("key 3")));
+		assertFalse(map.containsKey("key 0"));
+
+		map.add("key 0", 7);
+		assertEquals(Arrays.asList(7), new LinkedList<>(map.getAll("key 0")));
+	}
+
+	@Test
+	public void testBigRecordsGrowTheScratchBuffers() {
+		OffHeapMultiMap<String, String> map = OffHeapMultiMap.onLists(Serializer.ofStrings(),
+				Serializer.ofStrings());
+
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'x');
+		String big = new String(chars);
+		map.add(big, big);
+		assertTrue(map.containsCouple(big, big));
+		assertEquals(big, map.getAll(big).iterator().next());
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testLookupPropagatesSerializerExceptions() {
+		OffHeapMultiMap<String, Integer> map = OffHeapMultiMap.onLists(Serializer.ofStrings(),
+				Serializer.ofIntegers());
+		map.add("key", 0);
+
+		try {
+			map.containsKey(1);
+			fail("No exception thrown");
+		} catch (ClassCastException cause) {
+			// OK
+		}
+		try {
+			((MultiMap) map).containsCouple("key", "0");
+			fail("No exception thrown");
+		} catch (ClassCastException cause) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+public class PairSpliteratorTest {
+
+	private BackedMultiMap<Integer, Integer> createMap(int keys, int valuesPerKey) {
+		BackedMultiMap<Integer, Integer> map = BackedMultiMap.onLists();
+		for (int key = 0; key < keys; key++) {
+			for (int value = 0; value < valuesPerKey; value++) {
+				map.add(key, key * valuesPerKey + value);
+			}
+		}
+		return map;
+	}
+
+	@Test
+	public void testTopLevelSizeIsExact() {
+		BackedMultiMap<Integer, Integer> map = createMap(100, 3);
+		map.addAll(100, Collections.emptyList());
+
+		Spliterator<Entry<Integer, Integer>> spliterator = map.spliterator();
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+		assertEquals(300, spliterator.estimateSize());
+		assertEquals(300, spliterator.getExactSizeIfKnown());
+	}
+
+	@Test
+	public void testSizeRemainsExactAfterAdvancing() {
+		BackedMultiMap<Integer, Integer> map = createMap(10, 2);
+
+		Spliterator<Entry<Integer, Integer>> spliterator = map.spliterator();
+		spliterator.tryAdvance(entry -> {
+		});
+		spliterator.tryAdvance(entry -> {
+		});
+		spliterator.tryAdvance(entry -> {
+		});
+		assertEquals(17, spliterator.getExactSizeIfKnown());
+	}
+
+	@Test
+	public void testSplitPartsCoverAllCouples() {
+		BackedMultiMap<Integer, Integer> map = createMap(1000, 4);
+
+		Spliterator<Entry<Integer, Integer>> suffix = map.spliterator();
+		Spliterator<Entry<Integer, Integer>> prefix = suffix.trySplit();
+		assertNotNull(prefix);
+		assertEquals(4000, prefix.estimateSize() + suffix.estimateSize(), 4);
+
+		List<Integer> values = new ArrayList<>();
+		prefix.forEachRemaining(entry -> values.add(entry.getValue()));
+		suffix.forEachRemaining(entry -> values.add(entry.getValue()));
+		Collections.sort(values);
+		assertEquals(4000, values.size());
+		for (int index = 0; index < 4000; index++) {
+			assertEquals(index, (int) values.get(index));
+		}
+	}
+
+	@Test
+	public void testParallelStreamProvidesAllCouples() {
+		BackedMultiMap<Integer, Integer> map = createMap(10000, 5);
+
+		List<Integer> values = map.parallelStream().map(Entry::getValue).sorted().collect(Collectors.toList());
+		assertEquals(50000, values.size());
+		assertEquals(map.stream().count(), values.size());
+		assertEquals(Arrays.asList(0, 1, 2), values.subList(0, 3));
+		assertEquals(49999, (int) values.get(49999));
+	}
+
+	private void splitAll(Spliterator<Entry<Integer, Integer>> spliterator, List<Integer> values) {
+		Spliterator<Entry<Integer, Integer>> prefix;
+		while ((prefix = spliterator.trySplit()) != null) {
+			splitAll(prefix, values);
+		}
+		spliterator.forEachRemaining(entry -> values.add(entry.getValue()));
+	}
+
+	@Test
+	public void testExhaustiveSplitLosesNoCouple() {
+		// a large table keeps splitting after its estimated size is exhausted
+		BackedMultiMap<Integer, Integer> map = new BackedMultiMap<Integer, Integer>(
+				new HashMap<Integer, Collection<Integer>>(1024), () -> new LinkedList<>());
+		for (int key = 0; key < 50; key++) {
+			map.add(key, key);
+		}
+
+		List<Integer> values = new ArrayList<>();
+		splitAll(map.spliterator(), values);
+		Collections.sort(values);
+		assertEquals(50, values.size());
+		for (int index = 0; index < 50; index++) {
+			assertEquals(index, (int) values.get(index));
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+public class PersistentHashMapTest {
+
+	/**
+	 * A key with a chosen hash, to create collisions.
+	 */
+	private static class CollidingKey {
+		private final int id;
+		private final int hash;
+
+		public CollidingKey(int id, int hash) {
+			this.id = id;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CollidingKey && ((CollidingKey) obj).id == id;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static <K, V> void assertSameContent(Map<K, V> expected, PersistentHashMap<K, V> actual) {
+		assertEquals(expected.size(), actual.size());
+		Map<K, V> browsed = new HashMap<>();
+		for (Entry<K, V> entry : actual) {
+			assertNull(browsed.put(entry.getKey(), entry.getValue()));
+		}
+		assertEquals(expected, browsed);
+		for (Entry<K, V> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void testRandomChangesMatchHashMap() {
+		Random random = new Random(0);
+		Map<Integer, Integer> expected = new HashMap<>();
+		PersistentHashMap<Integer, Integer> actual = PersistentHashMap.empty();
+		for (int i = 0; i < 20000; i++) {
+			Integer key = random.nextInt(2000) * (random.nextBoolean() ? 1 : 1 << 20);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				actual = actual.remove(key);
+			} else {
+				expected.put(key, i);
+				actual = actual.put(key, i);
+			}
+		}
+		assertSameContent(expected, actual);
+	}
+
+	@Test
+	public void testCollisionsAndNullKey() {
+		Map<CollidingKey, Integer> expected = new HashMap<>();
+		PersistentHashMap<CollidingKey, Integer> actual = PersistentHashMap.empty();
+		for (int i = 0; i < 50; i++) {
+			CollidingKey key = new CollidingKey(i, i % 4);
+			expected.put(key, i);
+			actual = actual.put(key, i);
+		}
+		expected.put(null, -1);
+		actual = actual.put(null, -1);
+		assertSameContent(expected, actual);
+
+		for (int i = 0; i < 50; i += 3) {
+			CollidingKey key = new CollidingKey(i, i % 4);
+			expected.remove(key);
+			actual = actual.remove(key);
+		}
+		assertSameContent(expected, actual);
+		for (int i = 0; i < 50; i++) {
+			actual = actual.remove(new CollidingKey(i, i % 4));
+		}
+		assertEquals(1, actual.size());
+		assertEquals(Integer.valueOf(-1), actual.get(null));
+	}
+
+	@Test
+	public void testPreviousVersionsRemainValid() {
+		PersistentHashMap<Integer, String> empty = PersistentHashMap.empty();
+		PersistentHashMap<Integer, String> one = empty.put(1, "a");
+		PersistentHashMap<Integer, String> two = one.put(2, "b");
+		PersistentHashMap<Integer, String> changed = two.put(1, "c");
+
+		assertEquals(0, empty.size());
+		assertEquals("a", one.get(1));
+		assertNull(one.get(2));
+		assertEquals("a", two.get(1));
+		assertEquals("c", changed.get(1));
+	}
+
+	@Test
+	public void testUnchangedContentReturnsSameInstance() {
+		String value = "a";
+		PersistentHashMap<Integer, String> map = PersistentHashMap.<Integer, String> empty().put(1, value);
+		assertSame(map, map.put(1, value));
+		assertSame(map, map.remove(2));
+	}
+}
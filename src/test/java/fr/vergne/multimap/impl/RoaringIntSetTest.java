@@ -0,0 +1,159 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+public class RoaringIntSetTest {
+
+	private static void assertSameValues(TreeSet<Integer> reference, RoaringIntSet set) {
+		assertEquals(reference.size(), set.size());
+		assertEquals(new ArrayList<>(reference), new ArrayList<>(set));
+		assertEquals(reference, set);
+		assertEquals(reference.hashCode(), set.hashCode());
+	}
+
+	@Test
+	public void testBehavesLikeTreeSetOnRandomOperations() {
+		Random random = new Random(0);
+		RoaringIntSet set = new RoaringIntSet();
+		TreeSet<Integer> reference = new TreeSet<>();
+		for (int i = 0; i < 50000; i++) {
+			// a few partitions, dense enough to go through all the containers
+			int value = (random.nextInt(4) - 2) * 65536 + random.nextInt(12000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(reference.remove(value), set.remove(value));
+			} else {
+				assertEquals(reference.add(value), set.add(value));
+			}
+			assertEquals(reference.contains(value), set.contains(value));
+			if (i % 5000 == 0) {
+				set.runOptimize();
+			} else {
+				// keep the current containers
+			}
+		}
+		assertSameValues(reference, set);
+	}
+
+	@Test
+	public void testConvertsBetweenArrayAndBitmap() {
+		RoaringIntSet set = new RoaringIntSet();
+		TreeSet<Integer> reference = new TreeSet<>();
+		for (int value = 0; value < 10000; value += 2) {
+			set.add(value);
+			reference.add(value);
+		}
+		assertEquals(8192 + 10, set.sizeInBytes());
+		assertSameValues(reference, set);
+
+		for (int value = 0; value < 10000; value += 4) {
+			set.remove(value);
+			reference.remove(value);
+		}
+		assertEquals(2 * 2500 + 10, set.sizeInBytes());
+		assertSameValues(reference, set);
+	}
+
+	@Test
+	public void testRunOptimizeCompressesRanges() {
+		RoaringIntSet set = new RoaringIntSet();
+		TreeSet<Integer> reference = new TreeSet<>();
+		for (int value = 100; value < 60000; value++) {
+			set.add(value);
+			reference.add(value);
+		}
+		set.runOptimize();
+		assertEquals(4 + 10, set.sizeInBytes());
+		assertSameValues(reference, set);
+
+		// split, shrink and merge the run
+		assertTrue(set.remove(30000));
+		reference.remove(30000);
+		assertTrue(set.remove(100));
+		reference.remove(100);
+		assertTrue(set.add(99));
+		reference.add(99);
+		assertEquals(3 * 4 + 10, set.sizeInBytes());
+		assertSameValues(reference, set);
+		assertTrue(set.add(30000));
+		reference.add(30000);
+		assertSameValues(reference, set);
+		assertFalse(set.add(30000));
+		assertFalse(set.contains(100));
+	}
+
+	@Test
+	public void testIteratesInSignedOrder() {
+		RoaringIntSet set = new RoaringIntSet();
+		TreeSet<Integer> reference = new TreeSet<>();
+		for (int value : new int[] { Integer.MAX_VALUE, 0, -1, Integer.MIN_VALUE, 65536, -65537 }) {
+			set.add(value);
+			reference.add(value);
+		}
+		assertSameValues(reference, set);
+	}
+
+	@Test
+	public void testIteratorRemoveKeepsIterating() {
+		RoaringIntSet set = new RoaringIntSet();
+		TreeSet<Integer> reference = new TreeSet<>();
+		for (int value = 0; value < 200000; value += 3) {
+			set.add(value);
+			reference.add(value);
+		}
+		Iterator<Integer> iterator = set.iterator();
+		Iterator<Integer> referenceIterator = reference.iterator();
+		while (referenceIterator.hasNext()) {
+			assertTrue(iterator.hasNext());
+			int value = referenceIterator.next();
+			assertEquals(value, iterator.next().intValue());
+			if (value % 2 == 0 || value > 65536 && value < 131072) {
+				iterator.remove();
+				referenceIterator.remove();
+			} else {
+				// keep it
+			}
+		}
+		assertFalse(iterator.hasNext());
+		assertSameValues(reference, set);
+	}
+
+	@Test
+	public void testIteratorFailsOnConcurrentModification() {
+		RoaringIntSet set = new RoaringIntSet();
+		set.add(1);
+		set.add(2);
+		Iterator<Integer> iterator = set.iterator();
+		iterator.next();
+		set.add(3);
+		try {
+			iterator.next();
+			fail("No exception thrown");
+		} catch (ConcurrentModificationException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testRejectsNullValue() {
+		RoaringIntSet set = new RoaringIntSet();
+		assertFalse(set.contains(null));
+		assertFalse(set.remove(null));
+		try {
+			set.add(null);
+			fail("No exception thrown");
+		} catch (NullPointerException cause) {
+			// OK
+		}
+	}
+}
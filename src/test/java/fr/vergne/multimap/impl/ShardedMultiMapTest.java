@@ -0,0 +1,204 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.Batch;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+
+@RunWith(JUnitPlatform.class)
+public class ShardedMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	private final List<ShardedMultiMap<String, Integer>> createdMaps = new ArrayList<>();
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		ShardedMultiMap<String, Integer> map = ShardedMultiMap.onSets(2);
+		createdMaps.add(map);
+		return map;
+	}
+
+	@AfterEach
+	public void closeCreatedMaps() {
+		for (ShardedMultiMap<String, Integer> map : createdMaps) {
+			map.close();
+		}
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	@Test
+	public void testLaterOperationsAreDoneAfterFlush() throws InterruptedException, ExecutionException,
+			TimeoutException {
+		try (ShardedMultiMap<Integer, Integer> map = ShardedMultiMap.onLists(4)) {
+			for (int value = 0; value < 10000; value++) {
+				map.addLater(value % 100, value);
+			}
+			map.removeLater(0, 0);
+			map.flush().get(10, TimeUnit.SECONDS);
+
+			assertEquals(100, map.size());
+			assertEquals(99, map.getAll(0).size());
+			assertFalse(map.containsCouple(0, 0));
+			assertEquals(100, map.getAll(1).size());
+		}
+	}
+
+	@Test
+	public void testAsyncOperationsProvideTheirResult() throws InterruptedException, ExecutionException {
+		try (ShardedMultiMap<String, Integer> map = ShardedMultiMap.onSets(3)) {
+			CompletableFuture<Boolean> first = map.addAsync("a", 1);
+			CompletableFuture<Boolean> second = map.addAsync("a", 1);
+			CompletableFuture<Boolean> removal = map.removeAsync("a", 1);
+
+			assertTrue(first.get());
+			assertFalse(second.get());
+			assertTrue(removal.get());
+			assertTrue(map.getAll("a").isEmpty());
+		}
+	}
+
+	@Test
+	public void testConcurrentWritersDoNotLoseCouples() throws InterruptedException {
+		try (ShardedMultiMap<Integer, Integer> map = ShardedMultiMap.onSets(4)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				int offset = thread * 10000;
+				threads.add(new Thread(() -> {
+					for (int value = offset; value < offset + 10000; value++) {
+						map.addLater(value % 50, value);
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			map.flush().join();
+
+			int couples = 0;
+			for (Integer key : map.keySet()) {
+				couples += map.getAll(key).size();
+			}
+			assertEquals(40000, couples);
+			assertEquals(50, map.size());
+		}
+	}
+
+	@Test
+	public void testBatchIsSplitBetweenShards() {
+		try (ShardedMultiMap<Integer, Integer> map = ShardedMultiMap.onLists(3)) {
+			Batch<Integer, Integer> batch = new Batch<>();
+			for (int key = 0; key < 10; key++) {
+				batch.addAll(key, Arrays.asList(1, 2, 1)).remove(key, 1);
+			}
+
+			Batch.Result result = map.apply(batch);
+
+			assertEquals(10, result.getResolutions());
+			assertEquals(30, result.getAdded());
+			assertEquals(10, result.getRemoved());
+			assertEquals(Arrays.asList(2, 1), new ArrayList<>(map.getAll(5)));
+		}
+	}
+
+	@Test
+	public void testReturnedCollectionsAreSnapshots() {
+		try (ShardedMultiMap<String, Integer> map = ShardedMultiMap.onSets(2)) {
+			map.addAll("a", Arrays.asList(1, 2));
+			HashSet<Integer> before = new HashSet<>(map.getAll("a"));
+
+			try {
+				map.getAll("a").add(3);
+				fail("No exception thrown");
+			} catch (UnsupportedOperationException cause) {
+				// OK
+			}
+			map.add("a", 3);
+			assertEquals(new HashSet<>(Arrays.asList(1, 2)), before);
+		}
+	}
+
+	@Test
+	public void testClosedMapRejectsOperations() {
+		ShardedMultiMap<String, Integer> map = ShardedMultiMap.onSets(2);
+		map.addLater("a", 1);
+		map.close();
+		try {
+			map.add("a", 2);
+			fail("No exception thrown");
+		} catch (IllegalStateException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testOperationsAcceptedWhileClosingAreDone() throws InterruptedException {
+		ShardedMultiMap<Integer, Integer> map = ShardedMultiMap.onSets(2);
+		List<CompletableFuture<Boolean>> futures = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> threads = new ArrayList<>();
+		for (int thread = 0; thread < 4; thread++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int value = 0; true; value++) {
+						futures.add(map.addAsync(value % 10, value));
+					}
+				} catch (IllegalStateException cause) {
+					// closed
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(50);
+		map.close();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (CompletableFuture<Boolean> future : futures) {
+			assertTrue(future.isDone());
+		}
+	}
+}
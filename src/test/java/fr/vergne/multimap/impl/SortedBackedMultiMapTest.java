@@ -0,0 +1,141 @@
+package fr.vergne.multimap.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.heterogeneousmap.HeterogeneousMap;
+import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.MultiMapTest;
+import fr.vergne.multimap.NavigableMultiMap;
+
+@RunWith(JUnitPlatform.class)
+public class SortedBackedMultiMapTest implements MultiMapTest<String, Integer> {
+
+	private final Key<Integer> lastKeyIndex = new Key<>(Integer.class);
+	private final Key<Integer> lastValue = new Key<>(Integer.class);
+
+	@Override
+	public MultiMap<String, Integer> createMultiMap(HeterogeneousMap context) {
+		return SortedBackedMultiMap.onSets();
+	}
+
+	@Override
+	public String createValidKey(MultiMap<String, Integer> map, HeterogeneousMap context) {
+		if (!context.containsKey(lastKeyIndex)) {
+			context.put(lastKeyIndex, 0);
+		} else {
+			context.put(lastKeyIndex, context.get(lastKeyIndex) + 1);
+		}
+		return "key " + context.get(lastKeyIndex);
+	}
+
+	@Override
+	public Integer createValidValue(MultiMap<String, Integer> map, String key, HeterogeneousMap context) {
+		if (!context.containsKey(lastValue)) {
+			context.put(lastValue, 0);
+		} else {
+			context.put(lastValue, context.get(lastValue) + 1);
+		}
+		return context.get(lastValue);
+	}
+
+	private static SortedBackedMultiMap<Integer, String> createTimeline() {
+		SortedBackedMultiMap<Integer, String> map = SortedBackedMultiMap.onLists();
+		for (int key = 0; key < 100; key += 10) {
+			map.add(key, "a" + key);
+			map.add(key, "b" + key);
+		}
+		return map;
+	}
+
+	@Test
+	public void testClosestKeys() {
+		SortedBackedMultiMap<Integer, String> map = createTimeline();
+		assertEquals(Integer.valueOf(0), map.firstKey());
+		assertEquals(Integer.valueOf(90), map.lastKey());
+		assertEquals(Integer.valueOf(20), map.floorKey(25));
+		assertEquals(Integer.valueOf(20), map.floorKey(20));
+		assertEquals(Integer.valueOf(10), map.lowerKey(20));
+		assertEquals(Integer.valueOf(30), map.ceilingKey(25));
+		assertEquals(Integer.valueOf(30), map.higherKey(20));
+		assertNull(map.higherKey(90));
+	}
+
+	@Test
+	public void testRangeOnlyContainsItsKeys() {
+		NavigableMultiMap<Integer, String> range = createTimeline().subMap(20, 50);
+		List<Entry<Integer, String>> couples = new ArrayList<>();
+		for (Entry<Integer, String> couple : range) {
+			couples.add(couple);
+		}
+
+		assertEquals(Arrays.asList(20, 30, 40), new ArrayList<>(range.keySet()));
+		assertEquals(6, couples.size());
+		assertFalse(range.containsKey(50));
+		assertEquals(Integer.valueOf(40), range.lastKey());
+		assertEquals(Arrays.asList(90, 80), new ArrayList<>(createTimeline().tailMap(80, true).descendingMap()
+				.keySet()));
+		assertEquals(Arrays.asList(0, 10), new ArrayList<>(createTimeline().headMap(10, true).keySet()));
+	}
+
+	@Test
+	public void testRangeIsLive() {
+		SortedBackedMultiMap<Integer, String> map = createTimeline();
+		NavigableMultiMap<Integer, String> range = map.subMap(20, true, 40, true);
+
+		range.add(25, "c");
+		range.remove(30);
+		map.add(35, "d");
+		map.add(45, "e");
+
+		assertEquals(Arrays.asList("c"), map.getAll(25));
+		assertFalse(map.containsKey(30));
+		assertEquals(Arrays.asList(20, 25, 35, 40), new ArrayList<>(range.keySet()));
+		try {
+			range.add(50, "f");
+			fail("No exception thrown");
+		} catch (IllegalArgumentException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testCustomComparator() {
+		SortedBackedMultiMap<String, Integer> map = SortedBackedMultiMap
+				.onSets(Comparator.comparing(String::length).thenComparing(Comparator.naturalOrder()));
+		map.add("ccc", 1);
+		map.add("a", 2);
+		map.add("bb", 3);
+
+		assertEquals(Arrays.asList("a", "bb", "ccc"), new ArrayList<>(map.navigableKeySet()));
+		assertEquals("bb", map.ceilingKey("aa"));
+	}
+
+	@Test
+	public void testRangeRemovalOutOfRangeReturnsFalse() {
+		SortedBackedMultiMap<Integer, Integer> map = new SortedBackedMultiMap<>(new TreeMap<>(),
+				() -> new HashSet<>(), BackedMultiMap.Lifecycle.EAGER);
+		map.add(1, 1);
+		map.add(4, 4);
+		SortedBackedMultiMap<Integer, Integer> range = map.subMap(0, 3);
+
+		assertFalse(range.remove(4, 4));
+		assertFalse(range.removeAll(4, Arrays.asList(4)));
+		assertFalse(range.remove(5, 5));
+		assertFalse(range.containsKey(5));
+		assertTrue(map.containsCouple(4, 4));
+		assertFalse(map.containsKey(5));
+	}
+}
@@ -0,0 +1,147 @@
+package fr.vergne.multimap.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.multimap.MultiMap;
+import fr.vergne.multimap.impl.BackedMultiMap;
+
+@RunWith(JUnitPlatform.class)
+public class MultiMapWriterTest {
+
+	private <Key, Value> byte[] write(MultiMap<Key, Value> map, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer, int bufferSize) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (MultiMapWriter<Key, Value> writer = new MultiMapWriter<>(Channels.newChannel(output), keySerializer,
+				valueSerializer, bufferSize)) {
+			writer.writeAll(map);
+		}
+		return output.toByteArray();
+	}
+
+	private <Key, Value> MultiMapReader<Key, Value> reader(byte[] bytes, Serializer<Key> keySerializer,
+			Serializer<Value> valueSerializer, int bufferSize) {
+		return new MultiMapReader<>(Channels.newChannel(new ByteArrayInputStream(bytes)), keySerializer,
+				valueSerializer, bufferSize);
+	}
+
+	@Test
+	public void testRoundTripWithSmallBuffers() throws IOException {
+		MultiMap<String, String> map = BackedMultiMap.onLists();
+		map.addAll("a", Arrays.asList("x", "y", "x"));
+		map.addAll("an extremely long key which does not fit in the buffer", Arrays.asList("z"));
+		map.addAll("empty", Collections.emptyList());
+
+		byte[] bytes = write(map, Serializer.ofStrings(), Serializer.ofStrings(), 16);
+		MultiMap<String, String> read = BackedMultiMap.onLists();
+		try (MultiMapReader<String, String> reader = reader(bytes, Serializer.ofStrings(), Serializer.ofStrings(),
+				16)) {
+			reader.readAll(read);
+		}
+
+		assertEquals(map.toMap(), read.toMap());
+	}
+
+	@Test
+	public void testDeltaEncodingOfCloseValues() throws IOException {
+		MultiMap<Integer, Long> map = BackedMultiMap.onLists();
+		List<Long> timestamps = new ArrayList<>();
+		for (long i = 0; i < 1000; i++) {
+			timestamps.add(1_500_000_000_000L + i * 3);
+		}
+		map.addAll(1, timestamps);
+		map.addAll(-2, Arrays.asList(Long.MAX_VALUE, Long.MIN_VALUE, 0L));
+
+		byte[] plain = write(map, Serializer.ofVarInts(), Serializer.ofLongs(), 64);
+		byte[] deltas = write(map, Serializer.ofVarInts(), SequenceSerializer.ofLongDeltas(), 64);
+		assertTrue(deltas.length * 4 < plain.length);
+
+		List<Entry<Integer, List<Long>>> entries = new ArrayList<>();
+		try (MultiMapReader<Integer, Long> reader = reader(deltas, Serializer.ofVarInts(),
+				SequenceSerializer.ofLongDeltas(), 64)) {
+			Entry<Integer, List<Long>> entry;
+			while ((entry = reader.readNext()) != null) {
+				entries.add(entry);
+			}
+			assertNull(reader.readNext());
+		}
+		assertEquals(2, entries.size());
+		assertEquals(timestamps, entries.get(0).getValue());
+		assertEquals(Integer.valueOf(-2), entries.get(1).getKey());
+		assertEquals(Arrays.asList(Long.MAX_VALUE, Long.MIN_VALUE, 0L), entries.get(1).getValue());
+	}
+
+	@Test
+	public void testForEachStreamsCouples() throws IOException {
+		MultiMap<Integer, Integer> map = BackedMultiMap.onSets();
+		map.addAll(1, Arrays.asList(10, 20));
+		map.addAll(2, Arrays.asList(30));
+		byte[] bytes = write(map, Serializer.ofIntegers(), SequenceSerializer.ofIntDeltas(), 32);
+
+		MultiMap<Integer, Integer> read = BackedMultiMap.onSets();
+		reader(bytes, Serializer.ofIntegers(), SequenceSerializer.ofIntDeltas(), 32).forEachCouple(read::add);
+		assertEquals(map.toMap(), read.toMap());
+	}
+
+	@Test
+	public void testTruncatedStreamFails() throws IOException {
+		MultiMap<Integer, Integer> map = BackedMultiMap.onLists();
+		map.addAll(1, Arrays.asList(1, 2, 3));
+		byte[] bytes = write(map, Serializer.ofIntegers(), Serializer.ofIntegers(), 32);
+
+		MultiMapReader<Integer, Integer> reader = reader(Arrays.copyOf(bytes, bytes.length - 3),
+				Serializer.ofIntegers(), Serializer.ofIntegers(), 32);
+		try {
+			reader.readNext();
+			fail("No exception thrown");
+		} catch (EOFException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testInvalidStreamFails() throws IOException {
+		MultiMapReader<Integer, Integer> reader = reader(new byte[] { 1, 2, 3, 4, 5, 6 }, Serializer.ofIntegers(),
+				Serializer.ofIntegers(), 32);
+		try {
+			reader.readNext();
+			fail("No exception thrown");
+		} catch (IOException cause) {
+			// OK
+		}
+	}
+
+	@Test
+	public void testCorruptCountFailsWithoutAllocatingIt() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.putInt(MultiMapWriter.MAGIC);
+		buffer.put(MultiMapWriter.VERSION);
+		VarInts.writeUnsigned(Integer.MAX_VALUE, buffer);
+		buffer.putInt(1);
+		buffer.putInt(2);
+		byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+
+		MultiMapReader<Integer, Integer> reader = reader(bytes, Serializer.ofIntegers(), Serializer.ofIntegers(), 32);
+		try {
+			reader.readNext();
+			fail("No exception thrown");
+		} catch (EOFException cause) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package fr.vergne.multimap.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import fr.vergne.multimap.metrics.MetricsSink.Operation;
+
+@RunWith(JUnitPlatform.class)
+public class StripedMetricsTest {
+
+	@Test
+	public void testHistogramBucketsArePowersOfTwo() {
+		StripedMetrics metrics = new StripedMetrics();
+
+		metrics.recordCardinality(0);
+		metrics.recordCardinality(1);
+		metrics.recordCardinality(2);
+		metrics.recordCardinality(3);
+		metrics.recordCardinality(4);
+		metrics.recordLatency(Operation.ADD, Long.MAX_VALUE);
+
+		long[] histogram = metrics.getCardinalityHistogram();
+		assertEquals(1, histogram[0]);
+		assertEquals(1, histogram[1]);
+		assertEquals(2, histogram[2]);
+		assertEquals(1, histogram[3]);
+		assertEquals(1, metrics.getLatencyHistogram(Operation.ADD)[63]);
+	}
+
+	@Test
+	public void testConcurrentRecordsAreNotLost() throws InterruptedException {
+		StripedMetrics metrics = new StripedMetrics();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int thread = 0; thread < 4; thread++) {
+			threads.add(new Thread(() -> {
+				for (int index = 0; index < 10000; index++) {
+					metrics.record(Operation.GET_ALL, index % 2 == 0);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(20000, metrics.getHits(Operation.GET_ALL));
+		assertEquals(20000, metrics.getMisses(Operation.GET_ALL));
+		metrics.reset();
+		assertEquals(0, metrics.getCount(Operation.GET_ALL));
+	}
+}